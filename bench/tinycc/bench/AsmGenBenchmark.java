@@ -0,0 +1,95 @@
+package tinycc.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tinycc.asmgen.AsmGen;
+import tinycc.asmgen.BranchInstruction;
+import tinycc.asmgen.GPRegister;
+import tinycc.asmgen.ImmediateInstruction;
+import tinycc.asmgen.JumpInstruction;
+import tinycc.asmgen.JumpRegisterInstruction;
+import tinycc.asmgen.MemoryInstruction;
+import tinycc.asmgen.RegisterInstruction;
+import tinycc.asmgen.TextLabel;
+
+/**
+ * Throughput of the assembly emission.
+ *
+ * Every function emits a fixed mix of instructions resembling a stack frame,
+ * a loop and a call, so the benchmark measures the formatting and output cost
+ * of AsmGen independently of any code generator.
+ *
+ * Run with: java -cp bin:bench-bin:libs/* org.openjdk.jmh.Main AsmGenBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AsmGenBenchmark {
+	@Param({ "10", "100", "1000" })
+	public int functions;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 20);
+
+	private static void emitFunction(final AsmGen asm, final int i) {
+		final TextLabel entry = asm.makeTextLabel("f" + i);
+		final TextLabel loop = asm.makeUniqueTextLabel("loop");
+		final TextLabel exit = asm.makeUniqueTextLabel("exit");
+		asm.emitLabel(entry);
+		asm.emitInstruction(ImmediateInstruction.ADDI, GPRegister.SP, -16);
+		asm.emitInstruction(MemoryInstruction.SW, GPRegister.RA, null, 12, GPRegister.SP);
+		asm.emitInstruction(MemoryInstruction.SW, GPRegister.S0, null, 8, GPRegister.SP);
+		asm.emitInstruction(RegisterInstruction.ADD, GPRegister.S0, GPRegister.A0, GPRegister.ZERO);
+		asm.emitLabel(loop);
+		asm.emitInstruction(BranchInstruction.BEQ, GPRegister.S0, GPRegister.ZERO, exit);
+		asm.emitInstruction(RegisterInstruction.MUL, GPRegister.T0, GPRegister.S0, GPRegister.A1);
+		asm.emitInstruction(ImmediateInstruction.ADDI, GPRegister.S0, GPRegister.S0, -1);
+		asm.emitInstruction(MemoryInstruction.LW, GPRegister.T1, null, 4, GPRegister.SP);
+		asm.emitInstruction(JumpInstruction.J, loop);
+		asm.emitLabel(exit);
+		asm.emitInstruction(JumpInstruction.JAL, entry);
+		asm.emitInstruction(MemoryInstruction.LW, GPRegister.S0, null, 8, GPRegister.SP);
+		asm.emitInstruction(MemoryInstruction.LW, GPRegister.RA, null, 12, GPRegister.SP);
+		asm.emitInstruction(ImmediateInstruction.ADDI, GPRegister.SP, 16);
+		asm.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+	}
+
+	@Benchmark
+	public int emit() {
+		buffer.reset();
+		final PrintStream out = new PrintStream(buffer);
+		final AsmGen asm = new AsmGen(out);
+		for (int i = 0; i != functions; ++i)
+			emitFunction(asm, i);
+		asm.flush();
+		return buffer.size();
+	}
+
+	@Benchmark
+	public int emitToChannel() {
+		buffer.reset();
+		final WritableByteChannel channel = Channels.newChannel(buffer);
+		final AsmGen asm = new AsmGen(channel);
+		for (int i = 0; i != functions; ++i)
+			emitFunction(asm, i);
+		asm.flush();
+		return buffer.size();
+	}
+}
@@ -0,0 +1,83 @@
+package tinycc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tinycc.implementation.Compiler;
+import tinycc.parser.Lexer;
+import tinycc.parser.TokenKind;
+
+/**
+ * Throughput of the front end phases on generated programs.
+ *
+ * Run with: java -cp bin:bench-bin:libs/* org.openjdk.jmh.Main FrontEndBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+
+	/**
+	 * Counts the scanned tokens, so JMH reports tokens per second next to the
+	 * lexer throughput.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class TokenCounter {
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tokens = 0;
+		}
+	}
+
+	/**
+	 * A freshly parsed program for every invocation, since the semantic analysis
+	 * runs only once per compiler instance.
+	 */
+	@State(Scope.Thread)
+	public static class ParsedState {
+		Compiler compiler;
+
+		@Setup(Level.Invocation)
+		public void parse(final SourceState source) {
+			compiler = source.parse();
+		}
+	}
+
+	@Benchmark
+	public int lexer(final SourceState source, final TokenCounter counter) {
+		final Lexer lexer = source.newLexer();
+		int n = 0;
+		while (lexer.next().getKind() != TokenKind.EOF)
+			++n;
+		counter.tokens += n;
+		return n;
+	}
+
+	@Benchmark
+	public Compiler parser(final SourceState source) {
+		return source.parse();
+	}
+
+	@Benchmark
+	public Compiler checkSemantics(final ParsedState parsed) {
+		parsed.compiler.checkSemantics();
+		return parsed.compiler;
+	}
+}
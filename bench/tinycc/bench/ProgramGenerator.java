@@ -0,0 +1,123 @@
+package tinycc.bench;
+
+/**
+ * Generates synthetic TinyC programs for the benchmarks.
+ *
+ * Every shape produces a well-typed translation unit whose size grows linearly
+ * with the size parameter, so the benchmarks can be compared across sizes.
+ */
+public final class ProgramGenerator {
+
+	/**
+	 * The shape of a generated program
+	 */
+	public enum Shape {
+		/** One function with deeply nested expressions and statements */
+		DEEP_NESTING,
+		/** Many small functions which call each other */
+		MANY_FUNCTIONS,
+		/** One function with a long flat block of statements */
+		LONG_BLOCKS
+	}
+
+	private ProgramGenerator() {
+	}
+
+	/**
+	 * Generates a program
+	 *
+	 * @param shape The shape of the program
+	 * @param size  The nesting depth, the number of functions or the number of
+	 *              statements, depending on the shape
+	 * @return The source code of the program
+	 */
+	public static String generate(final Shape shape, final int size) {
+		final StringBuilder b = new StringBuilder();
+		switch (shape) {
+		case DEEP_NESTING:
+			deepNesting(b, size);
+			break;
+		case MANY_FUNCTIONS:
+			manyFunctions(b, size);
+			break;
+		case LONG_BLOCKS:
+			longBlocks(b, size);
+			break;
+		default:
+			throw new IllegalArgumentException(shape.toString());
+		}
+		return b.toString();
+	}
+
+	/** Indentation is capped so that the size grows linearly with the depth */
+	private static final int MAX_INDENT = 8;
+
+	private static void indent(final StringBuilder b, final int depth) {
+		for (int i = 0; i != Math.min(depth, MAX_INDENT); ++i)
+			b.append('\t');
+	}
+
+	private static void deepNesting(final StringBuilder b, final int depth) {
+		b.append("int f(int a, int b) {\n");
+		b.append("\tint x = ");
+		for (int i = 0; i != depth; ++i)
+			b.append('(');
+		b.append('a');
+		for (int i = 0; i != depth; ++i)
+			b.append(i % 2 == 0 ? " + " : " * ").append(i).append(')');
+		b.append(";\n");
+		for (int i = 0; i != depth; ++i) {
+			indent(b, i + 1);
+			b.append(i % 2 == 0 ? "if (x < " : "while (x > ").append(i).append(") {\n");
+			indent(b, i + 2);
+			b.append("x = x - b;\n");
+		}
+		for (int i = depth - 1; i >= 0; --i) {
+			indent(b, i + 1);
+			b.append(i % 2 == 0 ? "} else x = b;\n" : "}\n");
+		}
+		b.append("\treturn x;\n");
+		b.append("}\n");
+	}
+
+	private static void manyFunctions(final StringBuilder b, final int count) {
+		for (int i = 0; i != count; ++i) {
+			b.append("int f").append(i).append("(int a, int b) {\n");
+			b.append("\tint x = a * ").append(i).append(" + b;\n");
+			b.append("\tif (x == b) {\n");
+			b.append("\t\tx = x + 1;\n");
+			b.append("\t} else {\n");
+			b.append("\t\tx = x - a;\n");
+			b.append("\t}\n");
+			if (i == 0)
+				b.append("\treturn x;\n");
+			else
+				b.append("\treturn f").append(i - 1).append("(x, a - 1);\n");
+			b.append("}\n");
+		}
+	}
+
+	private static void longBlocks(final StringBuilder b, final int statements) {
+		b.append("int f(int a, int b) {\n");
+		b.append("\tint x = a;\n");
+		b.append("\tint y = b;\n");
+		for (int i = 0; i != statements; ++i) {
+			switch (i % 4) {
+			case 0:
+				b.append("\tx = x + y * ").append(i).append(";\n");
+				break;
+			case 1:
+				b.append("\ty = y - x / ").append(i).append(";\n");
+				break;
+			case 2:
+				b.append("\tint v").append(i).append(" = x - y;\n");
+				break;
+			default:
+				b.append("\tif (x != y) x = x + v").append(i - 1).append("; else y = y + 1;\n");
+				break;
+			}
+		}
+		b.append("\treturn x + y;\n");
+		b.append("}\n");
+	}
+}
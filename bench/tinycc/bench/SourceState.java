@@ -0,0 +1,54 @@
+package tinycc.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import tinycc.diagnostic.PrintDiagnostic;
+import tinycc.implementation.Compiler;
+import tinycc.parser.Lexer;
+
+/**
+ * The generated input program shared by all benchmarks of a trial.
+ */
+@State(Scope.Benchmark)
+public class SourceState {
+	@Param({ "DEEP_NESTING", "MANY_FUNCTIONS", "LONG_BLOCKS" })
+	public ProgramGenerator.Shape shape;
+
+	@Param({ "10", "100", "1000" })
+	public int size;
+
+	char[] source;
+
+	/** Diagnostics go nowhere, the generated programs are error free */
+	final PrintDiagnostic diagnostic = new PrintDiagnostic(new PrintStream(new OutputStream() {
+		@Override
+		public void write(final int b) {
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+		}
+	}));
+
+	@Setup(Level.Trial)
+	public void generate() {
+		source = ProgramGenerator.generate(shape, size).toCharArray();
+	}
+
+	Lexer newLexer() {
+		return new Lexer(diagnostic, source, source.length, "bench.c");
+	}
+
+	Compiler parse() {
+		final Compiler compiler = new Compiler(diagnostic);
+		compiler.parseTranslationUnit(newLexer());
+		return compiler;
+	}
+}
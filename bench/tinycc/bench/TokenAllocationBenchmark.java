@@ -0,0 +1,142 @@
+package tinycc.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.type.Type;
+import tinycc.parser.ASTFactory;
+import tinycc.parser.Lexer;
+import tinycc.parser.Parser;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+/**
+ * Allocations of the front end, reported by the JMH GC profiler as
+ * gc.alloc.rate.norm (bytes per operation).
+ *
+ * Two operations are measured: lexing into Token objects, which is what the
+ * parser paid for every token before the compact token stream, and parsing
+ * through the token stream with a factory that builds no AST, which leaves only
+ * the allocations of the parser itself.
+ *
+ * Run with: java -cp bin:bench-bin:libs/* org.openjdk.jmh.Main TokenAllocationBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenAllocationBenchmark {
+
+	/**
+	 * A factory that discards every node, so only the parser allocates.
+	 */
+	private static final class NullFactory implements ASTFactory {
+		@Override
+		public Statement createBlockStatement(final Locatable loc, final List<Statement> statements) {
+			return null;
+		}
+
+		@Override
+		public Statement createDeclarationStatement(final Type type, final Token name, final Expression init) {
+			return null;
+		}
+
+		@Override
+		public Statement createExpressionStatement(final Locatable loc, final Expression expression) {
+			return null;
+		}
+
+		@Override
+		public Statement createIfStatement(final Locatable loc, final Expression condition, final Statement consequence,
+				final Statement alternative) {
+			return null;
+		}
+
+		@Override
+		public Statement createReturnStatement(final Locatable loc, final Expression expression) {
+			return null;
+		}
+
+		@Override
+		public Statement createWhileStatement(final Locatable loc, final Expression condition, final Statement body) {
+			return null;
+		}
+
+		@Override
+		public Type createFunctionType(final Type returnType, final List<Type> parameters) {
+			return null;
+		}
+
+		@Override
+		public Type createPointerType(final Type pointsTo) {
+			return null;
+		}
+
+		@Override
+		public Type createBaseType(final TokenKind kind) {
+			return null;
+		}
+
+		@Override
+		public Expression createBinaryExpression(final Token operator, final Expression left, final Expression right) {
+			return null;
+		}
+
+		@Override
+		public Expression createCallExpression(final Token token, final Expression callee,
+				final List<Expression> arguments) {
+			return null;
+		}
+
+		@Override
+		public Expression createConditionalExpression(final Token token, final Expression condition,
+				final Expression consequence, final Expression alternative) {
+			return null;
+		}
+
+		@Override
+		public Expression createUnaryExpression(final Token operator, final boolean postfix, final Expression operand) {
+			return null;
+		}
+
+		@Override
+		public Expression createPrimaryExpression(final Token token) {
+			return null;
+		}
+
+		@Override
+		public void createExternalDeclaration(final Type type, final Token name) {
+		}
+
+		@Override
+		public void createFunctionDefinition(final Type type, final Token name, final List<Token> parameterNames,
+				final Statement body) {
+		}
+	}
+
+	@Benchmark
+	public int lexTokens(final SourceState source) {
+		final Lexer lexer = source.newLexer();
+		int n = 0;
+		while (lexer.next().getKind() != TokenKind.EOF)
+			++n;
+		return n;
+	}
+
+	@Benchmark
+	public void parseWithoutAst(final SourceState source) {
+		new Parser(source.diagnostic, source.newLexer(), new NullFactory()).parseTranslationUnit();
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Native client for the tinycc compile server (see CompileServer.java for the
+ * protocol). It takes the same arguments as tinycc and needs no JVM, so running
+ * it once per file costs a few milliseconds on top of the compilation itself.
+ *
+ * The port is taken from TINYCC_PORT (default 4711), the token from
+ * ~/.tinycc/server-PORT.token. If no server is running, or the input is read
+ * from standard input, the program named by TINYCC_FALLBACK (the tinycc script)
+ * is run in its place with the same arguments.
+ *
+ * Build with: cc -O2 -o tinycc-client tinycc-client.c
+ */
+#include <arpa/inet.h>
+#include <errno.h>
+#include <limits.h>
+#include <netinet/in.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <unistd.h>
+
+#define DEFAULT_PORT 4711
+#define TOKEN_MAX 256
+
+enum { STDOUT_TAG = 'o', STDERR_TAG = 'e', EXIT_TAG = 'x' };
+
+static void fallback(char **argv)
+{
+	const char *compiler = getenv("TINYCC_FALLBACK");
+	if (compiler == NULL) {
+		fprintf(stderr, "error: no compile server is running and TINYCC_FALLBACK is not set\n");
+		exit(1);
+	}
+	argv[0] = (char *) compiler;
+	execv(compiler, argv);
+	fprintf(stderr, "error: cannot run %s: %s\n", compiler, strerror(errno));
+	exit(1);
+}
+
+static int get_port(void)
+{
+	const char *s = getenv("TINYCC_PORT");
+	char *end;
+	long port;
+	if (s == NULL)
+		return DEFAULT_PORT;
+	port = strtol(s, &end, 10);
+	if (*s == '\0' || *end != '\0' || port < 1 || port > 65535)
+		return DEFAULT_PORT;
+	return (int) port;
+}
+
+static int reads_standard_input(int argc, char **argv)
+{
+	int i;
+	for (i = 1; i < argc; ++i) {
+		if (strcmp(argv[i], "-") == 0 && (i == 1 || strcmp(argv[i - 1], "-o") != 0))
+			return 1;
+	}
+	return 0;
+}
+
+/* Reads the token, returns its length or -1 if there is no server. */
+static int read_token(int port, char *token)
+{
+	const char *home = getenv("HOME");
+	char path[PATH_MAX];
+	FILE *f;
+	size_t n;
+	if (home == NULL)
+		return -1;
+	snprintf(path, sizeof path, "%s/.tinycc/server-%d.token", home, port);
+	f = fopen(path, "rb");
+	if (f == NULL)
+		return -1;
+	n = fread(token, 1, TOKEN_MAX, f);
+	fclose(f);
+	return (int) n;
+}
+
+static void write_all(int fd, const void *data, size_t len)
+{
+	const char *p = data;
+	while (len != 0) {
+		ssize_t n = write(fd, p, len);
+		if (n < 0 && errno == EINTR)
+			continue;
+		if (n <= 0) {
+			fprintf(stderr, "error: compile server: %s\n", strerror(errno));
+			exit(1);
+		}
+		p += n;
+		len -= (size_t) n;
+	}
+}
+
+/* Reads exactly len bytes, returns 0 at the end of the stream. */
+static int read_all(int fd, void *data, size_t len)
+{
+	char *p = data;
+	while (len != 0) {
+		ssize_t n = read(fd, p, len);
+		if (n < 0 && errno == EINTR)
+			continue;
+		if (n < 0) {
+			fprintf(stderr, "error: compile server: %s\n", strerror(errno));
+			exit(1);
+		}
+		if (n == 0)
+			return 0;
+		p += n;
+		len -= (size_t) n;
+	}
+	return 1;
+}
+
+/* The request is built in one buffer and sent with a single write. */
+struct buffer {
+	char *data;
+	size_t len, cap;
+};
+
+static void put(struct buffer *b, const void *data, size_t len)
+{
+	if (b->len + len > b->cap) {
+		while (b->len + len > b->cap)
+			b->cap = b->cap ? 2 * b->cap : 4096;
+		b->data = realloc(b->data, b->cap);
+		if (b->data == NULL) {
+			fputs("error: out of memory\n", stderr);
+			exit(1);
+		}
+	}
+	memcpy(b->data + b->len, data, len);
+	b->len += len;
+}
+
+static void put_int(struct buffer *b, uint32_t value)
+{
+	uint32_t be = htonl(value);
+	put(b, &be, 4);
+}
+
+static void put_string(struct buffer *b, const char *s, size_t len)
+{
+	put_int(b, (uint32_t) len);
+	put(b, s, len);
+}
+
+int main(int argc, char **argv)
+{
+	char token[TOKEN_MAX];
+	char cwd[PATH_MAX];
+	char chunk[65536];
+	struct sockaddr_in address;
+	struct buffer request = { NULL, 0, 0 };
+	int port = get_port();
+	int token_len, fd, i;
+
+	if (reads_standard_input(argc, argv))
+		fallback(argv);
+	token_len = read_token(port, token);
+	if (token_len < 0)
+		fallback(argv);
+
+	fd = socket(AF_INET, SOCK_STREAM, 0);
+	if (fd < 0) {
+		fprintf(stderr, "error: compile server: %s\n", strerror(errno));
+		return 1;
+	}
+	memset(&address, 0, sizeof address);
+	address.sin_family = AF_INET;
+	address.sin_port = htons((uint16_t) port);
+	address.sin_addr.s_addr = htonl(INADDR_LOOPBACK);
+	if (connect(fd, (struct sockaddr *) &address, sizeof address) != 0) {
+		if (errno == ECONNREFUSED) {
+			close(fd);
+			fallback(argv);
+		}
+		fprintf(stderr, "error: compile server: %s\n", strerror(errno));
+		return 1;
+	}
+
+	if (getcwd(cwd, sizeof cwd) == NULL) {
+		fprintf(stderr, "error: cannot get the working directory: %s\n", strerror(errno));
+		return 1;
+	}
+	put_string(&request, token, (size_t) token_len);
+	put_string(&request, cwd, strlen(cwd));
+	put_int(&request, (uint32_t) (argc - 1));
+	for (i = 1; i < argc; ++i)
+		put_string(&request, argv[i], strlen(argv[i]));
+	write_all(fd, request.data, request.len);
+
+	for (;;) {
+		unsigned char tag;
+		uint32_t value;
+		if (!read_all(fd, &tag, 1) || !read_all(fd, &value, 4))
+			break;
+		value = ntohl(value);
+		if (tag == EXIT_TAG)
+			return (int) value;
+		while (value != 0) {
+			size_t n = value < sizeof chunk ? value : sizeof chunk;
+			if (!read_all(fd, chunk, n))
+				goto rejected;
+			write_all(tag == STDERR_TAG ? 2 : 1, chunk, n);
+			value -= (uint32_t) n;
+		}
+	}
+rejected:
+	fprintf(stderr, "error: compile server: the request was rejected, is ~/.tinycc/server-%d.token stale?\n", port);
+	return 1;
+}
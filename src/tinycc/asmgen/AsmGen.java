@@ -1,13 +1,22 @@
 package tinycc.asmgen;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import tinycc.util.Util;
 
 /**
  * Helper class for the creation of MIPS code.
+ *
+ * The emitted text is collected in a buffer and written out in chunks, so
+ * flush() has to be called after the last line.
  */
 public class AsmGen {
 
@@ -30,9 +39,18 @@ public String toString() {
         }
     }
 
+    // The text is written out once it reaches this length
+    private static final int CHUNK_SIZE = 1 << 16;
+    static final String lineSeparator = System.lineSeparator();
+
     private final PrintStream out;
+    private final WritableByteChannel channel;
+    private final StringBuilder text;
+    private ByteBuffer bytes;
     private Segment currentSegment = Segment.TEXT;
     private int labelCounter = 0;
+    // The recorded lines in buffered mode, null while printing directly
+    private List<AsmLine> lines;
 
     /**
      * Initializes a new MIPS assembly generator
@@ -41,14 +59,31 @@ public String toString() {
      * @remarks The generator will write any output to the given output stream
      */
     public AsmGen(final PrintStream out) {
-        if (out == null) {
+        this(out, null, new StringBuilder(2 * CHUNK_SIZE));
+    }
+
+    /**
+     * Initializes a new MIPS assembly generator writing to a channel, usually
+     * the FileChannel of the output file
+     *
+     * @param channel The channel to use
+     * @remarks The generator will write any output to the given channel
+     */
+    public AsmGen(final WritableByteChannel channel) {
+        this(null, channel, new StringBuilder(2 * CHUNK_SIZE));
+    }
+
+    private AsmGen(final PrintStream out, final WritableByteChannel channel, final StringBuilder text) {
+        if (out == null && channel == null) {
             throw new IllegalArgumentException();
         }
         this.out = out;
+        this.channel = channel;
+        this.text = text;
     }
 
     public AsmGen(AsmGen printStreamProvider) {
-        this(printStreamProvider.out);
+        this(printStreamProvider.out, printStreamProvider.channel, printStreamProvider.text);
         if (!printStreamProvider.usedNames.isEmpty() || printStreamProvider.labelCounter != 0) {
             throw new IllegalStateException("Attempted to clone used MipsASMGen!");
         }
@@ -65,7 +100,89 @@ private void switchSegment(final Segment newSegment) {
         }
         if (currentSegment != newSegment) {
             currentSegment = newSegment;
-            out.printf("\t%s\n", newSegment);
+            add(AsmLine.directive("\t" + newSegment + "\n"));
+        }
+    }
+
+    private void add(final AsmLine line) {
+        if (lines != null) {
+            lines.add(line);
+        } else {
+            print(line);
+        }
+    }
+
+    private void print(final AsmLine line) {
+        line.print(text);
+        if (text.length() >= CHUNK_SIZE) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes the collected text to the output.
+     */
+    private void drain() {
+        if (text.length() == 0) {
+            return;
+        }
+        if (channel == null) {
+            out.append(text);
+            text.setLength(0);
+            return;
+        }
+        if (bytes == null) {
+            bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        }
+        try {
+            // The text is ASCII, escapeString() escapes everything else
+            for (int i = 0, n = text.length(); i != n;) {
+                bytes.clear();
+                for (final int end = Math.min(n, i + CHUNK_SIZE); i != end; ++i) {
+                    bytes.put((byte) text.charAt(i));
+                }
+                bytes.flip();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        text.setLength(0);
+    }
+
+    /**
+     * Starts recording the emitted lines instead of printing them, so the
+     * peephole optimizer can rewrite them when they are flushed.
+     *
+     * @see #flush()
+     */
+    public void startBuffering() {
+        if (lines == null) {
+            lines = new ArrayList<AsmLine>();
+        }
+    }
+
+    /**
+     * Writes all emitted text to the output. In buffered mode the peephole
+     * optimizer runs on the recorded lines first, and the generator prints
+     * directly afterwards.
+     *
+     * @see Peephole
+     */
+    public void flush() {
+        if (lines != null) {
+            final List<AsmLine> recorded = lines;
+            lines = null;
+            Peephole.optimize(recorded);
+            for (final AsmLine line : recorded) {
+                print(line);
+            }
+        }
+        drain();
+        if (out != null) {
+            out.flush();
         }
     }
 
@@ -171,10 +288,7 @@ public DataLabel makeUniqueDataLabel(final String prefix) {
 
     private void emitLabel(final Segment segment, final Label l) {
         switchSegment(segment);
-        if (l.isExternalVisible()) {
-            out.printf("\t.globl %s\n", l);
-        }
-        out.printf("%s:\n", l);
+        add(AsmLine.label(l));
     }
 
     /**
@@ -195,14 +309,14 @@ public void emitLabel(final TextLabel l) {
         emitLabel(Segment.TEXT, l);
     }
 
-    private final String insnFmt = "\t%-7s ";
+    static final String insnFmt = "\t%-7s ";
 
-    private void emit(final String fmt, final Object insn, final Object... args) {
-        if (insn == null) {
+    private void emit(final AsmLine line) {
+        if (line.insn == null) {
             throw new IllegalArgumentException();
         }
         switchSegment(Segment.TEXT);
-        out.printf(insnFmt, insn).printf(fmt, args).println();
+        add(line);
     }
 
     /**
@@ -220,19 +334,7 @@ public void emitInstruction(final MemoryInstruction insn, final GPRegister dest,
         if (insn == null || dest == null) {
             throw new IllegalArgumentException();
         }
-        switchSegment(Segment.TEXT);
-        out.printf(insnFmt + "%s ", insn, dest);
-        if (label != null) {
-            out.print(label);
-        }
-        if (label != null) {
-            out.print('+');
-        }
-        out.print(offset);
-        if (register != null) {
-            out.printf("(%s)", register);
-        }
-        out.println();
+        emit(AsmLine.memory(insn, dest, label, offset, true, register));
     }
 
     /**
@@ -250,15 +352,7 @@ public void emitInstruction(final MemoryInstruction insn, final GPRegister dest,
         if (insn == null || dest == null) {
             throw new IllegalArgumentException();
         }
-        switchSegment(Segment.TEXT);
-        out.printf(insnFmt + "%s ", insn, dest);
-        if (label != null) {
-            out.print(label);
-        }
-        if (register != null) {
-            out.printf("%s", register);
-        }
-        out.println();
+        emit(AsmLine.memory(insn, dest, label, 0, false, register));
     }
 
     /**
@@ -275,7 +369,7 @@ public void emitInstruction(final RegisterInstruction insn, final GPRegister des
         if (dest == null || left == null || right == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s %s %s", insn, dest, left, right);
+        emit(AsmLine.register(insn, dest, left, right));
     }
 
     /**
@@ -303,7 +397,7 @@ public void emitInstruction(final RegisterInstruction insn, final GPRegister des
         if (dest == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s %s", insn, dest, dest);
+        emit(AsmLine.register(insn, dest, dest, null));
     }
 
     /**
@@ -320,14 +414,10 @@ public void emitInstruction(final ImmediateInstruction insn, final GPRegister de
         if (dest == null || left == null || !insn.getRange().inRange(imm)) {
             throw new IllegalArgumentException();
         }
-        if (insn == ImmediateInstruction.LUI) {
-            if (left != GPRegister.ZERO) {
-                throw new IllegalArgumentException();
-            }
-            emit("%s %d", insn, dest, imm);
-        } else {
-            emit("%s %s %d", insn, dest, left, imm);
+        if (insn == ImmediateInstruction.LUI && left != GPRegister.ZERO) {
+            throw new IllegalArgumentException();
         }
+        emit(AsmLine.immediate(insn, dest, left, imm));
     }
 
     /**
@@ -349,7 +439,7 @@ public void emitInstruction(final ImmediateInstruction insn, final GPRegister de
      *
      * @param insn   The branch-instruction type to emit.
      * @param left   The left operand for a conditional branch.
-     * @param right  The right operand for a conditional branch (BEQ and BNE). Must be ZERO for all other branch-instruction types.
+     * @param right  The right operand for a conditional branch (BEQ, BNE, BLT and BGE). Must be ZERO for all other branch-instruction types.
      * @param target The target text label to jump to.
      * @remarks Emits into the text segment.
      */
@@ -361,14 +451,16 @@ public void emitInstruction(final BranchInstruction insn, final GPRegister left,
         switch (insn) {
             case BEQ:
             case BNE:
-                emit("%s %s %s", insn, left, right, target);
+            case BLT:
+            case BGE:
+                emit(AsmLine.branch(insn, left, right, target));
                 break;
 
             default:
                 if (right != GPRegister.ZERO) {
                     throw new IllegalArgumentException();
                 }
-                emit("%s %s", insn, left, target);
+                emit(AsmLine.branch(insn, left, null, target));
                 break;
         }
     }
@@ -396,7 +488,7 @@ public void emitInstruction(final JumpInstruction insn, final TextLabel target)
         if (target == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s", insn, target);
+        emit(AsmLine.jump(insn, target));
     }
 
     /**
@@ -410,7 +502,7 @@ public void emitInstruction(final JumpRegisterInstruction insn, final GPRegister
         if (target == null) {
             throw new IllegalArgumentException();
         }
-        emit("%s", insn, target);
+        emit(AsmLine.jumpRegister(insn, target));
     }
 
     /**
@@ -421,8 +513,7 @@ public void emitInstruction(final JumpRegisterInstruction insn, final GPRegister
      */
     public void emitASCIIZ(final String string) {
         switchSegment(Segment.DATA);
-        out.print("\t.asciiz ");
-        out.println(Util.escapeString(string, '"'));
+        add(AsmLine.directive("\t.asciiz " + Util.escapeString(string, '"') + lineSeparator));
     }
 
     /**
@@ -445,7 +536,7 @@ public void emitASCIIZ(final DataLabel label, final String string) {
      */
     public void emitByte(final byte value) {
         switchSegment(Segment.DATA);
-        out.printf("\t.byte %d\n", value);
+        add(AsmLine.directive("\t.byte " + value + "\n"));
     }
 
     /**
@@ -468,7 +559,7 @@ public void emitByte(final DataLabel label, final byte value) {
      */
     public void emitHalf(final short value) {
         switchSegment(Segment.DATA);
-        out.printf("\t.half %d\n", value);
+        add(AsmLine.directive("\t.half " + value + "\n"));
     }
 
     /**
@@ -491,7 +582,7 @@ public void emitHalf(final DataLabel label, final short value) {
      */
     public void emitWord(final int value) {
         switchSegment(Segment.DATA);
-        out.printf("\t.word %d\n", value);
+        add(AsmLine.directive("\t.word " + value + "\n"));
     }
 
     /**
@@ -0,0 +1,239 @@
+package tinycc.asmgen;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A line of assembly recorded by an AsmGen in buffered mode: an instruction
+ * with its typed operands, a label or a directive.
+ *
+ * @see AsmGen#startBuffering()
+ */
+final class AsmLine {
+	/** The instructions formatted as AsmGen.insnFmt, padded for the operands */
+	private static final Map<Object, String> MNEMONICS = new IdentityHashMap<Object, String>();
+
+	static {
+		final Object[][] instructions = { MemoryInstruction.values(), RegisterInstruction.values(),
+				ImmediateInstruction.values(), BranchInstruction.values(), JumpInstruction.values(),
+				JumpRegisterInstruction.values() };
+		for (final Object[] values : instructions) {
+			for (final Object insn : values) {
+				MNEMONICS.put(insn, String.format(AsmGen.insnFmt, insn));
+			}
+		}
+	}
+
+	enum Kind {
+		DIRECTIVE, LABEL, MEMORY, REGISTER, IMMEDIATE, BRANCH, JUMP, JUMP_REGISTER
+	}
+
+	final Kind kind;
+	/** The instruction, one of the instruction enums, null for labels and directives */
+	final Object insn;
+	GPRegister dest;
+	GPRegister left;
+	GPRegister right;
+	/** The label of a label line, the target of a jump or branch, or the label of a memory access */
+	final Label label;
+	final int imm;
+	/** Whether a memory access prints its offset */
+	final boolean hasOffset;
+	/** The text of a directive, including the line break */
+	final String text;
+
+	private AsmLine(final Kind kind, final Object insn, final GPRegister dest, final GPRegister left,
+			final GPRegister right, final Label label, final int imm, final boolean hasOffset, final String text) {
+		this.kind = kind;
+		this.insn = insn;
+		this.dest = dest;
+		this.left = left;
+		this.right = right;
+		this.label = label;
+		this.imm = imm;
+		this.hasOffset = hasOffset;
+		this.text = text;
+	}
+
+	static AsmLine directive(final String text) {
+		return new AsmLine(Kind.DIRECTIVE, null, null, null, null, null, 0, false, text);
+	}
+
+	static AsmLine label(final Label label) {
+		return new AsmLine(Kind.LABEL, null, null, null, null, label, 0, false, null);
+	}
+
+	/**
+	 * A load or store. dest is the register loaded or stored, left the address
+	 * register (may be null).
+	 */
+	static AsmLine memory(final MemoryInstruction insn, final GPRegister dest, final Label label, final int offset,
+			final boolean hasOffset, final GPRegister register) {
+		return new AsmLine(Kind.MEMORY, insn, dest, register, null, label, offset, hasOffset, null);
+	}
+
+	/**
+	 * A register instruction, right is null for one that only names its operand.
+	 */
+	static AsmLine register(final RegisterInstruction insn, final GPRegister dest, final GPRegister left,
+			final GPRegister right) {
+		return new AsmLine(Kind.REGISTER, insn, dest, left, right, null, 0, false, null);
+	}
+
+	static AsmLine immediate(final ImmediateInstruction insn, final GPRegister dest, final GPRegister left,
+			final int imm) {
+		return new AsmLine(Kind.IMMEDIATE, insn, dest, left, null, null, imm, false, null);
+	}
+
+	/**
+	 * A branch, right is null for the branches that compare with zero.
+	 */
+	static AsmLine branch(final BranchInstruction insn, final GPRegister left, final GPRegister right,
+			final TextLabel target) {
+		return new AsmLine(Kind.BRANCH, insn, null, left, right, target, 0, false, null);
+	}
+
+	static AsmLine jump(final JumpInstruction insn, final TextLabel target) {
+		return new AsmLine(Kind.JUMP, insn, null, null, null, target, 0, false, null);
+	}
+
+	static AsmLine jumpRegister(final JumpRegisterInstruction insn, final GPRegister target) {
+		return new AsmLine(Kind.JUMP_REGISTER, insn, null, target, null, null, 0, false, null);
+	}
+
+	boolean isInstruction() {
+		return kind != Kind.DIRECTIVE && kind != Kind.LABEL;
+	}
+
+	boolean isStore() {
+		return insn == MemoryInstruction.SB || insn == MemoryInstruction.SH || insn == MemoryInstruction.SW;
+	}
+
+	boolean isCall() {
+		return insn == JumpInstruction.JAL || insn == JumpRegisterInstruction.JALR;
+	}
+
+	/**
+	 * Returns whether this is a move, add dest left zero.
+	 */
+	boolean isMove() {
+		return insn == RegisterInstruction.ADD && right == GPRegister.ZERO && dest != left;
+	}
+
+	/**
+	 * Returns the register this instruction writes, or null.
+	 */
+	GPRegister written() {
+		switch (kind) {
+			case REGISTER:
+			case IMMEDIATE:
+				return dest;
+			case MEMORY:
+				return isStore() ? null : dest;
+			case JUMP:
+			case JUMP_REGISTER:
+				return isCall() ? GPRegister.RA : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Returns whether this instruction reads the given register explicitly.
+	 */
+	boolean reads(final GPRegister r) {
+		switch (kind) {
+			case REGISTER:
+				// The one-operand form reads its destination
+				return left == r || right == r || right == null && dest == r;
+			case IMMEDIATE:
+				return insn != ImmediateInstruction.LUI && left == r;
+			case MEMORY:
+				return left == r || isStore() && dest == r;
+			case BRANCH:
+			case JUMP_REGISTER:
+				return left == r || right == r;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Replaces the explicit reads of a register, see reads().
+	 */
+	void replaceReads(final GPRegister from, final GPRegister to) {
+		if (kind == Kind.REGISTER && right == null && dest == from) {
+			// The one-operand form cannot name a different source
+			throw new IllegalStateException();
+		}
+		if (left == from && !(kind == Kind.IMMEDIATE && insn == ImmediateInstruction.LUI))
+			left = to;
+		if (right == from)
+			right = to;
+		if (kind == Kind.MEMORY && isStore() && dest == from)
+			dest = to;
+	}
+
+	/**
+	 * Appends this line to the output text of an AsmGen.
+	 */
+	void print(final StringBuilder out) {
+		switch (kind) {
+			case DIRECTIVE:
+				out.append(text);
+				return;
+			case LABEL:
+				if (label.isExternalVisible()) {
+					out.append("\t.globl ").append(label).append('\n');
+				}
+				out.append(label).append(":\n");
+				return;
+			case MEMORY:
+				out.append(MNEMONICS.get(insn)).append(dest).append(' ');
+				if (label != null) {
+					out.append(label);
+				}
+				if (hasOffset) {
+					if (label != null) {
+						out.append('+');
+					}
+					out.append(imm);
+				}
+				if (left != null) {
+					if (hasOffset) {
+						out.append('(').append(left).append(')');
+					} else {
+						out.append(left);
+					}
+				}
+				break;
+			case REGISTER:
+				out.append(MNEMONICS.get(insn)).append(dest).append(' ').append(right == null ? dest : left);
+				if (right != null) {
+					out.append(' ').append(right);
+				}
+				break;
+			case IMMEDIATE:
+				out.append(MNEMONICS.get(insn)).append(dest).append(' ');
+				if (insn != ImmediateInstruction.LUI) {
+					out.append(left).append(' ');
+				}
+				out.append(imm);
+				break;
+			case BRANCH:
+				out.append(MNEMONICS.get(insn)).append(left).append(' ');
+				if (right != null) {
+					out.append(right).append(' ');
+				}
+				out.append(label);
+				break;
+			case JUMP:
+				out.append(MNEMONICS.get(insn)).append(label);
+				break;
+			case JUMP_REGISTER:
+				out.append(MNEMONICS.get(insn)).append(left);
+				break;
+		}
+		out.append(AsmGen.lineSeparator);
+	}
+}
@@ -10,6 +10,8 @@
 public enum BranchInstruction {
 	BEQ("beq"),
 	BNE("bne"),
+	BLT("blt"),
+	BGE("bge"),
 	BLEZ("blez"),
 	BGTZ("bgtz"),
 	BLTZ("bltz"),
@@ -9,16 +9,17 @@
  * @see MipsAsmGenerator
  */
 public enum ImmediateInstruction {
-	ADDI ("addi",  ImmediateRange.SIGNED16),
-	ANDI ("andi",  ImmediateRange.UNSIGNED16),
-	LUI  ("lui",   ImmediateRange.UNSIGNED16),
-	ORI  ("ori",   ImmediateRange.UNSIGNED16),
+	// RISC-V sign-extends the 12 bit immediates of all I-type instructions
+	ADDI ("addi",  ImmediateRange.SIGNED12),
+	ANDI ("andi",  ImmediateRange.SIGNED12),
+	LUI  ("lui",   ImmediateRange.UNSIGNED20),
+	ORI  ("ori",   ImmediateRange.SIGNED12),
 	SLLI  ("slli",   ImmediateRange.UNSIGNED5),
-	SLTI ("slti",  ImmediateRange.SIGNED16),
-	SLTIU("sltiu", ImmediateRange.SIGNED16),
+	SLTI ("slti",  ImmediateRange.SIGNED12),
+	SLTIU("sltiu", ImmediateRange.SIGNED12),
 	SRAI  ("srai",   ImmediateRange.UNSIGNED5),
 	SRLI  ("srli",   ImmediateRange.UNSIGNED5),
-	XORI ("xori",  ImmediateRange.UNSIGNED16);
+	XORI ("xori",  ImmediateRange.SIGNED12);
 
 	private final String name;
 	private final ImmediateRange range;
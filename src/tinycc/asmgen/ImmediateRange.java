@@ -1,9 +1,11 @@
 package tinycc.asmgen;
 
 public enum ImmediateRange {
-	SIGNED16  (-32768, 32767),
-	UNSIGNED16(     0, 65535),
-	UNSIGNED5 (     0,    31);
+	SIGNED12  ( -2048,    2047),
+	SIGNED16  (-32768,   32767),
+	UNSIGNED16(     0,   65535),
+	UNSIGNED20(     0, 1048575),
+	UNSIGNED5 (     0,      31);
 
 	private final int min;
 	private final int max;
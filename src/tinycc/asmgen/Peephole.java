@@ -0,0 +1,325 @@
+package tinycc.asmgen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole optimizer for the lines recorded by an AsmGen in buffered mode.
+ *
+ * The passes run until none of them changes anything:
+ * <ul>
+ * <li>jumps and branches to the label right after them and code after an
+ * unconditional jump up to the next label are removed,</li>
+ * <li>local text labels no instruction refers to are removed,</li>
+ * <li>a word load from the address a word was just stored to reads the stored
+ * register instead,</li>
+ * <li>a move from a register that dies afterwards renames the instruction that
+ * computed it, and otherwise the reads of the moved register are renamed
+ * until it dies, removing the move.</li>
+ * </ul>
+ *
+ * Whether a register dies follows the branches and jumps, with the calling
+ * convention at calls (t registers die, a registers hold arguments) and
+ * returns (only t registers die).
+ */
+final class Peephole {
+	private static final EnumSet<GPRegister> TEMPORARIES = EnumSet.of(GPRegister.T0, GPRegister.T1, GPRegister.T2,
+			GPRegister.T3, GPRegister.T4, GPRegister.T5, GPRegister.T6);
+	private static final EnumSet<GPRegister> ARGUMENTS = EnumSet.range(GPRegister.A0, GPRegister.A7);
+
+	private final List<AsmLine> lines;
+	private final Map<Label, Integer> labels = new HashMap<Label, Integer>();
+
+	private Peephole(final List<AsmLine> lines) {
+		this.lines = lines;
+	}
+
+	static void optimize(final List<AsmLine> lines) {
+		final Peephole peephole = new Peephole(lines);
+		boolean changed = true;
+		while (changed) {
+			changed = peephole.removeJumps();
+			changed |= peephole.removeLabels();
+			changed |= peephole.forwardStores();
+			changed |= peephole.removeMoves();
+		}
+	}
+
+	private static boolean isReserved(final GPRegister r) {
+		return r == GPRegister.ZERO || r == GPRegister.SP || r == GPRegister.RA || r == GPRegister.GP;
+	}
+
+	private static boolean isTransfer(final AsmLine line) {
+		return line.kind == AsmLine.Kind.BRANCH || line.kind == AsmLine.Kind.JUMP
+				|| line.kind == AsmLine.Kind.JUMP_REGISTER;
+	}
+
+	// ------------ Jumps and labels ------------
+
+	private boolean removeJumps() {
+		boolean changed = false;
+		for (int i = 0; i < lines.size(); ++i) {
+			final AsmLine line = lines.get(i);
+			if (line.insn == JumpInstruction.J || line.insn == JumpRegisterInstruction.JR) {
+				// Nothing reaches the code up to the next label
+				while (i + 1 < lines.size() && lines.get(i + 1).isInstruction()) {
+					lines.remove(i + 1);
+					changed = true;
+				}
+			}
+			if (line.kind != AsmLine.Kind.BRANCH && line.insn != JumpInstruction.J) {
+				continue;
+			}
+			for (int j = i + 1; j < lines.size() && lines.get(j).kind == AsmLine.Kind.LABEL; ++j) {
+				if (lines.get(j).label == line.label) {
+					lines.remove(i--);
+					changed = true;
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	private boolean removeLabels() {
+		final Set<Label> used = new HashSet<Label>();
+		for (final AsmLine line : lines) {
+			if (line.isInstruction() && line.label != null) {
+				used.add(line.label);
+			}
+		}
+		boolean changed = false;
+		for (int i = 0; i < lines.size(); ++i) {
+			final AsmLine line = lines.get(i);
+			if (line.kind == AsmLine.Kind.LABEL && line.label instanceof TextLabel
+					&& !line.label.isExternalVisible() && !used.contains(line.label)) {
+				lines.remove(i--);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	// ------------ Loads after stores ------------
+
+	private static boolean isWordAccess(final AsmLine line, final MemoryInstruction insn) {
+		return line.insn == insn && line.hasOffset && line.label == null && line.left != null;
+	}
+
+	private boolean forwardStores() {
+		boolean changed = false;
+		for (int i = 0; i < lines.size(); ++i) {
+			final AsmLine store = lines.get(i);
+			if (!isWordAccess(store, MemoryInstruction.SW)) {
+				continue;
+			}
+			for (int j = i + 1; j < lines.size(); ++j) {
+				final AsmLine line = lines.get(j);
+				if (isWordAccess(line, MemoryInstruction.LW) && line.left == store.left && line.imm == store.imm) {
+					if (line.dest == store.dest) {
+						lines.remove(j);
+					} else {
+						lines.set(j, AsmLine.register(RegisterInstruction.ADD, line.dest, store.dest, GPRegister.ZERO));
+					}
+					changed = true;
+					break;
+				}
+				if (!line.isInstruction() || isTransfer(line) || line.isStore() || line.written() == store.left
+						|| line.written() == store.dest) {
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	// ------------ Moves ------------
+
+	private boolean removeMoves() {
+		labels.clear();
+		for (int i = 0; i != lines.size(); ++i) {
+			if (lines.get(i).kind == AsmLine.Kind.LABEL) {
+				labels.put(lines.get(i).label, i);
+			}
+		}
+		boolean changed = false;
+		for (int i = 0; i < lines.size(); ++i) {
+			final AsmLine line = lines.get(i);
+			if (line.insn == RegisterInstruction.ADD && line.right == GPRegister.ZERO && line.dest == line.left) {
+				lines.remove(i--);
+				changed = true;
+			} else if (line.isMove() && !isReserved(line.dest) && (coalesce(i) || propagate(i))) {
+				lines.remove(i--);
+				changed = true;
+			} else {
+				continue;
+			}
+			// Keep the label positions right for the liveness queries
+			for (final Map.Entry<Label, Integer> label : labels.entrySet()) {
+				if (label.getValue() > i) {
+					label.setValue(label.getValue() - 1);
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Makes the instruction that computes the source of the move at index write
+	 * its destination instead, if the source dies at the move.
+	 */
+	private boolean coalesce(final int index) {
+		final AsmLine move = lines.get(index);
+		final GPRegister from = move.left;
+		final GPRegister to = move.dest;
+		if (isReserved(from) || !isDead(index + 1, from)) {
+			return false;
+		}
+		for (int i = index - 1; i >= 0; --i) {
+			final AsmLine line = lines.get(i);
+			if (!line.isInstruction() || isTransfer(line)) {
+				return false;
+			}
+			if (line.written() == from) {
+				if (line.kind == AsmLine.Kind.REGISTER && line.right == null) {
+					return false;
+				}
+				line.dest = to;
+				return true;
+			}
+			if (line.reads(from) || line.reads(to) || line.written() == to) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Makes the instructions after the move at index read its source instead of
+	 * its destination, if the destination dies before the source changes.
+	 */
+	private boolean propagate(final int index) {
+		final AsmLine move = lines.get(index);
+		final GPRegister from = move.left;
+		final GPRegister to = move.dest;
+		final List<AsmLine> uses = new ArrayList<AsmLine>();
+		boolean dead = false;
+		for (int i = index + 1; i < lines.size(); ++i) {
+			final AsmLine line = lines.get(i);
+			if (!line.isInstruction()) {
+				dead = isDead(i, to);
+				break;
+			}
+			if (line.reads(to)) {
+				if (line.kind == AsmLine.Kind.REGISTER && line.right == null) {
+					return false;
+				}
+				uses.add(line);
+			}
+			if (isTransfer(line) || line.written() == from || line.written() == to) {
+				dead = isDeadAfter(i, to);
+				break;
+			}
+		}
+		if (!dead) {
+			return false;
+		}
+		for (final AsmLine use : uses) {
+			use.replaceReads(to, from);
+		}
+		return true;
+	}
+
+	// ------------ Liveness ------------
+
+	/**
+	 * Returns whether no path from the line at index reads r before writing it.
+	 */
+	private boolean isDead(final int index, final GPRegister r) {
+		final BitSet visited = new BitSet(lines.size());
+		final List<Integer> work = new ArrayList<Integer>();
+		work.add(index);
+		while (!work.isEmpty()) {
+			int i = work.remove(work.size() - 1);
+			for (;; ++i) {
+				if (i >= lines.size() || visited.get(i)) {
+					break;
+				}
+				visited.set(i);
+				final AsmLine line = lines.get(i);
+				if (line.kind == AsmLine.Kind.DIRECTIVE || line.reads(r)) {
+					return false;
+				}
+				if (line.kind == AsmLine.Kind.LABEL) {
+					continue;
+				}
+				final Boolean effect = effect(line, r);
+				if (effect != null) {
+					if (!effect) {
+						return false;
+					}
+					break;
+				}
+				if (line.kind == AsmLine.Kind.BRANCH || line.insn == JumpInstruction.J) {
+					final Integer target = labels.get(line.label);
+					if (target == null) {
+						return false;
+					}
+					work.add(target);
+					if (line.insn == JumpInstruction.J) {
+						break;
+					}
+				}
+			}
+			if (i >= lines.size()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether no path after the line at index reads r before writing
+	 * it, ignoring the explicit reads of the line itself.
+	 */
+	private boolean isDeadAfter(final int index, final GPRegister r) {
+		final AsmLine line = lines.get(index);
+		final Boolean effect = effect(line, r);
+		if (effect != null) {
+			return effect;
+		}
+		if (line.kind == AsmLine.Kind.BRANCH || line.insn == JumpInstruction.J) {
+			final Integer target = labels.get(line.label);
+			if (target == null || !isDead(target, r)) {
+				return false;
+			}
+			if (line.insn == JumpInstruction.J) {
+				return true;
+			}
+		}
+		return isDead(index + 1, r);
+	}
+
+	/**
+	 * Returns true if the line ends the life of r, false if it may read r
+	 * implicitly and null if r lives on to the next line.
+	 */
+	private static Boolean effect(final AsmLine line, final GPRegister r) {
+		if (line.isCall()) {
+			if (TEMPORARIES.contains(r) || r == GPRegister.RA) {
+				return true;
+			}
+			return ARGUMENTS.contains(r) || isReserved(r) ? false : null;
+		}
+		if (line.insn == JumpRegisterInstruction.JR) {
+			return TEMPORARIES.contains(r);
+		}
+		return line.written() == r ? true : null;
+	}
+}
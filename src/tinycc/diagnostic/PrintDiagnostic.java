@@ -1,5 +1,6 @@
 package tinycc.diagnostic;
 
+import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 
 /**
@@ -9,11 +10,29 @@
  */
 public final class PrintDiagnostic implements Diagnostic {
 	private final PrintStream out;
+	private final ByteArrayOutputStream buffer;
 	private int nErrors = 0;
 	private boolean newErrors = false;
 
 	public PrintDiagnostic(final PrintStream out) {
+		this(out, null);
+	}
+
+	private PrintDiagnostic(final PrintStream out, final ByteArrayOutputStream buffer) {
 		this.out = out;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Creates a diagnostic module which keeps all messages in memory until they
+	 * are flushed into another diagnostic module.
+	 *
+	 * @return A new buffering diagnostic module
+	 * @see #flushInto(PrintDiagnostic)
+	 */
+	public static PrintDiagnostic createBuffered() {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		return new PrintDiagnostic(new PrintStream(buffer, true), buffer);
 	}
 
 	private void printDiagnostic(final String kind, final Locatable location, final String fmt, final Object... args) {
@@ -50,6 +69,66 @@ public boolean hasNewErrors() {
 		return res;
 	}
 
+	/**
+	 * Writes all buffered messages to the given diagnostic module and adds the
+	 * error count of this module to it.
+	 *
+	 * @param target The diagnostic module to receive the messages
+	 */
+	public void flushInto(final PrintDiagnostic target) {
+		final String messages = getBufferedMessages();
+		buffer.reset();
+		target.replay(messages, nErrors);
+		nErrors = 0;
+	}
+
+	/**
+	 * Returns the messages buffered so far.
+	 *
+	 * @return The buffered messages
+	 * @see #createBuffered()
+	 */
+	public String getBufferedMessages() {
+		if (buffer == null)
+			throw new IllegalStateException("diagnostic is not buffered");
+		out.flush();
+		return buffer.toString();
+	}
+
+	/**
+	 * Prints a trace message, which is neither an error nor a note.
+	 *
+	 * @param subsystem The name of the traced subsystem
+	 * @param message   The message
+	 */
+	public void printTrace(final String subsystem, final String message) {
+		out.printf("trace: %s: %s", subsystem, message).println();
+	}
+
+	/**
+	 * Returns the number of errors reported so far.
+	 *
+	 * @return The error count
+	 */
+	public int getErrorCount() {
+		return nErrors;
+	}
+
+	/**
+	 * Prints previously recorded messages and adds their error count, as if the
+	 * errors were reported again.
+	 *
+	 * @param messages The recorded messages
+	 * @param errors   The number of errors among the messages
+	 */
+	public void replay(final String messages, final int errors) {
+		out.print(messages);
+		if (errors != 0) {
+			nErrors += errors;
+			newErrors = true;
+		}
+	}
+
 	/**
 	 * Prints an error summary: "52 error(s)"
 	 *
@@ -0,0 +1,284 @@
+package tinycc.driver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compilation results.
+ *
+ * An entry is keyed by the SHA-256 of the compiler version, the flags that
+ * influence the result, the input name (it appears in the diagnostics) and the
+ * source contents. It holds everything a compilation produces: the diagnostics
+ * with their error count, the regular output and the assembly.
+ *
+ * Several processes may share a cache directory. Entries are written to a
+ * temporary file and renamed into place, so readers never see a partial entry,
+ * and every file operation tolerates entries that another process just evicted.
+ * Eviction removes the least recently used entries once the directory exceeds
+ * its size limit; a hit refreshes the modification time of the entry.
+ */
+final class CompileCache {
+	/** Version of the cache, change it when the entry format changes */
+	static final String VERSION = "tinycc-cache-1";
+
+	/** Default size limit of the cache directory */
+	static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	private static final int MAGIC = 0x54434331;
+	private static final String SUFFIX = ".entry";
+	private static final String TEMP_SUFFIX = ".tmp";
+	/** Temporary files older than this were left behind by a crashed process */
+	private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+	private static String compilerFingerprint;
+
+	private final Path directory;
+	private final long maxBytes;
+
+	/**
+	 * A cached compilation result
+	 */
+	static final class Entry {
+		final int errors;
+		final String messages;
+		final byte[] output;
+		/** The assembly, null if no code was generated */
+		final byte[] asm;
+
+		Entry(final int errors, final String messages, final byte[] output, final byte[] asm) {
+			this.errors = errors;
+			this.messages = messages;
+			this.output = output;
+			this.asm = asm;
+		}
+	}
+
+	/**
+	 * Opens a cache directory, creating it if necessary
+	 *
+	 * @param directory The cache directory
+	 * @param maxBytes  The size limit of the directory
+	 * @throws IOException If the directory cannot be created
+	 */
+	CompileCache(final File directory, final long maxBytes) throws IOException {
+		this.directory = Files.createDirectories(directory.toPath());
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Identifies the build of the compiler: the cache version and the size and
+	 * modification time of the compiler classes (the jar, or every class file of
+	 * a class directory). A rebuilt compiler never sees the entries of an old one.
+	 */
+	private static synchronized String getCompilerFingerprint() {
+		if (compilerFingerprint != null)
+			return compilerFingerprint;
+		final StringBuilder b = new StringBuilder(VERSION);
+		try {
+			final CodeSource source = CompileCache.class.getProtectionDomain().getCodeSource();
+			final Path location = source == null ? null : new File(source.getLocation().toURI()).toPath();
+			if (location != null && Files.isDirectory(location)) {
+				try (Stream<Path> files = Files.walk(location)) {
+					files.filter(p -> p.toString().endsWith(".class")).sorted().forEach(p -> {
+						final File f = p.toFile();
+						b.append('\n').append(location.relativize(p)).append(' ').append(f.length()).append(' ')
+								.append(f.lastModified());
+					});
+				}
+			} else if (location != null) {
+				final File f = location.toFile();
+				b.append('\n').append(f.length()).append(' ').append(f.lastModified());
+			}
+		} catch (final IOException | URISyntaxException | SecurityException e) {
+			// Fall back to the cache version alone
+		}
+		compilerFingerprint = b.toString();
+		return compilerFingerprint;
+	}
+
+	/**
+	 * Computes the key of a compilation
+	 *
+	 * @param source  The contents of the input file
+	 * @param inName  The input name as given on the command line
+	 * @param options The options of the invocation
+	 * @return The key as a hexadecimal string
+	 */
+	static String key(final byte[] source, final String inName, final Options options) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		final String flags = (options.optimize ? "O" + options.inlineThreshold : "") + (options.compile ? "c" : "")
+				+ (options.verify ? "v" : "") + (options.trace.isEmpty() ? "" : "T" + options.trace);
+		for (final String part : new String[] { getCompilerFingerprint(), flags, inName }) {
+			digest.update(part.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		digest.update(source);
+		final StringBuilder b = new StringBuilder();
+		for (final byte x : digest.digest())
+			b.append(String.format("%02x", x));
+		return b.toString();
+	}
+
+	/**
+	 * Looks up an entry
+	 *
+	 * @param key The key of the compilation
+	 * @return The entry, or null on a miss
+	 */
+	Entry load(final String key) {
+		final Path path = directory.resolve(key + SUFFIX);
+		try {
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)));
+			if (in.readInt() != MAGIC)
+				return null;
+			final int errors = in.readInt();
+			final String messages = new String(readBytes(in), StandardCharsets.UTF_8);
+			final byte[] output = readBytes(in);
+			final byte[] asm = in.readBoolean() ? readBytes(in) : null;
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+			return new Entry(errors, messages, output, asm);
+		} catch (final IOException e) {
+			// Missing, evicted meanwhile or truncated: a miss either way
+			return null;
+		}
+	}
+
+	private static byte[] readBytes(final DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Stores an entry and evicts old entries if the cache is too large. Failures
+	 * are ignored, the cache is only an optimization.
+	 *
+	 * @param key   The key of the compilation
+	 * @param entry The result of the compilation
+	 */
+	void store(final String key, final Entry entry) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeInt(entry.errors);
+			writeBytes(out, entry.messages.getBytes(StandardCharsets.UTF_8));
+			writeBytes(out, entry.output);
+			out.writeBoolean(entry.asm != null);
+			if (entry.asm != null)
+				writeBytes(out, entry.asm);
+		} catch (final IOException e) {
+			return;
+		}
+
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				bytes.writeTo(out);
+			}
+			final Path path = directory.resolve(key + SUFFIX);
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temp = null;
+		} catch (final IOException e) {
+			return;
+		} finally {
+			if (temp != null)
+				deleteQuietly(temp);
+		}
+		evict();
+	}
+
+	private static void deleteQuietly(final Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (final IOException e) {
+			// Another process may hold or have removed it
+		}
+	}
+
+	private static final class Candidate {
+		final Path path;
+		final long size;
+		final long lastUsed;
+
+		Candidate(final Path path, final long size, final long lastUsed) {
+			this.path = path;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries until the cache fits its limit
+	 */
+	private void evict() {
+		final List<Candidate> entries = new ArrayList<Candidate>();
+		long total = 0;
+		final long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory)) {
+			for (final Path path : dir) {
+				final String name = path.getFileName().toString();
+				final BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (final NoSuchFileException e) {
+					continue;
+				}
+				final long lastUsed = attributes.lastModifiedTime().toMillis();
+				if (name.endsWith(SUFFIX)) {
+					entries.add(new Candidate(path, attributes.size(), lastUsed));
+					total += attributes.size();
+				} else if (name.endsWith(TEMP_SUFFIX) && now - lastUsed > STALE_TEMP_MILLIS) {
+					deleteQuietly(path);
+				}
+			}
+		} catch (final IOException e) {
+			return;
+		}
+		if (total <= maxBytes)
+			return;
+
+		entries.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+		for (final Candidate c : entries) {
+			if (total <= maxBytes)
+				break;
+			deleteQuietly(c.path);
+			total -= c.size;
+		}
+	}
+}
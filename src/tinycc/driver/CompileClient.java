@@ -0,0 +1,159 @@
+package tinycc.driver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import tinycc.diagnostic.PrintDiagnostic;
+
+/**
+ * Java client for the compile server.
+ *
+ * It takes the same arguments as TinyC, forwards them to a running compile
+ * server and replays the output of the server. If no server is running, or the
+ * input is read from standard input, it is compiled in this process instead.
+ * The port is taken from the environment variable TINYCC_PORT, the token that
+ * authenticates the request from the file the server wrote for that port.
+ *
+ * The client is a JVM of its own, so scripts/tinycc-client runs the native
+ * client built from scripts/tinycc-client.c instead and only falls back to this
+ * one if there is no C compiler to build it.
+ *
+ * @see CompileServer
+ */
+public final class CompileClient {
+	private CompileClient() {
+	}
+
+	private static int getPort() {
+		final String port = System.getenv("TINYCC_PORT");
+		if (port == null)
+			return CompileServer.DEFAULT_PORT;
+		try {
+			return Integer.parseInt(port);
+		} catch (final NumberFormatException e) {
+			return CompileServer.DEFAULT_PORT;
+		}
+	}
+
+	/**
+	 * Checks whether the invocation reads the input program from standard input,
+	 * which the server cannot see.
+	 *
+	 * @param args The command line arguments
+	 * @return True if one of the input names is "-"
+	 */
+	private static boolean readsStandardInput(final String[] args) {
+		for (int i = 0; i != args.length; ++i) {
+			if (args[i].equals("-") && (i == 0 || !args[i - 1].equals("-o")))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends the arguments to the compile server
+	 *
+	 * @param tokenDirectory The directory the server wrote its token to
+	 * @param port           The port of the server
+	 * @param directory      The directory relative file names refer to
+	 * @param args           The command line arguments
+	 * @param out            The stream to replay regular output to
+	 * @param err            The stream to replay diagnostics to
+	 * @return The exit code reported by the server
+	 * @throws ConnectException If no server is running
+	 * @throws EOFException     If the server rejected the request
+	 * @throws IOException      If the connection to the server fails
+	 */
+	public static int forward(final Path tokenDirectory, final int port, final File directory, final String[] args,
+			final PrintStream out, final PrintStream err) throws IOException {
+		final String token;
+		try {
+			token = new String(Files.readAllBytes(CompileServer.getTokenFile(tokenDirectory, port)),
+					StandardCharsets.US_ASCII);
+		} catch (final NoSuchFileException e) {
+			// Without a token file, no server of this user is running
+			throw new ConnectException(e.getMessage());
+		}
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			final DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			CompileServer.writeString(request, token);
+			CompileServer.writeString(request, directory.getAbsolutePath());
+			request.writeInt(args.length);
+			for (final String arg : args)
+				CompileServer.writeString(request, arg);
+			request.flush();
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[8192];
+			for (;;) {
+				final byte tag = in.readByte();
+				if (tag == CompileServer.EXIT) {
+					out.flush();
+					err.flush();
+					return in.readInt();
+				}
+				final int len = in.readInt();
+				if (len > buffer.length)
+					buffer = new byte[len];
+				in.readFully(buffer, 0, len);
+				final PrintStream target = tag == CompileServer.STDERR ? err : out;
+				target.write(buffer, 0, len);
+			}
+		}
+	}
+
+	/**
+	 * Compiles through the server if one is running and in this process
+	 * otherwise
+	 *
+	 * @param tokenDirectory The directory the server wrote its token to
+	 * @param port           The port of the server
+	 * @param args           The command line arguments
+	 * @param out            The stream for regular output
+	 * @param err            The stream for diagnostics
+	 * @return The exit code
+	 */
+	public static int run(final Path tokenDirectory, final int port, final String[] args, final PrintStream out,
+			final PrintStream err) {
+		if (!readsStandardInput(args)) {
+			try {
+				return forward(tokenDirectory, port, new File(System.getProperty("user.dir")), args, out, err);
+			} catch (final ConnectException e) {
+				// No server is running, compile in this process
+			} catch (final EOFException e) {
+				err.printf("error: compile server: the request was rejected, is %s stale?\n",
+						CompileServer.getTokenFile(tokenDirectory, port));
+				return 1;
+			} catch (final IOException e) {
+				err.printf("error: compile server: %s\n", e);
+				return 1;
+			}
+		}
+		final PrintDiagnostic diagnostic = new PrintDiagnostic(err);
+		TinyC.run(diagnostic, out, null, args);
+		out.flush();
+		return diagnostic.printSummary();
+	}
+
+	/**
+	 * Entry point of the client
+	 *
+	 * @param args The arguments to pass to the compiler
+	 */
+	public static void main(final String[] args) {
+		System.exit(run(CompileServer.getTokenDirectory(), getPort(), args, System.out, System.err));
+	}
+}
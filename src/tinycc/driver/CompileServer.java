@@ -0,0 +1,308 @@
+package tinycc.driver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tinycc.diagnostic.PrintDiagnostic;
+
+/**
+ * A long-running compile server.
+ *
+ * The server listens on a loopback port and handles every connection as one
+ * compiler invocation, so a build pays for JVM startup and JIT warm-up only
+ * once. The protocol is shared with the clients, the native one in
+ * scripts/tinycc-client.c and the CompileClient. All integers are 32 bit big
+ * endian and all strings are an integer length followed by that many bytes of
+ * UTF-8:
+ *
+ * Request:  token (string), working directory (string), argument count (int),
+ *           arguments (string each)
+ * Response: a sequence of frames, each starting with a tag byte:
+ *           STDOUT / STDERR followed by a length (int) and that many bytes,
+ *           EXIT followed by the exit code (int), which ends the response.
+ *
+ * Any local user can connect to a loopback port, but a request runs with the
+ * permissions of the server. The server therefore writes a random token to a
+ * file only its owner can read (see getTokenFile()) and drops connections that
+ * do not start with it.
+ *
+ * @see CompileClient
+ */
+public final class CompileServer implements Closeable {
+	public static final int DEFAULT_PORT = 4711;
+
+	/** The most arguments a request may have */
+	public static final int MAX_ARGUMENTS = 1 << 16;
+	/** The longest string of a request, in bytes */
+	public static final int MAX_STRING = 1 << 16;
+	/** How long a client may take to send its request, in milliseconds */
+	private static final int REQUEST_TIMEOUT = 10000;
+
+	static final byte STDOUT = 'o';
+	static final byte STDERR = 'e';
+	static final byte EXIT = 'x';
+
+	private final ServerSocket server;
+	private final byte[] token;
+	private final Path tokenFile;
+	private final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+	private CompileServer(final ServerSocket server, final byte[] token, final Path tokenFile) {
+		this.server = server;
+		this.token = token;
+		this.tokenFile = tokenFile;
+	}
+
+	/**
+	 * Starts listening on a loopback port and writes the token for it
+	 *
+	 * @param port           The port to listen on, 0 for any free one
+	 * @param tokenDirectory The directory to write the token file to
+	 * @return The server, which accepts requests once serve() is called
+	 * @throws IOException If the port or the token file cannot be opened
+	 */
+	public static CompileServer open(final int port, final Path tokenDirectory) throws IOException {
+		final ServerSocket server = new ServerSocket(port, 64, InetAddress.getLoopbackAddress());
+		try {
+			final byte[] token = newToken();
+			final Path tokenFile = getTokenFile(tokenDirectory, server.getLocalPort());
+			return new CompileServer(server, token, writeToken(tokenFile, token));
+		} catch (final IOException e) {
+			server.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Listens for compile requests until the process is terminated
+	 *
+	 * @param diagnostic The diagnostic instance to report server errors to
+	 * @param port       The loopback port to listen on
+	 */
+	static void serve(final PrintDiagnostic diagnostic, final int port) {
+		try (CompileServer server = open(port, getTokenDirectory())) {
+			System.err.printf("tinycc: compile server listening on %s:%d\n",
+					server.server.getInetAddress().getHostAddress(), server.getPort());
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteToken(server.tokenFile)));
+			server.serve();
+		} catch (final IOException e) {
+			diagnostic.printError(null, "compile server: %s", e);
+		}
+	}
+
+	/**
+	 * Handles requests until the server is closed
+	 *
+	 * @throws IOException If accepting a connection fails for another reason
+	 */
+	public void serve() throws IOException {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (final IOException e) {
+				if (server.isClosed())
+					return;
+				throw e;
+			}
+			pool.execute(() -> handle(socket, token));
+		}
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting requests, cancels running ones and deletes the token file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			server.close();
+		} finally {
+			pool.shutdownNow();
+			deleteToken(tokenFile);
+		}
+	}
+
+	/**
+	 * Returns the directory the servers of this user keep their tokens in, under
+	 * $HOME like the native client does.
+	 */
+	static Path getTokenDirectory() {
+		final String home = System.getenv("HOME");
+		return Paths.get(home != null && !home.isEmpty() ? home : System.getProperty("user.home"), ".tinycc");
+	}
+
+	/**
+	 * Returns the file the server listening on a port keeps its token in.
+	 */
+	public static Path getTokenFile(final Path tokenDirectory, final int port) {
+		return tokenDirectory.resolve("server-" + port + ".token");
+	}
+
+	private static byte[] newToken() {
+		final byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		final StringBuilder hex = new StringBuilder(2 * random.length);
+		for (final byte b : random)
+			hex.append(String.format("%02x", b & 0xFF));
+		return hex.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes the token to a new file that only the owner of the process can
+	 * read, in a directory only the owner can enter.
+	 */
+	private static Path writeToken(final Path file, final byte[] token) throws IOException {
+		final Path directory = file.getParent();
+		final boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+		if (!Files.isDirectory(directory)) {
+			if (posix)
+				Files.createDirectories(directory,
+						PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			else
+				Files.createDirectories(directory);
+		}
+		Files.deleteIfExists(file);
+		if (posix)
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		else
+			Files.createFile(file);
+		Files.write(file, token);
+		return file;
+	}
+
+	private static void deleteToken(final Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			// A stale token is useless without the server
+		}
+	}
+
+	/**
+	 * Reads a string of the protocol
+	 *
+	 * @return The string, or null if it is longer than MAX_STRING
+	 */
+	static String readString(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0 || length > MAX_STRING)
+			return null;
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeString(final DataOutputStream out, final String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void handle(final Socket socket, final byte[] token) {
+		try (Socket s = socket) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+			s.setSoTimeout(REQUEST_TIMEOUT);
+			final String received = readString(in);
+			if (received == null || !MessageDigest.isEqual(received.getBytes(StandardCharsets.UTF_8), token))
+				return;
+			final String directory = readString(in);
+			if (directory == null)
+				return;
+			final int nArgs = in.readInt();
+			if (nArgs < 0 || nArgs > MAX_ARGUMENTS)
+				return;
+			final String[] args = new String[nArgs];
+			for (int i = 0; i != args.length; ++i) {
+				args[i] = readString(in);
+				if (args[i] == null)
+					return;
+			}
+			s.setSoTimeout(0);
+
+			final PrintStream stdout = new PrintStream(new FrameOutputStream(out, STDOUT));
+			final PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR));
+			final PrintDiagnostic diagnostic = new PrintDiagnostic(stderr);
+			try {
+				TinyC.run(diagnostic, stdout, new File(directory), args);
+			} catch (final RuntimeException e) {
+				diagnostic.printError(null, "%s", e);
+			}
+			final int exitCode = diagnostic.printSummary();
+			stdout.flush();
+			stderr.flush();
+
+			synchronized (out) {
+				out.writeByte(EXIT);
+				out.writeInt(exitCode);
+				out.flush();
+			}
+		} catch (final IOException e) {
+			// The client went away, there is nobody left to report to.
+		}
+	}
+
+	/**
+	 * Wraps everything written to it into frames of the given kind.
+	 */
+	private static final class FrameOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final byte tag;
+
+		FrameOutputStream(final DataOutputStream out, final byte tag) {
+			this.out = out;
+			this.tag = tag;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return;
+			synchronized (out) {
+				out.writeByte(tag);
+				out.writeInt(len);
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (out) {
+				out.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package tinycc.driver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import tinycc.implementation.Compiler;
+import tinycc.util.Trace;
+
+/**
+ * The options of a single compiler invocation
+ */
+class Options {
+	final List<String> inputNames = new ArrayList<String>();
+	boolean optimize = false;
+	boolean compile = false;
+	boolean verify = false;
+	String outName = null;
+	/** The number of threads given by -j, 0 if not given */
+	int jobs = 0;
+	int serverPort = 0;
+	boolean timeReport = false;
+	String timeReportName = null;
+	String cacheName = null;
+	long cacheSize = CompileCache.DEFAULT_MAX_BYTES;
+	int inlineThreshold = Compiler.DEFAULT_INLINE_THRESHOLD;
+	final EnumSet<Trace> trace = EnumSet.noneOf(Trace.class);
+	File directory = null;
+	TimeReport report = null;
+	CompileCache cache = null;
+	/** The verification workers shared by all files */
+	ExecutorService verifier = null;
+
+	/**
+	 * @return The number of verification workers: as many as -j allows, or one
+	 *         per processor
+	 */
+	int verifierThreads() {
+		return jobs != 0 ? jobs : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Resolves a file name given on the command line
+	 *
+	 * @param name The file name
+	 * @return The file relative to the working directory of the invocation
+	 */
+	File resolve(final String name) {
+		final File file = new File(name);
+		if (directory == null || file.isAbsolute())
+			return file;
+		return new File(directory, name);
+	}
+}
@@ -0,0 +1,283 @@
+package tinycc.driver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the time and memory spent in each compiler phase.
+ *
+ * For every file and phase the wall time, the CPU time and the bytes allocated
+ * by the compiling thread are recorded. A file is compiled on a single thread,
+ * so the per-thread counters of the ThreadMXBean are exact even with -j. Work
+ * the file hands to other threads, like the verification workers, is measured
+ * by {@link Timer#measure} and counts towards the phase it is part of.
+ */
+final class TimeReport {
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/** Used when no report is requested, records nothing */
+	private static final Timer DISABLED = new Timer(null, null);
+
+	private final List<String> inputNames;
+	private final List<Timer> files = new ArrayList<Timer>();
+
+	/**
+	 * Initializes an empty report
+	 *
+	 * @param inputNames The input names in command line order, used to order the
+	 *                   files in the report
+	 */
+	TimeReport(final List<String> inputNames) {
+		this.inputNames = inputNames;
+	}
+
+	/**
+	 * The counters of one phase
+	 */
+	private static final class Sample {
+		long wall;
+		long cpu;
+		long allocated;
+
+		void add(final Sample other) {
+			wall += other.wall;
+			cpu += other.cpu;
+			allocated += other.allocated;
+		}
+	}
+
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	private static long allocatedBytes() {
+		return THREADS.isThreadAllocatedMemorySupported() ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	/**
+	 * Measures the phases of a single file
+	 */
+	static final class Timer {
+		private final TimeReport report;
+		private final String inName;
+		private final Map<String, Sample> phases = new LinkedHashMap<String, Sample>();
+		private long wall;
+		private long cpu;
+		private long allocated;
+		private final AtomicLong otherCpu = new AtomicLong();
+		private final AtomicLong otherAllocated = new AtomicLong();
+
+		private Timer(final TimeReport report, final String inName) {
+			this.report = report;
+			this.inName = inName;
+			if (report != null)
+				reset();
+		}
+
+		private void reset() {
+			wall = System.nanoTime();
+			cpu = cpuTime();
+			allocated = allocatedBytes();
+		}
+
+		/**
+		 * Ends the current phase and starts the next one
+		 *
+		 * @param phase The name of the phase that just ended
+		 */
+		void lap(final String phase) {
+			if (report == null)
+				return;
+			final Sample s = new Sample();
+			s.wall = System.nanoTime() - wall;
+			s.cpu = cpuTime() - cpu + otherCpu.getAndSet(0);
+			s.allocated = allocatedBytes() - allocated + otherAllocated.getAndSet(0);
+			phases.put(phase, s);
+			reset();
+		}
+
+		/**
+		 * Wraps a task that works for this file on another thread, so that its CPU
+		 * time and allocations count towards the current phase. The phase must end
+		 * after the task.
+		 *
+		 * @param task The task
+		 * @return The measured task
+		 */
+		<T> Callable<T> measure(final Callable<T> task) {
+			if (report == null)
+				return task;
+			return () -> {
+				final long startCpu = cpuTime();
+				final long startAllocated = allocatedBytes();
+				try {
+					return task.call();
+				} finally {
+					otherCpu.addAndGet(cpuTime() - startCpu);
+					otherAllocated.addAndGet(allocatedBytes() - startAllocated);
+				}
+			};
+		}
+
+		/**
+		 * Adds the measured phases of this file to the report
+		 */
+		void finish() {
+			if (report == null)
+				return;
+			synchronized (report.files) {
+				report.files.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Starts measuring a file
+	 *
+	 * @param report The report to add the measurements to (null to disable)
+	 * @param inName The name of the input file
+	 * @return The timer for the file
+	 */
+	static Timer startTimer(final TimeReport report, final String inName) {
+		return report != null ? new Timer(report, inName) : DISABLED;
+	}
+
+	/**
+	 * Returns the measured files in command line order
+	 */
+	private List<Timer> sortedFiles() {
+		final List<Timer> sorted;
+		synchronized (files) {
+			sorted = new ArrayList<Timer>(files);
+		}
+		sorted.sort((a, b) -> Integer.compare(inputNames.indexOf(a.inName), inputNames.indexOf(b.inName)));
+		return sorted;
+	}
+
+	private static Map<String, Sample> totals(final List<Timer> files) {
+		final Map<String, Sample> totals = new LinkedHashMap<String, Sample>();
+		for (final Timer file : files) {
+			for (final Map.Entry<String, Sample> e : file.phases.entrySet()) {
+				totals.computeIfAbsent(e.getKey(), k -> new Sample()).add(e.getValue());
+			}
+		}
+		return totals;
+	}
+
+	private static Sample sum(final Map<String, Sample> phases) {
+		final Sample sum = new Sample();
+		for (final Sample s : phases.values())
+			sum.add(s);
+		return sum;
+	}
+
+	private static void printRow(final StringBuilder b, final String name, final Sample s) {
+		b.append(String.format("  %-22s %10.3f %10.3f %12d\n", name, s.wall / 1e6, s.cpu / 1e6,
+				s.allocated / 1024));
+	}
+
+	private static void printPhases(final StringBuilder b, final Map<String, Sample> phases) {
+		for (final Map.Entry<String, Sample> e : phases.entrySet())
+			printRow(b, e.getKey(), e.getValue());
+		printRow(b, "total", sum(phases));
+	}
+
+	/**
+	 * Formats the report as a table
+	 *
+	 * @return The table, one block per file followed by the totals
+	 */
+	String format() {
+		final List<Timer> files = sortedFiles();
+		final StringBuilder b = new StringBuilder();
+		b.append("time report\n");
+		b.append(String.format("%-24s %10s %10s %12s\n", "", "wall ms", "cpu ms", "alloc KB"));
+		for (final Timer file : files) {
+			b.append(file.inName).append('\n');
+			printPhases(b, file.phases);
+		}
+		if (files.size() > 1) {
+			b.append("all files\n");
+			printPhases(b, totals(files));
+		}
+		return b.toString();
+	}
+
+	private static void appendString(final StringBuilder b, final String s) {
+		b.append('"');
+		for (int i = 0; i != s.length(); ++i) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				b.append('\\').append(c);
+			else if (c < 0x20)
+				b.append(String.format("\\u%04x", (int) c));
+			else
+				b.append(c);
+		}
+		b.append('"');
+	}
+
+	private static void appendSample(final StringBuilder b, final Sample s) {
+		b.append("{\"wall_ns\": ").append(s.wall)
+				.append(", \"cpu_ns\": ").append(s.cpu)
+				.append(", \"allocated_bytes\": ").append(s.allocated).append('}');
+	}
+
+	private static void appendPhases(final StringBuilder b, final Map<String, Sample> phases, final String indent) {
+		b.append("{\n");
+		for (final Map.Entry<String, Sample> e : phases.entrySet()) {
+			b.append(indent).append("  ");
+			appendString(b, e.getKey());
+			b.append(": ");
+			appendSample(b, e.getValue());
+			b.append(",\n");
+		}
+		b.append(indent).append("  \"total\": ");
+		appendSample(b, sum(phases));
+		b.append('\n').append(indent).append('}');
+	}
+
+	/**
+	 * Formats the report as JSON
+	 *
+	 * @return A JSON object with the phases of every file and the totals
+	 */
+	String toJson() {
+		final List<Timer> files = sortedFiles();
+		final StringBuilder b = new StringBuilder();
+		b.append("{\n  \"files\": [");
+		for (int i = 0; i != files.size(); ++i) {
+			final Timer file = files.get(i);
+			b.append(i == 0 ? "\n" : ",\n").append("    {\"file\": ");
+			appendString(b, file.inName);
+			b.append(", \"phases\": ");
+			appendPhases(b, file.phases, "    ");
+			b.append('}');
+		}
+		b.append("\n  ],\n  \"phases\": ");
+		appendPhases(b, totals(files), "  ");
+		b.append("\n}\n");
+		return b.toString();
+	}
+
+	/**
+	 * Writes the report as JSON
+	 *
+	 * @param file The file to write to
+	 * @throws FileNotFoundException If the file cannot be created
+	 */
+	void writeJson(final File file) throws FileNotFoundException {
+		try (PrintStream out = new PrintStream(file)) {
+			out.print(toJson());
+		}
+	}
+}
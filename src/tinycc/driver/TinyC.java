@@ -1,27 +1,39 @@
 package tinycc.driver;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import tinycc.asmgen.AsmGen;
 import tinycc.diagnostic.Location;
 import tinycc.diagnostic.PrintDiagnostic;
 import tinycc.implementation.Compiler;
-import tinycc.logic.Formula;
-import tinycc.logic.UnaryOperator;
-import tinycc.logic.UnaryOpFormula;
-import tinycc.logic.solver.Logic;
-import tinycc.logic.solver.SolverInterface;
+import tinycc.implementation.verification.Obligation;
+import tinycc.implementation.verification.Verifier;
 import tinycc.logic.solver.SolverResult;
-import tinycc.logic.solver.z3.Z3Translator;
 import tinycc.parser.Lexer;
+import tinycc.parser.MappedSourceReader;
+import tinycc.util.Trace;
 
 class ArgumentParser {
 	private final String[] args;
@@ -50,6 +62,38 @@ public int getOption() {
 		return 0;
 	}
 
+	/**
+	 * Accepts a long option of the form -name or -name=value, which must be the
+	 * next argument on its own.
+	 *
+	 * @param name The name of the option without the leading '-'
+	 * @return The value of the option, "" if it has none, or null if the next
+	 *         argument is not this option
+	 */
+	public String getLongOption(final String name) {
+		int i = idx;
+		if (i != args.length && pos == args[i].length())
+			++i;
+		else if (pos != 1)
+			return null;
+		if (i == args.length)
+			return null;
+		final String arg = args[i];
+		final String prefix = "-" + name;
+		if (!arg.startsWith(prefix))
+			return null;
+		final String value;
+		if (arg.length() == prefix.length())
+			value = "";
+		else if (arg.charAt(prefix.length()) == '=')
+			value = arg.substring(prefix.length() + 1);
+		else
+			return null;
+		idx = i;
+		pos = arg.length();
+		return value;
+	}
+
 	public String getValue() {
 		String arg = args[idx++];
 		if (arg.length() >= 2 && arg.charAt(0) == '-') {
@@ -72,30 +116,73 @@ public String getValue() {
  */
 public class TinyC {
 	/**
-	 * Runs the compiler
+	 * Parses the command line arguments
 	 *
-	 * @param diagnostic The diagnostic instance to use
+	 * @param diagnostic The diagnostic instance to report invalid arguments to
 	 * @param args       The command line arguments
+	 * @return The parsed options
 	 */
-	private static void run(final PrintDiagnostic diagnostic, final String[] args) {
-		final List<String> inputNames = new ArrayList<String>();
-		boolean optimize = false;
-		boolean compile = false;
-		boolean verify = false;
-		String outName = null;
+	private static Options parseArguments(final PrintDiagnostic diagnostic, final String[] args) {
+		final Options options = new Options();
 		final ArgumentParser argParser = new ArgumentParser(args);
 		argParsing: for (;;) {
+			final String timeReport = argParser.getLongOption("time-report");
+			if (timeReport != null) {
+				options.timeReport = true;
+				options.timeReportName = timeReport.isEmpty() ? null : timeReport;
+				continue;
+			}
+
+			final String cacheSize = argParser.getLongOption("cache-size");
+			if (cacheSize != null) {
+				try {
+					// In megabytes, as many as fit into a long when counted in bytes
+					final long megabytes = Long.parseLong(cacheSize);
+					options.cacheSize = megabytes <= Long.MAX_VALUE >> 20 ? megabytes << 20 : -1;
+				} catch (final NumberFormatException e) {
+					options.cacheSize = -1;
+				}
+				if (options.cacheSize < 0) {
+					diagnostic.printError(null, "invalid cache size '%s'", cacheSize);
+					options.cacheSize = CompileCache.DEFAULT_MAX_BYTES;
+				}
+				continue;
+			}
+
+			final String inlineThreshold = argParser.getLongOption("inline-threshold");
+			if (inlineThreshold != null) {
+				try {
+					options.inlineThreshold = Integer.parseInt(inlineThreshold);
+				} catch (final NumberFormatException e) {
+					options.inlineThreshold = -1;
+				}
+				if (options.inlineThreshold < 0) {
+					diagnostic.printError(null, "invalid inline threshold '%s'", inlineThreshold);
+					options.inlineThreshold = Compiler.DEFAULT_INLINE_THRESHOLD;
+				}
+				continue;
+			}
+
+			final String cache = argParser.getLongOption("cache");
+			if (cache != null) {
+				if (cache.isEmpty())
+					diagnostic.printError(null, "'-cache' requires a directory, use -cache=DIR");
+				else
+					options.cacheName = cache;
+				continue;
+			}
+
 			final int option = argParser.getOption();
 			switch (option) {
 			case -1:
 				break argParsing;
 
 			case 0:
-				inputNames.add(argParser.getValue());
+				options.inputNames.add(argParser.getValue());
 				continue;
 
 			case 'O': {
-				optimize = true;
+				options.optimize = true;
 				continue;
 			}
 
@@ -103,17 +190,59 @@ private static void run(final PrintDiagnostic diagnostic, final String[] args) {
 				final String arg = argParser.getValue();
 				if (arg == null)
 					break;
-				outName = arg;
+				options.outName = arg;
 				continue;
 			}
 			case 'c':
-				compile = true;
+				options.compile = true;
 				continue;
 
 			case 'v':
-				verify = true;
+				options.verify = true;
 				continue;
 
+			case 'j': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				try {
+					options.jobs = Integer.parseInt(arg);
+				} catch (final NumberFormatException e) {
+					options.jobs = 0;
+				}
+				if (options.jobs < 1) {
+					diagnostic.printError(null, "invalid number of jobs '%s'", arg);
+					options.jobs = 1;
+				}
+				continue;
+			}
+
+			case 'T': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				final String unknown = Trace.parse(arg, options.trace);
+				if (unknown != null)
+					diagnostic.printError(null, "unknown trace subsystem '%s'", unknown);
+				continue;
+			}
+
+			case 's': {
+				final String arg = argParser.getValue();
+				if (arg == null)
+					break;
+				try {
+					options.serverPort = Integer.parseInt(arg);
+				} catch (final NumberFormatException e) {
+					options.serverPort = -1;
+				}
+				if (options.serverPort < 1 || options.serverPort > 65535) {
+					diagnostic.printError(null, "invalid port '%s'", arg);
+					options.serverPort = 0;
+				}
+				continue;
+			}
+
 			default:
 				diagnostic.printError(null, "unknown option '-%c'", option);
 				continue;
@@ -122,103 +251,407 @@ private static void run(final PrintDiagnostic diagnostic, final String[] args) {
 			diagnostic.printError(null, "'-%c' requires an argument", option);
 		}
 
-		final int nNames = inputNames.size();
-		if (nNames == 0) {
+		final int nNames = options.inputNames.size();
+		if (options.serverPort != 0) {
+			if (nNames != 0)
+				diagnostic.printError(null, "'-s' cannot be used with input files");
+		} else if (nNames == 0) {
 			diagnostic.printError(null, "no input files specified");
-		} else if (nNames != 1 && outName != null) {
+		} else if (nNames != 1 && options.outName != null) {
 			diagnostic.printError(null, "'-o' can only be used with a single input name");
-		} else if (!compile && outName != null) {
+		} else if (!options.compile && options.outName != null) {
 			diagnostic.printError(null, "'-o' can only be used when compiling");
 		}
+		return options;
+	}
 
+	/**
+	 * Runs the compiler
+	 *
+	 * @param diagnostic The diagnostic instance to use
+	 * @param out        The stream for regular output
+	 * @param directory  The directory relative file names refer to (null for the
+	 *                   working directory of this process, the only case in
+	 *                   which standard input and -s can be used)
+	 * @param args       The command line arguments
+	 */
+	public static void run(final PrintDiagnostic diagnostic, final PrintStream out, final File directory,
+			final String[] args) {
+		final Options options = parseArguments(diagnostic, args);
+		options.directory = directory;
 		if (diagnostic.hasNewErrors())
 			return;
 
-		// For every file do...
-		for (final String inName : inputNames) {
+		if (options.serverPort != 0) {
+			if (directory != null) {
+				diagnostic.printError(null, "'-s' cannot be used through the compile server");
+				return;
+			}
+			CompileServer.serve(diagnostic, options.serverPort);
+			return;
+		}
+
+		if (options.timeReport)
+			options.report = new TimeReport(options.inputNames);
+
+		if (options.cacheName != null) {
+			try {
+				options.cache = new CompileCache(options.resolve(options.cacheName), options.cacheSize);
+			} catch (final IOException e) {
+				diagnostic.printError(new Location(options.cacheName), "cannot create cache directory");
+				return;
+			}
+		}
+
+		if (options.verify)
+			options.verifier = Executors.newFixedThreadPool(options.verifierThreads());
+		try {
+			if (options.jobs > 1 && options.inputNames.size() > 1) {
+				runParallel(diagnostic, out, options);
+			} else {
+				// For every file do...
+				for (final String inName : options.inputNames) {
+					compileFile(diagnostic, out, inName, options);
+				}
+			}
+		} finally {
+			if (options.verifier != null)
+				options.verifier.shutdownNow();
+		}
+
+		if (options.report != null)
+			printTimeReport(diagnostic, options);
+	}
+
+	/**
+	 * Prints the time report and writes it as JSON if a file name was given
+	 *
+	 * @param diagnostic The diagnostic instance to print the report to
+	 * @param options    The options of this invocation
+	 */
+	private static void printTimeReport(final PrintDiagnostic diagnostic, final Options options) {
+		final String table = options.report.format();
+		diagnostic.printNote(null, "%s", table.substring(0, table.length() - 1));
+		if (options.timeReportName != null) {
 			try {
-				Reader r = null;
+				options.report.writeJson(options.resolve(options.timeReportName));
+			} catch (final FileNotFoundException e) {
+				diagnostic.printError(new Location(options.timeReportName), "cannot write time report");
+			}
+		}
+	}
+
+	/**
+	 * Compiles all input files on a pool of worker threads. The messages of each
+	 * file are buffered and printed in the order of the input files, so the output
+	 * does not depend on the scheduling of the workers.
+	 *
+	 * @param diagnostic The diagnostic instance to use
+	 * @param out        The stream for regular output
+	 * @param options    The options of this invocation
+	 */
+	private static void runParallel(final PrintDiagnostic diagnostic, final PrintStream out,
+			final Options options) {
+		final int nNames = options.inputNames.size();
+		final ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.jobs, nNames));
+		final List<Future<PrintDiagnostic>> results = new ArrayList<Future<PrintDiagnostic>>(nNames);
+		final List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>(nNames);
+		try {
+			for (final String inName : options.inputNames) {
+				final ByteArrayOutputStream output = new ByteArrayOutputStream();
+				outputs.add(output);
+				results.add(pool.submit(() -> {
+					final PrintDiagnostic fileDiagnostic = PrintDiagnostic.createBuffered();
+					final PrintStream fileOut = new PrintStream(output);
+					compileFile(fileDiagnostic, fileOut, inName, options);
+					fileOut.flush();
+					return fileDiagnostic;
+				}));
+			}
+
+			for (int i = 0; i != nNames; ++i) {
+				final String inName = options.inputNames.get(i);
 				try {
-					if (inName.equals("-")) {
-						r = new InputStreamReader(System.in);
-					} else {
-						try {
-							r = new FileReader(inName);
-						} catch (final FileNotFoundException e) {
-							diagnostic.printError(new Location(inName), "no such file or directory");
-							continue;
-						}
-						r = new BufferedReader(r);
-					}
+					final PrintDiagnostic fileDiagnostic = results.get(i).get();
+					out.print(outputs.get(i).toString());
+					fileDiagnostic.flushInto(diagnostic);
+				} catch (final ExecutionException e) {
+					diagnostic.printError(new Location(inName), "%s", e.getCause());
+				} catch (final InterruptedException e) {
+					diagnostic.printError(new Location(inName), "%s", e);
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
 
-					// Init a new compiler with the given diagnostic module
-					final Compiler compiler = new Compiler(diagnostic);
-					// Create a new lexer with the input file
-					final Lexer lexer = new Lexer(diagnostic, r, inName);
-					// Parse the given translation unit
-					compiler.parseTranslationUnit(lexer);
-					if (diagnostic.hasNewErrors())
-						continue;
-
-					// 1) Try to check semantics
-					compiler.checkSemantics();
-					if (diagnostic.hasNewErrors())
-						continue;
-
-					// 2) Generate verification conditions
-					if (verify) {
-						Formula f = compiler.genVerificationConditions();
-						System.out.println("Generated formula: " + f.toString());
-						
-						SolverInterface translator = new Z3Translator();
-
-						// Solvers can only return "satisfiable" or "unsatisfiable".
-						// To prove a universally true formula, we therefore negate it and expect the
-						// result to be unsatisfiable.
-						Formula negated = new UnaryOpFormula(UnaryOperator.NOT, f);
-						SolverResult result = translator.querySatisfiability(negated, Logic.QF_NIA);
-
-						if (result.isUnSatifiable()) {
-							System.out.println("Formula is valid. Verification successful.");
-						} else {
-							System.out.println("Formula is invalid. Program could not be verified.");
-						}
+	/**
+	 * Compiles a single input file
+	 *
+	 * @param diagnostic The diagnostic instance to use
+	 * @param out        The stream for regular output
+	 * @param inName     The name of the input file ("-" for standard input)
+	 * @param options    The options of this invocation
+	 */
+	private static void compileFile(final PrintDiagnostic diagnostic, final PrintStream out, final String inName,
+			final Options options) {
+		final TimeReport.Timer timer = TimeReport.startTimer(options.report, inName);
+		// Errors of the previous file (e.g. a missing one) must not stop this one,
+		// just as with -j where every file has its own diagnostic
+		diagnostic.hasNewErrors();
+		try {
+			if (options.cache != null && !inName.equals("-")) {
+				compileCached(diagnostic, out, inName, options, timer);
+				return;
+			}
+
+			Reader r = null;
+			try {
+				if (inName.equals("-")) {
+					if (options.directory != null) {
+						diagnostic.printError(null, "the compile server cannot read from standard input");
+						return;
 					}
+					r = new InputStreamReader(System.in, MappedSourceReader.newDecoder());
+				} else {
+					final File file = options.resolve(inName);
+					try {
+						// Regular files are mapped, everything else (e.g. pipes) is read
+						r = file.isFile() ? new MappedSourceReader(file)
+								: new InputStreamReader(new FileInputStream(file), MappedSourceReader.newDecoder());
+					} catch (final FileNotFoundException e) {
+						diagnostic.printError(new Location(inName),
+								file.exists() ? "cannot open file for reading" : "no such file or directory");
+						return;
+					}
+				}
+
+				// Create a new lexer with the input file
+				final Lexer lexer = new Lexer(diagnostic, r, inName);
+				compile(diagnostic, out, lexer, inName, options, timer, null);
+			} finally {
+				if (r != null)
+					r.close();
+			}
+		} catch (final CharacterCodingException e) {
+			diagnostic.printError(new Location(inName), "input is not valid UTF-8");
+		} catch (final Exception e) {
+			diagnostic.printError(new Location(inName), "%s", e);
+		} finally {
+			timer.finish();
+		}
+	}
+
+	/**
+	 * Compiles a single input file through the compilation cache. On a miss the
+	 * file is compiled into memory and the result is stored, then the cached
+	 * output and diagnostics are replayed either way.
+	 *
+	 * @param diagnostic The diagnostic instance to use
+	 * @param out        The stream for regular output
+	 * @param inName     The name of the input file
+	 * @param options    The options of this invocation
+	 * @param timer      The timer of this file
+	 * @throws IOException If the input cannot be read or the output cannot be
+	 *                     written
+	 */
+	private static void compileCached(final PrintDiagnostic diagnostic, final PrintStream out, final String inName,
+			final Options options, final TimeReport.Timer timer) throws IOException {
+		final byte[] source;
+		try {
+			source = Files.readAllBytes(options.resolve(inName).toPath());
+		} catch (final NoSuchFileException e) {
+			diagnostic.printError(new Location(inName), "no such file or directory");
+			return;
+		} catch (final AccessDeniedException e) {
+			diagnostic.printError(new Location(inName), "cannot open file for reading");
+			return;
+		}
+		final String key = CompileCache.key(source, inName, options);
+		CompileCache.Entry entry = options.cache.load(key);
+		if (entry != null) {
+			timer.lap("cache");
+		} else {
+			final PrintDiagnostic fileDiagnostic = PrintDiagnostic.createBuffered();
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final PrintStream fileOut = new PrintStream(output);
+			final ByteArrayOutputStream asm = options.compile ? new ByteArrayOutputStream() : null;
+			// Same interpretation of the bytes as the MappedSourceReader
+			final CharBuffer chars = MappedSourceReader.newDecoder().decode(ByteBuffer.wrap(source));
+			// Only outcomes that follow from the input alone are kept: a crash or an
+			// undecided verification condition may turn out differently next time
+			boolean decided;
+			try {
+				final Lexer lexer = new Lexer(fileDiagnostic, chars.array(), chars.limit(), inName);
+				decided = compile(fileDiagnostic, fileOut, lexer, inName, options, timer, asm);
+			} catch (final Exception e) {
+				fileDiagnostic.printError(new Location(inName), "%s", e);
+				decided = false;
+			}
+			fileOut.flush();
+			// Assembly of a failed compilation is incomplete and not worth keeping
+			final int errors = fileDiagnostic.getErrorCount();
+			entry = new CompileCache.Entry(errors, fileDiagnostic.getBufferedMessages(), output.toByteArray(),
+					asm != null && errors == 0 ? asm.toByteArray() : null);
+			if (decided)
+				options.cache.store(key, entry);
+		}
 
-					if (optimize)
-						compiler.performOptimizations();
+		out.write(entry.output);
+		diagnostic.replay(entry.messages, entry.errors);
+		if (entry.asm != null) {
+			final PrintStream asmOut = makeOutputStream(options, inName, out);
+			try {
+				asmOut.write(entry.asm);
+			} finally {
+				if (asmOut != out)
+					asmOut.close();
+				else
+					out.flush();
+			}
+		}
+	}
 
-					// 3) Generate code
+	/**
+	 * Runs the compiler phases on a single input
+	 *
+	 * @param diagnostic The diagnostic instance to use
+	 * @param out        The stream for regular output
+	 * @param lexer      The lexer reading the input
+	 * @param inName     The name of the input file
+	 * @param options    The options of this invocation
+	 * @param timer      The timer of this file
+	 * @param asmBuffer  The buffer to write the assembly to (null to write it to
+	 *                   the output file)
+	 * @return False if the outcome does not follow from the input alone, i.e.
+	 *         the solver could not decide a verification condition
+	 * @throws Exception If a phase fails
+	 */
+	private static boolean compile(final PrintDiagnostic diagnostic, final PrintStream out, final Lexer lexer,
+			final String inName, final Options options, final TimeReport.Timer timer,
+			final ByteArrayOutputStream asmBuffer) throws Exception {
+		Trace.begin(options.trace, diagnostic);
+		try {
+			return compilePhases(diagnostic, out, lexer, inName, options, timer, asmBuffer);
+		} finally {
+			Trace.end();
+		}
+	}
 
-					if (compile) {
-						final PrintStream out = makeOutputStream(outName, inName);
-						try {
-							compiler.generateCode(new AsmGen(out));
-						} finally {
-							if (out != System.out)
-								out.close();
-						}
-					}
+	private static boolean compilePhases(final PrintDiagnostic diagnostic, final PrintStream out, final Lexer lexer,
+			final String inName, final Options options, final TimeReport.Timer timer,
+			final ByteArrayOutputStream asmBuffer) throws Exception {
+		// Init a new compiler with the given diagnostic module
+		final Compiler compiler = new Compiler(diagnostic);
+		// Parse the given translation unit
+		compiler.parseTranslationUnit(lexer);
+		timer.lap("parse");
+		if (diagnostic.hasNewErrors())
+			return true;
+
+		// 1) Try to check semantics
+		compiler.checkSemantics();
+		timer.lap("semantics");
+		if (diagnostic.hasNewErrors())
+			return true;
+
+		// 2) Generate verification conditions
+		boolean decided = true;
+		if (options.verify) {
+			final List<Obligation> obligations = compiler.genVerificationObligations();
+			if (obligations == null)
+				return true;
+			out.println("Generated " + obligations.size() + " verification condition"
+					+ (obligations.size() == 1 ? "." : "s."));
+
+			// Solvers can only return "satisfiable" or "unsatisfiable".
+			// To prove a universally true formula, we therefore negate it and expect the
+			// result to be unsatisfiable, or get a counterexample.
+			final List<SolverResult> results = Verifier.check(obligations, options.verifierThreads(),
+					worker -> options.verifier.submit(timer.measure(worker)));
+			boolean valid = true;
+			for (int i = 0; i != obligations.size(); ++i) {
+				final Obligation obligation = obligations.get(i);
+				final SolverResult result = results.get(i);
+				if (result.isUnSatifiable())
+					continue;
+				valid = false;
+				final Location location = new Location(obligation.getLocation());
+				if (result.isSatifiable()) {
+					out.println(location + ": " + obligation + " does not hold, counterexample:");
+					out.println(result.getModel());
+				} else {
+					out.println(location + ": " + obligation + " could not be decided");
+					decided = false;
+				}
+			}
+
+			if (valid) {
+				out.println("All verification conditions hold. Verification successful.");
+			} else {
+				out.println("Program could not be verified.");
+			}
+			timer.lap("verification");
+		}
+
+		if (options.optimize) {
+			compiler.setInlineThreshold(options.inlineThreshold);
+			compiler.performOptimizations();
+			timer.lap("optimization");
+		}
+
+		// 3) Generate code
+
+		if (options.compile) {
+			final String outName = getOutputName(options, inName);
+			if (asmBuffer == null && outName != null) {
+				// The generator writes its text in large chunks straight to the file
+				try (FileChannel channel = FileChannel.open(options.resolve(outName).toPath(),
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					compiler.generateCode(new AsmGen(channel));
+				}
+			} else {
+				final PrintStream asmOut = asmBuffer != null ? new PrintStream(asmBuffer) : out;
+				try {
+					compiler.generateCode(new AsmGen(asmOut));
 				} finally {
-					if (r != null)
-						r.close();
+					if (asmOut != out)
+						asmOut.close();
+					else
+						out.flush();
 				}
-			} catch (final Exception e) {
-				diagnostic.printError(new Location(inName), "%s", e);
 			}
+			timer.lap("codegen");
 		}
+		return decided;
 	}
 
-	private static PrintStream makeOutputStream(String outName, final String inName) throws FileNotFoundException {
+	/**
+	 * Returns the name of the assembly file of an input, or null if the
+	 * assembly goes to the regular output.
+	 */
+	private static String getOutputName(final Options options, final String inName) {
+		String outName = options.outName;
 		if (outName == null) {
 			outName = inName.substring(inName.lastIndexOf('/') + 1);
 			if (outName.endsWith(".c"))
 				outName = outName.substring(0, outName.length() - 2);
 			outName += ".s";
 		} else if (outName.equals("-")) {
-			return System.out;
+			return null;
 		}
-		return new PrintStream(new FileOutputStream(outName));
+		return outName;
+	}
+
+	private static PrintStream makeOutputStream(final Options options, final String inName, final PrintStream out)
+			throws FileNotFoundException {
+		final String outName = getOutputName(options, inName);
+		if (outName == null)
+			return out;
+		return new PrintStream(new FileOutputStream(options.resolve(outName)));
 	}
 
 	/**
@@ -229,7 +662,7 @@ private static PrintStream makeOutputStream(String outName, final String inName)
 	public static void main(final String[] args) {
 		// Instantiate default diagnostic module and run the compiler
 		final PrintDiagnostic diagnostic = new PrintDiagnostic(System.err);
-		run(diagnostic, args);
+		run(diagnostic, System.out, null, args);
 		// Print a summary and use the return code as exit code
 		System.exit(diagnostic.printSummary());
 	}
@@ -12,6 +12,9 @@
 import tinycc.implementation.expression.primaryExpressions.IntegerConstant;
 import tinycc.implementation.expression.primaryExpressions.StringLiteral;
 import tinycc.implementation.expression.unaryExpression.UnaryExpression;
+import tinycc.implementation.statement.AnnotatedWhileStatement;
+import tinycc.implementation.statement.AssertStatement;
+import tinycc.implementation.statement.AssumeStatement;
 import tinycc.implementation.statement.BlockStatement;
 import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.statement.ExpressionStatement;
@@ -19,10 +22,8 @@
 import tinycc.implementation.statement.Return;
 import tinycc.implementation.statement.Statement;
 import tinycc.implementation.statement.WhileStatement;
-import tinycc.implementation.type.FunctionType;
-import tinycc.implementation.type.PointerType;
 import tinycc.implementation.type.Type;
-import tinycc.implementation.type.SimpleType;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.ASTFactory;
 import tinycc.parser.Token;
 import tinycc.parser.TokenKind;
@@ -92,23 +93,35 @@ public Statement createWhileStatement(Locatable loc, Expression condition, State
         return new WhileStatement(loc, condition, body);
     }
 
+    @Override
+    public Statement createAnnotatedWhileStatement(Locatable loc, Expression condition, Statement body,
+            Expression invariant, Expression term, Token loopBound) {
+        return new AnnotatedWhileStatement(loc, condition, body, invariant, term, loopBound);
+    }
+
+    @Override
+    public Statement createAssumeStatement(Locatable loc, Expression condition) {
+        return new AssumeStatement(loc, condition);
+    }
+
+    @Override
+    public Statement createAssertStatement(Locatable loc, Expression condition) {
+        return new AssertStatement(loc, condition);
+    }
+
     @Override
     public Type createFunctionType(Type returnType, List<Type> parameters) {
-        return new FunctionType(returnType, parameters);
+        return TypeContext.getFunctionType(returnType, parameters);
         }
 
     @Override
     public Type createPointerType(Type pointsTo) {
-        return new PointerType(pointsTo);
+        return TypeContext.getPointerType(pointsTo);
     }
 
     @Override
     public Type createBaseType(TokenKind kind) {
-        try {
-            return new SimpleType(kind);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid kind.");
-        }
+        return TypeContext.getSimpleType(kind);
     }
 
     @Override
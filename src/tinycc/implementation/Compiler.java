@@ -2,17 +2,22 @@
 package tinycc.implementation;
 
 import tinycc.diagnostic.Diagnostic;
+import tinycc.implementation.codegen.CodeGenerator;
 import tinycc.implementation.semantic.Scope;
 import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.statement.Statement;
 import tinycc.implementation.type.FunctionType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.verification.Obligation;
+import tinycc.implementation.verification.VCGenerator;
+import tinycc.implementation.verification.VerificationException;
 import tinycc.implementation.ExternalDeclaration;
 import tinycc.implementation.FunctionDefinition;
 import tinycc.parser.ASTFactory;
 import tinycc.parser.Lexer;
 import tinycc.parser.Parser;
 import tinycc.logic.Formula;
+import tinycc.logic.FormulaFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,6 +38,12 @@ public class Compiler {
 
 Diagnostic diagnostic;
 private ASTFactoryImplementation astFactory;
+private CodeGenerator codeGenerator;
+private int inlineThreshold = DEFAULT_INLINE_THRESHOLD;
+private int inlinedCallSites;
+
+	/** The size of the largest function inlined by default, in IR instructions */
+	public static final int DEFAULT_INLINE_THRESHOLD = 30;
 
 	/**
 	 * Initializes the compiler class with the given diagnostic module
@@ -157,7 +168,7 @@ public void checkSemantics() {
 			
 			// Check for conflicting prototypes
 			for (int i = 1; i < prototypes.size(); i++) {
-				if (!prototypes.get(0).getType().equals(prototypes.get(i).getType())) {
+				if (prototypes.get(0).getType() != prototypes.get(i).getType()) {
 					diagnostic.printError(prototypes.get(i).getName(), 
 						"Conflicting types for function '%s'", funcName);
 				}
@@ -165,7 +176,7 @@ public void checkSemantics() {
 			
 			// Check for type mismatch between prototype and definition
 			if (!definitions.isEmpty() && !prototypes.isEmpty()) {
-				if (!prototypes.get(0).getType().equals(definitions.get(0).getFunctionType())) {
+				if (prototypes.get(0).getType() != definitions.get(0).getFunctionType()) {
 					diagnostic.printError(definitions.get(0).getFunctionName(), 
 						"Conflicting types for function '%s'", funcName);
 				}
@@ -180,17 +191,17 @@ public void checkSemantics() {
 			}
 			
 			if (toRegister != null) {
-				try {
-					if (toRegister instanceof FunctionDefinition) {
-						FunctionDefinition def = (FunctionDefinition) toRegister;
-						globalScope.add(funcName, new Declaration(
-							def.getFunctionType(), def.getFunctionName(), null));
-					} else {
-						ExternalDeclaration ext = (ExternalDeclaration) toRegister;
-						globalScope.add(funcName, new Declaration(
-							ext.getType(), ext.getName(), null));
-					}
-				} catch (Exception e) {
+				final boolean added;
+				if (toRegister instanceof FunctionDefinition) {
+					FunctionDefinition def = (FunctionDefinition) toRegister;
+					added = globalScope.add(funcName, new Declaration(
+						def.getFunctionType(), def.getFunctionName(), null));
+				} else {
+					ExternalDeclaration ext = (ExternalDeclaration) toRegister;
+					added = globalScope.add(funcName, new Declaration(
+						ext.getType(), ext.getName(), null));
+				}
+				if (!added) {
 					// This shouldn't happen since we're checking conflicts above
 					if (toRegister instanceof FunctionDefinition) {
 						diagnostic.printError(((FunctionDefinition) toRegister).getFunctionName(), 
@@ -215,7 +226,29 @@ public void checkSemantics() {
 	 * @remarks Bonus exercise.
 	 */
 	public void performOptimizations() {
-		throw new UnsupportedOperationException("TODO: implement this");
+		// Fold the checked AST before it is lowered
+		if (codeGenerator == null) {
+			for (FunctionDefinition function : ((ASTFactoryImplementation) getASTFactory()).getFunctionDefinitions()) {
+				function.fold();
+			}
+		}
+		inlinedCallSites = getCodeGenerator().optimize(inlineThreshold);
+	}
+
+	/**
+	 * Sets the size of the largest function performOptimizations() inlines.
+	 *
+	 * @param threshold The number of IR instructions, 0 disables inlining.
+	 */
+	public void setInlineThreshold(final int threshold) {
+		this.inlineThreshold = threshold;
+	}
+
+	/**
+	 * Returns the number of call sites performOptimizations() has inlined.
+	 */
+	public int getInlinedCallSites() {
+		return inlinedCallSites;
 	}
 
 	/**
@@ -226,7 +259,25 @@ public void performOptimizations() {
 	 *          class. Only necessary if mentioned in the project description.
 	 */
 	public void generateCode(final AsmGen out) {
-		throw new UnsupportedOperationException("TODO: implement this");
+		getCodeGenerator().emit(out);
+	}
+
+	/**
+	 * Returns the back end for the checked translation unit, lowering it on the
+	 * first call.
+	 */
+	private CodeGenerator getCodeGenerator() {
+		if (codeGenerator == null) {
+			ASTFactoryImplementation factory = (ASTFactoryImplementation) getASTFactory();
+			List<ExternalDeclaration> globals = new ArrayList<>();
+			for (ExternalDeclaration ext : factory.getExternalDeclarations()) {
+				if (!(ext.getType() instanceof FunctionType)) {
+					globals.add(ext);
+				}
+			}
+			codeGenerator = new CodeGenerator(globals, factory.getFunctionDefinitions());
+		}
+		return codeGenerator;
 	}
 
 	/**
@@ -234,8 +285,37 @@ public void generateCode(final AsmGen out) {
 	 *
 	 * @remarks This function is invoked only once in each instance of the compiler
 	 *          class. Only necessary if mentioned in the project description.
+	 * @return The conditions, or null if the program contains a construct that
+	 *         cannot be verified, which is reported to the diagnostic module
 	 */
 	public Formula genVerificationConditions() {
-		throw new UnsupportedOperationException("TODO: implement this");
+		VCGenerator generator = generateConditions();
+		return generator != null ? generator.getCondition() : null;
+	}
+
+	/**
+	 * Generates the verification conditions of the input program as independent
+	 * obligations, one per _Assert, loop invariant entry and preservation and
+	 * termination function of each function.
+	 *
+	 * @return The obligations, or null if the program contains a construct that
+	 *         cannot be verified, which is reported to the diagnostic module
+	 */
+	public List<Obligation> genVerificationObligations() {
+		VCGenerator generator = generateConditions();
+		return generator != null ? generator.getObligations() : null;
+	}
+
+	private VCGenerator generateConditions() {
+		VCGenerator generator = new VCGenerator(new FormulaFactory());
+		try {
+			for (FunctionDefinition function : ((ASTFactoryImplementation) getASTFactory()).getFunctionDefinitions()) {
+				generator.addFunction(function);
+			}
+		} catch (VerificationException e) {
+			diagnostic.printError(e.getLocation(), "%s", e.getMessage());
+			return null;
+		}
+		return generator;
 	}
 }
@@ -39,9 +39,7 @@ public void checkType(Diagnostic d, Scope s) {
 		}
 		
 		// Add external declaration to global scope
-		try {
-			s.add(name.getText(), new Declaration(type, name, null));
-		} catch (Exception e) {
+		if (!s.add(name.getText(), new Declaration(type, name, null))) {
 			d.printError(name, "Global variable '%s' already declared", name.getText());
 		}
 	}
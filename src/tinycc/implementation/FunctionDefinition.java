@@ -1,5 +1,7 @@
 package tinycc.implementation;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import tinycc.diagnostic.Diagnostic;
@@ -8,16 +10,20 @@
 import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.statement.Statement;
 import tinycc.implementation.type.FunctionType;
-import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.Token;
-import tinycc.parser.TokenKind;
+import tinycc.util.Trace;
 
 public class FunctionDefinition extends Statement {
     private Type type;
     private Token name;
     List<Token> parameterNames;
     Statement body;
+    // Filled in by checkType
+    private List<Declaration> parameters = Collections.emptyList();
+    private List<Declaration> locals = Collections.emptyList();
+    private int frameSize = 0;
 
     public FunctionDefinition(Type type, Token name, List<Token> parameterNames, Statement body){
         this.type = type;
@@ -42,6 +48,37 @@ public Statement getFunctionBody(){
         return this.body;
     }
 
+    @Override
+    public Statement fold() {
+        body = body.fold();
+        return this;
+    }
+
+    /**
+     * Returns the declarations of the parameters in order, null for an unnamed parameter.
+     */
+    public List<Declaration> getParameters(){
+        return this.parameters;
+    }
+
+    /**
+     * Returns the parameters and locals of this function, indexed by their slot.
+     */
+    public List<Declaration> getLocals(){
+        return this.locals;
+    }
+
+    public int getLocalCount(){
+        return this.locals.size();
+    }
+
+    /**
+     * Returns the size of the locals area of the frame in bytes.
+     */
+    public int getFrameSize(){
+        return this.frameSize;
+    }
+
     public Location getFunctionLocation(){
         return new Location(name);
     }
@@ -73,19 +110,19 @@ public void checkType(Diagnostic d, Scope s) {
 		// Function is already registered in global scope by Compiler.checkSemantics()
 		// so we don't need to register it again here
 		
-		System.err.println("DEBUG: Processing function definition: " + name.getText());
-		System.err.println("DEBUG: Function type: " + type);
-		System.err.println("DEBUG: Parameter names count: " + parameterNames.size());
+		if (Trace.SEMA.isEnabled())
+			Trace.SEMA.print(name, "function '%s' of type %s", name.getText(), type);
 		
 		// Create function scope with parameters
-		Scope functionScope = s.newNestedScope();
+		s.beginFunction();
+		s.enterScope();
+		parameters = new ArrayList<>();
 		
 		// Set the current function's return type in the scope
 		if (type instanceof FunctionType) {
 			FunctionType funcType = (FunctionType) type;
 			Type returnType = funcType.getReturnType();
-			functionScope.setCurrentFunctionReturnType(returnType);
-			System.err.println("DEBUG: Function " + name.getText() + " return type: " + returnType);
+			s.setCurrentFunctionReturnType(returnType);
 		}
 		
 		// Get parameter types from function type
@@ -93,49 +130,50 @@ public void checkType(Diagnostic d, Scope s) {
 			FunctionType funcType = (FunctionType) type;
 			List<Type> paramTypes = funcType.getFunctionArguments();
 			
-			System.err.println("DEBUG: Function " + name.getText() + " has " + paramTypes.size() + " parameter types");
-			System.err.println("DEBUG: Function has " + parameterNames.size() + " parameter names");
-			
 			for (int i = 0; i < parameterNames.size(); i++) {
 				Token param = parameterNames.get(i);
 				Type paramType;
 				
 				if (i < paramTypes.size()) {
 					paramType = paramTypes.get(i);
-					System.err.println("DEBUG: Parameter " + (param != null ? param.getText() : "null") + " has type: " + paramType);
 				} else {
 					// Fallback to int if parameter type is missing
-					paramType = new SimpleType(TokenKind.INT);
-					System.err.println("DEBUG: Parameter " + (param != null ? param.getText() : "null") + " using fallback type: " + paramType);
+					paramType = TypeContext.INT;
 				}
 				
-				if (param != null) {
+				if (param == null) {
+					parameters.add(null);
+				} else {
 					Declaration paramDecl = new Declaration(paramType, param, null);
-					try {
-						functionScope.add(param.getText(), paramDecl);
-						System.err.println("DEBUG: Successfully added parameter " + param.getText() + " with type " + paramType + " to function scope");
-					} catch (Exception e) {
+					parameters.add(paramDecl);
+					if (s.add(param.getText(), paramDecl)) {
+						if (Trace.SCOPE.isEnabled())
+							Trace.SCOPE.print(param, "parameter '%s' of type %s", param.getText(), paramType);
+					} else {
 						d.printError(param, "Parameter '%s' already declared", param.getText());
 					}
-				} else {
-					System.err.println("DEBUG: Parameter at index " + i + " is null!");
 				}
 			}
 		} else {
-			System.err.println("DEBUG: Function type is not FunctionType: " + type.getClass().getSimpleName());
 			// Fallback: assume all parameters are int
 			for (Token param : parameterNames) {
-				Declaration paramDecl = new Declaration(new SimpleType(TokenKind.INT), param, null);
-				try {
-					functionScope.add(param.getText(), paramDecl);
-				} catch (Exception e) {
+				Declaration paramDecl = new Declaration(TypeContext.INT, param, null);
+				parameters.add(paramDecl);
+				if (!s.add(param.getText(), paramDecl)) {
 					d.printError(param, "Parameter '%s' already declared", param.getText());
 				}
 			}
 		}
 		
 		// Check function body
-		body.checkType(d, functionScope);
+		try {
+			body.checkType(d, s);
+			locals = s.getLocals();
+			frameSize = s.getFrameSize();
+		} finally {
+			s.leaveScope();
+			s.setCurrentFunctionReturnType(null);
+		}
 	}
     
 }
@@ -0,0 +1,50 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight-line sequence of instructions ending with a terminator.
+ */
+final class BasicBlock {
+    // Unique within the function, used for printing
+    final int id;
+    // Position in IrFunction.blocks, see IrFunction.renumber()
+    int index;
+    final ArrayList<Instruction> instructions = new ArrayList<>();
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    Instruction terminator() {
+        if (instructions.isEmpty())
+            return null;
+        final Instruction last = instructions.get(instructions.size() - 1);
+        return last.op.isTerminator() ? last : null;
+    }
+
+    boolean isTerminated() {
+        return terminator() != null;
+    }
+
+    /**
+     * Returns the blocks control can flow to from this block.
+     */
+    List<BasicBlock> successors() {
+        final List<BasicBlock> successors = new ArrayList<>(2);
+        final Instruction t = terminator();
+        if (t != null) {
+            if (t.target != null)
+                successors.add(t.target);
+            if (t.other != null && t.other != t.target)
+                successors.add(t.other);
+        }
+        return successors;
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
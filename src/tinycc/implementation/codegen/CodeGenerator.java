@@ -0,0 +1,109 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.asmgen.AsmGen;
+import tinycc.asmgen.DataLabel;
+import tinycc.asmgen.Label;
+import tinycc.asmgen.TextLabel;
+import tinycc.implementation.ExternalDeclaration;
+import tinycc.implementation.FunctionDefinition;
+import tinycc.util.Trace;
+
+/**
+ * The back end: lowers the checked function definitions of a translation unit to
+ * the intermediate representation and emits them as RISC-V assembly.
+ *
+ * Global variables are zero-initialized words in the data segment (a char
+ * global uses the lowest byte of its word), string constants are emitted once
+ * each after the code.
+ */
+public final class CodeGenerator {
+    private final List<ExternalDeclaration> globals;
+    private final List<IrFunction> functions = new ArrayList<>();
+    private boolean optimized;
+
+    /**
+     * Lowers a translation unit that passed the semantic analysis.
+     *
+     * @param globals   The global variables.
+     * @param functions The function definitions.
+     */
+    public CodeGenerator(List<ExternalDeclaration> globals, List<FunctionDefinition> functions) {
+        this.globals = globals;
+        for (FunctionDefinition definition : functions) {
+            final IrFunction function = Lowering.lower(definition);
+            if (Trace.CODEGEN.isEnabled())
+                Trace.CODEGEN.print("lowered %s", function);
+            this.functions.add(function);
+        }
+    }
+
+    /**
+     * Inlines small functions and optimizes every function, callees first, see
+     * Inliner and Optimizer.
+     *
+     * @param inlineThreshold The largest number of IR instructions of a function
+     *                        that is inlined, 0 disables inlining.
+     * @return The number of inlined call sites.
+     */
+    public int optimize(int inlineThreshold) {
+        optimized = true;
+        final Inliner inliner = new Inliner(functions, inlineThreshold);
+        for (IrFunction function : inliner.bottomUp()) {
+            inliner.inlineCalls(function);
+            Optimizer.optimize(function);
+            if (Trace.CODEGEN.isEnabled())
+                Trace.CODEGEN.print("optimized %s", function);
+        }
+        if (Trace.CODEGEN.isEnabled())
+            Trace.CODEGEN.print("inlined %d call sites", inliner.getInlinedCount());
+        return inliner.getInlinedCount();
+    }
+
+    /**
+     * Allocates registers and emits the code of the translation unit. The code
+     * of an optimized translation unit also goes through the peephole optimizer
+     * of the assembly generator.
+     *
+     * @param out The assembly generator to emit to.
+     */
+    public void emit(AsmGen out) {
+        if (optimized)
+            out.startBuffering();
+        final Map<String, Label> symbols = new HashMap<>();
+        final Map<String, DataLabel> strings = new LinkedHashMap<>();
+
+        for (ExternalDeclaration global : globals) {
+            final DataLabel label = out.makeDataLabel(global.getName().getText());
+            symbols.put(global.getName().getText(), label);
+            out.emitWord(label, 0);
+        }
+
+        for (IrFunction function : functions) {
+            final LinearScan allocation = new LinearScan(function);
+            if (Trace.CODEGEN.isEnabled()) {
+                final StringBuilder b = new StringBuilder();
+                for (int v = 0; v != allocation.registers.length; ++v) {
+                    if (allocation.registers[v] != null)
+                        b.append(" %").append(v).append('=').append(allocation.registers[v]);
+                    else if (allocation.spillSlots[v] >= 0)
+                        b.append(" %").append(v).append("=slot").append(allocation.spillSlots[v]);
+                }
+                Trace.CODEGEN.print("allocated %s:%s", function.name, b);
+            }
+            final TextLabel entry = (TextLabel) symbols.computeIfAbsent(function.name, out::makeTextLabel);
+            new Emitter(out, function, allocation,
+                    name -> symbols.computeIfAbsent(name, out::makeTextLabel),
+                    text -> strings.computeIfAbsent(text, t -> out.makeUniqueDataLabel())).emit(entry);
+        }
+
+        for (Map.Entry<String, DataLabel> string : strings.entrySet())
+            out.emitASCIIZ(string.getValue(), string.getKey());
+        out.flush();
+    }
+}
@@ -0,0 +1,121 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The dominator tree and the dominance frontiers of a function, computed with
+ * the iterative algorithm of Cooper, Harvey and Kennedy. Blocks are identified
+ * by their index; all blocks must be reachable from the entry.
+ */
+final class Dominators {
+    final List<List<BasicBlock>> predecessors;
+    // The immediate dominator of every block, the entry is its own
+    final int[] idom;
+    final List<List<BasicBlock>> children;
+    final BitSet[] frontier;
+    // The blocks in reverse postorder
+    final List<BasicBlock> order;
+
+    Dominators(IrFunction function) {
+        function.renumber();
+        final List<BasicBlock> blocks = function.blocks;
+        final int n = blocks.size();
+        predecessors = function.predecessors();
+        order = reversePostorder(blocks.get(0), n);
+        final int[] rank = new int[n];
+        for (int i = 0; i != order.size(); ++i)
+            rank[order.get(i).index] = i;
+
+        idom = new int[n];
+        Arrays.fill(idom, -1);
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i != order.size(); ++i) {
+                final int b = order.get(i).index;
+                int dom = -1;
+                for (BasicBlock p : predecessors.get(b)) {
+                    if (idom[p.index] < 0)
+                        continue;
+                    dom = dom < 0 ? p.index : intersect(p.index, dom, rank);
+                }
+                if (dom != idom[b]) {
+                    idom[b] = dom;
+                    changed = true;
+                }
+            }
+        }
+
+        children = new ArrayList<>(n);
+        frontier = new BitSet[n];
+        for (int i = 0; i != n; ++i) {
+            children.add(new ArrayList<>());
+            frontier[i] = new BitSet();
+        }
+        for (BasicBlock b : order) {
+            if (b.index != 0)
+                children.get(idom[b.index]).add(b);
+        }
+        for (int b = 0; b != n; ++b) {
+            if (predecessors.get(b).size() < 2)
+                continue;
+            for (BasicBlock p : predecessors.get(b)) {
+                for (int runner = p.index; runner != idom[b]; runner = idom[runner])
+                    frontier[runner].set(b);
+            }
+        }
+    }
+
+    private int intersect(int a, int b, int[] rank) {
+        while (a != b) {
+            while (rank[a] > rank[b])
+                a = idom[a];
+            while (rank[b] > rank[a])
+                b = idom[b];
+        }
+        return a;
+    }
+
+    private static List<BasicBlock> reversePostorder(BasicBlock entry, int n) {
+        final List<BasicBlock> postorder = new ArrayList<>(n);
+        final boolean[] visited = new boolean[n];
+        // An explicit stack of blocks and the number of their successors already visited
+        final List<BasicBlock> stack = new ArrayList<>();
+        final List<Integer> next = new ArrayList<>();
+        stack.add(entry);
+        next.add(0);
+        visited[entry.index] = true;
+        while (!stack.isEmpty()) {
+            final int top = stack.size() - 1;
+            final List<BasicBlock> successors = stack.get(top).successors();
+            final int i = next.get(top);
+            if (i == successors.size()) {
+                postorder.add(stack.remove(top));
+                next.remove(top);
+                continue;
+            }
+            next.set(top, i + 1);
+            final BasicBlock s = successors.get(i);
+            if (!visited[s.index]) {
+                visited[s.index] = true;
+                stack.add(s);
+                next.add(0);
+            }
+        }
+        final List<BasicBlock> order = new ArrayList<>(postorder.size());
+        for (int i = postorder.size() - 1; i >= 0; --i)
+            order.add(postorder.get(i));
+        return order;
+    }
+
+    boolean dominates(BasicBlock a, BasicBlock b) {
+        int runner = b.index;
+        while (runner != a.index && runner != 0)
+            runner = idom[runner];
+        return runner == a.index;
+    }
+}
@@ -0,0 +1,468 @@
+package tinycc.implementation.codegen;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import tinycc.asmgen.AsmGen;
+import tinycc.asmgen.BranchInstruction;
+import tinycc.asmgen.GPRegister;
+import tinycc.asmgen.ImmediateInstruction;
+import tinycc.asmgen.ImmediateRange;
+import tinycc.asmgen.JumpInstruction;
+import tinycc.asmgen.JumpRegisterInstruction;
+import tinycc.asmgen.Label;
+import tinycc.asmgen.MemoryInstruction;
+import tinycc.asmgen.RegisterInstruction;
+import tinycc.asmgen.TextLabel;
+
+/**
+ * Emits the RISC-V code of an allocated function.
+ *
+ * The frame is addressed relative to sp, from the bottom: outgoing stack
+ * arguments, locals in memory, spill slots, saved callee-saved registers and
+ * ra. It is 16 byte aligned. Arguments are passed in a0 to a7 and then on the
+ * stack, the result is returned in a0.
+ */
+final class Emitter {
+    private static final GPRegister[] ARGUMENTS = { GPRegister.A0, GPRegister.A1, GPRegister.A2, GPRegister.A3,
+            GPRegister.A4, GPRegister.A5, GPRegister.A6, GPRegister.A7 };
+    // Scratch registers for spilled operands and results, and for large offsets
+    private static final GPRegister SCRATCH_A = GPRegister.T0;
+    private static final GPRegister SCRATCH_B = GPRegister.T1;
+    private static final GPRegister SCRATCH_ADDRESS = GPRegister.T2;
+
+    private final AsmGen out;
+    private final IrFunction function;
+    private final LinearScan allocation;
+    private final Function<String, Label> symbols;
+    private final Function<String, Label> strings;
+    private final Map<BasicBlock, TextLabel> labels = new HashMap<>();
+    private TextLabel epilogue;
+
+    private boolean hasCalls = false;
+    private int localsBase;
+    private int spillBase;
+    private int savedBase;
+    private int frameSize;
+
+    Emitter(AsmGen out, IrFunction function, LinearScan allocation, Function<String, Label> symbols,
+            Function<String, Label> strings) {
+        this.out = out;
+        this.function = function;
+        this.allocation = allocation;
+        this.symbols = symbols;
+        this.strings = strings;
+        layoutFrame();
+    }
+
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    private void layoutFrame() {
+        int stackArguments = 0;
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                if (insn.op == Opcode.CALL) {
+                    hasCalls = true;
+                    stackArguments = Math.max(stackArguments, insn.args.length - ARGUMENTS.length);
+                }
+            }
+        }
+        localsBase = 4 * stackArguments;
+        spillBase = localsBase + align(function.localsSize, 4);
+        savedBase = spillBase + 4 * allocation.spillCount;
+        final int top = savedBase + 4 * allocation.usedCalleeSaved.size() + (hasCalls ? 4 : 0);
+        frameSize = align(top, 16);
+    }
+
+    private TextLabel label(BasicBlock block) {
+        return labels.computeIfAbsent(block, b -> out.makeUniqueTextLabel());
+    }
+
+    void emit(TextLabel entry) {
+        final Set<BasicBlock> targets = branchTargets();
+        out.emitLabel(entry);
+        emitPrologue();
+        final List<BasicBlock> blocks = function.blocks;
+        for (int i = 0; i != blocks.size(); ++i) {
+            final BasicBlock block = blocks.get(i);
+            if (targets.contains(block))
+                out.emitLabel(label(block));
+            final BasicBlock next = i + 1 != blocks.size() ? blocks.get(i + 1) : null;
+            for (Instruction insn : block.instructions)
+                emitInstruction(insn, next);
+        }
+        if (epilogue != null)
+            out.emitLabel(epilogue);
+        emitEpilogue();
+    }
+
+    /**
+     * Returns the blocks that are not only reached by falling through, see
+     * emitBranch().
+     */
+    private Set<BasicBlock> branchTargets() {
+        final Set<BasicBlock> targets = new HashSet<>();
+        final List<BasicBlock> blocks = function.blocks;
+        for (int i = 0; i != blocks.size(); ++i) {
+            final BasicBlock next = i + 1 != blocks.size() ? blocks.get(i + 1) : null;
+            final Instruction t = blocks.get(i).terminator();
+            if (t == null || t.target == null)
+                continue;
+            if (t.target != next)
+                targets.add(t.target);
+            if (t.other != null && t.other != next)
+                targets.add(t.other);
+        }
+        return targets;
+    }
+
+    // ------------ Frame ------------
+
+    private void emitPrologue() {
+        if (frameSize != 0)
+            addImmediate(GPRegister.SP, GPRegister.SP, -frameSize);
+        int offset = savedBase;
+        for (GPRegister r : allocation.usedCalleeSaved) {
+            memory(MemoryInstruction.SW, r, offset, GPRegister.SP);
+            offset += 4;
+        }
+        if (hasCalls)
+            memory(MemoryInstruction.SW, GPRegister.RA, offset, GPRegister.SP);
+    }
+
+    private void emitEpilogue() {
+        int offset = savedBase;
+        for (GPRegister r : allocation.usedCalleeSaved) {
+            memory(MemoryInstruction.LW, r, offset, GPRegister.SP);
+            offset += 4;
+        }
+        if (hasCalls)
+            memory(MemoryInstruction.LW, GPRegister.RA, offset, GPRegister.SP);
+        if (frameSize != 0)
+            addImmediate(GPRegister.SP, GPRegister.SP, frameSize);
+        out.emitInstruction(JumpRegisterInstruction.JR, GPRegister.RA);
+    }
+
+    // ------------ Operands ------------
+
+    private int spillOffset(int v) {
+        return spillBase + 4 * allocation.spillSlots[v];
+    }
+
+    /**
+     * Returns the register holding a virtual register, loading a spilled one into
+     * the given scratch register.
+     */
+    private GPRegister read(int v, GPRegister scratch) {
+        if (v == Instruction.NONE)
+            return GPRegister.ZERO;
+        final GPRegister r = allocation.registers[v];
+        if (r != null)
+            return r;
+        memory(MemoryInstruction.LW, scratch, spillOffset(v), GPRegister.SP);
+        return scratch;
+    }
+
+    /**
+     * Returns the register to compute a virtual register in, see writeBack().
+     */
+    private GPRegister target(int v) {
+        final GPRegister r = allocation.registers[v];
+        return r != null ? r : SCRATCH_A;
+    }
+
+    /**
+     * Stores a result computed in target() if its virtual register is spilled.
+     */
+    private void writeBack(int v, GPRegister r) {
+        if (allocation.registers[v] == null && allocation.spillSlots[v] >= 0)
+            memory(MemoryInstruction.SW, r, spillOffset(v), GPRegister.SP);
+    }
+
+    private void move(GPRegister dst, GPRegister src) {
+        if (dst != src)
+            out.emitInstruction(RegisterInstruction.ADD, dst, src, GPRegister.ZERO);
+    }
+
+    /**
+     * Copies a register into a virtual register.
+     */
+    private void assign(int v, GPRegister src) {
+        final GPRegister r = allocation.registers[v];
+        if (r != null)
+            move(r, src);
+        else
+            writeBack(v, src);
+    }
+
+    private void loadConstant(GPRegister r, int value) {
+        if (ImmediateInstruction.ADDI.getRange().inRange(value)) {
+            out.emitInstruction(ImmediateInstruction.ADDI, r, GPRegister.ZERO, value);
+            return;
+        }
+        // lui sets the upper 20 bits, addi adds the sign-extended lower 12 bits
+        final int upper = ((value + 0x800) >>> 12) & 0xfffff;
+        final int lower = value - (upper << 12);
+        out.emitInstruction(ImmediateInstruction.LUI, r, upper);
+        if (lower != 0)
+            out.emitInstruction(ImmediateInstruction.ADDI, r, lower);
+    }
+
+    private void addImmediate(GPRegister dst, GPRegister src, int value) {
+        if (ImmediateInstruction.ADDI.getRange().inRange(value)) {
+            out.emitInstruction(ImmediateInstruction.ADDI, dst, src, value);
+        } else {
+            loadConstant(SCRATCH_ADDRESS, value);
+            out.emitInstruction(RegisterInstruction.ADD, dst, src, SCRATCH_ADDRESS);
+        }
+    }
+
+    private void memory(MemoryInstruction insn, GPRegister r, int offset, GPRegister base) {
+        if (!ImmediateRange.SIGNED12.inRange(offset)) {
+            loadConstant(SCRATCH_ADDRESS, offset);
+            out.emitInstruction(RegisterInstruction.ADD, SCRATCH_ADDRESS, SCRATCH_ADDRESS, base);
+            base = SCRATCH_ADDRESS;
+            offset = 0;
+        }
+        out.emitInstruction(insn, r, null, offset, base);
+    }
+
+    // ------------ Instructions ------------
+
+    private static RegisterInstruction registerInstruction(Opcode op) {
+        switch (op) {
+            case ADD:
+                return RegisterInstruction.ADD;
+            case SUB:
+                return RegisterInstruction.SUB;
+            case MUL:
+                return RegisterInstruction.MUL;
+            case DIV:
+                return RegisterInstruction.DIV;
+            case REM:
+                return RegisterInstruction.REM;
+            case AND:
+                return RegisterInstruction.AND;
+            case OR:
+                return RegisterInstruction.OR;
+            case XOR:
+                return RegisterInstruction.XOR;
+            case SLL:
+                return RegisterInstruction.SLL;
+            case SRL:
+                return RegisterInstruction.SRL;
+            case SRA:
+                return RegisterInstruction.SRA;
+            case SLT:
+                return RegisterInstruction.SLT;
+            case SLTU:
+                return RegisterInstruction.SLTU;
+            default:
+                return null;
+        }
+    }
+
+    private static ImmediateInstruction immediateInstruction(Opcode op) {
+        switch (op) {
+            case ADDI:
+                return ImmediateInstruction.ADDI;
+            case ANDI:
+                return ImmediateInstruction.ANDI;
+            case ORI:
+                return ImmediateInstruction.ORI;
+            case XORI:
+                return ImmediateInstruction.XORI;
+            case SLLI:
+                return ImmediateInstruction.SLLI;
+            case SRLI:
+                return ImmediateInstruction.SRLI;
+            case SRAI:
+                return ImmediateInstruction.SRAI;
+            case SLTI:
+                return ImmediateInstruction.SLTI;
+            case SLTIU:
+                return ImmediateInstruction.SLTIU;
+            default:
+                return null;
+        }
+    }
+
+    private static BranchInstruction branchInstruction(Opcode op) {
+        switch (op) {
+            case BEQ:
+                return BranchInstruction.BEQ;
+            case BNE:
+                return BranchInstruction.BNE;
+            case BLT:
+                return BranchInstruction.BLT;
+            case BGE:
+                return BranchInstruction.BGE;
+            default:
+                throw new IllegalStateException("not a conditional branch: " + op);
+        }
+    }
+
+    private void emitInstruction(Instruction insn, BasicBlock next) {
+        final RegisterInstruction register = registerInstruction(insn.op);
+        if (register != null) {
+            final GPRegister a = read(insn.a, SCRATCH_A);
+            final GPRegister b = read(insn.b, SCRATCH_B);
+            final GPRegister d = target(insn.dst);
+            out.emitInstruction(register, d, a, b);
+            writeBack(insn.dst, d);
+            return;
+        }
+        final ImmediateInstruction immediate = immediateInstruction(insn.op);
+        if (immediate != null) {
+            final GPRegister a = read(insn.a, SCRATCH_A);
+            final GPRegister d = target(insn.dst);
+            out.emitInstruction(immediate, d, a, insn.imm);
+            writeBack(insn.dst, d);
+            return;
+        }
+
+        switch (insn.op) {
+            case CONST: {
+                final GPRegister d = target(insn.dst);
+                loadConstant(d, insn.imm);
+                writeBack(insn.dst, d);
+                break;
+            }
+            case MOVE:
+                assign(insn.dst, read(insn.a, SCRATCH_A));
+                break;
+            case NEG:
+            case NOT:
+            case SEQZ:
+            case SNEZ:
+            case SEXTB: {
+                final GPRegister a = read(insn.a, SCRATCH_A);
+                final GPRegister d = target(insn.dst);
+                emitUnary(insn.op, d, a);
+                writeBack(insn.dst, d);
+                break;
+            }
+            case LA:
+            case LSTR: {
+                final GPRegister d = target(insn.dst);
+                final Label label = insn.op == Opcode.LA ? symbols.apply(insn.symbol) : strings.apply(insn.symbol);
+                out.emitInstruction(MemoryInstruction.LA, d, label, null);
+                writeBack(insn.dst, d);
+                break;
+            }
+            case FRAME: {
+                final GPRegister d = target(insn.dst);
+                addImmediate(d, GPRegister.SP, localsBase + insn.imm);
+                writeBack(insn.dst, d);
+                break;
+            }
+            case LW:
+            case LB: {
+                final GPRegister base = insn.a == Instruction.NONE ? GPRegister.SP : read(insn.a, SCRATCH_A);
+                final int offset = insn.a == Instruction.NONE ? localsBase + insn.imm : insn.imm;
+                final GPRegister d = target(insn.dst);
+                memory(insn.op == Opcode.LW ? MemoryInstruction.LW : MemoryInstruction.LB, d, offset, base);
+                writeBack(insn.dst, d);
+                break;
+            }
+            case SW:
+            case SB: {
+                final GPRegister value = read(insn.a, SCRATCH_A);
+                final GPRegister base = insn.b == Instruction.NONE ? GPRegister.SP : read(insn.b, SCRATCH_B);
+                final int offset = insn.b == Instruction.NONE ? localsBase + insn.imm : insn.imm;
+                memory(insn.op == Opcode.SW ? MemoryInstruction.SW : MemoryInstruction.SB, value, offset, base);
+                break;
+            }
+            case PARAM:
+                if (insn.imm < ARGUMENTS.length) {
+                    assign(insn.dst, ARGUMENTS[insn.imm]);
+                } else {
+                    final GPRegister d = target(insn.dst);
+                    memory(MemoryInstruction.LW, d, frameSize + 4 * (insn.imm - ARGUMENTS.length), GPRegister.SP);
+                    writeBack(insn.dst, d);
+                }
+                break;
+            case CALL:
+                emitCall(insn);
+                break;
+            case JUMP:
+                if (insn.target != next)
+                    out.emitInstruction(JumpInstruction.J, label(insn.target));
+                break;
+            case BEQ:
+            case BNE:
+            case BLT:
+            case BGE:
+                emitBranch(insn, next);
+                break;
+            case RET:
+                if (insn.a != Instruction.NONE)
+                    move(GPRegister.A0, read(insn.a, GPRegister.A0));
+                if (next != null) {
+                    if (epilogue == null)
+                        epilogue = out.makeUniqueTextLabel();
+                    out.emitInstruction(JumpInstruction.J, epilogue);
+                }
+                break;
+            default:
+                throw new IllegalStateException("cannot emit " + insn);
+        }
+    }
+
+    private void emitUnary(Opcode op, GPRegister d, GPRegister a) {
+        switch (op) {
+            case NEG:
+                out.emitInstruction(RegisterInstruction.SUB, d, GPRegister.ZERO, a);
+                break;
+            case NOT:
+                out.emitInstruction(ImmediateInstruction.XORI, d, a, -1);
+                break;
+            case SEQZ:
+                out.emitInstruction(ImmediateInstruction.SLTIU, d, a, 1);
+                break;
+            case SNEZ:
+                out.emitInstruction(RegisterInstruction.SLTU, d, GPRegister.ZERO, a);
+                break;
+            default:
+                out.emitInstruction(ImmediateInstruction.SLLI, d, a, 24);
+                out.emitInstruction(ImmediateInstruction.SRAI, d, d, 24);
+                break;
+        }
+    }
+
+    private void emitCall(Instruction insn) {
+        for (int i = 0; i != insn.args.length; ++i) {
+            if (i < ARGUMENTS.length) {
+                move(ARGUMENTS[i], read(insn.args[i], ARGUMENTS[i]));
+            } else {
+                final GPRegister r = read(insn.args[i], SCRATCH_A);
+                memory(MemoryInstruction.SW, r, 4 * (i - ARGUMENTS.length), GPRegister.SP);
+            }
+        }
+        out.emitInstruction(JumpInstruction.JAL, (TextLabel) symbols.apply(insn.symbol));
+        if (insn.dst != Instruction.NONE)
+            assign(insn.dst, GPRegister.A0);
+    }
+
+    private void emitBranch(Instruction insn, BasicBlock next) {
+        final GPRegister a = read(insn.a, SCRATCH_A);
+        final GPRegister b = read(insn.b, SCRATCH_B);
+        Opcode op = insn.op;
+        BasicBlock target = insn.target;
+        BasicBlock other = insn.other;
+        if (target == next) {
+            op = op.negate();
+            target = other;
+            other = next;
+        }
+        out.emitInstruction(branchInstruction(op), a, b, label(target));
+        if (other != next)
+            out.emitInstruction(JumpInstruction.J, label(other));
+    }
+}
@@ -0,0 +1,192 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.util.Trace;
+
+/**
+ * Replaces calls of small functions by a copy of their body.
+ *
+ * Functions are handled callees first, along the strongly connected
+ * components of the call graph, so a copied body has already had its own calls
+ * inlined and has been optimized. Functions on a cycle of the call graph are
+ * never copied, which keeps recursion finite, and neither are functions with
+ * locals in memory, whose frame the caller does not have.
+ */
+final class Inliner {
+    private static final int NONE = Instruction.NONE;
+
+    private final Map<String, IrFunction> definitions = new LinkedHashMap<>();
+    private final Map<String, Set<String>> callees = new HashMap<>();
+    private final Set<String> recursive = new LinkedHashSet<>();
+    private final int threshold;
+    private int inlined;
+
+    /**
+     * @param threshold The largest number of instructions of an inlined function,
+     *                  0 disables inlining.
+     */
+    Inliner(List<IrFunction> functions, int threshold) {
+        this.threshold = threshold;
+        for (IrFunction function : functions) {
+            definitions.put(function.name, function);
+            final Set<String> called = new LinkedHashSet<>();
+            for (Instruction insn : function.instructions()) {
+                if (insn.op == Opcode.CALL)
+                    called.add(insn.symbol);
+            }
+            callees.put(function.name, called);
+        }
+    }
+
+    int getInlinedCount() {
+        return inlined;
+    }
+
+    // ------------ Call graph ------------
+
+    private final Map<String, Integer> lowlink = new HashMap<>();
+    private final Map<String, Integer> number = new HashMap<>();
+    private final List<String> stack = new ArrayList<>();
+    private final List<IrFunction> order = new ArrayList<>();
+
+    /**
+     * Returns the functions so that every function comes after the functions it
+     * calls, unless they call each other (Tarjan's algorithm).
+     */
+    List<IrFunction> bottomUp() {
+        for (String name : definitions.keySet()) {
+            if (!number.containsKey(name))
+                visit(name);
+        }
+        return order;
+    }
+
+    private void visit(String name) {
+        number.put(name, number.size());
+        lowlink.put(name, number.get(name));
+        stack.add(name);
+        for (String callee : callees.get(name)) {
+            if (!definitions.containsKey(callee))
+                continue;
+            if (!number.containsKey(callee)) {
+                visit(callee);
+                lowlink.put(name, Math.min(lowlink.get(name), lowlink.get(callee)));
+            } else if (stack.contains(callee)) {
+                lowlink.put(name, Math.min(lowlink.get(name), number.get(callee)));
+            }
+        }
+        if (!lowlink.get(name).equals(number.get(name)))
+            return;
+        final int top = stack.indexOf(name);
+        final List<String> component = new ArrayList<>(stack.subList(top, stack.size()));
+        stack.subList(top, stack.size()).clear();
+        if (component.size() > 1 || callees.get(name).contains(name))
+            recursive.addAll(component);
+        for (String member : component)
+            order.add(definitions.get(member));
+    }
+
+    // ------------ Inlining ------------
+
+    private boolean isInlinable(IrFunction callee) {
+        if (callee == null || recursive.contains(callee.name) || callee.localsSize != 0)
+            return false;
+        int size = 0;
+        for (BasicBlock block : callee.blocks)
+            size += block.instructions.size();
+        return size <= threshold;
+    }
+
+    /**
+     * Inlines the calls of a function whose callees are final.
+     */
+    void inlineCalls(IrFunction caller) {
+        if (threshold <= 0)
+            return;
+        for (int b = 0; b != caller.blocks.size(); ++b) {
+            final BasicBlock block = caller.blocks.get(b);
+            for (int i = 0; i != block.instructions.size(); ++i) {
+                final Instruction insn = block.instructions.get(i);
+                if (insn.op != Opcode.CALL)
+                    continue;
+                final IrFunction callee = definitions.get(insn.symbol);
+                if (callee == caller || !isInlinable(callee) || insn.args.length != callee.parameterCount)
+                    continue;
+                inline(caller, b, i, callee);
+                ++inlined;
+                if (Trace.CODEGEN.isEnabled())
+                    Trace.CODEGEN.print("inlined %s into %s", callee.name, caller.name);
+                // The rest of the block moved to the continuation, which comes later
+                break;
+            }
+        }
+    }
+
+    /**
+     * Replaces the call at position index of caller.blocks.get(b) by a copy of
+     * the body of the callee.
+     */
+    private static void inline(IrFunction caller, int b, int index, IrFunction callee) {
+        final BasicBlock block = caller.blocks.get(b);
+        final Instruction call = block.instructions.get(index);
+        final BasicBlock continuation = caller.newBlock();
+        final List<Instruction> rest = block.instructions.subList(index + 1, block.instructions.size());
+        continuation.instructions.addAll(rest);
+        rest.clear();
+        block.instructions.remove(index);
+
+        final int[] vregs = new int[callee.getVregCount()];
+        for (int v = 0; v != vregs.length; ++v)
+            vregs[v] = caller.newVreg();
+        final Map<BasicBlock, BasicBlock> copies = new IdentityHashMap<>();
+        for (BasicBlock original : callee.blocks)
+            copies.put(original, caller.newBlock());
+
+        final List<BasicBlock> body = new ArrayList<>();
+        for (BasicBlock original : callee.blocks) {
+            final BasicBlock copy = copies.get(original);
+            for (Instruction insn : original.instructions) {
+                final Instruction c;
+                if (insn.op == Opcode.PARAM) {
+                    c = new Instruction(Opcode.MOVE, vregs[insn.dst], call.args[insn.imm], NONE, 0);
+                } else if (insn.op == Opcode.RET) {
+                    if (call.dst != NONE)
+                        copy.instructions.add(new Instruction(Opcode.MOVE, call.dst, map(vregs, insn.a), NONE, 0));
+                    c = new Instruction(Opcode.JUMP, NONE, NONE, NONE, 0);
+                    c.target = continuation;
+                } else {
+                    c = new Instruction(insn.op, map(vregs, insn.dst), map(vregs, insn.a), map(vregs, insn.b), insn.imm);
+                    c.symbol = insn.symbol;
+                    if (insn.args != null) {
+                        c.args = new int[insn.args.length];
+                        for (int i = 0; i != insn.args.length; ++i)
+                            c.args[i] = map(vregs, insn.args[i]);
+                    }
+                    c.target = insn.target != null ? copies.get(insn.target) : null;
+                    c.other = insn.other != null ? copies.get(insn.other) : null;
+                }
+                copy.instructions.add(c);
+            }
+            body.add(copy);
+        }
+
+        final Instruction jump = new Instruction(Opcode.JUMP, NONE, NONE, NONE, 0);
+        jump.target = copies.get(callee.blocks.get(0));
+        block.instructions.add(jump);
+        body.add(continuation);
+        caller.blocks.addAll(b + 1, body);
+        caller.renumber();
+    }
+
+    private static int map(int[] vregs, int v) {
+        return v == NONE ? NONE : vregs[v];
+    }
+}
@@ -0,0 +1,135 @@
+package tinycc.implementation.codegen;
+
+/**
+ * A three-address instruction on virtual registers.
+ *
+ * Virtual registers are numbered densely per function. An absent operand is
+ * NONE; it reads as zero in arithmetic and branches, and as the locals area of
+ * the frame when used as the base of a load or store.
+ */
+final class Instruction {
+    static final int NONE = -1;
+
+    Opcode op;
+    int dst;
+    int a;
+    int b;
+    int imm;
+    // LA, LSTR and CALL
+    String symbol;
+    // CALL, and the arguments of PHI
+    int[] args;
+    // PHI, the predecessor each argument flows from
+    BasicBlock[] sources;
+    // JUMP and the conditional branches
+    BasicBlock target;
+    BasicBlock other;
+
+    Instruction(Opcode op, int dst, int a, int b, int imm) {
+        this.op = op;
+        this.dst = dst;
+        this.a = a;
+        this.b = b;
+        this.imm = imm;
+    }
+
+    /**
+     * Returns the virtual registers read by this instruction.
+     */
+    int[] uses() {
+        final int fixed = (a != NONE ? 1 : 0) + (b != NONE ? 1 : 0);
+        final int[] uses = new int[fixed + (args != null ? args.length : 0)];
+        int n = 0;
+        if (a != NONE)
+            uses[n++] = a;
+        if (b != NONE)
+            uses[n++] = b;
+        if (args != null) {
+            for (int arg : args)
+                uses[n++] = arg;
+        }
+        return uses;
+    }
+
+    /**
+     * Replaces every read of a virtual register.
+     */
+    void replaceUse(int from, int to) {
+        if (a == from)
+            a = to;
+        if (b == from)
+            b = to;
+        if (args != null) {
+            for (int i = 0; i != args.length; ++i) {
+                if (args[i] == from)
+                    args[i] = to;
+            }
+        }
+    }
+
+    private static String reg(int v) {
+        return v == NONE ? "zero" : "%" + v;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        if (dst != NONE)
+            b.append(reg(dst)).append(" = ");
+        b.append(op.name().toLowerCase());
+        switch (op) {
+            case CONST:
+            case PARAM:
+                b.append(' ').append(imm);
+                break;
+            case LA:
+            case LSTR:
+                b.append(' ').append(symbol);
+                break;
+            case FRAME:
+                b.append(" locals+").append(imm);
+                break;
+            case LW:
+            case LB:
+                b.append(' ').append(imm).append('(').append(a == NONE ? "locals" : reg(a)).append(')');
+                break;
+            case SW:
+            case SB:
+                b.append(' ').append(reg(a)).append(", ").append(imm)
+                        .append('(').append(this.b == NONE ? "locals" : reg(this.b)).append(')');
+                break;
+            case PHI:
+                for (int i = 0; i != args.length; ++i)
+                    b.append(i == 0 ? " " : ", ").append('[').append(reg(args[i])).append(", ").append(sources[i]).append(']');
+                break;
+            case CALL:
+                b.append(' ').append(symbol).append('(');
+                for (int i = 0; i != args.length; ++i)
+                    b.append(i == 0 ? "" : ", ").append(reg(args[i]));
+                b.append(')');
+                break;
+            case JUMP:
+                b.append(' ').append(target);
+                break;
+            case BEQ:
+            case BNE:
+            case BLT:
+            case BGE:
+                b.append(' ').append(reg(a)).append(", ").append(reg(this.b))
+                        .append(", ").append(target).append(", ").append(other);
+                break;
+            case RET:
+                if (a != NONE)
+                    b.append(' ').append(reg(a));
+                break;
+            default:
+                b.append(' ').append(reg(a));
+                if (op.compareTo(Opcode.ADDI) >= 0 && op.compareTo(Opcode.SLTIU) <= 0)
+                    b.append(", ").append(imm);
+                else if (op.compareTo(Opcode.ADD) >= 0 && op.compareTo(Opcode.SLTU) <= 0)
+                    b.append(", ").append(reg(this.b));
+                break;
+        }
+        return b.toString();
+    }
+}
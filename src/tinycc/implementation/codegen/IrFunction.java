@@ -0,0 +1,144 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A function in the intermediate representation. The first block is the entry,
+ * the order of the blocks is the order in which they are emitted.
+ */
+final class IrFunction {
+    final String name;
+    final int parameterCount;
+    // Bytes of the locals that live in memory because their address is taken
+    final int localsSize;
+    final ArrayList<BasicBlock> blocks = new ArrayList<>();
+    private int vregCount;
+    private int blockCount;
+
+    IrFunction(String name, int parameterCount, int localsSize, int vregCount) {
+        this.name = name;
+        this.parameterCount = parameterCount;
+        this.localsSize = localsSize;
+        this.vregCount = vregCount;
+    }
+
+    int newVreg() {
+        return vregCount++;
+    }
+
+    int getVregCount() {
+        return vregCount;
+    }
+
+    BasicBlock newBlock() {
+        return new BasicBlock(blockCount++);
+    }
+
+    /**
+     * Stores the position of every block in its index field.
+     */
+    void renumber() {
+        for (int i = 0; i != blocks.size(); ++i)
+            blocks.get(i).index = i;
+    }
+
+    /**
+     * Returns the predecessors of every block, indexed like the blocks.
+     */
+    List<List<BasicBlock>> predecessors() {
+        renumber();
+        final List<List<BasicBlock>> predecessors = new ArrayList<>(blocks.size());
+        for (int i = 0; i != blocks.size(); ++i)
+            predecessors.add(new ArrayList<>(2));
+        for (BasicBlock block : blocks) {
+            for (BasicBlock s : block.successors())
+                predecessors.get(s.index).add(block);
+        }
+        return predecessors;
+    }
+
+    /**
+     * Removes blocks that cannot be reached from the entry, lets branches skip
+     * blocks that only jump elsewhere and merges blocks that can only follow
+     * each other.
+     */
+    void simplifyControlFlow() {
+        for (BasicBlock block : blocks) {
+            final Instruction t = block.terminator();
+            if (t != null) {
+                t.target = skipJumps(t.target);
+                t.other = skipJumps(t.other);
+                if (t.op.isConditionalBranch() && t.target == t.other) {
+                    t.op = Opcode.JUMP;
+                    t.a = Instruction.NONE;
+                    t.b = Instruction.NONE;
+                    t.other = null;
+                }
+            }
+        }
+
+        final Set<BasicBlock> reachable = new HashSet<>();
+        final ArrayList<BasicBlock> work = new ArrayList<>();
+        work.add(blocks.get(0));
+        reachable.add(blocks.get(0));
+        while (!work.isEmpty()) {
+            for (BasicBlock s : work.remove(work.size() - 1).successors()) {
+                if (reachable.add(s))
+                    work.add(s);
+            }
+        }
+        blocks.removeIf(b -> !reachable.contains(b));
+
+        // Append a block to its only predecessor if that jumps to it
+        final List<List<BasicBlock>> predecessors = predecessors();
+        final Set<BasicBlock> merged = new HashSet<>();
+        for (BasicBlock block : blocks) {
+            if (merged.contains(block))
+                continue;
+            Instruction t = block.terminator();
+            while (t != null && t.op == Opcode.JUMP && t.target != blocks.get(0) && t.target != block
+                    && predecessors.get(t.target.index).size() == 1 && !merged.contains(t.target)) {
+                final BasicBlock next = t.target;
+                block.instructions.remove(block.instructions.size() - 1);
+                block.instructions.addAll(next.instructions);
+                merged.add(next);
+                t = block.terminator();
+            }
+        }
+        blocks.removeIf(merged::contains);
+        renumber();
+    }
+
+    private static BasicBlock skipJumps(BasicBlock block) {
+        // Bounded, an empty infinite loop jumps to itself
+        for (int i = 0; block != null && i != 16; ++i) {
+            final Instruction t = block.terminator();
+            if (block.instructions.size() != 1 || t == null || t.op != Opcode.JUMP)
+                break;
+            block = t.target;
+        }
+        return block;
+    }
+
+    List<Instruction> instructions() {
+        final List<Instruction> all = new ArrayList<>();
+        for (BasicBlock block : blocks)
+            all.addAll(block.instructions);
+        return all;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        b.append(name).append(":\n");
+        for (BasicBlock block : blocks) {
+            b.append(block).append(":\n");
+            for (Instruction i : block.instructions)
+                b.append("    ").append(i).append('\n');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import tinycc.asmgen.GPRegister;
+
+/**
+ * Linear-scan register allocation (Poletto and Sarkar).
+ *
+ * The instructions are numbered in block order and every virtual register gets
+ * a single live interval from its first to its last live position, extended
+ * over whole blocks where liveness says it is live on entry or exit. Intervals
+ * are assigned registers in order of their start; when none is free, the
+ * interval that ends last is spilled to a stack slot for its whole lifetime.
+ *
+ * An interval that spans a call is restricted to the callee-saved registers, the
+ * others prefer the caller-saved ones, which cost nothing to use. The scratch
+ * registers t0 to t2 and the argument registers are never allocated.
+ */
+final class LinearScan {
+    static final GPRegister[] CALLER_SAVED = { GPRegister.T3, GPRegister.T4, GPRegister.T5, GPRegister.T6 };
+    static final GPRegister[] CALLEE_SAVED = { GPRegister.S0, GPRegister.S1, GPRegister.S2, GPRegister.S3,
+            GPRegister.S4, GPRegister.S5, GPRegister.S6, GPRegister.S7, GPRegister.S8, GPRegister.S9,
+            GPRegister.S10, GPRegister.S11 };
+
+    // The register of every virtual register, null if it is spilled or never used
+    final GPRegister[] registers;
+    // The stack slot of every spilled virtual register, -1 otherwise
+    final int[] spillSlots;
+    int spillCount = 0;
+    final EnumSet<GPRegister> usedCalleeSaved = EnumSet.noneOf(GPRegister.class);
+
+    private final int[] start;
+    private final int[] end;
+    private int[] callPositions;
+
+    LinearScan(IrFunction function) {
+        final int vregs = function.getVregCount();
+        registers = new GPRegister[vregs];
+        spillSlots = new int[vregs];
+        Arrays.fill(spillSlots, -1);
+        start = new int[vregs];
+        end = new int[vregs];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+
+        final int[] moveSources = buildIntervals(function);
+        allocate(moveSources);
+    }
+
+    private void extend(int v, int position) {
+        start[v] = Math.min(start[v], position);
+        end[v] = Math.max(end[v], position);
+    }
+
+    /**
+     * Computes the live intervals and the call positions.
+     *
+     * @return The source of the move that defines each virtual register, or NONE.
+     */
+    private int[] buildIntervals(IrFunction function) {
+        final Liveness liveness = new Liveness(function);
+        final int[] moveSources = new int[registers.length];
+        Arrays.fill(moveSources, Instruction.NONE);
+        final List<Integer> calls = new ArrayList<>();
+        int position = 0;
+        for (BasicBlock block : function.blocks) {
+            final int blockStart = position;
+            for (Instruction insn : block.instructions) {
+                for (int v : insn.uses())
+                    extend(v, position);
+                if (insn.dst != Instruction.NONE) {
+                    extend(insn.dst, position);
+                    if (insn.op == Opcode.MOVE)
+                        moveSources[insn.dst] = insn.a;
+                }
+                if (insn.op == Opcode.CALL)
+                    calls.add(position);
+                position += 2;
+            }
+            final int blockEnd = position - 2;
+            liveness.liveIn[block.index].stream().forEach(v -> extend(v, blockStart));
+            liveness.liveOut[block.index].stream().forEach(v -> extend(v, blockEnd));
+        }
+        callPositions = calls.stream().mapToInt(Integer::intValue).toArray();
+        return moveSources;
+    }
+
+    private boolean crossesCall(int v) {
+        int i = Arrays.binarySearch(callPositions, start[v] + 1);
+        if (i < 0)
+            i = -i - 1;
+        return i < callPositions.length && callPositions[i] < end[v];
+    }
+
+    private void allocate(int[] moveSources) {
+        final List<Integer> intervals = new ArrayList<>();
+        for (int v = 0; v != registers.length; ++v) {
+            if (end[v] >= 0)
+                intervals.add(v);
+        }
+        intervals.sort((x, y) -> start[x] != start[y] ? Integer.compare(start[x], start[y]) : Integer.compare(x, y));
+
+        final EnumSet<GPRegister> free = EnumSet.noneOf(GPRegister.class);
+        free.addAll(Arrays.asList(CALLER_SAVED));
+        free.addAll(Arrays.asList(CALLEE_SAVED));
+        // Intervals holding a register, by increasing end
+        final List<Integer> active = new ArrayList<>();
+
+        for (int v : intervals) {
+            while (!active.isEmpty() && end[active.get(0)] <= start[v])
+                free.add(registers[active.remove(0)]);
+
+            final boolean needsCalleeSaved = crossesCall(v);
+            GPRegister r = null;
+            // Share the register of a move source that ends here, so the move disappears
+            final int source = moveSources[v];
+            if (source != Instruction.NONE && registers[source] != null && free.contains(registers[source])
+                    && (!needsCalleeSaved || isCalleeSaved(registers[source])))
+                r = registers[source];
+            if (r == null && !needsCalleeSaved)
+                r = firstFree(free, CALLER_SAVED);
+            if (r == null)
+                r = firstFree(free, CALLEE_SAVED);
+
+            if (r == null) {
+                // Spill whichever suitable interval ends last
+                int victim = -1;
+                for (int w : active) {
+                    if ((!needsCalleeSaved || isCalleeSaved(registers[w])) && (victim < 0 || end[w] >= end[victim]))
+                        victim = w;
+                }
+                if (victim < 0 || end[victim] <= end[v]) {
+                    spillSlots[v] = spillCount++;
+                    continue;
+                }
+                r = registers[victim];
+                registers[victim] = null;
+                spillSlots[victim] = spillCount++;
+                active.remove(Integer.valueOf(victim));
+            } else {
+                free.remove(r);
+            }
+
+            registers[v] = r;
+            if (isCalleeSaved(r))
+                usedCalleeSaved.add(r);
+            int i = 0;
+            while (i != active.size() && end[active.get(i)] <= end[v])
+                ++i;
+            active.add(i, v);
+        }
+    }
+
+    private static GPRegister firstFree(EnumSet<GPRegister> free, GPRegister[] candidates) {
+        for (GPRegister r : candidates) {
+            if (free.contains(r))
+                return r;
+        }
+        return null;
+    }
+
+    static boolean isCalleeSaved(GPRegister r) {
+        for (GPRegister s : CALLEE_SAVED) {
+            if (s == r)
+                return true;
+        }
+        return false;
+    }
+}
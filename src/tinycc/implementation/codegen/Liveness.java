@@ -0,0 +1,55 @@
+package tinycc.implementation.codegen;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The virtual registers live at the start and the end of every block, computed
+ * by the usual backward data-flow analysis. Blocks are identified by their index.
+ */
+final class Liveness {
+    final BitSet[] liveIn;
+    final BitSet[] liveOut;
+
+    Liveness(IrFunction function) {
+        function.renumber();
+        final List<BasicBlock> blocks = function.blocks;
+        final int n = blocks.size();
+        final BitSet[] uses = new BitSet[n];
+        final BitSet[] defs = new BitSet[n];
+        liveIn = new BitSet[n];
+        liveOut = new BitSet[n];
+        for (int i = 0; i != n; ++i) {
+            uses[i] = new BitSet();
+            defs[i] = new BitSet();
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+            for (Instruction insn : blocks.get(i).instructions) {
+                for (int v : insn.uses()) {
+                    if (!defs[i].get(v))
+                        uses[i].set(v);
+                }
+                if (insn.dst != Instruction.NONE)
+                    defs[i].set(insn.dst);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; --i) {
+                final BitSet out = new BitSet();
+                for (BasicBlock s : blocks.get(i).successors())
+                    out.or(liveIn[s.index]);
+                final BitSet in = (BitSet) out.clone();
+                in.andNot(defs[i]);
+                in.or(uses[i]);
+                if (!in.equals(liveIn[i]) || !out.equals(liveOut[i])) {
+                    liveIn[i] = in;
+                    liveOut[i] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tinycc.asmgen.ImmediateInstruction;
+
+/**
+ * Loop optimizations on a function in SSA form: loop-invariant code motion and
+ * strength reduction of induction variables.
+ *
+ * A loop is the natural loop of a header, the blocks that reach one of its back
+ * edges without passing through the header. Invariant instructions move to a
+ * preheader, a block that is the only way into the header from outside the
+ * loop. A basic induction variable is a phi of the header that grows by a
+ * constant on the back edge; values derived from it by shifts, multiplication
+ * with a constant and adding invariants get a phi of their own that grows by
+ * the derived step instead, so `*(a + i)` needs one addition per iteration
+ * instead of a shift and an addition.
+ */
+final class Loops {
+    private static final int NONE = Instruction.NONE;
+
+    private final IrFunction function;
+    private Dominators dominators;
+    private BasicBlock[] defBlock;
+    private Instruction[] definition;
+
+    private Loops(IrFunction function) {
+        this.function = function;
+    }
+
+    static boolean optimize(IrFunction function) {
+        final Loops loops = new Loops(function);
+        // Inner loops first, so their invariants can move on out of the outer loops
+        final Dominators initial = new Dominators(function);
+        final List<BasicBlock> headers = new ArrayList<>();
+        final Map<BasicBlock, Integer> sizes = new HashMap<>();
+        for (BasicBlock header : initial.order) {
+            final boolean[] body = loops.body(initial, header);
+            if (body != null) {
+                headers.add(header);
+                int size = 0;
+                for (boolean b : body)
+                    size += b ? 1 : 0;
+                sizes.put(header, size);
+            }
+        }
+        headers.sort(Comparator.comparing(sizes::get));
+        boolean changed = false;
+        for (BasicBlock header : headers)
+            changed |= loops.optimize(header);
+        return changed;
+    }
+
+    /**
+     * Returns the blocks of the natural loop of a header, indexed like the
+     * blocks, or null if no back edge enters it.
+     */
+    private boolean[] body(Dominators dominators, BasicBlock header) {
+        final boolean[] body = new boolean[function.blocks.size()];
+        final List<BasicBlock> work = new ArrayList<>();
+        for (BasicBlock p : dominators.predecessors.get(header.index)) {
+            if (dominators.dominates(header, p))
+                work.add(p);
+        }
+        if (work.isEmpty())
+            return null;
+        body[header.index] = true;
+        while (!work.isEmpty()) {
+            final BasicBlock b = work.remove(work.size() - 1);
+            if (body[b.index])
+                continue;
+            body[b.index] = true;
+            work.addAll(dominators.predecessors.get(b.index));
+        }
+        return body;
+    }
+
+    private boolean optimize(BasicBlock header) {
+        // Earlier loops may have added preheaders
+        dominators = new Dominators(function);
+        boolean[] body = body(dominators, header);
+        final List<BasicBlock> outside = new ArrayList<>();
+        final List<BasicBlock> latches = new ArrayList<>();
+        for (BasicBlock p : dominators.predecessors.get(header.index))
+            (body[p.index] ? latches : outside).add(p);
+        if (outside.size() != 1)
+            return false;
+        final BasicBlock preheader = preheader(outside.get(0), header);
+        if (preheader != outside.get(0)) {
+            dominators = new Dominators(function);
+            body = body(dominators, header);
+        }
+
+        final int vregs = function.getVregCount();
+        defBlock = new BasicBlock[vregs];
+        definition = new Instruction[vregs];
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                if (insn.dst != NONE) {
+                    defBlock[insn.dst] = block;
+                    definition[insn.dst] = insn;
+                }
+            }
+        }
+        boolean changed = hoistInvariants(body, preheader);
+        if (latches.size() == 1)
+            changed |= reduceStrength(body, header, preheader, latches.get(0));
+        return changed;
+    }
+
+    /**
+     * Returns a block that only jumps to the header, splitting the edge from the
+     * block outside the loop if that has other successors.
+     */
+    private BasicBlock preheader(BasicBlock outside, BasicBlock header) {
+        final Instruction terminator = outside.terminator();
+        if (terminator.op == Opcode.JUMP)
+            return outside;
+        final BasicBlock preheader = function.newBlock();
+        final Instruction jump = new Instruction(Opcode.JUMP, NONE, NONE, NONE, 0);
+        jump.target = header;
+        preheader.instructions.add(jump);
+        if (terminator.target == header)
+            terminator.target = preheader;
+        if (terminator.other == header)
+            terminator.other = preheader;
+        for (Instruction insn : header.instructions) {
+            if (insn.op != Opcode.PHI)
+                break;
+            for (int i = 0; i != insn.sources.length; ++i) {
+                if (insn.sources[i] == outside)
+                    insn.sources[i] = preheader;
+            }
+        }
+        function.blocks.add(function.blocks.indexOf(outside) + 1, preheader);
+        function.renumber();
+        return preheader;
+    }
+
+    private boolean isInvariant(boolean[] body, int v) {
+        return v == NONE || !body[defBlock[v].index];
+    }
+
+    // ------------ Loop-invariant code motion ------------
+
+    /**
+     * Moves pure instructions whose operands are all defined outside the loop to
+     * the preheader. Loads stay, the loop may store to the same address or only
+     * dereference the pointer under a condition.
+     */
+    private boolean hoistInvariants(boolean[] body, BasicBlock preheader) {
+        boolean changed = false;
+        final List<Instruction> target = preheader.instructions;
+        for (BasicBlock block : dominators.order) {
+            if (!body[block.index])
+                continue;
+            for (int i = 0; i != block.instructions.size(); ++i) {
+                final Instruction insn = block.instructions.get(i);
+                if (!insn.op.isPure() || insn.op == Opcode.PHI || insn.op == Opcode.LW || insn.op == Opcode.LB
+                        || insn.dst == NONE || !isInvariant(body, insn.a) || !isInvariant(body, insn.b))
+                    continue;
+                block.instructions.remove(i--);
+                target.add(target.size() - 1, insn);
+                defBlock[insn.dst] = preheader;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // ------------ Strength reduction ------------
+
+    /**
+     * A value that is a linear function of a basic induction variable: it grows
+     * by step per iteration and is computed by def from source, another such
+     * value, and operands that are invariant in the loop.
+     */
+    private static final class Derived {
+        final Instruction def;
+        final int source;
+        final int step;
+        // Instructions other than additions of a constant on the way from the phi
+        final int cost;
+
+        Derived(Instruction def, int source, int step, int cost) {
+            this.def = def;
+            this.source = source;
+            this.step = step;
+            this.cost = cost;
+        }
+    }
+
+    private boolean reduceStrength(boolean[] body, BasicBlock header, BasicBlock preheader, BasicBlock latch) {
+        final Map<Integer, Derived> derived = new HashMap<>();
+        final Map<Integer, Integer> initial = new HashMap<>();
+        for (Instruction insn : header.instructions) {
+            if (insn.op != Opcode.PHI)
+                break;
+            int start = NONE;
+            int next = NONE;
+            for (int i = 0; i != insn.args.length; ++i) {
+                if (insn.sources[i] == preheader)
+                    start = insn.args[i];
+                else
+                    next = insn.args[i];
+            }
+            final Instruction increment = next != NONE ? definition[next] : null;
+            if (increment != null && increment.op == Opcode.ADDI && increment.a == insn.dst) {
+                derived.put(insn.dst, new Derived(insn, NONE, increment.imm, 0));
+                initial.put(insn.dst, start);
+            }
+        }
+        if (derived.isEmpty())
+            return false;
+
+        final List<Integer> candidates = new ArrayList<>();
+        for (BasicBlock block : dominators.order) {
+            if (!body[block.index])
+                continue;
+            for (Instruction insn : block.instructions) {
+                if (insn.op == Opcode.PHI || insn.dst == NONE)
+                    continue;
+                final Derived d = derive(body, insn, derived);
+                if (d != null) {
+                    derived.put(insn.dst, d);
+                    candidates.add(insn.dst);
+                }
+            }
+        }
+
+        // Reduce the values used by anything but the computation of other derived values
+        final boolean[] root = new boolean[function.getVregCount()];
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                final boolean intermediate = insn.dst != NONE && derived.containsKey(insn.dst)
+                        && derived.get(insn.dst).def == insn && insn.op != Opcode.PHI;
+                if (intermediate)
+                    continue;
+                for (int v : insn.uses())
+                    root[v] = true;
+            }
+        }
+        boolean changed = false;
+        for (int v : candidates) {
+            final Derived d = derived.get(v);
+            if (!root[v] || d.cost < 2 && d.def.op != Opcode.MUL)
+                continue;
+            final int phi = function.newVreg();
+            final int next = function.newVreg();
+            final Instruction merge = new Instruction(Opcode.PHI, phi, NONE, NONE, 0);
+            merge.args = new int[] { start(v, derived, initial, preheader), next };
+            merge.sources = new BasicBlock[] { preheader, latch };
+            header.instructions.add(0, merge);
+            final List<Instruction> end = latch.instructions;
+            end.addAll(end.size() - 1, add(next, phi, d.step));
+            d.def.op = Opcode.MOVE;
+            d.def.a = phi;
+            d.def.b = NONE;
+            d.def.imm = 0;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns how insn derives its result from an induction variable, or null.
+     */
+    private Derived derive(boolean[] body, Instruction insn, Map<Integer, Derived> derived) {
+        final Derived a = insn.a != NONE ? derived.get(insn.a) : null;
+        final Derived b = insn.b != NONE ? derived.get(insn.b) : null;
+        switch (insn.op) {
+            case ADDI:
+                return a != null ? new Derived(insn, insn.a, a.step, a.cost) : null;
+            case SLLI:
+                return a != null ? new Derived(insn, insn.a, a.step << insn.imm, a.cost + 1) : null;
+            case ADD:
+                if (a != null && b == null && isInvariant(body, insn.b))
+                    return new Derived(insn, insn.a, a.step, a.cost + 1);
+                if (b != null && a == null && isInvariant(body, insn.a))
+                    return new Derived(insn, insn.b, b.step, b.cost + 1);
+                return null;
+            case SUB:
+                if (a != null && b == null && isInvariant(body, insn.b))
+                    return new Derived(insn, insn.a, a.step, a.cost + 1);
+                return null;
+            case MUL:
+                if (a != null && isConstant(insn.b))
+                    return new Derived(insn, insn.a, a.step * definition[insn.b].imm, a.cost + 1);
+                if (b != null && isConstant(insn.a))
+                    return new Derived(insn, insn.b, b.step * definition[insn.a].imm, b.cost + 1);
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private boolean isConstant(int v) {
+        return v != NONE && definition[v] != null && definition[v].op == Opcode.CONST;
+    }
+
+    /**
+     * Returns the value of a derived register in the first iteration, computing
+     * it in the preheader from the start of its induction variable.
+     */
+    private int start(int v, Map<Integer, Derived> derived, Map<Integer, Integer> initial, BasicBlock preheader) {
+        final Integer known = initial.get(v);
+        if (known != null)
+            return known;
+        final Derived d = derived.get(v);
+        final int source = start(d.source, derived, initial, preheader);
+        final Instruction copy = new Instruction(d.def.op, function.newVreg(), d.def.a, d.def.b, d.def.imm);
+        copy.replaceUse(d.source, source);
+        preheader.instructions.add(preheader.instructions.size() - 1, copy);
+        initial.put(v, copy.dst);
+        return copy.dst;
+    }
+
+    private List<Instruction> add(int dst, int v, int step) {
+        final List<Instruction> code = new ArrayList<>(2);
+        if (Lowering.fits(ImmediateInstruction.ADDI, step)) {
+            code.add(new Instruction(Opcode.ADDI, dst, v, NONE, step));
+        } else {
+            final int c = function.newVreg();
+            code.add(new Instruction(Opcode.CONST, c, NONE, NONE, step));
+            code.add(new Instruction(Opcode.ADD, dst, v, c, 0));
+        }
+        return code;
+    }
+}
@@ -0,0 +1,728 @@
+package tinycc.implementation.codegen;
+
+import java.util.List;
+
+import tinycc.asmgen.ImmediateInstruction;
+import tinycc.implementation.FunctionDefinition;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.binaryExpressions.BinaryExpression;
+import tinycc.implementation.expression.functionCalls.FunctionCall;
+import tinycc.implementation.expression.primaryExpressions.CharacterConstant;
+import tinycc.implementation.expression.primaryExpressions.Identifier;
+import tinycc.implementation.expression.primaryExpressions.IntegerConstant;
+import tinycc.implementation.expression.primaryExpressions.StringLiteral;
+import tinycc.implementation.expression.unaryExpression.UnaryExpression;
+import tinycc.implementation.statement.AssertStatement;
+import tinycc.implementation.statement.AssumeStatement;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.Declaration;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.Return;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.PointerType;
+import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
+import tinycc.parser.TokenKind;
+
+/**
+ * Translates a checked function definition into the intermediate representation.
+ *
+ * Parameters and locals get the virtual register numbered by their slot unless
+ * their address is taken; those stay in the locals area of the frame at the
+ * offset assigned by the semantic analysis. Conditions of if and while
+ * statements become branches, and while loops are rotated so that every
+ * iteration executes a single conditional branch.
+ */
+final class Lowering {
+    private static final int NONE = Instruction.NONE;
+
+    /**
+     * A storage location: a virtual register, or a memory address given by a base
+     * register (NONE for the locals area) and an offset.
+     */
+    private static final class Place {
+        final int vreg;
+        final int base;
+        final int offset;
+        final boolean isByte;
+
+        Place(int vreg) {
+            this.vreg = vreg;
+            this.base = NONE;
+            this.offset = 0;
+            this.isByte = false;
+        }
+
+        Place(int base, int offset, boolean isByte) {
+            this.vreg = NONE;
+            this.base = base;
+            this.offset = offset;
+            this.isByte = isByte;
+        }
+    }
+
+    private final IrFunction function;
+    private final Type returnType;
+    private BasicBlock current;
+
+    private Lowering(IrFunction function, Type returnType) {
+        this.function = function;
+        this.returnType = returnType;
+    }
+
+    static IrFunction lower(FunctionDefinition definition) {
+        final List<Declaration> locals = definition.getLocals();
+        boolean inMemory = false;
+        for (Declaration local : locals)
+            inMemory |= local.isAddressTaken();
+        final List<Declaration> parameters = definition.getParameters();
+        final IrFunction function = new IrFunction(definition.getFunctionName().getText(), parameters.size(),
+                inMemory ? definition.getFrameSize() : 0, locals.size());
+        final Type type = definition.getFunctionType();
+        final Lowering lowering = new Lowering(function,
+                type instanceof FunctionType ? ((FunctionType) type).getReturnType() : TypeContext.VOID);
+
+        lowering.start(function.newBlock());
+        for (int i = 0; i != parameters.size(); ++i) {
+            final Declaration parameter = parameters.get(i);
+            if (parameter == null)
+                continue;
+            if (parameter.isAddressTaken()) {
+                final int v = function.newVreg();
+                lowering.emit(Opcode.PARAM, v, NONE, NONE, i);
+                lowering.store(lowering.place(parameter), v);
+            } else {
+                lowering.emit(Opcode.PARAM, parameter.getSlot(), NONE, NONE, i);
+            }
+        }
+        lowering.lowerStatement(definition.getFunctionBody());
+        if (!lowering.current.isTerminated())
+            lowering.emit(Opcode.RET, NONE, NONE, NONE, 0);
+        function.simplifyControlFlow();
+        return function;
+    }
+
+    // ------------ Blocks and instructions ------------
+
+    private void start(BasicBlock block) {
+        function.blocks.add(block);
+        current = block;
+    }
+
+    private Instruction emit(Opcode op, int dst, int a, int b, int imm) {
+        // Code after a return or branch is unreachable, collect it in a block of its own
+        if (current.isTerminated())
+            start(function.newBlock());
+        final Instruction i = new Instruction(op, dst, a, b, imm);
+        current.instructions.add(i);
+        return i;
+    }
+
+    private int emit(Opcode op, int dst, int a, int b) {
+        if (dst == NONE)
+            dst = function.newVreg();
+        emit(op, dst, a, b, 0);
+        return dst;
+    }
+
+    private int emitImmediate(Opcode op, int dst, int a, int imm) {
+        if (dst == NONE)
+            dst = function.newVreg();
+        emit(op, dst, a, NONE, imm);
+        return dst;
+    }
+
+    private int constant(int value, int dst) {
+        return emitImmediate(Opcode.CONST, dst, NONE, value);
+    }
+
+    private void jump(BasicBlock target) {
+        emit(Opcode.JUMP, NONE, NONE, NONE, 0).target = target;
+    }
+
+    private void branch(Opcode op, int a, int b, BasicBlock target, BasicBlock other) {
+        final Instruction i = emit(op, NONE, a, b, 0);
+        i.target = target;
+        i.other = other;
+    }
+
+    /**
+     * Makes the value of v available in dst, unless dst is NONE.
+     */
+    private int into(int dst, int v) {
+        if (dst == NONE || dst == v)
+            return v;
+        emit(Opcode.MOVE, dst, v, NONE, 0);
+        return dst;
+    }
+
+    // ------------ Statements ------------
+
+    private void lowerStatement(Statement s) {
+        if (s instanceof BlockStatement) {
+            for (Statement child : ((BlockStatement) s).getStatements())
+                lowerStatement(child);
+        } else if (s instanceof Declaration) {
+            final Declaration declaration = (Declaration) s;
+            if (declaration.getInit() != null)
+                assign(place(declaration), declaration.getType(), declaration.getInit());
+        } else if (s instanceof ExpressionStatement) {
+            lowerEffect(((ExpressionStatement) s).getExpression());
+        } else if (s instanceof IfStatement) {
+            final IfStatement statement = (IfStatement) s;
+            final BasicBlock consequence = function.newBlock();
+            final BasicBlock join = function.newBlock();
+            final BasicBlock alternative = statement.getAlternative() != null ? function.newBlock() : join;
+            branch(statement.getCondition(), consequence, alternative);
+            start(consequence);
+            lowerStatement(statement.getConsequence());
+            jump(join);
+            if (alternative != join) {
+                start(alternative);
+                lowerStatement(statement.getAlternative());
+                jump(join);
+            }
+            start(join);
+        } else if (s instanceof WhileStatement) {
+            final WhileStatement statement = (WhileStatement) s;
+            final BasicBlock body = function.newBlock();
+            final BasicBlock exit = function.newBlock();
+            branch(statement.getCondition(), body, exit);
+            start(body);
+            lowerStatement(statement.getBody());
+            branch(statement.getCondition(), body, exit);
+            start(exit);
+        } else if (s instanceof Return) {
+            final Expression expression = ((Return) s).getExpression();
+            int value = NONE;
+            if (expression != null)
+                value = convert(lower(expression), expression.getType(), returnType);
+            emit(Opcode.RET, NONE, value, NONE, 0);
+        } else if (s instanceof AssumeStatement || s instanceof AssertStatement) {
+            // Only for the verifier
+        } else {
+            throw new UnsupportedOperationException("cannot generate code for " + s);
+        }
+    }
+
+    // ------------ Conditions ------------
+
+    /**
+     * Branches to target if the condition holds and to other otherwise.
+     */
+    private void branch(Expression condition, BasicBlock target, BasicBlock other) {
+        if (isConstant(condition)) {
+            jump(constantValue(condition) != 0 ? target : other);
+            return;
+        }
+        if (condition instanceof UnaryExpression) {
+            final UnaryExpression unary = (UnaryExpression) condition;
+            if (unary.getOperator().getKind() == TokenKind.BANG) {
+                branch(unary.getOperand(), other, target);
+                return;
+            }
+        }
+        if (condition instanceof BinaryExpression) {
+            final BinaryExpression binary = (BinaryExpression) condition;
+            final Expression lhs = binary.getLhs();
+            final Expression rhs = binary.getRhs();
+            switch (binary.getBinaryOperator().getKind()) {
+                case AND_AND: {
+                    final BasicBlock next = function.newBlock();
+                    branch(lhs, next, other);
+                    start(next);
+                    branch(rhs, target, other);
+                    return;
+                }
+                case PIPE_PIPE: {
+                    final BasicBlock next = function.newBlock();
+                    branch(lhs, target, next);
+                    start(next);
+                    branch(rhs, target, other);
+                    return;
+                }
+                case EQUAL_EQUAL:
+                    branch(Opcode.BEQ, operand(lhs), operand(rhs), target, other);
+                    return;
+                case BANG_EQUAL:
+                    branch(Opcode.BNE, operand(lhs), operand(rhs), target, other);
+                    return;
+                case LESS: {
+                    final int a = operand(lhs);
+                    branch(Opcode.BLT, a, operand(rhs), target, other);
+                    return;
+                }
+                case GREATER_EQUAL: {
+                    final int a = operand(lhs);
+                    branch(Opcode.BGE, a, operand(rhs), target, other);
+                    return;
+                }
+                case GREATER: {
+                    final int a = operand(lhs);
+                    branch(Opcode.BLT, operand(rhs), a, target, other);
+                    return;
+                }
+                case LESS_EQUAL: {
+                    final int a = operand(lhs);
+                    branch(Opcode.BGE, operand(rhs), a, target, other);
+                    return;
+                }
+                default:
+                    break;
+            }
+        }
+        branch(Opcode.BNE, lower(condition), NONE, target, other);
+    }
+
+    /**
+     * Evaluates a comparison operand, a zero constant becomes NONE.
+     */
+    private int operand(Expression e) {
+        if (isConstant(e) && constantValue(e) == 0)
+            return NONE;
+        return lower(e);
+    }
+
+    // ------------ Expressions ------------
+
+    private static boolean isConstant(Expression e) {
+        return e instanceof IntegerConstant || e instanceof CharacterConstant;
+    }
+
+    private static int constantValue(Expression e) {
+        if (e instanceof IntegerConstant)
+            return ((IntegerConstant) e).getInt();
+        return (byte) ((CharacterConstant) e).getChar().charAt(0);
+    }
+
+    static boolean fits(ImmediateInstruction insn, long value) {
+        return value == (int) value && insn.getRange().inRange((int) value);
+    }
+
+    /**
+     * Returns the size of the values a pointer points to, 1 for void*.
+     */
+    private static int elementSize(Type pointer) {
+        final int size = TypeContext.sizeOf(((PointerType) pointer).getPointsTo());
+        return size == 0 ? 1 : size;
+    }
+
+    static int log2(int size) {
+        return Integer.numberOfTrailingZeros(size);
+    }
+
+    /**
+     * Converts a value for storage in the given type, a char keeps its lowest byte.
+     */
+    private int convert(int v, Type from, Type to) {
+        if (to == TypeContext.CHAR && from != TypeContext.CHAR)
+            return emit(Opcode.SEXTB, NONE, v, NONE);
+        return v;
+    }
+
+    private int lower(Expression e) {
+        return lowerInto(e, NONE);
+    }
+
+    /**
+     * Evaluates an expression for its side effects only.
+     */
+    private void lowerEffect(Expression e) {
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression unary = (UnaryExpression) e;
+            switch (unary.getOperator().getKind()) {
+                case PLUS_PLUS:
+                case MINUS_MINUS:
+                    // The old value of a postfix operator is not needed
+                    incrementDecrement(unary, false, NONE);
+                    return;
+                default:
+                    break;
+            }
+        }
+        if (e instanceof FunctionCall) {
+            call((FunctionCall) e, NONE, false);
+            return;
+        }
+        lower(e);
+    }
+
+    /**
+     * Evaluates an expression.
+     *
+     * @param dst The register to store the value in, or NONE for any register.
+     *            Only the last instruction writes dst, so it may be read by the
+     *            expression.
+     * @return The register holding the value.
+     */
+    private int lowerInto(Expression e, int dst) {
+        if (isConstant(e))
+            return constant(constantValue(e), dst);
+        if (e instanceof StringLiteral) {
+            final int v = dst == NONE ? function.newVreg() : dst;
+            emit(Opcode.LSTR, v, NONE, NONE, 0).symbol = ((StringLiteral) e).getString();
+            return v;
+        }
+        if (e instanceof Identifier) {
+            final Identifier identifier = (Identifier) e;
+            if (identifier.getType() instanceof FunctionType) {
+                final int v = dst == NONE ? function.newVreg() : dst;
+                emit(Opcode.LA, v, NONE, NONE, 0).symbol = identifier.getIdentifier();
+                return v;
+            }
+            return load(place(identifier), dst);
+        }
+        if (e instanceof FunctionCall)
+            return call((FunctionCall) e, dst, true);
+        if (e instanceof UnaryExpression)
+            return lowerUnary((UnaryExpression) e, dst);
+        if (e instanceof BinaryExpression)
+            return lowerBinary((BinaryExpression) e, dst);
+        throw new UnsupportedOperationException("cannot generate code for " + e);
+    }
+
+    private int lowerUnary(UnaryExpression e, int dst) {
+        final Expression operand = e.getOperand();
+        switch (e.getOperator().getKind()) {
+            case AND:
+                return address(place(operand), dst);
+            case ASTERISK:
+                return load(place(e), dst);
+            case PLUS:
+                return lowerInto(operand, dst);
+            case MINUS:
+                return emit(Opcode.NEG, dst, lower(operand), NONE);
+            case TILDE:
+                return emit(Opcode.NOT, dst, lower(operand), NONE);
+            case BANG:
+                return emit(Opcode.SEQZ, dst, lower(operand), NONE);
+            case SIZEOF:
+                return constant(TypeContext.sizeOf(operand.getType()), dst);
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                return incrementDecrement(e, e.isPostfix(), dst);
+            default:
+                throw new UnsupportedOperationException("cannot generate code for " + e);
+        }
+    }
+
+    private int incrementDecrement(UnaryExpression e, boolean postfix, int dst) {
+        final Type type = e.getOperand().getType();
+        int delta = type instanceof PointerType ? elementSize(type) : 1;
+        if (e.getOperator().getKind() == TokenKind.MINUS_MINUS)
+            delta = -delta;
+        final Place place = place(e.getOperand());
+        if (place.vreg != NONE) {
+            int old = NONE;
+            if (postfix)
+                old = emit(Opcode.MOVE, dst, place.vreg, NONE);
+            emitImmediate(Opcode.ADDI, place.vreg, place.vreg, delta);
+            if (type == TypeContext.CHAR)
+                emit(Opcode.SEXTB, place.vreg, place.vreg, NONE);
+            return postfix ? old : into(dst, place.vreg);
+        }
+        final int old = load(place, postfix ? dst : NONE);
+        final int updated = emitImmediate(Opcode.ADDI, postfix ? NONE : dst, old, delta);
+        store(place, updated);
+        return postfix ? old : updated;
+    }
+
+    private int lowerBinary(BinaryExpression e, int dst) {
+        final Expression lhs = e.getLhs();
+        final Expression rhs = e.getRhs();
+        final Type lhsType = lhs.getType();
+        final Type rhsType = rhs.getType();
+        switch (e.getBinaryOperator().getKind()) {
+            case EQUAL:
+                return into(dst, assign(place(lhs), lhsType, rhs));
+            case LBRACKET:
+                return load(place(e), dst);
+            case PLUS:
+                if (lhsType instanceof PointerType)
+                    return pointerAdd(lower(lhs), rhs, elementSize(lhsType), dst);
+                if (rhsType instanceof PointerType)
+                    return pointerAdd(lower(rhs), lhs, elementSize(rhsType), dst);
+                return arithmetic(Opcode.ADD, lhs, rhs, dst);
+            case MINUS:
+                if (lhsType instanceof PointerType && rhsType instanceof PointerType) {
+                    final int size = elementSize(lhsType);
+                    if (size == 1)
+                        return emit(Opcode.SUB, dst, lower(lhs), lower(rhs));
+                    final int a = lower(lhs);
+                    final int bytes = emit(Opcode.SUB, NONE, a, lower(rhs));
+                    return emitImmediate(Opcode.SRAI, dst, bytes, log2(size));
+                }
+                if (lhsType instanceof PointerType)
+                    return pointerSubtract(lower(lhs), rhs, elementSize(lhsType), dst);
+                return arithmetic(Opcode.SUB, lhs, rhs, dst);
+            case ASTERISK:
+                return arithmetic(Opcode.MUL, lhs, rhs, dst);
+            case SLASH:
+                return arithmetic(Opcode.DIV, lhs, rhs, dst);
+            case PERCENT:
+                return arithmetic(Opcode.REM, lhs, rhs, dst);
+            case AND:
+                return arithmetic(Opcode.AND, lhs, rhs, dst);
+            case PIPE:
+                return arithmetic(Opcode.OR, lhs, rhs, dst);
+            case HAT:
+                return arithmetic(Opcode.XOR, lhs, rhs, dst);
+            case LESS_LESS:
+                return arithmetic(Opcode.SLL, lhs, rhs, dst);
+            case GREATER_GREATER:
+                return arithmetic(Opcode.SRA, lhs, rhs, dst);
+            case LESS:
+                return arithmetic(Opcode.SLT, lhs, rhs, dst);
+            case GREATER: {
+                final int a = lower(lhs);
+                return emit(Opcode.SLT, dst, lower(rhs), a);
+            }
+            case LESS_EQUAL: {
+                final int a = lower(lhs);
+                final int greater = emit(Opcode.SLT, NONE, lower(rhs), a);
+                return emitImmediate(Opcode.XORI, dst, greater, 1);
+            }
+            case GREATER_EQUAL: {
+                final int less = arithmetic(Opcode.SLT, lhs, rhs, NONE);
+                return emitImmediate(Opcode.XORI, dst, less, 1);
+            }
+            case EQUAL_EQUAL:
+                return emit(Opcode.SEQZ, dst, difference(lhs, rhs), NONE);
+            case BANG_EQUAL:
+                return emit(Opcode.SNEZ, dst, difference(lhs, rhs), NONE);
+            case AND_AND:
+            case PIPE_PIPE: {
+                final BasicBlock isTrue = function.newBlock();
+                final BasicBlock isFalse = function.newBlock();
+                final BasicBlock join = function.newBlock();
+                final int v = dst == NONE ? function.newVreg() : dst;
+                branch(e, isTrue, isFalse);
+                start(isTrue);
+                constant(1, v);
+                jump(join);
+                start(isFalse);
+                constant(0, v);
+                jump(join);
+                start(join);
+                return v;
+            }
+            default:
+                throw new UnsupportedOperationException("cannot generate code for " + e);
+        }
+    }
+
+    /**
+     * Returns a register that is zero if and only if both operands are equal.
+     */
+    private int difference(Expression lhs, Expression rhs) {
+        if (isConstant(rhs) && constantValue(rhs) == 0)
+            return lower(lhs);
+        return arithmetic(Opcode.XOR, lhs, rhs, NONE);
+    }
+
+    /**
+     * Emits an arithmetic operation, using the immediate form of the instruction
+     * if the right operand is a suitable constant.
+     */
+    private int arithmetic(Opcode op, Expression lhs, Expression rhs, int dst) {
+        if (isConstant(lhs) && !isConstant(rhs)
+                && (op == Opcode.ADD || op == Opcode.MUL || op == Opcode.AND || op == Opcode.OR || op == Opcode.XOR)) {
+            final Expression t = lhs;
+            lhs = rhs;
+            rhs = t;
+        }
+        final int a = lower(lhs);
+        if (isConstant(rhs)) {
+            final int c = constantValue(rhs);
+            switch (op) {
+                case ADD:
+                    if (fits(ImmediateInstruction.ADDI, c))
+                        return emitImmediate(Opcode.ADDI, dst, a, c);
+                    break;
+                case SUB:
+                    if (fits(ImmediateInstruction.ADDI, -(long) c))
+                        return emitImmediate(Opcode.ADDI, dst, a, -c);
+                    break;
+                case MUL:
+                    if (c > 0 && Integer.bitCount(c) == 1)
+                        return emitImmediate(Opcode.SLLI, dst, a, log2(c));
+                    break;
+                case AND:
+                    if (fits(ImmediateInstruction.ANDI, c))
+                        return emitImmediate(Opcode.ANDI, dst, a, c);
+                    break;
+                case OR:
+                    if (fits(ImmediateInstruction.ORI, c))
+                        return emitImmediate(Opcode.ORI, dst, a, c);
+                    break;
+                case XOR:
+                    if (fits(ImmediateInstruction.XORI, c))
+                        return emitImmediate(Opcode.XORI, dst, a, c);
+                    break;
+                case SLL:
+                    return emitImmediate(Opcode.SLLI, dst, a, c & 31);
+                case SRA:
+                    return emitImmediate(Opcode.SRAI, dst, a, c & 31);
+                case SLT:
+                    if (fits(ImmediateInstruction.SLTI, c))
+                        return emitImmediate(Opcode.SLTI, dst, a, c);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return emit(op, dst, a, lower(rhs));
+    }
+
+    private int scaledIndex(Expression index, int size) {
+        final int i = lower(index);
+        return size == 1 ? i : emitImmediate(Opcode.SLLI, NONE, i, log2(size));
+    }
+
+    private int pointerAdd(int pointer, Expression index, int size, int dst) {
+        if (isConstant(index) && fits(ImmediateInstruction.ADDI, (long) constantValue(index) * size))
+            return emitImmediate(Opcode.ADDI, dst, pointer, constantValue(index) * size);
+        return emit(Opcode.ADD, dst, pointer, scaledIndex(index, size));
+    }
+
+    private int pointerSubtract(int pointer, Expression index, int size, int dst) {
+        if (isConstant(index) && fits(ImmediateInstruction.ADDI, -(long) constantValue(index) * size))
+            return emitImmediate(Opcode.ADDI, dst, pointer, -constantValue(index) * size);
+        return emit(Opcode.SUB, dst, pointer, scaledIndex(index, size));
+    }
+
+    private int call(FunctionCall e, int dst, boolean needsValue) {
+        if (!(e.getFunctionName() instanceof Identifier))
+            throw new UnsupportedOperationException("cannot generate code for " + e);
+        final Identifier callee = (Identifier) e.getFunctionName();
+        final FunctionType type = (FunctionType) callee.getType();
+        final List<Expression> arguments = e.getFunctionArguments();
+        final int[] args = new int[arguments.size()];
+        for (int i = 0; i != args.length; ++i) {
+            final Expression argument = arguments.get(i);
+            args[i] = convert(lower(argument), argument.getType(), type.getFunctionArguments().get(i));
+        }
+        if (needsValue && dst == NONE && type.getReturnType() != TypeContext.VOID)
+            dst = function.newVreg();
+        final Instruction call = emit(Opcode.CALL, dst, NONE, NONE, 0);
+        call.symbol = callee.getIdentifier();
+        call.args = args;
+        return dst;
+    }
+
+    // ------------ Places ------------
+
+    private Place place(Declaration declaration) {
+        if (declaration.isGlobal()) {
+            final int base = function.newVreg();
+            emit(Opcode.LA, base, NONE, NONE, 0).symbol = declaration.getName().getText();
+            return new Place(base, 0, declaration.getType() == TypeContext.CHAR);
+        }
+        if (declaration.isAddressTaken())
+            return new Place(NONE, declaration.getFrameOffset(), declaration.getType() == TypeContext.CHAR);
+        return new Place(declaration.getSlot());
+    }
+
+    /**
+     * Computes the location an l-value refers to.
+     */
+    private Place place(Expression e) {
+        if (e instanceof Identifier)
+            return place(((Identifier) e).getDeclaration());
+        if (e instanceof UnaryExpression
+                && ((UnaryExpression) e).getOperator().getKind() == TokenKind.ASTERISK)
+            return pointee(((UnaryExpression) e).getOperand());
+        if (e instanceof BinaryExpression
+                && ((BinaryExpression) e).getBinaryOperator().getKind() == TokenKind.LBRACKET) {
+            final BinaryExpression access = (BinaryExpression) e;
+            return element(access.getLhs(), access.getRhs());
+        }
+        throw new UnsupportedOperationException("not an l-value: " + e);
+    }
+
+    /**
+     * Returns the location a pointer points to, with constant offsets folded into
+     * the address.
+     */
+    private Place pointee(Expression pointer) {
+        if (pointer instanceof BinaryExpression) {
+            final BinaryExpression sum = (BinaryExpression) pointer;
+            switch (sum.getBinaryOperator().getKind()) {
+                case PLUS:
+                    if (sum.getLhs().getType() instanceof PointerType)
+                        return element(sum.getLhs(), sum.getRhs());
+                    return element(sum.getRhs(), sum.getLhs());
+                case MINUS:
+                    if (sum.getLhs().getType() instanceof PointerType && isConstant(sum.getRhs())) {
+                        final long offset = -(long) constantValue(sum.getRhs()) * elementSize(sum.getLhs().getType());
+                        if (fits(ImmediateInstruction.ADDI, offset))
+                            return new Place(lower(sum.getLhs()), (int) offset, isBytePointer(pointer.getType()));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Place(lower(pointer), 0, isBytePointer(pointer.getType()));
+    }
+
+    private static boolean isBytePointer(Type pointer) {
+        return ((PointerType) pointer).getPointsTo() == TypeContext.CHAR;
+    }
+
+    /**
+     * Returns the location of pointer[index].
+     */
+    private Place element(Expression pointer, Expression index) {
+        final boolean isByte = isBytePointer(pointer.getType());
+        final int size = elementSize(pointer.getType());
+        final int base = lower(pointer);
+        if (isConstant(index) && fits(ImmediateInstruction.ADDI, (long) constantValue(index) * size))
+            return new Place(base, constantValue(index) * size, isByte);
+        return new Place(emit(Opcode.ADD, NONE, base, scaledIndex(index, size)), 0, isByte);
+    }
+
+    private int address(Place place, int dst) {
+        if (place.vreg != NONE)
+            throw new IllegalStateException("address of a register variable");
+        if (place.base == NONE)
+            return emitImmediate(Opcode.FRAME, dst, NONE, place.offset);
+        if (place.offset == 0)
+            return into(dst, place.base);
+        return emitImmediate(Opcode.ADDI, dst, place.base, place.offset);
+    }
+
+    private int load(Place place, int dst) {
+        if (place.vreg != NONE)
+            return into(dst, place.vreg);
+        return emitImmediate(place.isByte ? Opcode.LB : Opcode.LW, dst, place.base, place.offset);
+    }
+
+    private void store(Place place, int value) {
+        if (place.vreg != NONE) {
+            into(place.vreg, value);
+            return;
+        }
+        emit(place.isByte ? Opcode.SB : Opcode.SW, NONE, value, place.base, place.offset);
+    }
+
+    /**
+     * Assigns an expression to a location of the given type.
+     *
+     * @return The register holding the assigned value.
+     */
+    private int assign(Place place, Type type, Expression value) {
+        if (place.vreg != NONE) {
+            lowerInto(value, place.vreg);
+            if (type == TypeContext.CHAR && value.getType() != TypeContext.CHAR)
+                emit(Opcode.SEXTB, place.vreg, place.vreg, NONE);
+            return place.vreg;
+        }
+        final int v = convert(lower(value), value.getType(), type);
+        store(place, v);
+        return v;
+    }
+}
@@ -0,0 +1,73 @@
+package tinycc.implementation.codegen;
+
+/**
+ * The operations of the intermediate representation. Operands a and b are
+ * virtual registers, imm is a constant (see Instruction).
+ */
+enum Opcode {
+    // dst = imm
+    CONST,
+    // dst = a
+    MOVE,
+    // dst = the argument from the predecessor control came from, only in SSA form
+    PHI,
+    // dst = a op b
+    ADD, SUB, MUL, DIV, REM, AND, OR, XOR, SLL, SRL, SRA, SLT, SLTU,
+    // dst = a op imm, imm fits the 12 bit immediate of the instruction
+    ADDI, ANDI, ORI, XORI, SLLI, SRLI, SRAI, SLTI, SLTIU,
+    // dst = -a, ~a, a == 0, a != 0, a sign-extended from its lowest byte
+    NEG, NOT, SEQZ, SNEZ, SEXTB,
+    // dst = address of the global or function named by symbol
+    LA,
+    // dst = address of the string constant symbol
+    LSTR,
+    // dst = address of the locals area + imm
+    FRAME,
+    // dst = *(a + imm), a word or a sign-extended byte
+    LW, LB,
+    // *(b + imm) = a
+    SW, SB,
+    // dst = parameter number imm
+    PARAM,
+    // dst = symbol(args), dst may be NONE
+    CALL,
+    // Terminators, the conditional branches go to target if a op b and to other otherwise
+    JUMP, BEQ, BNE, BLT, BGE, RET;
+
+    boolean isTerminator() {
+        return compareTo(JUMP) >= 0;
+    }
+
+    boolean isConditionalBranch() {
+        return this == BEQ || this == BNE || this == BLT || this == BGE;
+    }
+
+    boolean isStore() {
+        return this == SW || this == SB;
+    }
+
+    /**
+     * Returns true if the instruction has no effect besides writing dst.
+     */
+    boolean isPure() {
+        return compareTo(FRAME) <= 0 || this == LW || this == LB || this == PARAM;
+    }
+
+    /**
+     * Returns the branch taken when this conditional branch is not.
+     */
+    Opcode negate() {
+        switch (this) {
+            case BEQ:
+                return BNE;
+            case BNE:
+                return BEQ;
+            case BLT:
+                return BGE;
+            case BGE:
+                return BLT;
+            default:
+                throw new IllegalStateException("not a conditional branch: " + this);
+        }
+    }
+}
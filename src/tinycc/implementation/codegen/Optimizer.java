@@ -0,0 +1,640 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.asmgen.ImmediateInstruction;
+
+/**
+ * The optimizations run with -O. A function is brought into SSA form, where
+ * sparse conditional constant propagation (Wegman and Zadeck), copy
+ * propagation, common-subexpression elimination along the dominator tree and
+ * dead-code elimination run until none of them changes anything. They run
+ * once more after the loop optimizations (see Loops), and then the function is
+ * taken out of SSA form again.
+ *
+ * Constant propagation also picks the immediate forms of instructions with a
+ * constant operand, so constants that are only used that way disappear. Large
+ * constants are shared like other common subexpressions; constants that fit an
+ * immediate take one instruction to load and are not.
+ */
+final class Optimizer {
+    private static final int NONE = Instruction.NONE;
+    private static final int MAX_ROUNDS = 8;
+
+    // Lattice of constant propagation: not known yet, one constant, several values
+    private static final byte TOP = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte BOTTOM = 2;
+
+    private final IrFunction function;
+
+    private Optimizer(IrFunction function) {
+        this.function = function;
+    }
+
+    static void optimize(IrFunction function) {
+        final Optimizer optimizer = new Optimizer(function);
+        Ssa.construct(function);
+        optimizer.simplify();
+        if (Loops.optimize(function))
+            optimizer.simplify();
+        Ssa.destruct(function);
+        function.simplifyControlFlow();
+    }
+
+    private void simplify() {
+        for (int round = 0; round != MAX_ROUNDS; ++round) {
+            boolean changed = propagateConstants();
+            changed |= propagateCopies();
+            changed |= eliminateCommonSubexpressions();
+            changed |= eliminateDeadCode();
+            if (!changed)
+                break;
+        }
+    }
+
+    // ------------ Constant propagation ------------
+
+    private byte[] state;
+    private int[] value;
+    private Set<Long> executable;
+
+    private static long edge(BasicBlock from, BasicBlock to) {
+        return (long) from.id << 32 | to.id;
+    }
+
+    private boolean isConstant(int v) {
+        return v == NONE || state[v] == CONSTANT;
+    }
+
+    private int constant(int v) {
+        return v == NONE ? 0 : value[v];
+    }
+
+    private boolean propagateConstants() {
+        function.renumber();
+        final int vregs = function.getVregCount();
+        state = new byte[vregs];
+        value = new int[vregs];
+        executable = new HashSet<>();
+        final List<List<Instruction>> users = new ArrayList<>(vregs);
+        for (int v = 0; v != vregs; ++v)
+            users.add(new ArrayList<>(2));
+        final Map<Instruction, BasicBlock> blockOf = new IdentityHashMap<>();
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                blockOf.put(insn, block);
+                for (int v : insn.uses())
+                    users.get(v).add(insn);
+            }
+        }
+
+        final boolean[] reached = new boolean[function.blocks.size()];
+        final ArrayDeque<BasicBlock[]> edges = new ArrayDeque<>();
+        final ArrayDeque<Instruction> work = new ArrayDeque<>();
+        final BasicBlock entry = function.blocks.get(0);
+        reached[0] = true;
+        for (Instruction insn : entry.instructions)
+            visit(insn, entry, edges, work, users);
+        while (!edges.isEmpty() || !work.isEmpty()) {
+            if (!edges.isEmpty()) {
+                final BasicBlock[] e = edges.poll();
+                if (!executable.add(edge(e[0], e[1])))
+                    continue;
+                final BasicBlock to = e[1];
+                final boolean first = !reached[to.index];
+                reached[to.index] = true;
+                for (Instruction insn : to.instructions) {
+                    if (!first && insn.op != Opcode.PHI)
+                        break;
+                    visit(insn, to, edges, work, users);
+                }
+            } else {
+                final Instruction insn = work.poll();
+                final BasicBlock block = blockOf.get(insn);
+                if (reached[block.index])
+                    visit(insn, block, edges, work, users);
+            }
+        }
+
+        boolean changed = function.blocks.removeIf(b -> !reached[b.index]);
+        final Instruction[] definition = new Instruction[vregs];
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                changed |= rewrite(insn, block);
+                changed |= combineImmediates(insn, definition);
+                if (insn.dst != NONE)
+                    definition[insn.dst] = insn;
+            }
+        }
+        function.renumber();
+        return changed;
+    }
+
+    private void visit(Instruction insn, BasicBlock block, ArrayDeque<BasicBlock[]> edges,
+            ArrayDeque<Instruction> work, List<List<Instruction>> users) {
+        if (insn.op.isTerminator()) {
+            if (insn.op == Opcode.JUMP) {
+                edges.add(new BasicBlock[] { block, insn.target });
+            } else if (insn.op.isConditionalBranch()) {
+                final byte s = meet(operandState(insn.a), operandState(insn.b));
+                if (s == CONSTANT)
+                    edges.add(new BasicBlock[] { block, taken(insn) });
+                else if (s == BOTTOM) {
+                    edges.add(new BasicBlock[] { block, insn.target });
+                    edges.add(new BasicBlock[] { block, insn.other });
+                }
+            }
+            return;
+        }
+        if (insn.dst == NONE || state[insn.dst] == BOTTOM)
+            return;
+        final byte oldState = state[insn.dst];
+        final int oldValue = value[insn.dst];
+        evaluate(insn, block);
+        if (state[insn.dst] != oldState || value[insn.dst] != oldValue)
+            work.addAll(users.get(insn.dst));
+    }
+
+    private byte operandState(int v) {
+        return v == NONE ? CONSTANT : state[v];
+    }
+
+    private static byte meet(byte a, byte b) {
+        if (a == BOTTOM || b == BOTTOM)
+            return BOTTOM;
+        return a == TOP || b == TOP ? TOP : CONSTANT;
+    }
+
+    private void set(int v, byte s, int c) {
+        // Values only move down the lattice
+        if (s == CONSTANT && state[v] == CONSTANT && value[v] != c)
+            s = BOTTOM;
+        if (s < state[v])
+            return;
+        state[v] = s;
+        value[v] = s == CONSTANT ? c : 0;
+    }
+
+    private void evaluate(Instruction insn, BasicBlock block) {
+        final int d = insn.dst;
+        switch (insn.op) {
+            case CONST:
+                set(d, CONSTANT, insn.imm);
+                return;
+            case MOVE:
+                set(d, operandState(insn.a), constant(insn.a));
+                return;
+            case PHI: {
+                byte s = TOP;
+                int c = 0;
+                for (int i = 0; i != insn.args.length && s != BOTTOM; ++i) {
+                    if (!executable.contains(edge(insn.sources[i], block)))
+                        continue;
+                    final int v = insn.args[i];
+                    if (state[v] == BOTTOM || state[v] == CONSTANT && s == CONSTANT && value[v] != c)
+                        s = BOTTOM;
+                    else if (state[v] == CONSTANT) {
+                        s = CONSTANT;
+                        c = value[v];
+                    }
+                }
+                set(d, s, c);
+                return;
+            }
+            default:
+                break;
+        }
+        if (!isArithmetic(insn.op)) {
+            set(d, BOTTOM, 0);
+            return;
+        }
+        // Anything times or and zero is zero
+        if ((insn.op == Opcode.MUL || insn.op == Opcode.AND)
+                && (isConstant(insn.a) && constant(insn.a) == 0 || isConstant(insn.b) && constant(insn.b) == 0)) {
+            set(d, CONSTANT, 0);
+            return;
+        }
+        final byte s = meet(operandState(insn.a), operandState(insn.b));
+        if (s != CONSTANT) {
+            set(d, s, 0);
+            return;
+        }
+        final Integer folded = fold(insn.op, constant(insn.a), constant(insn.b), insn.imm);
+        if (folded == null)
+            set(d, BOTTOM, 0);
+        else
+            set(d, CONSTANT, folded);
+    }
+
+    private static boolean isArithmetic(Opcode op) {
+        return op.compareTo(Opcode.ADD) >= 0 && op.compareTo(Opcode.SEXTB) <= 0;
+    }
+
+    /**
+     * Computes an arithmetic instruction on constants, null for a division by zero.
+     */
+    private static Integer fold(Opcode op, int x, int y, int imm) {
+        switch (op) {
+            case ADD: return x + y;
+            case SUB: return x - y;
+            case MUL: return x * y;
+            case DIV: return y == 0 ? null : x / y;
+            case REM: return y == 0 ? null : x % y;
+            case AND: return x & y;
+            case OR: return x | y;
+            case XOR: return x ^ y;
+            case SLL: return x << y;
+            case SRL: return x >>> y;
+            case SRA: return x >> y;
+            case SLT: return x < y ? 1 : 0;
+            case SLTU: return Integer.compareUnsigned(x, y) < 0 ? 1 : 0;
+            case ADDI: return x + imm;
+            case ANDI: return x & imm;
+            case ORI: return x | imm;
+            case XORI: return x ^ imm;
+            case SLLI: return x << imm;
+            case SRLI: return x >>> imm;
+            case SRAI: return x >> imm;
+            case SLTI: return x < imm ? 1 : 0;
+            case SLTIU: return Integer.compareUnsigned(x, imm) < 0 ? 1 : 0;
+            case NEG: return -x;
+            case NOT: return ~x;
+            case SEQZ: return x == 0 ? 1 : 0;
+            case SNEZ: return x != 0 ? 1 : 0;
+            case SEXTB: return (int) (byte) x;
+            default: throw new IllegalStateException("cannot fold " + op);
+        }
+    }
+
+    private BasicBlock taken(Instruction branch) {
+        final int x = constant(branch.a);
+        final int y = constant(branch.b);
+        final boolean holds;
+        switch (branch.op) {
+            case BEQ: holds = x == y; break;
+            case BNE: holds = x != y; break;
+            case BLT: holds = x < y; break;
+            case BGE: holds = x >= y; break;
+            default: throw new IllegalStateException("not a conditional branch: " + branch);
+        }
+        return holds ? branch.target : branch.other;
+    }
+
+    /**
+     * Applies the result of constant propagation to one instruction of a reached block.
+     */
+    private boolean rewrite(Instruction insn, BasicBlock block) {
+        if (insn.op == Opcode.PHI) {
+            int n = 0;
+            for (int i = 0; i != insn.args.length; ++i) {
+                if (executable.contains(edge(insn.sources[i], block))) {
+                    insn.args[n] = insn.args[i];
+                    insn.sources[n++] = insn.sources[i];
+                }
+            }
+            if (n != insn.args.length) {
+                insn.args = Arrays.copyOf(insn.args, n);
+                insn.sources = Arrays.copyOf(insn.sources, n);
+                if (state[insn.dst] != CONSTANT)
+                    return true;
+            }
+        }
+        if (insn.dst != NONE && state[insn.dst] == CONSTANT && insn.op != Opcode.CONST) {
+            makeConstant(insn, value[insn.dst]);
+            return true;
+        }
+        if (insn.op.isConditionalBranch()) {
+            if (isConstant(insn.a) && isConstant(insn.b)) {
+                insn.target = taken(insn);
+                insn.op = Opcode.JUMP;
+                insn.a = NONE;
+                insn.b = NONE;
+                insn.other = null;
+                return true;
+            }
+            return zeroOperands(insn);
+        }
+        if (insn.op == Opcode.MOVE && insn.a == NONE) {
+            makeConstant(insn, 0);
+            return true;
+        }
+        return selectImmediate(insn);
+    }
+
+    /**
+     * Adds up the constants of chained additions and shifts. Definitions that
+     * come later in the layout, such as those reaching a phi over a back edge,
+     * have not been rewritten yet and are skipped.
+     */
+    private static boolean combineImmediates(Instruction insn, Instruction[] definition) {
+        if (insn.op != Opcode.ADDI && insn.op != Opcode.SLLI || insn.a == NONE)
+            return false;
+        final Instruction inner = definition[insn.a];
+        if (inner == null || inner.op != insn.op || inner.a == NONE)
+            return false;
+        final long imm = (long) inner.imm + insn.imm;
+        if (insn.op == Opcode.ADDI ? !Lowering.fits(ImmediateInstruction.ADDI, imm) : imm >= 32)
+            return false;
+        insn.a = inner.a;
+        insn.imm = (int) imm;
+        return true;
+    }
+
+    private static void makeConstant(Instruction insn, int c) {
+        insn.op = Opcode.CONST;
+        insn.a = NONE;
+        insn.b = NONE;
+        insn.imm = c;
+        insn.args = null;
+        insn.sources = null;
+        insn.symbol = null;
+    }
+
+    /**
+     * Reads constant zero operands of arithmetic and branches from the zero register.
+     */
+    private boolean zeroOperands(Instruction insn) {
+        boolean changed = false;
+        if (insn.a != NONE && isConstant(insn.a) && constant(insn.a) == 0) {
+            insn.a = NONE;
+            changed = true;
+        }
+        if (insn.b != NONE && isConstant(insn.b) && constant(insn.b) == 0) {
+            insn.b = NONE;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Turns an instruction with a constant operand into its immediate form.
+     */
+    private boolean selectImmediate(Instruction insn) {
+        final Opcode op = insn.op;
+        if (op.compareTo(Opcode.ADD) < 0 || op.compareTo(Opcode.SLTU) > 0) {
+            if (op.compareTo(Opcode.ADDI) >= 0 && op.compareTo(Opcode.SRAI) <= 0 && insn.imm == 0
+                    && op != Opcode.ANDI) {
+                // x + 0, x | 0, x ^ 0 and shifts by zero
+                insn.op = Opcode.MOVE;
+                return true;
+            }
+            return false;
+        }
+        final boolean commutative = op == Opcode.ADD || op == Opcode.MUL || op == Opcode.AND || op == Opcode.OR
+                || op == Opcode.XOR;
+        if (commutative && isConstant(insn.a) && !isConstant(insn.b)) {
+            final int t = insn.a;
+            insn.a = insn.b;
+            insn.b = t;
+        }
+        if (!isConstant(insn.b))
+            return zeroOperands(insn);
+        final int c = constant(insn.b);
+        switch (op) {
+            case ADD:
+                return immediate(insn, Opcode.ADDI, c);
+            case SUB:
+                return immediate(insn, Opcode.ADDI, -(long) c);
+            case MUL:
+                if (c == 1) {
+                    insn.op = Opcode.MOVE;
+                    insn.b = NONE;
+                    return true;
+                }
+                if (c > 0 && Integer.bitCount(c) == 1)
+                    return immediate(insn, Opcode.SLLI, Lowering.log2(c));
+                break;
+            case AND:
+                return immediate(insn, Opcode.ANDI, c);
+            case OR:
+                return immediate(insn, Opcode.ORI, c);
+            case XOR:
+                return immediate(insn, Opcode.XORI, c);
+            case SLL:
+                return immediate(insn, Opcode.SLLI, c & 31);
+            case SRL:
+                return immediate(insn, Opcode.SRLI, c & 31);
+            case SRA:
+                return immediate(insn, Opcode.SRAI, c & 31);
+            case SLT:
+                return immediate(insn, Opcode.SLTI, c);
+            case SLTU:
+                return immediate(insn, Opcode.SLTIU, c);
+            default:
+                break;
+        }
+        return zeroOperands(insn);
+    }
+
+    private boolean immediate(Instruction insn, Opcode op, long c) {
+        final ImmediateInstruction machine = op == Opcode.SLLI || op == Opcode.SRLI || op == Opcode.SRAI ? null
+                : ImmediateInstruction.valueOf(op.name());
+        if (machine != null && !Lowering.fits(machine, c))
+            return zeroOperands(insn);
+        insn.b = NONE;
+        if (c == 0 && op != Opcode.ANDI && op != Opcode.SLTI && op != Opcode.SLTIU) {
+            insn.op = Opcode.MOVE;
+        } else {
+            insn.op = op;
+            insn.imm = (int) c;
+        }
+        return true;
+    }
+
+    // ------------ Copy propagation ------------
+
+    private boolean propagateCopies() {
+        final int vregs = function.getVregCount();
+        final int[] copyOf = new int[vregs];
+        for (int v = 0; v != vregs; ++v)
+            copyOf[v] = v;
+        boolean changed = false;
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                if (insn.op == Opcode.MOVE && insn.a != NONE) {
+                    copyOf[insn.dst] = insn.a;
+                } else if (insn.op == Opcode.PHI) {
+                    // A phi whose arguments are all the same value, or the phi itself, is a copy
+                    int same = NONE;
+                    boolean copy = true;
+                    for (int v : insn.args) {
+                        if (v == insn.dst || v == same)
+                            continue;
+                        copy &= same == NONE;
+                        same = v;
+                    }
+                    if (copy && same != NONE)
+                        copyOf[insn.dst] = same;
+                }
+            }
+        }
+        for (int v = 0; v != vregs; ++v) {
+            int source = v;
+            // Bounded, a cycle of copies can only occur in unreachable code
+            for (int i = 0; i != vregs && copyOf[source] != source; ++i)
+                source = copyOf[source];
+            copyOf[v] = source;
+        }
+        for (BasicBlock block : function.blocks) {
+            final boolean removed = block.instructions.removeIf(insn ->
+                    insn.dst != NONE && copyOf[insn.dst] != insn.dst && (insn.op == Opcode.MOVE || insn.op == Opcode.PHI));
+            changed |= removed;
+            for (Instruction insn : block.instructions) {
+                for (int v : insn.uses()) {
+                    if (copyOf[v] != v)
+                        insn.replaceUse(v, copyOf[v]);
+                }
+            }
+        }
+        return changed;
+    }
+
+    // ------------ Common subexpressions ------------
+
+    /**
+     * The operation and operands of a pure instruction. Operands holding a
+     * constant are identified by its value, as the constants themselves are
+     * mostly not shared.
+     */
+    private static final class Key {
+        final Opcode op;
+        final long a;
+        final long b;
+        final int imm;
+        final String symbol;
+
+        Key(Instruction insn, long a, long b) {
+            final boolean commutative = insn.op == Opcode.ADD || insn.op == Opcode.MUL || insn.op == Opcode.AND
+                    || insn.op == Opcode.OR || insn.op == Opcode.XOR;
+            this.op = insn.op;
+            this.a = commutative ? Math.min(a, b) : a;
+            this.b = commutative ? Math.max(a, b) : b;
+            this.imm = insn.imm;
+            this.symbol = insn.symbol;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            final Key k = (Key) o;
+            return op == k.op && a == k.a && b == k.b && imm == k.imm
+                    && (symbol == null ? k.symbol == null : symbol.equals(k.symbol));
+        }
+
+        @Override
+        public int hashCode() {
+            return ((op.ordinal() * 31 + Long.hashCode(a)) * 31 + Long.hashCode(b)) * 31 + imm
+                    + (symbol == null ? 0 : symbol.hashCode());
+        }
+    }
+
+    private static boolean isCandidate(Instruction insn) {
+        switch (insn.op) {
+            case CONST:
+                return !Lowering.fits(ImmediateInstruction.ADDI, insn.imm);
+            case MOVE:
+            case PHI:
+            case LW:
+            case LB:
+            case PARAM:
+                return false;
+            default:
+                return insn.op.isPure() && insn.dst != NONE;
+        }
+    }
+
+    private long operandKey(int v, Instruction[] definition) {
+        if (v == NONE)
+            return 1L << 32;
+        if (definition[v] != null && definition[v].op == Opcode.CONST)
+            return 1L << 32 | (definition[v].imm & 0xffffffffL);
+        return v;
+    }
+
+    private boolean eliminateCommonSubexpressions() {
+        final Dominators dominators = new Dominators(function);
+        final Instruction[] definition = new Instruction[function.getVregCount()];
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                if (insn.dst != NONE)
+                    definition[insn.dst] = insn;
+            }
+        }
+        return eliminateCommonSubexpressions(function.blocks.get(0), dominators, definition, new HashMap<>());
+    }
+
+    private boolean eliminateCommonSubexpressions(BasicBlock block, Dominators dominators, Instruction[] definition,
+            Map<Key, Integer> available) {
+        boolean changed = false;
+        final List<Key> added = new ArrayList<>();
+        for (Instruction insn : block.instructions) {
+            if (!isCandidate(insn))
+                continue;
+            final Key key = new Key(insn, operandKey(insn.a, definition), operandKey(insn.b, definition));
+            final Integer existing = available.get(key);
+            if (existing != null) {
+                insn.op = Opcode.MOVE;
+                insn.a = existing;
+                insn.b = NONE;
+                insn.imm = 0;
+                insn.symbol = null;
+                changed = true;
+            } else {
+                available.put(key, insn.dst);
+                added.add(key);
+            }
+        }
+        for (BasicBlock child : dominators.children.get(block.index))
+            changed |= eliminateCommonSubexpressions(child, dominators, definition, available);
+        for (Key key : added)
+            available.remove(key);
+        return changed;
+    }
+
+    // ------------ Dead code ------------
+
+    private boolean eliminateDeadCode() {
+        final Instruction[] definition = new Instruction[function.getVregCount()];
+        final List<Instruction> work = new ArrayList<>();
+        final Set<Instruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : function.blocks) {
+            for (Instruction insn : block.instructions) {
+                if (insn.dst != NONE)
+                    definition[insn.dst] = insn;
+                if (!insn.op.isPure() && live.add(insn))
+                    work.add(insn);
+            }
+        }
+        final boolean[] used = new boolean[definition.length];
+        while (!work.isEmpty()) {
+            for (int v : work.remove(work.size() - 1).uses()) {
+                used[v] = true;
+                if (definition[v] != null && live.add(definition[v]))
+                    work.add(definition[v]);
+            }
+        }
+
+        boolean changed = false;
+        for (BasicBlock block : function.blocks) {
+            changed |= block.instructions.removeIf(insn -> !live.contains(insn));
+            for (Instruction insn : block.instructions) {
+                if (insn.op == Opcode.CALL && insn.dst != NONE && !used[insn.dst]) {
+                    insn.dst = NONE;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,490 @@
+package tinycc.implementation.codegen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversion into and out of static single assignment form.
+ *
+ * Construction places pruned phi functions at the iterated dominance frontiers
+ * of the assignments and renames along the dominator tree (Cytron et al.).
+ * Destruction coalesces phi-related registers whose live ranges do not
+ * intersect (in the spirit of Sreedhar et al.) and copies the rest.
+ */
+final class Ssa {
+    private static final int NONE = Instruction.NONE;
+
+    private final IrFunction function;
+    private final Dominators dominators;
+    // The name each virtual register currently stands for during renaming, by original register
+    private final int[] current;
+    private final boolean[] renamed;
+    private final Map<Instruction, Integer> phiOriginals = new IdentityHashMap<>();
+
+    private Ssa(IrFunction function, Dominators dominators, int vregs) {
+        this.function = function;
+        this.dominators = dominators;
+        this.current = new int[vregs];
+        this.renamed = new boolean[vregs];
+        for (int v = 0; v != vregs; ++v)
+            current[v] = v;
+    }
+
+    /**
+     * Brings a function into SSA form, every virtual register is assigned once.
+     */
+    static void construct(IrFunction function) {
+        final Dominators dominators = new Dominators(function);
+        final Liveness liveness = new Liveness(function);
+        final List<BasicBlock> blocks = function.blocks;
+        final int vregs = function.getVregCount();
+
+        // Registers read before any assignment, uninitialized locals, start out as zero
+        final BasicBlock entry = blocks.get(0);
+        liveness.liveIn[0].stream().forEach(v -> entry.instructions.add(0, new Instruction(Opcode.CONST, v, NONE, NONE, 0)));
+
+        final BitSet[] defBlocks = new BitSet[vregs];
+        final int[] defCount = new int[vregs];
+        for (BasicBlock block : blocks) {
+            for (Instruction insn : block.instructions) {
+                if (insn.dst == NONE)
+                    continue;
+                if (defBlocks[insn.dst] == null)
+                    defBlocks[insn.dst] = new BitSet();
+                defBlocks[insn.dst].set(block.index);
+                ++defCount[insn.dst];
+            }
+        }
+
+        final Ssa ssa = new Ssa(function, dominators, vregs);
+        for (int v = 0; v != vregs; ++v) {
+            // A single assignment dominates all uses since nothing is live on entry any more
+            if (defCount[v] < 2)
+                continue;
+            ssa.renamed[v] = true;
+            final BitSet hasPhi = new BitSet();
+            final BitSet work = (BitSet) defBlocks[v].clone();
+            for (int b = work.nextSetBit(0); b >= 0; b = work.nextSetBit(0)) {
+                work.clear(b);
+                for (int d = dominators.frontier[b].nextSetBit(0); d >= 0; d = dominators.frontier[b].nextSetBit(d + 1)) {
+                    if (hasPhi.get(d) || !liveness.liveIn[d].get(v))
+                        continue;
+                    hasPhi.set(d);
+                    ssa.insertPhi(blocks.get(d), v);
+                    if (!defBlocks[v].get(d)) {
+                        defBlocks[v].set(d);
+                        work.set(d);
+                    }
+                }
+            }
+        }
+        ssa.rename(entry);
+    }
+
+    private void insertPhi(BasicBlock block, int v) {
+        final List<BasicBlock> predecessors = dominators.predecessors.get(block.index);
+        final Instruction phi = new Instruction(Opcode.PHI, v, NONE, NONE, 0);
+        phi.args = new int[predecessors.size()];
+        phi.sources = predecessors.toArray(new BasicBlock[0]);
+        block.instructions.add(0, phi);
+        phiOriginals.put(phi, v);
+    }
+
+    private void rename(BasicBlock block) {
+        final List<int[]> undo = new ArrayList<>();
+        for (Instruction insn : block.instructions) {
+            if (insn.op != Opcode.PHI) {
+                for (int v : insn.uses()) {
+                    if (renamed[v])
+                        insn.replaceUse(v, current[v]);
+                }
+            }
+            if (insn.dst != NONE && renamed[insn.dst]) {
+                final int name = function.newVreg();
+                undo.add(new int[] { insn.dst, current[insn.dst] });
+                current[insn.dst] = name;
+                insn.dst = name;
+            }
+        }
+        for (BasicBlock s : block.successors()) {
+            for (Instruction phi : s.instructions) {
+                if (phi.op != Opcode.PHI)
+                    break;
+                for (int i = 0; i != phi.sources.length; ++i) {
+                    if (phi.sources[i] == block)
+                        phi.args[i] = current[phiOriginals.get(phi)];
+                }
+            }
+        }
+        for (BasicBlock child : dominators.children.get(block.index))
+            rename(child);
+        for (int i = undo.size() - 1; i >= 0; --i)
+            current[undo.get(i)[0]] = undo.get(i)[1];
+    }
+
+    /**
+     * Takes a function out of SSA form.
+     *
+     * The arguments of every phi are merged with its result into one register
+     * unless their live ranges intersect. The remaining arguments are copied on
+     * their incoming edge, splitting edges from blocks with two successors, and
+     * the copies of one edge are ordered so that none overwrites a value another
+     * one still reads.
+     */
+    static void destruct(IrFunction function) {
+        final Dominators dominators = new Dominators(function);
+        final List<BasicBlock> blocks = function.blocks;
+        final int vregs = function.getVregCount();
+        final BitSet[] liveOut = liveOut(function, dominators);
+        final BasicBlock[] defBlock = new BasicBlock[vregs];
+        final int[] defIndex = new int[vregs];
+        final List<Instruction> phis = new ArrayList<>();
+        final List<BasicBlock> phiBlocks = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            for (int i = 0; i != block.instructions.size(); ++i) {
+                final Instruction insn = block.instructions.get(i);
+                if (insn.dst != NONE) {
+                    defBlock[insn.dst] = block;
+                    defIndex[insn.dst] = i;
+                }
+                if (insn.op == Opcode.PHI) {
+                    phis.add(insn);
+                    phiBlocks.add(block);
+                }
+            }
+        }
+
+        // Congruence classes of registers that end up in the same register
+        final int[] representative = new int[vregs];
+        final List<List<Integer>> members = new ArrayList<>(vregs);
+        for (int v = 0; v != vregs; ++v) {
+            representative[v] = v;
+            final List<Integer> self = new ArrayList<>(1);
+            self.add(v);
+            members.add(self);
+        }
+        final Interference interference = new Interference(dominators, liveOut, defBlock, defIndex);
+        for (Instruction phi : phis) {
+            for (int arg : phi.args) {
+                final int c = representative[phi.dst];
+                final int d = representative[arg];
+                if (c == d || interference.between(members.get(c), members.get(d)))
+                    continue;
+                for (int v : members.get(d))
+                    representative[v] = c;
+                members.get(c).addAll(members.get(d));
+                members.get(d).clear();
+            }
+        }
+
+        final Map<BasicBlock, Map<BasicBlock, List<int[]>>> copies = new LinkedHashMap<>();
+        for (int p = 0; p != phis.size(); ++p) {
+            final Instruction phi = phis.get(p);
+            for (int i = 0; i != phi.args.length; ++i) {
+                final int dst = representative[phi.dst];
+                final int src = representative[phi.args[i]];
+                if (dst != src) {
+                    copies.computeIfAbsent(phi.sources[i], k -> new LinkedHashMap<>())
+                            .computeIfAbsent(phiBlocks.get(p), k -> new ArrayList<>())
+                            .add(new int[] { dst, src });
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            block.instructions.removeIf(insn -> insn.op == Opcode.PHI);
+            for (Instruction insn : block.instructions) {
+                if (insn.dst != NONE)
+                    insn.dst = representative[insn.dst];
+                for (int v : insn.uses())
+                    insn.replaceUse(v, representative[v]);
+            }
+        }
+
+        final List<BasicBlock> edges = new ArrayList<>();
+        for (Map.Entry<BasicBlock, Map<BasicBlock, List<int[]>>> from : copies.entrySet()) {
+            final BasicBlock source = from.getKey();
+            for (Map.Entry<BasicBlock, List<int[]>> to : from.getValue().entrySet()) {
+                final Instruction terminator = source.terminator();
+                if (terminator.op == Opcode.JUMP) {
+                    final List<Instruction> instructions = source.instructions;
+                    instructions.addAll(instructions.size() - 1, sequentialize(function, to.getValue()));
+                    continue;
+                }
+                // A block of its own on the edge, placed so the branch can fall through to it
+                final BasicBlock edge = function.newBlock();
+                edge.instructions.addAll(sequentialize(function, to.getValue()));
+                final Instruction jump = new Instruction(Opcode.JUMP, NONE, NONE, NONE, 0);
+                jump.target = to.getKey();
+                edge.instructions.add(jump);
+                if (terminator.target == to.getKey())
+                    terminator.target = edge;
+                if (terminator.other == to.getKey())
+                    terminator.other = edge;
+                blocks.add(blocks.indexOf(source) + 1, edge);
+                edges.add(edge);
+            }
+        }
+        for (BasicBlock edge : edges)
+            hoist(function, edge, edges);
+        function.renumber();
+        coalesce(function);
+    }
+
+    /**
+     * Moves the copies of a split edge into the branch before it when the other
+     * successor of the branch does not need the registers they overwrite, which
+     * saves the jump around them.
+     */
+    private static void hoist(IrFunction function, BasicBlock edge, List<BasicBlock> edges) {
+        final List<List<BasicBlock>> predecessors = function.predecessors();
+        final BasicBlock source = predecessors.get(edge.index).get(0);
+        final Instruction branch = source.terminator();
+        final BasicBlock other = branch.target == edge ? branch.other : branch.target;
+        final Liveness liveness = new Liveness(function);
+        final List<Instruction> moves = edge.instructions.subList(0, edge.instructions.size() - 1);
+        for (Instruction move : moves) {
+            if (liveness.liveIn[other.index].get(move.dst) || branch.a == move.dst || branch.b == move.dst)
+                return;
+        }
+        source.instructions.addAll(source.instructions.size() - 1, moves);
+        // A split edge on the other side may repeat some of them; it reads its sources before it writes them
+        if (edges.contains(other)) {
+            other.instructions.removeIf(insn -> {
+                for (Instruction move : moves) {
+                    if (insn.op == Opcode.MOVE && insn.dst == move.dst && insn.a == move.a)
+                        return true;
+                }
+                return false;
+            });
+        }
+        moves.clear();
+    }
+
+    /**
+     * Orders the parallel copies {dst, src} of an edge, breaking cycles with a
+     * fresh register.
+     */
+    private static List<Instruction> sequentialize(IrFunction function, List<int[]> parallel) {
+        final List<int[]> pending = new ArrayList<>(parallel);
+        final List<Instruction> sequence = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            int ready = -1;
+            for (int i = 0; i != pending.size() && ready < 0; ++i) {
+                boolean read = false;
+                for (int[] other : pending)
+                    read |= other != pending.get(i) && other[1] == pending.get(i)[0];
+                if (!read)
+                    ready = i;
+            }
+            if (ready < 0) {
+                // Every destination is still read by another copy: save one of them
+                final int saved = pending.get(0)[0];
+                final int t = function.newVreg();
+                sequence.add(new Instruction(Opcode.MOVE, t, saved, NONE, 0));
+                for (int[] copy : pending) {
+                    if (copy[1] == saved)
+                        copy[1] = t;
+                }
+                ready = 0;
+            }
+            final int[] copy = pending.remove(ready);
+            sequence.add(new Instruction(Opcode.MOVE, copy[0], copy[1], NONE, 0));
+        }
+        return sequence;
+    }
+
+    /**
+     * The registers live at the end of every block in SSA form, where the
+     * arguments of a phi are only live on the edge they flow along.
+     */
+    private static BitSet[] liveOut(IrFunction function, Dominators dominators) {
+        final List<BasicBlock> blocks = function.blocks;
+        final int n = blocks.size();
+        final BitSet[] upward = new BitSet[n];
+        final BitSet[] defs = new BitSet[n];
+        final BitSet[] phiDefs = new BitSet[n];
+        final BitSet[] liveIn = new BitSet[n];
+        final BitSet[] liveOut = new BitSet[n];
+        for (int i = 0; i != n; ++i) {
+            upward[i] = new BitSet();
+            defs[i] = new BitSet();
+            phiDefs[i] = new BitSet();
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+            for (Instruction insn : blocks.get(i).instructions) {
+                if (insn.op == Opcode.PHI) {
+                    phiDefs[i].set(insn.dst);
+                } else {
+                    for (int v : insn.uses()) {
+                        if (!defs[i].get(v))
+                            upward[i].set(v);
+                    }
+                }
+                if (insn.dst != NONE)
+                    defs[i].set(insn.dst);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; --i) {
+                final BasicBlock block = blocks.get(i);
+                final BitSet out = new BitSet();
+                for (BasicBlock s : block.successors()) {
+                    final BitSet in = (BitSet) liveIn[s.index].clone();
+                    in.andNot(phiDefs[s.index]);
+                    out.or(in);
+                    for (Instruction phi : s.instructions) {
+                        if (phi.op != Opcode.PHI)
+                            break;
+                        for (int k = 0; k != phi.args.length; ++k) {
+                            if (phi.sources[k] == block)
+                                out.set(phi.args[k]);
+                        }
+                    }
+                }
+                final BitSet in = (BitSet) out.clone();
+                in.andNot(defs[i]);
+                in.or(upward[i]);
+                in.or(phiDefs[i]);
+                if (!in.equals(liveIn[i]) || !out.equals(liveOut[i])) {
+                    liveIn[i] = in;
+                    liveOut[i] = out;
+                    changed = true;
+                }
+            }
+        }
+        return liveOut;
+    }
+
+    /**
+     * Interference of SSA registers: one of two intersecting live ranges
+     * contains the definition of the other, which is dominated by its own.
+     */
+    private static final class Interference {
+        private final Dominators dominators;
+        private final BitSet[] liveOut;
+        private final BasicBlock[] defBlock;
+        private final int[] defIndex;
+
+        Interference(Dominators dominators, BitSet[] liveOut, BasicBlock[] defBlock, int[] defIndex) {
+            this.dominators = dominators;
+            this.liveOut = liveOut;
+            this.defBlock = defBlock;
+            this.defIndex = defIndex;
+        }
+
+        boolean between(List<Integer> a, List<Integer> b) {
+            for (int x : a) {
+                for (int y : b) {
+                    if (interfere(x, y))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean interfere(int a, int b) {
+            if (defBlock[a] == null || defBlock[b] == null)
+                return false;
+            if (dominatesDefinition(b, a)) {
+                final int t = a;
+                a = b;
+                b = t;
+            } else if (!dominatesDefinition(a, b)) {
+                return false;
+            }
+            // a is defined first, is it still live after b is defined?
+            final BasicBlock block = defBlock[b];
+            if (liveOut[block.index].get(a))
+                return true;
+            for (int i = defIndex[b] + 1; i < block.instructions.size(); ++i) {
+                final Instruction insn = block.instructions.get(i);
+                if (insn.op == Opcode.PHI)
+                    continue;
+                for (int v : insn.uses()) {
+                    if (v == a)
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean dominatesDefinition(int a, int b) {
+            if (defBlock[a] == defBlock[b])
+                return defIndex[a] < defIndex[b];
+            return dominators.dominates(defBlock[a], defBlock[b]);
+        }
+    }
+
+    /**
+     * Merges the operands of copies that are never live at the same time into one
+     * register, which removes the copy (Chaitin's aggressive coalescing).
+     */
+    private static void coalesce(IrFunction function) {
+        final int vregs = function.getVregCount();
+        final Liveness liveness = new Liveness(function);
+        final BitSet[] interference = new BitSet[vregs];
+        for (int v = 0; v != vregs; ++v)
+            interference[v] = new BitSet();
+        final List<Instruction> moves = new ArrayList<>();
+        for (BasicBlock block : function.blocks) {
+            final BitSet live = (BitSet) liveness.liveOut[block.index].clone();
+            for (int i = block.instructions.size() - 1; i >= 0; --i) {
+                final Instruction insn = block.instructions.get(i);
+                final boolean isMove = insn.op == Opcode.MOVE && insn.a != NONE;
+                if (isMove)
+                    moves.add(insn);
+                if (insn.dst != NONE) {
+                    final int d = insn.dst;
+                    for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+                        // The source of a copy may share the register of its destination
+                        if (v != d && !(isMove && v == insn.a)) {
+                            interference[d].set(v);
+                            interference[v].set(d);
+                        }
+                    }
+                    live.clear(d);
+                }
+                for (int v : insn.uses())
+                    live.set(v);
+            }
+        }
+
+        final int[] representative = new int[vregs];
+        for (int v = 0; v != vregs; ++v)
+            representative[v] = v;
+        for (Instruction move : moves) {
+            final int d = find(representative, move.dst);
+            final int s = find(representative, move.a);
+            if (d == s || interference[d].get(s))
+                continue;
+            representative[s] = d;
+            interference[d].or(interference[s]);
+            for (int v = interference[s].nextSetBit(0); v >= 0; v = interference[s].nextSetBit(v + 1))
+                interference[v].set(d);
+        }
+
+        for (BasicBlock block : function.blocks) {
+            block.instructions.removeIf(insn -> {
+                if (insn.dst != NONE)
+                    insn.dst = find(representative, insn.dst);
+                for (int v : insn.uses())
+                    insn.replaceUse(v, find(representative, v));
+                return insn.op == Opcode.MOVE && insn.dst == insn.a;
+            });
+        }
+    }
+
+    private static int find(int[] representative, int v) {
+        while (representative[v] != v) {
+            representative[v] = representative[representative[v]];
+            v = representative[v];
+        }
+        return v;
+    }
+}
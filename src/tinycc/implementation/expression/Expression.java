@@ -13,6 +13,9 @@
  */
 public abstract class Expression {
 
+	/** The type computed by checkType(), null before the check or if it failed */
+	protected Type type;
+
 	/**
 	 * Creates a string representation of this expression.
 	 *
@@ -31,7 +34,36 @@ public TokenKind getType(){
 	}*/
 
 	public abstract Type checkType(Diagnostic d, Scope s);
-	//public abstract Type getType();
+
+	/**
+	 * Returns the type of this expression as computed by checkType().
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Folds constant subexpressions and algebraic identities after checkType().
+	 * Returns the expression that replaces this one, which may be this one.
+	 */
+	public Expression fold() {
+		return this;
+	}
+
+	/**
+	 * Returns the value of an integer or character constant, null for any other
+	 * expression.
+	 */
+	public Integer getConstantValue() {
+		return null;
+	}
+
+	/**
+	 * Returns whether evaluating this expression may change the program state.
+	 */
+	public boolean hasSideEffects() {
+		return false;
+	}
 
 	/*public abstract int eval();
 
@@ -1,17 +1,20 @@
 package tinycc.implementation.expression.binaryExpressions;
 
 import tinycc.diagnostic.Diagnostic;
+import tinycc.implementation.expression.primaryExpressions.Identifier;
+import tinycc.implementation.expression.primaryExpressions.IntegerConstant;
 import tinycc.implementation.semantic.Scope;
 import tinycc.implementation.type.FunctionType;
 import tinycc.implementation.type.PointerType;
 import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.Token;
 import tinycc.parser.TokenKind;
+import tinycc.util.Trace;
 import tinycc.implementation.expression.Expression;
 
 public class BinaryExpression extends Expression {
-    protected Type type;
     protected Expression lhs, rhs;
     protected Token operator;
 
@@ -35,11 +38,11 @@ public Token getBinaryOperator(){
     }
 
     public SimpleType getInt(){
-        return new SimpleType(TokenKind.INT);
+        return TypeContext.INT;
     }
 
     public PointerType getPointer(){
-        return new PointerType(getInt());
+        return TypeContext.getPointerType(TypeContext.INT);
     }
 
     // Checks if a type is an integer type
@@ -58,28 +61,12 @@ private boolean isScalar(Type t) {
         return isInt(t) || isPointer(t);
     }
 
-    // Checks if a type is void*
-    private boolean isVoidPointer(Type t) {
-        return (t instanceof PointerType) &&
-               (((PointerType) t).getPointsTo() instanceof SimpleType) &&
-               ((SimpleType) ((PointerType) t).getPointsTo()).getKind() == TokenKind.VOID;
-    }
-
     private boolean canImplicitlyConvert(Type from, Type to) {
         // int <-> int, char <-> int, etc.
         if (isInt(from) && isInt(to)) return true;
 
-        // t* <-> t*
-        if (isPointer(from) && isPointer(to)) {
-            PointerType pf = (PointerType) from;
-            PointerType pt = (PointerType) to;
-            // Same pointer type
-            if (pf.getPointsTo().equals(pt.getPointsTo())) return true;
-            // Only allow T* -> void*, but not void* -> T*
-            if (!isVoidPointer(from) && isVoidPointer(to)) return true;
-            // Reject all other pointer conversions
-            return false;
-        }
+        // t* <-> t*, void* <-> t*
+        if (isPointer(from) && isPointer(to)) return TypeContext.isPointerConversion(from, to);
         return false;
     }
 
@@ -90,14 +77,16 @@ public String toString() {
 
     @Override
     public Type checkType(Diagnostic d, Scope s) {
+        type = computeType(d, s);
+        return type;
+    }
+
+    private Type computeType(Diagnostic d, Scope s) {
         Type leftType = lhs.checkType(d, s);
         Type rightType = rhs.checkType(d, s);
         
-        // Debug: print types for assignment
-        if (operator.getKind() == TokenKind.EQUAL) {
-            System.err.println("DEBUG: Left type: " + leftType + ", Right type: " + rightType);
-            System.err.println("DEBUG: isScalar(leftType): " + isScalar(leftType) + ", isScalar(rightType): " + isScalar(rightType));
-        }
+        if (Trace.SEMA.isEnabled())
+            Trace.SEMA.print(operator, "%s %s %s", leftType, operator, rightType);
 
         switch (operator.getKind()) {
             case PLUS:
@@ -106,11 +95,9 @@ public Type checkType(Diagnostic d, Scope s) {
                 }
                 else if (isInt(leftType) && isPointer(rightType)){
                     // int + pointer -> pointer
-                    System.err.println("DEBUG: int + pointer -> " + rightType);
                     return rightType;
                 } else if (isPointer(leftType) && isInt(rightType)){
                     // pointer + int -> pointer
-                    System.err.println("DEBUG: pointer + int -> " + leftType);
                     return leftType;
                 } else {
                     d.printError(operator, "Invalid Addition Operation", lhs, rhs);
@@ -120,7 +107,8 @@ else if (isInt(leftType) && isPointer(rightType)){
                 if (isInt(leftType) && isInt(rightType) || isPointer(leftType) && isPointer(rightType)){
                     return getInt();
                 } else if (isPointer(leftType) && isInt(rightType)){
-                    return getPointer();
+                    // pointer - int -> pointer of the same type
+                    return leftType;
                 } else {
                     d.printError(operator, "Invalid Addition Operation", lhs, rhs);
                     return null;
@@ -188,4 +176,86 @@ else if (isInt(leftType) && isPointer(rightType)){
         }
     }
 
+    @Override
+    public boolean hasSideEffects() {
+        return operator.getKind() == TokenKind.EQUAL || lhs.hasSideEffects() || rhs.hasSideEffects();
+    }
+
+    @Override
+    public Expression fold() {
+        lhs = lhs.fold();
+        rhs = rhs.fold();
+        final Integer a = lhs.getConstantValue();
+        final Integer b = rhs.getConstantValue();
+        if (a != null && b != null) {
+            final Integer value = evaluate(operator.getKind(), a, b);
+            return value != null ? IntegerConstant.folded(value) : this;
+        }
+        switch (operator.getKind()) {
+            case PLUS:
+                // Also p + 0 for pointers
+                if (isConstant(b, 0))
+                    return lhs;
+                if (isConstant(a, 0))
+                    return rhs;
+                break;
+            case MINUS:
+                if (isConstant(b, 0))
+                    return lhs;
+                if (lhs instanceof Identifier && rhs instanceof Identifier
+                        && ((Identifier) lhs).getDeclaration() == ((Identifier) rhs).getDeclaration())
+                    return IntegerConstant.folded(0);
+                break;
+            case ASTERISK:
+                if (isConstant(b, 1))
+                    return lhs;
+                if (isConstant(a, 1))
+                    return rhs;
+                if (isConstant(b, 0) && !lhs.hasSideEffects() || isConstant(a, 0) && !rhs.hasSideEffects())
+                    return IntegerConstant.folded(0);
+                break;
+            case SLASH:
+                if (isConstant(b, 1))
+                    return lhs;
+                break;
+            default:
+                break;
+        }
+        return this;
+    }
+
+    private static boolean isConstant(Integer value, int expected) {
+        return value != null && value == expected;
+    }
+
+    /**
+     * Computes an operation on constants with 32 bit wraparound, null if it
+     * cannot be folded, like a division by zero that has to fail at run time.
+     */
+    private static Integer evaluate(TokenKind kind, int a, int b) {
+        switch (kind) {
+            case PLUS:
+                return a + b;
+            case MINUS:
+                return a - b;
+            case ASTERISK:
+                return a * b;
+            case SLASH:
+                return b == 0 ? null : a / b;
+            case LESS:
+                return a < b ? 1 : 0;
+            case GREATER:
+                return a > b ? 1 : 0;
+            case LESS_EQUAL:
+                return a <= b ? 1 : 0;
+            case GREATER_EQUAL:
+                return a >= b ? 1 : 0;
+            case EQUAL_EQUAL:
+                return a == b ? 1 : 0;
+            case BANG_EQUAL:
+                return a != b ? 1 : 0;
+            default:
+                return null;
+        }
+    }
 }
@@ -5,7 +5,9 @@
 import tinycc.diagnostic.Diagnostic;
 import tinycc.implementation.expression.Expression;
 import tinycc.implementation.semantic.Scope;
+import tinycc.implementation.type.PointerType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.Token;
 import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.type.FunctionType;
@@ -59,6 +61,11 @@ public String toString(){
 
     @Override
     public Type checkType(Diagnostic d, Scope s) {
+        type = computeType(d, s);
+        return type;
+    }
+
+    private Type computeType(Diagnostic d, Scope s) {
         // Check that function name resolves to a function type
         Type functionType = functionName.checkType(d, s);
         if (functionType == null) {
@@ -97,7 +104,11 @@ public Type checkType(Diagnostic d, Scope s) {
     
     private boolean canImplicitlyConvert(Type from, Type to) {
         // Simple conversion rules for now
-        if (from.equals(to)) return true;
+        if (from == to) return true;
+
+        if (from instanceof PointerType && to instanceof PointerType) {
+            return TypeContext.isPointerConversion(from, to);
+        }
         
         // int <-> char conversion
         if (from instanceof SimpleType && to instanceof SimpleType) {
@@ -109,4 +120,17 @@ private boolean canImplicitlyConvert(Type from, Type to) {
         
         return false;
     }
+
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    @Override
+    public Expression fold() {
+        functionName = functionName.fold();
+        for (int i = 0; i != functionArguments.size(); ++i)
+            functionArguments.set(i, functionArguments.get(i).fold());
+        return this;
+    }
 }
@@ -3,9 +3,8 @@
 import tinycc.diagnostic.Diagnostic;
 import tinycc.implementation.expression.Expression;
 import tinycc.implementation.semantic.Scope;
-import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
-import tinycc.parser.TokenKind;
+import tinycc.implementation.type.TypeContext;
 
 public class CharacterConstant extends Expression {
     private String c;
@@ -20,6 +19,11 @@ public String getChar(){
         return this.c;
     }
 
+    @Override
+    public Integer getConstantValue(){
+        return (int) (byte) this.c.charAt(0);
+    }
+
     @Override
     public String toString(){
         return "Const_'" + this.c + "'";
@@ -28,6 +32,7 @@ public String toString(){
 
     @Override
     public Type checkType(Diagnostic d, Scope s) {
-        return new SimpleType(TokenKind.CHAR);
+        type = TypeContext.CHAR;
+        return type;
     }
 }
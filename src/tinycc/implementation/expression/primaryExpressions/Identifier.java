@@ -6,6 +6,7 @@
 import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.type.Type;
 import tinycc.parser.Token;
+import tinycc.util.Trace;
 
 public class Identifier extends Expression {
     private String identifier;
@@ -25,6 +26,17 @@ public String getIdentifier(){
         return identifier;
     }
 
+    public Declaration getDeclaration(){
+        return declaration;
+    }
+
+    /**
+     * Returns the local slot of the referenced variable, -1 for globals and functions.
+     */
+    public int getSlot(){
+        return declaration == null ? -1 : declaration.getSlot();
+    }
+
     @Override
     public boolean isLValue() {
         return true;
@@ -37,15 +49,16 @@ public String toString(){
 
     	@Override
 	public Type checkType(Diagnostic d, Scope s) {
-		try {
-			this.declaration = s.lookup(identifier);
-			Type resultType = this.declaration.getType();
-			System.err.println("DEBUG: Identifier '" + identifier + "' resolves to type: " + resultType);
-			return resultType;
-		} catch (Exception e) {
+		this.declaration = s.lookup(identifier);
+		if (this.declaration == null) {
 			d.printError(token, "Variable '" + identifier + "' not declared.");
 			return null;
 		}
+		Type resultType = this.declaration.getType();
+		this.type = resultType;
+		if (Trace.SCOPE.isEnabled())
+			Trace.SCOPE.print(token, "'%s' resolves to %s", identifier, resultType);
+		return resultType;
 	}
 
 }
@@ -3,9 +3,8 @@
 import tinycc.diagnostic.Diagnostic;
 import tinycc.implementation.expression.Expression;
 import tinycc.implementation.semantic.Scope;
-import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
-import tinycc.parser.TokenKind;
+import tinycc.implementation.type.TypeContext;
 
 public class IntegerConstant extends Expression {
     private int value;
@@ -22,6 +21,20 @@ public int eval(){
         return this.value;
     }
 
+    /**
+     * Creates an already checked constant for the result of folding.
+     */
+    public static IntegerConstant folded(int value){
+        IntegerConstant constant = new IntegerConstant(value);
+        constant.type = TypeContext.INT;
+        return constant;
+    }
+
+    @Override
+    public Integer getConstantValue(){
+        return this.value;
+    }
+
     @Override
     public String toString(){
         return "Const_" + this.value;
@@ -29,7 +42,8 @@ public String toString(){
 
     @Override
     public Type checkType(Diagnostic d, Scope s) {
-        return new SimpleType(TokenKind.INT);
+        type = TypeContext.INT;
+        return type;
     }
 
 }
@@ -3,10 +3,8 @@
 import tinycc.diagnostic.Diagnostic;
 import tinycc.implementation.expression.Expression;
 import tinycc.implementation.semantic.Scope;
-import tinycc.implementation.type.PointerType;
-import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
-import tinycc.parser.TokenKind;
+import tinycc.implementation.type.TypeContext;
 
 public class StringLiteral extends Expression{
     private String string;
@@ -26,12 +24,13 @@ public String toString() {
 
     @Override
     public Type checkType(Diagnostic d, Scope s) {
-        return new PointerType(new SimpleType(TokenKind.CHAR));
+        type = TypeContext.getPointerType(TypeContext.CHAR);
+        return type;
     }
 
     /*@Override
     public Type getType() {
-        return new PointerType(new SimpleType(TokenKind.CHAR));
+        return TypeContext.getPointerType(TypeContext.CHAR);
     }*/
 
 }
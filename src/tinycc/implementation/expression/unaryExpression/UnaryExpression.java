@@ -3,13 +3,18 @@
 
 import tinycc.diagnostic.Diagnostic;
 import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.primaryExpressions.Identifier;
+import tinycc.implementation.expression.primaryExpressions.IntegerConstant;
 import tinycc.implementation.semantic.Scope;
+import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.type.FunctionType;
 import tinycc.implementation.type.PointerType;
 import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.Token;
 import tinycc.parser.TokenKind;
+import tinycc.util.Trace;
 
 public class UnaryExpression extends Expression{
     private Token operator;
@@ -30,6 +35,10 @@ public Token getOperator(){
         return this.operator;
     }
 
+    public boolean isPostfix(){
+        return this.postfix;
+    }
+
     public String toString(){
         return "Unary_" + this.operator.toString() + "[" + this.operand.toString() + "]";
     }
@@ -55,6 +64,11 @@ public boolean isLValue() {
 
     @Override
     public Type checkType(Diagnostic d, Scope s) {
+        type = computeType(d, s);
+        return type;
+    }
+
+    private Type computeType(Diagnostic d, Scope s) {
         Type operandType = operand.checkType(d, s);
         
         // If operand type checking failed, return null
@@ -62,11 +76,8 @@ public Type checkType(Diagnostic d, Scope s) {
             return null;
         }
         
-        // Debug output for dereference operator
-        if (operator.getKind() == TokenKind.ASTERISK) {
-            System.err.println("DEBUG: Dereferencing operand type: " + operandType);
-            System.err.println("DEBUG: Operand is pointer: " + (operandType instanceof PointerType));
-        }
+        if (Trace.SEMA.isEnabled())
+            Trace.SEMA.print(operator, "%s%s", operator, operandType);
         
         switch (operator.getKind()) {
             case AND: // address-of operator
@@ -74,7 +85,14 @@ public Type checkType(Diagnostic d, Scope s) {
                     d.printError(operator, "Address-of operator requires an l-value");
                     return null;
                 }
-                return new PointerType(operandType);
+                // Locals whose address is taken must live in memory
+                if (operand instanceof Identifier) {
+                    Declaration declaration = ((Identifier) operand).getDeclaration();
+                    if (declaration != null) {
+                        declaration.markAddressTaken();
+                    }
+                }
+                return TypeContext.getPointerType(operandType);
                 
             case ASTERISK: // dereference operator
                 if (!(operandType instanceof PointerType)) {
@@ -101,7 +119,7 @@ public Type checkType(Diagnostic d, Scope s) {
                     return null;
                 }
                 // sizeof can be applied to other types
-                return new SimpleType(TokenKind.INT);
+                return TypeContext.INT;
                 
             case PLUS_PLUS:
             case MINUS_MINUS:
@@ -121,6 +139,35 @@ public Type checkType(Diagnostic d, Scope s) {
         }
     }
     
+    @Override
+    public boolean hasSideEffects() {
+        final TokenKind kind = operator.getKind();
+        return kind == TokenKind.PLUS_PLUS || kind == TokenKind.MINUS_MINUS || operand.hasSideEffects();
+    }
+
+    @Override
+    public Expression fold() {
+        // The operand of sizeof is not evaluated and folding it could change its type
+        if (operator.getKind() == TokenKind.SIZEOF)
+            return operand.getType() != null ? IntegerConstant.folded(TypeContext.sizeOf(operand.getType())) : this;
+        operand = operand.fold();
+        final Integer value = operand.getConstantValue();
+        if (value == null)
+            return this;
+        switch (operator.getKind()) {
+            case PLUS:
+                return IntegerConstant.folded(value);
+            case MINUS:
+                return IntegerConstant.folded(-value);
+            case TILDE:
+                return IntegerConstant.folded(~value);
+            case BANG:
+                return IntegerConstant.folded(value == 0 ? 1 : 0);
+            default:
+                return this;
+        }
+    }
+
     private boolean isScalar(Type t) {
         return (t instanceof SimpleType) || (t instanceof PointerType);
     }
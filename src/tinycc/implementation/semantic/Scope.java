@@ -1,57 +1,146 @@
 package tinycc.implementation.semantic;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import tinycc.implementation.statement.Declaration;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 
+/**
+ * The symbol table of a translation unit.
+ *
+ * All scopes share one table which maps every name to its innermost visible
+ * declaration. Each entry links to the declaration it shadows, so lookups are a
+ * single hash probe. Declarations are recorded in an undo log and every open
+ * scope remembers the log position at its start; leaving a scope pops the log
+ * back to that mark and restores the shadowed declarations.
+ *
+ * Declarations inside a function are numbered densely in declaration order and
+ * get a byte offset in the locals area of the frame, see beginFunction().
+ */
 public class Scope {
-    private final Map<String, Declaration> table;
-    private final Scope parent;
-    private Type currentFunctionReturnType; // Track current function's return type
+    private static final class Entry {
+        final Declaration declaration;
+        final int depth;
+        final Entry shadowed;
 
-    public Scope(){
-        this(null);
+        Entry(Declaration declaration, int depth, Entry shadowed) {
+            this.declaration = declaration;
+            this.depth = depth;
+            this.shadowed = shadowed;
+        }
     }
 
-    private Scope(Scope parent){
-        this.parent = parent;
-        this.table = new HashMap<String, Declaration>();
-        this.currentFunctionReturnType = null;
+    private final HashMap<String, Entry> symbols = new HashMap<>();
+    // Names in declaration order, undone when their scope is left
+    private String[] log = new String[64];
+    private int logSize = 0;
+    // Log size at the start of every open scope
+    private int[] marks = new int[16];
+    private int depth = 0;
+    private Type currentFunctionReturnType; // Track current function's return type
+    // Parameters and locals of the current function, indexed by slot
+    private final ArrayList<Declaration> locals = new ArrayList<>();
+    private int frameSize = 0;
+
+    public Scope(){
     }
 
-    public Scope newNestedScope(){
-        Scope child = new Scope(this);
-        child.currentFunctionReturnType = this.currentFunctionReturnType;
-        return child;
+    /**
+     * Opens a nested scope, declarations added from now on shadow the outer ones.
+     */
+    public void enterScope(){
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        marks[depth++] = logSize;
     }
 
-    public void add(String id, Declaration d) throws Exception{
-        if (table.containsKey(id)){
-            throw new IllegalArgumentException("Id already exists.");
+    /**
+     * Closes the innermost scope and forgets its declarations.
+     */
+    public void leaveScope(){
+        if (depth == 0) {
+            throw new IllegalStateException("No scope to leave.");
+        }
+        final int mark = marks[--depth];
+        while (logSize != mark) {
+            final String id = log[--logSize];
+            log[logSize] = null;
+            final Entry shadowed = symbols.get(id).shadowed;
+            if (shadowed == null) {
+                symbols.remove(id);
+            } else {
+                symbols.put(id, shadowed);
+            }
         }
-        table.put(id, d);
     }
 
-    public Declaration lookup(String id) throws Exception{
-        // Check current scope
-        if (this.table.containsKey(id)) {
-            return this.table.get(id);
+    /**
+     * Declares a name in the innermost scope.
+     *
+     * @return false if the name is already declared in the innermost scope.
+     */
+    public boolean add(String id, Declaration d){
+        final Entry visible = symbols.get(id);
+        if (visible != null && visible.depth == depth) {
+            return false;
         }
-        // If not found and we have a parent scope, check parent
-        if (this.parent != null) {
-            return this.parent.lookup(id);
+        if (depth != 0) {
+            final int size = TypeContext.sizeOf(d.getType());
+            final int offset = size == 0 ? frameSize : (frameSize + size - 1) / size * size;
+            d.setStorage(locals.size(), offset);
+            locals.add(d);
+            frameSize = offset + size;
         }
-        // Not found in any scope
-        throw new Exception("Variable not declared!");
+        symbols.put(id, new Entry(d, depth, visible));
+        if (logSize == log.length) {
+            log = Arrays.copyOf(log, logSize * 2);
+        }
+        log[logSize++] = id;
+        return true;
     }
-    
+
+    /**
+     * Finds the innermost visible declaration of a name.
+     *
+     * @return The declaration, or null if the name is not declared.
+     */
+    public Declaration lookup(String id){
+        final Entry visible = symbols.get(id);
+        return visible == null ? null : visible.declaration;
+    }
+
+    /**
+     * Starts numbering the locals of a new function.
+     */
+    public void beginFunction(){
+        locals.clear();
+        frameSize = 0;
+    }
+
+    /**
+     * Returns the parameters and locals declared since beginFunction(), indexed by slot.
+     */
+    public List<Declaration> getLocals(){
+        return new ArrayList<>(locals);
+    }
+
+    /**
+     * Returns the size in bytes of the locals declared since beginFunction().
+     */
+    public int getFrameSize(){
+        return frameSize;
+    }
+
     // Methods to track function return type
     public void setCurrentFunctionReturnType(Type returnType) {
         this.currentFunctionReturnType = returnType;
     }
-    
+
     public Type getCurrentFunctionReturnType() {
         return this.currentFunctionReturnType;
     }
@@ -0,0 +1,55 @@
+package tinycc.implementation.statement;
+
+import tinycc.diagnostic.Diagnostic;
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.semantic.Scope;
+import tinycc.parser.Token;
+
+/**
+ * A while loop with an _Invariant and optionally a _Term, which the verifier
+ * uses instead of unrolling the loop. The code generated for it is that of a
+ * plain while loop.
+ */
+public class AnnotatedWhileStatement extends WhileStatement {
+    private Expression invariant;
+    private Expression term;
+    private Token loopBound;
+
+    public AnnotatedWhileStatement(Locatable loc, Expression condition, Statement body, Expression invariant,
+            Expression term, Token loopBound){
+        super(loc, condition, body);
+        this.invariant = invariant;
+        this.term = term;
+        this.loopBound = loopBound;
+    }
+
+    public Expression getInvariant(){
+        return this.invariant;
+    }
+
+    // null if the loop has no termination function
+    public Expression getTerm(){
+        return this.term;
+    }
+
+    // The name of the value of the termination function at the start of an iteration, may be null
+    public Token getLoopBound(){
+        return this.loopBound;
+    }
+
+    @Override
+    public String toString(){
+        final String annotations = "Invariant[" + this.invariant.toString() + "]"
+                + (this.term != null ? ", Term[" + this.term.toString() + "]" : "");
+        return "While[" + getCondition().toString() + ", " + annotations + ", " + getBody().toString() + "]";
+    }
+
+    @Override
+    public void checkType(Diagnostic d, Scope s) {
+        super.checkType(d, s);
+        invariant.checkType(d, s);
+        if (term != null)
+            term.checkType(d, s);
+    }
+}
@@ -0,0 +1,44 @@
+package tinycc.implementation.statement;
+
+import tinycc.diagnostic.Diagnostic;
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.semantic.Scope;
+
+/**
+ * _Assert(condition); a condition the verifier proves for every execution
+ * that reaches it, no code is generated for it.
+ */
+public class AssertStatement extends Statement {
+    private Locatable loc;
+    private Expression condition;
+
+    public AssertStatement(Locatable loc, Expression condition){
+        this.loc = loc;
+        this.condition = condition;
+    }
+
+    public Locatable getLocation(){
+        return this.loc;
+    }
+
+    public Expression getCondition(){
+        return this.condition;
+    }
+
+    @Override
+    public String toString(){
+        return "Assert[" + this.condition.toString() + "]";
+    }
+
+    @Override
+    public Statement fold() {
+        condition = condition.fold();
+        return this;
+    }
+
+    @Override
+    public void checkType(Diagnostic d, Scope s) {
+        condition.checkType(d, s);
+    }
+}
@@ -0,0 +1,44 @@
+package tinycc.implementation.statement;
+
+import tinycc.diagnostic.Diagnostic;
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.semantic.Scope;
+
+/**
+ * _Assume(condition); only restricts the executions the verifier considers,
+ * no code is generated for it.
+ */
+public class AssumeStatement extends Statement {
+    private Locatable loc;
+    private Expression condition;
+
+    public AssumeStatement(Locatable loc, Expression condition){
+        this.loc = loc;
+        this.condition = condition;
+    }
+
+    public Locatable getLocation(){
+        return this.loc;
+    }
+
+    public Expression getCondition(){
+        return this.condition;
+    }
+
+    @Override
+    public String toString(){
+        return "Assume[" + this.condition.toString() + "]";
+    }
+
+    @Override
+    public Statement fold() {
+        condition = condition.fold();
+        return this;
+    }
+
+    @Override
+    public void checkType(Diagnostic d, Scope s) {
+        condition.checkType(d, s);
+    }
+}
@@ -20,6 +20,10 @@ public Locatable getLocation(){
         return this.loc;
     }
 
+    public List<Statement> getStatements(){
+        return this.statements;
+    }
+
     public String getInputName() {
         return loc.getInputName();
     }
@@ -56,11 +60,22 @@ public String toString(){
         }
     }
 
+    @Override
+    public Statement fold() {
+        for (int i = 0; i != statements.size(); ++i)
+            statements.set(i, statements.get(i).fold());
+        return this;
+    }
+
     @Override
     public void checkType(Diagnostic d, Scope parent){
-        Scope scope = parent.newNestedScope();
-        for (Statement s : statements){
-            s.checkType(d, scope);
+        parent.enterScope();
+        try {
+            for (Statement s : statements){
+                s.checkType(d, parent);
+            }
+        } finally {
+            parent.leaveScope();
         }
     }
 }
@@ -5,6 +5,7 @@
 import tinycc.implementation.semantic.Scope;
 import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.Token;
 import tinycc.parser.TokenKind;
 import tinycc.implementation.type.PointerType;
@@ -13,6 +14,9 @@ public class Declaration extends Statement{
     private Type type;                      // Must be the final types.
     private Token name;                     // Could only be char or char* (string)
     private Expression init;                // Must always match type
+    private int slot = -1;                  // Index among the locals of the function, -1 for globals
+    private int frameOffset = -1;           // Byte offset in the locals area of the frame
+    private boolean addressTaken = false;   // Set by the address-of operator, keeps the variable in memory
 
     public Declaration(Type type, Token name, Expression init){
         this.type = type;
@@ -28,6 +32,38 @@ public Type getType(){
         return this.type;
     }
 
+    public Expression getInit(){
+        return this.init;
+    }
+
+    /**
+     * Assigns the storage of a local variable or parameter (see Scope).
+     */
+    public void setStorage(int slot, int frameOffset){
+        this.slot = slot;
+        this.frameOffset = frameOffset;
+    }
+
+    public int getSlot(){
+        return this.slot;
+    }
+
+    public int getFrameOffset(){
+        return this.frameOffset;
+    }
+
+    public boolean isGlobal(){
+        return this.slot < 0;
+    }
+
+    public void markAddressTaken(){
+        this.addressTaken = true;
+    }
+
+    public boolean isAddressTaken(){
+        return this.addressTaken;
+    }
+
     @Override
     public String toString(){
         if (this.init != null){
@@ -38,6 +74,13 @@ public String toString(){
         
     }
 
+    @Override
+    public Statement fold() {
+        if (init != null)
+            init = init.fold();
+        return this;
+    }
+
     @Override
     public void checkType(Diagnostic d, Scope s) {
         // Check for void variable declarations
@@ -49,9 +92,7 @@ public void checkType(Diagnostic d, Scope s) {
             }
         }
         
-        try {
-            s.add(name.getText(), this);
-        } catch (Exception e) {
+        if (!s.add(name.getText(), this)) {
             d.printError(name, "Double declaration of '%s'", name.getText());
         }
         if (init != null) {
@@ -65,7 +106,11 @@ public void checkType(Diagnostic d, Scope s) {
     
     private boolean canImplicitlyConvert(Type from, Type to) {
         // Same type
-        if (from.equals(to)) return true;
+        if (from == to) return true;
+
+        if (from instanceof PointerType && to instanceof PointerType) {
+            return TypeContext.isPointerConversion(from, to);
+        }
         
         // int <-> char conversion
         if (from instanceof SimpleType && to instanceof SimpleType) {
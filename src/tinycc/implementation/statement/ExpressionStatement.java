@@ -18,10 +18,20 @@ public Locatable getLocation(){
         return this.loc;
     }
 
+    public Expression getExpression(){
+        return this.expression;
+    }
+
     public void checkType(Diagnostic d, Scope s) {
         this.expression.checkType(d, s); // type-check the expression
     }
 
+    @Override
+    public Statement fold() {
+        expression = expression.fold();
+        return this;
+    }
+
     @Override
     public String toString(){
         return this.expression.toString();
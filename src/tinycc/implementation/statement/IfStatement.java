@@ -1,5 +1,7 @@
 package tinycc.implementation.statement;
 
+import java.util.ArrayList;
+
 import tinycc.diagnostic.Diagnostic;
 import tinycc.diagnostic.Locatable;
 import tinycc.implementation.expression.Expression;
@@ -22,6 +24,19 @@ public Locatable getLocation(){
         return this.loc;
     }
 
+    public Expression getCondition(){
+        return this.condition;
+    }
+
+    public Statement getConsequence(){
+        return this.consequence;
+    }
+
+    // null if there is no else branch
+    public Statement getAlternative(){
+        return this.alternative;
+    }
+
     @Override
     public String toString(){
         if (this.alternative != null){
@@ -31,12 +46,28 @@ public String toString(){
         }
     }
 
+    @Override
+    public Statement fold() {
+        condition = condition.fold();
+        consequence = consequence.fold();
+        if (alternative != null)
+            alternative = alternative.fold();
+        final Integer value = condition.getConstantValue();
+        if (value == null)
+            return this;
+        if (value != 0)
+            return consequence;
+        return alternative != null ? alternative : new BlockStatement(loc, new ArrayList<>());
+    }
+
     @Override
     public void checkType(Diagnostic d, Scope s) {
         // check the expression, cons, and alter, for errors.
         // IF and while only accept scalar types.
         this.condition.checkType(d, s);
         this.consequence.checkType(d, s);
-        this.alternative.checkType(d, s);
+        if (this.alternative != null) {
+            this.alternative.checkType(d, s);
+        }
     }
 }
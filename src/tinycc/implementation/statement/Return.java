@@ -4,9 +4,12 @@
 import tinycc.diagnostic.Locatable;
 import tinycc.implementation.expression.Expression;
 import tinycc.implementation.semantic.Scope;
+import tinycc.implementation.type.PointerType;
 import tinycc.implementation.type.SimpleType;
 import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
 import tinycc.parser.TokenKind;
+import tinycc.util.Trace;
 
 public class Return extends Statement {
     private Locatable loc;
@@ -21,6 +24,11 @@ public Locatable getLocation(){
         return this.loc;
     }
 
+    // null for a return without value
+    public Expression getExpression(){
+        return this.expression;
+    }
+
     @Override
     public String toString(){
         if (this.expression != null){
@@ -30,15 +38,21 @@ public String toString(){
         }
     }
 
+    @Override
+    public Statement fold() {
+        if (expression != null)
+            expression = expression.fold();
+        return this;
+    }
+
     @Override
     public void checkType(Diagnostic d, Scope s) {
         Type expectedReturnType = s.getCurrentFunctionReturnType();
         
-        System.err.println("DEBUG: Return statement check - expected return type: " + expectedReturnType);
-        
         if (this.expression != null) {
             Type returnType = this.expression.checkType(d, s);
-            System.err.println("DEBUG: Return expression type: " + returnType);
+            if (Trace.SEMA.isEnabled())
+                Trace.SEMA.print(loc, "return %s from function returning %s", returnType, expectedReturnType);
             
             if (returnType == null) {
                 return; // Error already reported by expression
@@ -46,16 +60,12 @@ public void checkType(Diagnostic d, Scope s) {
             
             if (expectedReturnType == null) {
                 // No function context, can't validate
-                System.err.println("DEBUG: No function context for return validation");
                 return;
             }
             
             if (!canImplicitlyConvert(returnType, expectedReturnType)) {
-                System.err.println("DEBUG: Return type mismatch - got " + returnType + ", expected " + expectedReturnType);
                 d.printError(loc, "Cannot return expression of type %s from function returning %s", 
                            returnType, expectedReturnType);
-            } else {
-                System.err.println("DEBUG: Return type check passed");
             }
         } else {
             // Return without expression - check if function returns void
@@ -68,7 +78,11 @@ public void checkType(Diagnostic d, Scope s) {
     
     private boolean canImplicitlyConvert(Type from, Type to) {
         // Same type
-        if (from.equals(to)) return true;
+        if (from == to) return true;
+
+        if (from instanceof PointerType && to instanceof PointerType) {
+            return TypeContext.isPointerConversion(from, to);
+        }
         
         // int <-> char conversion
         if (from instanceof SimpleType && to instanceof SimpleType) {
@@ -22,4 +22,13 @@ public abstract class Statement {
 
 	public abstract void checkType(Diagnostic d, Scope s);
 
+	/**
+	 * Folds the constant expressions of this statement after checkType() and
+	 * drops branches that can never run. Returns the statement that replaces
+	 * this one, which may be this one.
+	 */
+	public Statement fold() {
+		return this;
+	}
+
 }
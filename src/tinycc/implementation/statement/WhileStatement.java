@@ -1,5 +1,7 @@
 package tinycc.implementation.statement;
 
+import java.util.ArrayList;
+
 import tinycc.diagnostic.Diagnostic;
 import tinycc.diagnostic.Locatable;
 import tinycc.implementation.expression.Expression;
@@ -20,10 +22,28 @@ public Locatable getLocation(){
         return this.loc;
     }
 
+    public Expression getCondition(){
+        return this.condition;
+    }
+
+    public Statement getBody(){
+        return this.body;
+    }
+
     public String toString(){
         return "While[" + this.condition.toString() + ", " + this.body.toString() + "]";
     }
 
+    @Override
+    public Statement fold() {
+        condition = condition.fold();
+        body = body.fold();
+        final Integer value = condition.getConstantValue();
+        if (value != null && value == 0)
+            return new BlockStatement(loc, new ArrayList<>());
+        return this;
+    }
+
     @Override
     public void checkType(Diagnostic d, Scope s) {
         condition.checkType(d, s);
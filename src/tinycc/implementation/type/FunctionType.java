@@ -2,13 +2,17 @@
 
 import java.util.List;
 
+import tinycc.util.Trace;
+
 public class FunctionType extends Type{
     //private Token token;
     private Type returnType;
     private List<Type> functionArguments;
 
-    public FunctionType(/*Token token, */ Type returnType, List<Type> functionArguments){
+    FunctionType(/*Token token, */ Type returnType, List<Type> functionArguments){
         //this.token = token;
+        if (Trace.TYPES.isEnabled())
+            Trace.TYPES.print("new function returning %s", returnType);
         this.returnType = returnType;
         this.functionArguments = functionArguments;
     }
@@ -49,32 +53,15 @@ public String toString(){
 
     }
     
+    // Types are canonical (see TypeContext), equal types are the same object
     @Override
     public boolean equals(Object o) {
-        if (!(o instanceof FunctionType)) return false;
-        FunctionType other = (FunctionType) o;
-
-        // Check return type equality
-        if (!this.returnType.equals(other.returnType)) return false;
-
-        // Check argument list size
-        if (this.functionArguments.size() != other.functionArguments.size()) return false;
-
-        // Check each argument type for equality (order matters)
-        for (int i = 0; i < this.functionArguments.size(); ++i) {
-            if (!this.functionArguments.get(i).equals(other.functionArguments.get(i)))
-                return false;
-        }
-        return true;
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        int result = returnType.hashCode();
-        for (Type arg : functionArguments) {
-            result = 31 * result + arg.hashCode();
-        }
-        return result;
+        return System.identityHashCode(this);
     }
 
 }
@@ -1,9 +1,13 @@
 package tinycc.implementation.type;
 
+import tinycc.util.Trace;
+
 public class PointerType extends Type {
     private Type pointsTo;
 
-    public PointerType(Type pointsTo){
+    PointerType(Type pointsTo){
+        if (Trace.TYPES.isEnabled())
+            Trace.TYPES.print("new pointer to %s", pointsTo);
         this.pointsTo = pointsTo;
     }
 
@@ -15,16 +19,15 @@ public String toString(){
         return "Pointer[" + pointsTo.toString() + "]";
     }
     
+    // Types are canonical (see TypeContext), equal types are the same object
     @Override
     public boolean equals(Object o) {
-        if (!(o instanceof PointerType)) return false;
-        PointerType other = (PointerType) o;
-        return this.pointsTo.equals(other.pointsTo);
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        return 31 * pointsTo.hashCode();
+        return System.identityHashCode(this);
     }
 
 }
@@ -1,12 +1,14 @@
 package tinycc.implementation.type;
 
 import tinycc.parser.TokenKind;
+import tinycc.util.Trace;
 
 public class SimpleType extends Type {
     private TokenKind kind;
 
-    public SimpleType(TokenKind kind){
-        System.err.println("DEBUG: Creating SimpleType with kind: " + kind);
+    SimpleType(TokenKind kind){
+        if (Trace.TYPES.isEnabled())
+            Trace.TYPES.print("new %s", kind);
         this.kind = kind;
     }
 
@@ -28,16 +30,15 @@ public String toString() {
 		}
     }
 
+	// Types are canonical (see TypeContext), equal types are the same object
 	@Override
 	public boolean equals(Object o) {
-		if (!(o instanceof SimpleType)) return false;
-		SimpleType other = (SimpleType) o;
-		return this.kind == other.kind;
+		return this == o;
 	}
 
 	@Override
 	public int hashCode() {
-		return kind.hashCode();
+		return System.identityHashCode(this);
 	}
 
 	public boolean isInt(){
@@ -49,11 +50,11 @@ public boolean isPointer(Type t){
 	}
 
 	public static Type getInt(){
-		return new SimpleType(TokenKind.INT);
+		return TypeContext.INT;
 	}
 
 	public static Type getChar(){
-		return new SimpleType(TokenKind.CHAR);
+		return TypeContext.CHAR;
 	}
 
     
@@ -0,0 +1,107 @@
+package tinycc.implementation.type;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+import tinycc.parser.TokenKind;
+
+/**
+ * Canonical type table. There is exactly one instance per structural type, so
+ * types are compared by reference. The table is shared by all compilations of
+ * the process and is safe to use from several threads. Pointer and function
+ * types are held weakly, so a long running compile server only keeps the types
+ * that some compilation still uses.
+ */
+public final class TypeContext {
+    public static final SimpleType INT = new SimpleType(TokenKind.INT);
+    public static final SimpleType CHAR = new SimpleType(TokenKind.CHAR);
+    public static final SimpleType VOID = new SimpleType(TokenKind.VOID);
+
+    private static final Interner<Type, PointerType> pointerTypes = new Interner<>();
+    // Keyed by the return type followed by the parameter types
+    private static final Interner<List<Type>, FunctionType> functionTypes = new Interner<>();
+
+    /**
+     * The canonical types by structural key. Keys and types are held weakly; a
+     * type references its key, so an entry stays as long as its type is used.
+     * Only types that are still reachable can be compared, so comparing by
+     * reference stays exact.
+     */
+    private static final class Interner<K, T extends Type> {
+        private final Map<K, WeakReference<T>> types = new WeakHashMap<>();
+
+        synchronized T intern(K key, Function<K, T> make) {
+            final WeakReference<T> ref = types.get(key);
+            T type = ref != null ? ref.get() : null;
+            if (type == null) {
+                type = make.apply(key);
+                // Replace a stale entry, whose key the new type does not reference
+                types.remove(key);
+                types.put(key, new WeakReference<>(type));
+            }
+            return type;
+        }
+    }
+
+    private TypeContext() {
+    }
+
+    public static SimpleType getSimpleType(TokenKind kind) {
+        switch (kind) {
+            case INT:
+                return INT;
+            case CHAR:
+                return CHAR;
+            case VOID:
+                return VOID;
+            default:
+                throw new IllegalArgumentException("Invalid kind.");
+        }
+    }
+
+    /**
+     * Returns the size of a value of the given type in bytes (pointers are 32 bit).
+     */
+    public static int sizeOf(Type type) {
+        if (type == CHAR)
+            return 1;
+        if (type == VOID)
+            return 0;
+        return 4;
+    }
+
+    /**
+     * Returns true if both types are pointers and a value of the first converts
+     * implicitly to the second: pointers of the same type do, and void* converts
+     * to and from any other pointer type.
+     */
+    public static boolean isPointerConversion(Type from, Type to) {
+        if (!(from instanceof PointerType) || !(to instanceof PointerType))
+            return false;
+        final Type fromPointsTo = ((PointerType) from).getPointsTo();
+        final Type toPointsTo = ((PointerType) to).getPointsTo();
+        return fromPointsTo == toPointsTo || fromPointsTo == VOID || toPointsTo == VOID;
+    }
+
+    public static PointerType getPointerType(Type pointsTo) {
+        if (pointsTo == null)
+            throw new IllegalArgumentException();
+        return pointerTypes.intern(pointsTo, PointerType::new);
+    }
+
+    public static FunctionType getFunctionType(Type returnType, List<Type> parameters) {
+        if (returnType == null || parameters == null)
+            throw new IllegalArgumentException();
+        final List<Type> key = new ArrayList<>(parameters.size() + 1);
+        key.add(returnType);
+        key.addAll(parameters);
+        // The parameter list is a view of the key, which keeps the key alive
+        return functionTypes.intern(key,
+                k -> new FunctionType(returnType, Collections.unmodifiableList(k.subList(1, k.size()))));
+    }
+}
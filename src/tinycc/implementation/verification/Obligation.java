@@ -0,0 +1,69 @@
+package tinycc.implementation.verification;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.logic.Formula;
+
+/**
+ * A verification condition that is checked on its own: one goal of a function
+ * together with the definitions of the variables it depends on.
+ */
+public final class Obligation {
+
+    public enum Kind {
+        ASSERTION("assertion"),
+        INVARIANT_ENTRY("loop invariant on entry"),
+        INVARIANT_PRESERVATION("loop invariant preservation"),
+        TERM_BOUNDED("termination function is not negative"),
+        TERM_DECREASES("termination function decreases");
+
+        private final String description;
+
+        private Kind(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private final Kind kind;
+    private final String function;
+    private final Locatable location;
+    private final Formula formula;
+
+    Obligation(Kind kind, String function, Locatable location, Formula formula) {
+        this.kind = kind;
+        this.function = function;
+        this.location = location;
+        this.formula = formula;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the location of the _Assert or of the annotated loop.
+     */
+    public Locatable getLocation() {
+        return location;
+    }
+
+    /**
+     * Returns a formula that is valid if the obligation holds.
+     */
+    public Formula getFormula() {
+        return formula;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " in function '" + function + "'";
+    }
+}
@@ -0,0 +1,606 @@
+package tinycc.implementation.verification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.implementation.FunctionDefinition;
+import tinycc.implementation.expression.Expression;
+import tinycc.implementation.expression.binaryExpressions.BinaryExpression;
+import tinycc.implementation.expression.functionCalls.FunctionCall;
+import tinycc.implementation.expression.primaryExpressions.Identifier;
+import tinycc.implementation.expression.unaryExpression.UnaryExpression;
+import tinycc.implementation.statement.AnnotatedWhileStatement;
+import tinycc.implementation.statement.AssertStatement;
+import tinycc.implementation.statement.AssumeStatement;
+import tinycc.implementation.statement.BlockStatement;
+import tinycc.implementation.statement.Declaration;
+import tinycc.implementation.statement.ExpressionStatement;
+import tinycc.implementation.statement.IfStatement;
+import tinycc.implementation.statement.Return;
+import tinycc.implementation.statement.Statement;
+import tinycc.implementation.statement.WhileStatement;
+import tinycc.implementation.type.SimpleType;
+import tinycc.logic.BinaryOpFormula;
+import tinycc.logic.BinaryOperator;
+import tinycc.logic.BoolConst;
+import tinycc.logic.Formula;
+import tinycc.logic.FormulaFactory;
+import tinycc.logic.IntConst;
+import tinycc.logic.Type;
+import tinycc.logic.UnaryOpFormula;
+import tinycc.logic.UnaryOperator;
+import tinycc.logic.Variable;
+import tinycc.parser.TokenKind;
+
+/**
+ * Generates the verification conditions of checked functions.
+ *
+ * A function is walked once, forwards, in passive form: every assignment
+ * defines a fresh version of its variable, and whether execution reaches a
+ * point is a formula over the conditions on the way. Where the branches of an
+ * if statement meet, the variables they changed get a fresh version defined
+ * for each branch under the condition that the branch was taken, so the code
+ * after the join is translated once instead of once per path, as a textbook
+ * weakest precondition would. Reachability is named by a fresh variable at
+ * every branch point for the same reason, and the conditions stay linear in
+ * the size of the function however deeply ifs nest.
+ *
+ * An _Assert, the entry and preservation of a loop invariant and both halves
+ * of a termination function become goals implied by the reachability of their
+ * point. A loop is cut at its invariant: its body is checked once for an
+ * arbitrary state with the invariant and the condition, and after the loop
+ * the variables assigned in it are unknown except for the invariant. Every
+ * goal is also an obligation of its own, with just the definitions it depends
+ * on, so the goals can be checked independently.
+ *
+ * Integers are unbounded, overflow of int is not modelled. A char variable
+ * holds a value in -128..127: its versions are bounded, and an assigned value
+ * is stored modulo 256. Expressions with calls, pointers, division or nested
+ * assignments are rejected with a VerificationException.
+ */
+public final class VCGenerator {
+    private final FormulaFactory factory;
+    // The definitions of each fresh variable, in the order they were made
+    private final Map<Variable, List<Formula>> definitions = new LinkedHashMap<>();
+    private final List<Obligation> goals = new ArrayList<>();
+    private final Map<String, Integer> versions = new HashMap<>();
+
+    // The function being walked
+    private String function;
+    private final Map<Declaration, String> names = new HashMap<>();
+    private final Set<String> taken = new HashSet<>();
+    private Map<Declaration, Formula> values = new HashMap<>();
+    private Formula reach;
+    // The location of the statement being walked
+    private Locatable statementLocation;
+
+    public VCGenerator(FormulaFactory factory) {
+        this.factory = factory;
+    }
+
+    public void addFunction(FunctionDefinition function) {
+        this.function = function.getFunctionName().getText();
+        names.clear();
+        taken.clear();
+        values = new HashMap<>();
+        reach = BoolConst.TRUE;
+        statement(function.getFunctionBody());
+    }
+
+    /**
+     * Returns a formula that is valid if all goals of the added functions hold.
+     */
+    public Formula getCondition() {
+        final List<Formula> all = new ArrayList<>();
+        for (List<Formula> formulas : definitions.values())
+            all.addAll(formulas);
+        final List<Formula> conditions = new ArrayList<>(goals.size());
+        for (Obligation goal : goals)
+            conditions.add(goal.getFormula());
+        return implies(all, conjunction(conditions));
+    }
+
+    /**
+     * Returns the goals of the added functions as independent obligations, each
+     * with only the definitions its variables depend on.
+     */
+    public List<Obligation> getObligations() {
+        final List<Obligation> obligations = new ArrayList<>(goals.size());
+        for (Obligation goal : goals) {
+            final Formula formula = implies(dependencies(goal.getFormula()), goal.getFormula());
+            obligations.add(new Obligation(goal.getKind(), goal.getFunction(), goal.getLocation(), formula));
+        }
+        return obligations;
+    }
+
+    /**
+     * Returns the definitions of the variables of a formula and, transitively,
+     * of the variables of these definitions.
+     */
+    private List<Formula> dependencies(Formula f) {
+        final List<Formula> result = new ArrayList<>();
+        final Set<Formula> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<Formula> work = new ArrayList<>();
+        work.add(f);
+        while (!work.isEmpty()) {
+            final Formula g = work.remove(work.size() - 1);
+            if (!visited.add(g))
+                continue;
+            if (g instanceof BinaryOpFormula) {
+                work.add(((BinaryOpFormula) g).getLeft());
+                work.add(((BinaryOpFormula) g).getRight());
+            } else if (g instanceof UnaryOpFormula) {
+                work.add(((UnaryOpFormula) g).getOperand());
+            } else if (g instanceof Variable && definitions.containsKey(g)) {
+                for (Formula definition : definitions.get(g)) {
+                    result.add(definition);
+                    work.add(definition);
+                }
+            }
+        }
+        return result;
+    }
+
+    // ------------ Statements ------------
+
+    private void statement(Statement s) {
+        if (reach == BoolConst.FALSE)
+            return;
+        statementLocation = location(s);
+        if (s instanceof BlockStatement) {
+            for (Statement child : ((BlockStatement) s).getStatements())
+                statement(child);
+        } else if (s instanceof Declaration) {
+            final Declaration declaration = (Declaration) s;
+            if (declaration.getInit() != null) {
+                if (isInteger(declaration.getType()))
+                    assign(declaration, value(declaration.getInit()));
+                else if (declaration.getInit().hasSideEffects())
+                    throw unsupported(declaration.getInit());
+            }
+        } else if (s instanceof ExpressionStatement) {
+            effect(((ExpressionStatement) s).getExpression());
+        } else if (s instanceof AssumeStatement) {
+            reach = and(reach, condition(((AssumeStatement) s).getCondition()));
+        } else if (s instanceof AssertStatement) {
+            final Formula condition = condition(((AssertStatement) s).getCondition());
+            goal(Obligation.Kind.ASSERTION, ((AssertStatement) s).getLocation(), condition);
+            reach = and(reach, condition);
+        } else if (s instanceof IfStatement) {
+            ifStatement((IfStatement) s);
+        } else if (s instanceof WhileStatement) {
+            whileStatement((WhileStatement) s);
+        } else if (s instanceof Return) {
+            // Nothing is checked after the function returns
+            reach = BoolConst.FALSE;
+        } else {
+            throw new VerificationException(statementLocation, "cannot verify " + s);
+        }
+    }
+
+    private void effect(Expression e) {
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression binary = (BinaryExpression) e;
+            if (binary.getBinaryOperator().getKind() == TokenKind.EQUAL) {
+                assign(variable(binary.getLhs()), value(binary.getRhs()));
+                return;
+            }
+        } else if (e instanceof UnaryExpression) {
+            final UnaryExpression unary = (UnaryExpression) e;
+            final TokenKind kind = unary.getOperator().getKind();
+            if (kind == TokenKind.PLUS_PLUS || kind == TokenKind.MINUS_MINUS) {
+                final Declaration declaration = variable(unary.getOperand());
+                final BinaryOperator op = kind == TokenKind.PLUS_PLUS ? BinaryOperator.ADD : BinaryOperator.SUB;
+                assign(declaration, factory.binary(op, current(declaration), factory.intConst(1)));
+                return;
+            }
+        }
+        if (e.hasSideEffects())
+            throw unsupported(e);
+    }
+
+    private void ifStatement(IfStatement s) {
+        final Formula condition = condition(s.getCondition());
+        final Formula start = name(reach);
+        final Map<Declaration, Formula> before = values;
+
+        values = new HashMap<>(before);
+        reach = and(start, condition);
+        statement(s.getConsequence());
+        final Map<Declaration, Formula> consequence = values;
+        final Formula consequenceReach = reach;
+
+        values = new HashMap<>(before);
+        reach = and(start, factory.unary(UnaryOperator.NOT, condition));
+        if (s.getAlternative() != null)
+            statement(s.getAlternative());
+        join(consequence, consequenceReach);
+    }
+
+    /**
+     * Merges the state at the end of another branch into the current one.
+     */
+    private void join(Map<Declaration, Formula> other, Formula otherReach) {
+        if (otherReach == BoolConst.FALSE)
+            return;
+        if (reach == BoolConst.FALSE) {
+            values = other;
+            reach = otherReach;
+            return;
+        }
+        final Formula a = name(otherReach);
+        final Formula b = name(reach);
+        final Set<Declaration> declarations = new LinkedHashSet<>(other.keySet());
+        declarations.addAll(values.keySet());
+        for (Declaration declaration : declarations) {
+            final Formula x = other.containsKey(declaration) ? other.get(declaration) : initial(declaration);
+            final Formula y = values.containsKey(declaration) ? values.get(declaration) : initial(declaration);
+            if (x == y)
+                continue;
+            final Variable merged = version(declaration);
+            define(merged, factory.binary(BinaryOperator.IMPLIES, a, equal(merged, x)));
+            define(merged, factory.binary(BinaryOperator.IMPLIES, b, equal(merged, y)));
+            values.put(declaration, merged);
+        }
+        reach = factory.binary(BinaryOperator.OR, a, b);
+    }
+
+    private void whileStatement(WhileStatement s) {
+        final AnnotatedWhileStatement annotated = s instanceof AnnotatedWhileStatement ? (AnnotatedWhileStatement) s
+                : null;
+        final Expression invariant = annotated != null ? annotated.getInvariant() : null;
+        if (invariant != null)
+            goal(Obligation.Kind.INVARIANT_ENTRY, s.getLocation(), condition(invariant));
+
+        // An arbitrary iteration
+        final Formula start = name(reach);
+        final Set<Declaration> assigned = new LinkedHashSet<>();
+        assignedIn(s.getBody(), assigned);
+        for (Declaration declaration : assigned)
+            values.put(declaration, version(declaration));
+        final Formula head = name(invariant != null ? and(start, condition(invariant)) : start);
+        final Formula condition = condition(s.getCondition());
+        final Map<Declaration, Formula> loop = values;
+
+        values = new HashMap<>(loop);
+        reach = and(head, condition);
+        final Expression term = annotated != null ? annotated.getTerm() : null;
+        Variable bound = null;
+        if (term != null) {
+            final Formula measure = value(term);
+            goal(Obligation.Kind.TERM_BOUNDED, s.getLocation(),
+                    factory.binary(BinaryOperator.GE, measure, factory.intConst(0)));
+            final String boundName = annotated.getLoopBound() != null ? annotated.getLoopBound().getText() : "term";
+            bound = fresh(boundName, Type.INT);
+            define(bound, equal(bound, measure));
+        }
+        statement(s.getBody());
+        if (invariant != null)
+            goal(Obligation.Kind.INVARIANT_PRESERVATION, s.getLocation(), condition(invariant));
+        if (term != null)
+            goal(Obligation.Kind.TERM_DECREASES, s.getLocation(), factory.binary(BinaryOperator.LT, value(term), bound));
+
+        values = loop;
+        reach = and(head, factory.unary(UnaryOperator.NOT, condition));
+    }
+
+    /**
+     * Collects the variables a statement may assign.
+     */
+    private static void assignedIn(Statement s, Set<Declaration> assigned) {
+        if (s instanceof BlockStatement) {
+            for (Statement child : ((BlockStatement) s).getStatements())
+                assignedIn(child, assigned);
+        } else if (s instanceof Declaration) {
+            assigned.add((Declaration) s);
+        } else if (s instanceof ExpressionStatement) {
+            final Expression e = ((ExpressionStatement) s).getExpression();
+            Expression target = null;
+            if (e instanceof BinaryExpression && ((BinaryExpression) e).getBinaryOperator().getKind() == TokenKind.EQUAL)
+                target = ((BinaryExpression) e).getLhs();
+            else if (e instanceof UnaryExpression)
+                target = ((UnaryExpression) e).getOperand();
+            if (target instanceof Identifier && ((Identifier) target).getDeclaration() != null)
+                assigned.add(((Identifier) target).getDeclaration());
+        } else if (s instanceof IfStatement) {
+            assignedIn(((IfStatement) s).getConsequence(), assigned);
+            if (((IfStatement) s).getAlternative() != null)
+                assignedIn(((IfStatement) s).getAlternative(), assigned);
+        } else if (s instanceof WhileStatement) {
+            assignedIn(((WhileStatement) s).getBody(), assigned);
+        }
+    }
+
+    // ------------ Expressions ------------
+
+    /**
+     * Translates an expression used as a condition.
+     */
+    private Formula condition(Expression e) {
+        if (e instanceof UnaryExpression && ((UnaryExpression) e).getOperator().getKind() == TokenKind.BANG)
+            return factory.unary(UnaryOperator.NOT, condition(((UnaryExpression) e).getOperand()));
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression binary = (BinaryExpression) e;
+            final Expression lhs = binary.getLhs();
+            final Expression rhs = binary.getRhs();
+            switch (binary.getBinaryOperator().getKind()) {
+                case AND_AND:
+                    return factory.binary(BinaryOperator.AND, condition(lhs), condition(rhs));
+                case PIPE_PIPE:
+                    return factory.binary(BinaryOperator.OR, condition(lhs), condition(rhs));
+                case EQUAL_EQUAL:
+                    return factory.binary(BinaryOperator.EQ, value(lhs), value(rhs));
+                case BANG_EQUAL:
+                    return factory.binary(BinaryOperator.NE, value(lhs), value(rhs));
+                case LESS:
+                    return factory.binary(BinaryOperator.LT, value(lhs), value(rhs));
+                case LESS_EQUAL:
+                    return factory.binary(BinaryOperator.LE, value(lhs), value(rhs));
+                case GREATER:
+                    return factory.binary(BinaryOperator.GT, value(lhs), value(rhs));
+                case GREATER_EQUAL:
+                    return factory.binary(BinaryOperator.GE, value(lhs), value(rhs));
+                default:
+                    break;
+            }
+        }
+        return factory.binary(BinaryOperator.NE, value(e), factory.intConst(0));
+    }
+
+    /**
+     * Translates an expression used as an integer.
+     */
+    private Formula value(Expression e) {
+        final Integer constant = e.getConstantValue();
+        if (constant != null)
+            return factory.intConst(constant);
+        if (e instanceof Identifier)
+            return current(variable(e));
+        if (e instanceof UnaryExpression) {
+            final UnaryExpression unary = (UnaryExpression) e;
+            switch (unary.getOperator().getKind()) {
+                case PLUS:
+                    return value(unary.getOperand());
+                case MINUS:
+                    return factory.binary(BinaryOperator.SUB, factory.intConst(0), value(unary.getOperand()));
+                case BANG:
+                    return truthValue(e);
+                default:
+                    throw unsupported(e);
+            }
+        }
+        if (e instanceof BinaryExpression) {
+            final BinaryExpression binary = (BinaryExpression) e;
+            switch (binary.getBinaryOperator().getKind()) {
+                case PLUS:
+                    return factory.binary(BinaryOperator.ADD, value(binary.getLhs()), value(binary.getRhs()));
+                case MINUS:
+                    return factory.binary(BinaryOperator.SUB, value(binary.getLhs()), value(binary.getRhs()));
+                case ASTERISK:
+                    return factory.binary(BinaryOperator.MUL, value(binary.getLhs()), value(binary.getRhs()));
+                case AND_AND:
+                case PIPE_PIPE:
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                    return truthValue(e);
+                default:
+                    throw unsupported(e);
+            }
+        }
+        throw unsupported(e);
+    }
+
+    /**
+     * Returns a fresh variable that is 1 if the condition holds and 0 otherwise.
+     */
+    private Formula truthValue(Expression e) {
+        final Variable v = fresh("bool", Type.INT);
+        final Formula one = equal(v, factory.intConst(1));
+        define(v, factory.binary(BinaryOperator.OR, one, equal(v, factory.intConst(0))));
+        define(v, factory.binary(BinaryOperator.EQ, one, condition(e)));
+        return v;
+    }
+
+    /**
+     * Returns the variable an lvalue names.
+     */
+    private Declaration variable(Expression e) {
+        if (!(e instanceof Identifier) || !isInteger(e.getType()) || ((Identifier) e).getDeclaration() == null)
+            throw unsupported(e);
+        return ((Identifier) e).getDeclaration();
+    }
+
+    private static boolean isInteger(tinycc.implementation.type.Type type) {
+        if (!(type instanceof SimpleType))
+            return false;
+        final TokenKind kind = ((SimpleType) type).getKind();
+        return kind == TokenKind.INT || kind == TokenKind.CHAR;
+    }
+
+    private static boolean isChar(Declaration declaration) {
+        final tinycc.implementation.type.Type type = declaration.getType();
+        return type instanceof SimpleType && ((SimpleType) type).getKind() == TokenKind.CHAR;
+    }
+
+    private VerificationException unsupported(Expression e) {
+        return new VerificationException(location(e), "cannot verify " + e);
+    }
+
+    /**
+     * Returns the location of an expression, or of the statement being walked if
+     * the expression has none.
+     */
+    private Locatable location(Expression e) {
+        if (e instanceof FunctionCall)
+            return ((FunctionCall) e).getLocation();
+        if (e instanceof BinaryExpression)
+            return ((BinaryExpression) e).getBinaryOperator();
+        if (e instanceof UnaryExpression)
+            return ((UnaryExpression) e).getOperator();
+        return statementLocation;
+    }
+
+    private Locatable location(Statement s) {
+        if (s instanceof BlockStatement)
+            return ((BlockStatement) s).getLocation();
+        if (s instanceof Declaration)
+            return ((Declaration) s).getName();
+        if (s instanceof ExpressionStatement)
+            return ((ExpressionStatement) s).getLocation();
+        if (s instanceof AssumeStatement)
+            return ((AssumeStatement) s).getLocation();
+        if (s instanceof AssertStatement)
+            return ((AssertStatement) s).getLocation();
+        if (s instanceof IfStatement)
+            return ((IfStatement) s).getLocation();
+        if (s instanceof WhileStatement)
+            return ((WhileStatement) s).getLocation();
+        if (s instanceof Return)
+            return ((Return) s).getLocation();
+        return statementLocation;
+    }
+
+    // ------------ Variables and formulas ------------
+
+    private String name(Declaration declaration) {
+        String name = names.get(declaration);
+        if (name == null) {
+            name = declaration.getName().getText();
+            // Shadowed variables of the same function
+            for (int i = 1; !taken.add(name); ++i)
+                name = declaration.getName().getText() + "#" + i;
+            names.put(declaration, name);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the value a variable has before the function assigns it.
+     */
+    private Variable initial(Declaration declaration) {
+        final Variable v = factory.variable(name(declaration), Type.INT);
+        if (isChar(declaration) && !definitions.containsKey(v))
+            define(v, inCharRange(v));
+        return v;
+    }
+
+    /**
+     * Returns a fresh version of a variable, bounded if it is a char.
+     */
+    private Variable version(Declaration declaration) {
+        final Variable v = fresh(name(declaration), Type.INT);
+        if (isChar(declaration))
+            define(v, inCharRange(v));
+        return v;
+    }
+
+    private Formula inCharRange(Formula f) {
+        return factory.binary(BinaryOperator.AND, factory.binary(BinaryOperator.GE, f, factory.intConst(-128)),
+                factory.binary(BinaryOperator.LE, f, factory.intConst(127)));
+    }
+
+    private Formula current(Declaration declaration) {
+        final Formula value = values.get(declaration);
+        return value != null ? value : initial(declaration);
+    }
+
+    private void assign(Declaration declaration, Formula value) {
+        if (isChar(declaration)) {
+            if (value instanceof IntConst) {
+                values.put(declaration, factory.intConst((byte) ((IntConst) value).getValue()));
+                return;
+            }
+            // The value minus a multiple of 256 that leaves it in the range
+            final Variable v = version(declaration);
+            final Variable wraps = fresh("wrap", Type.INT);
+            define(v, equal(v, factory.binary(BinaryOperator.SUB, value,
+                    factory.binary(BinaryOperator.MUL, factory.intConst(256), wraps))));
+            values.put(declaration, v);
+            return;
+        }
+        if (value instanceof Variable || value instanceof IntConst) {
+            values.put(declaration, value);
+            return;
+        }
+        final Variable v = fresh(name(declaration), Type.INT);
+        define(v, equal(v, value));
+        values.put(declaration, v);
+    }
+
+    /**
+     * Returns a variable of no program or earlier call, the versions of a
+     * variable count up over all functions so their definitions never clash.
+     */
+    private Variable fresh(String base, Type type) {
+        final int version = versions.merge(base, 1, Integer::sum);
+        return factory.variable(base + "@" + version, type);
+    }
+
+    /**
+     * Returns a variable defined as the formula if that is not a variable or a
+     * constant already.
+     */
+    private Formula name(Formula f) {
+        if (f instanceof Variable || f instanceof BoolConst)
+            return f;
+        final Variable v = fresh("reach", Type.BOOL);
+        define(v, equal(v, f));
+        return v;
+    }
+
+    private Formula equal(Formula a, Formula b) {
+        return factory.binary(BinaryOperator.EQ, a, b);
+    }
+
+    private Formula and(Formula a, Formula b) {
+        if (a == BoolConst.TRUE)
+            return b;
+        return b == BoolConst.TRUE ? a : factory.binary(BinaryOperator.AND, a, b);
+    }
+
+    private void define(Variable v, Formula definition) {
+        definitions.computeIfAbsent(v, x -> new ArrayList<>(1)).add(definition);
+    }
+
+    private void goal(Obligation.Kind kind, Locatable location, Formula condition) {
+        if (reach == BoolConst.FALSE)
+            return;
+        // Named, so goals in a row do not repeat the path to them
+        reach = name(reach);
+        final Formula goal = reach == BoolConst.TRUE ? condition
+                : factory.binary(BinaryOperator.IMPLIES, reach, condition);
+        goals.add(new Obligation(kind, function, location, goal));
+    }
+
+    private Formula implies(List<Formula> premises, Formula goal) {
+        return premises.isEmpty() ? goal : factory.binary(BinaryOperator.IMPLIES, conjunction(premises), goal);
+    }
+
+    /**
+     * Returns the conjunction of the formulas as a balanced tree, which keeps
+     * the recursion of printing and translating it shallow.
+     */
+    private Formula conjunction(List<Formula> formulas) {
+        return formulas.isEmpty() ? BoolConst.TRUE : conjunction(formulas, 0, formulas.size());
+    }
+
+    private Formula conjunction(List<Formula> formulas, int from, int to) {
+        if (to - from == 1)
+            return formulas.get(from);
+        final int middle = (from + to) >>> 1;
+        return factory.binary(BinaryOperator.AND, conjunction(formulas, from, middle), conjunction(formulas, middle, to));
+    }
+}
@@ -0,0 +1,25 @@
+package tinycc.implementation.verification;
+
+import tinycc.diagnostic.Locatable;
+
+/**
+ * Thrown when a function contains a construct the verification conditions
+ * cannot express, like a call or a pointer access.
+ */
+public class VerificationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Locatable location;
+
+    public VerificationException(Locatable location, String message) {
+        super(message);
+        this.location = location;
+    }
+
+    /**
+     * Returns the location of the construct, or of the statement containing it.
+     */
+    public Locatable getLocation() {
+        return location;
+    }
+}
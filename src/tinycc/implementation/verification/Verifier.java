@@ -0,0 +1,102 @@
+package tinycc.implementation.verification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import tinycc.logic.Formula;
+import tinycc.logic.UnaryOpFormula;
+import tinycc.logic.UnaryOperator;
+import tinycc.logic.solver.Logic;
+import tinycc.logic.solver.SolverResult;
+import tinycc.logic.solver.z3.Z3Session;
+
+/**
+ * Discharges obligations at the same time on a pool of worker threads.
+ *
+ * Each worker holds one Z3Session, and with it one Z3 Context, for its whole
+ * life and takes the next unchecked obligation until none is left, so a large
+ * obligation only keeps its own worker busy. The workers may run on a pool
+ * shared by several files, which bounds the number of threads and Contexts of
+ * the whole compiler run.
+ */
+public final class Verifier {
+
+    private Verifier() {
+    }
+
+    /**
+     * Checks the obligations on a pool of up to the given number of threads of
+     * their own.
+     *
+     * @see #check(List, int, Function)
+     */
+    public static List<SolverResult> check(List<Obligation> obligations, int threads) throws InterruptedException {
+        final int workers = Math.max(1, Math.min(threads, obligations.size()));
+        final ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            return check(obligations, workers, pool::submit);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks the obligations with up to the given number of workers. Returns
+     * the result of the solver for the negation of each obligation:
+     * unsatisfiable if it holds, satisfiable with a counterexample as model if
+     * not.
+     *
+     * @param submit Starts a worker, usually on a thread pool
+     */
+    public static List<SolverResult> check(List<Obligation> obligations, int workers,
+            Function<Callable<Void>, Future<Void>> submit) throws InterruptedException {
+        final int n = obligations.size();
+        final Formula[] negated = new Formula[n];
+        for (int i = 0; i != n; ++i)
+            negated[i] = new UnaryOpFormula(UnaryOperator.NOT, obligations.get(i).getFormula());
+        final SolverResult[] results = new SolverResult[n];
+        final AtomicInteger next = new AtomicInteger();
+        final Callable<Void> worker = () -> {
+            final Z3Session session = Z3Session.acquire();
+            try {
+                for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement())
+                    results[i] = session.querySatisfiability(negated[i], Logic.QF_NIA);
+            } finally {
+                session.release();
+            }
+            return null;
+        };
+
+        final int started = Math.min(workers, n);
+        final List<Future<Void>> futures = new ArrayList<>(started);
+        try {
+            for (int i = 0; i != started; ++i)
+                futures.add(submit.apply(worker));
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            // Workers still waiting in a shared pool find nothing left to do
+            next.set(n);
+            for (Future<Void> future : futures)
+                future.cancel(true);
+        }
+        return Arrays.asList(results);
+    }
+}
@@ -2,14 +2,17 @@
 
 public class BinaryOpFormula implements Formula {
 
-	private BinaryOperator op;
-	private Formula left;
-	private Formula right;
+	private final BinaryOperator op;
+	private final Formula left;
+	private final Formula right;
+	private final int hash;
+	private SubstMemo memo;
 
 	public BinaryOpFormula(BinaryOperator op, Formula left, Formula right) {
 		this.op = op;
 		this.left = left;
 		this.right = right;
+		this.hash = (op.ordinal() * 31 + left.hashCode()) * 31 + right.hashCode();
 	}
 
 	public Formula getLeft() {
@@ -48,9 +51,33 @@ public BinaryOperator getOperator() {
 
 	@Override
 	public Formula subst(Variable toReplace, Formula with) {
+		SubstMemo m = memo;
+		if (m != null && m.matches(toReplace, with)) {
+			return m.result;
+		}
 		Formula newLeft = this.left.subst(toReplace, with);
 		Formula newRight = this.right.subst(toReplace, with);
-		return new BinaryOpFormula(this.op, newLeft, newRight);
+		Formula result = newLeft == this.left && newRight == this.right ? this
+				: new BinaryOpFormula(this.op, newLeft, newRight);
+		memo = new SubstMemo(toReplace, with, result);
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj instanceof BinaryOpFormula) {
+			BinaryOpFormula b = (BinaryOpFormula) obj;
+			return this.hash == b.hash && this.op == b.op && this.left.equals(b.left) && this.right.equals(b.right);
+		}
+		return false;
 	}
 
 	@Override
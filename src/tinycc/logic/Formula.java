@@ -1,8 +1,19 @@
 package tinycc.logic;
 
+import java.util.Map;
+
 public interface Formula {
 
 	public Type getType();
 
 	public Formula subst(Variable toReplace, Formula with);
+
+	/**
+	 * Replaces all variables of the map at the same time, in one pass over the
+	 * formula. Subformulas without a replaced variable stay the same nodes, a
+	 * shared node is substituted once.
+	 */
+	public default Formula subst(Map<Variable, Formula> substitution) {
+		return substitution.isEmpty() ? this : new Substitution(substitution).apply(this);
+	}
 }
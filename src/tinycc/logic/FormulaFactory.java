@@ -0,0 +1,121 @@
+package tinycc.logic;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates formulas with hash-consing: structurally equal formulas made by the
+ * same factory are the same node. Formulas therefore form a DAG in which every
+ * subformula exists once, substitutions and the solver translation visit each
+ * shared node once, and equality of two made formulas is identity.
+ *
+ * A factory is not thread-safe, each verification run uses its own.
+ */
+public final class FormulaFactory {
+
+	private final Map<Formula, Formula> nodes = new HashMap<>();
+
+	/** The nodes of this factory, compared by identity */
+	private final Set<Formula> made = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * Returns the unique node equal to the given one, whose operands are unique
+	 * nodes already.
+	 */
+	private Formula unique(Formula f) {
+		Formula known = nodes.putIfAbsent(f, f);
+		if (known != null) {
+			return known;
+		}
+		made.add(f);
+		return f;
+	}
+
+	public Variable variable(String name, Type type) {
+		Variable v = (Variable) unique(new Variable(name, type));
+		if (!v.getType().equals(type)) {
+			throw new IllegalArgumentException("Variable " + name + " is used with two types.");
+		}
+		return v;
+	}
+
+	public IntConst intConst(int value) {
+		return (IntConst) unique(new IntConst(value));
+	}
+
+	public Formula binary(BinaryOperator op, Formula left, Formula right) {
+		return unique(new BinaryOpFormula(op, intern(left), intern(right)));
+	}
+
+	public Formula unary(UnaryOperator op, Formula operand) {
+		return unique(new UnaryOpFormula(op, intern(operand)));
+	}
+
+	/**
+	 * Returns the node of this factory equal to the given formula, which may
+	 * have been made elsewhere.
+	 */
+	public Formula intern(Formula f) {
+		if (made.contains(f) || f instanceof BoolConst) {
+			return f;
+		}
+		return intern(f, new IdentityHashMap<>());
+	}
+
+	/**
+	 * Rebuilds a formula from the leaves up. A node is only looked up in nodes
+	 * once its operands are nodes of this factory, so the structural equals
+	 * stops at identical operands, and each shared node is rebuilt once.
+	 */
+	private Formula intern(Formula f, Map<Formula, Formula> done) {
+		if (made.contains(f)) {
+			return f;
+		}
+		Formula result = done.get(f);
+		if (result != null) {
+			return result;
+		}
+		if (f instanceof BinaryOpFormula) {
+			BinaryOpFormula b = (BinaryOpFormula) f;
+			Formula left = intern(b.getLeft(), done);
+			Formula right = intern(b.getRight(), done);
+			result = unique(left == b.getLeft() && right == b.getRight() ? b
+					: new BinaryOpFormula(b.getOperator(), left, right));
+		} else if (f instanceof UnaryOpFormula) {
+			UnaryOpFormula u = (UnaryOpFormula) f;
+			Formula operand = intern(u.getOperand(), done);
+			result = unique(operand == u.getOperand() ? u : new UnaryOpFormula(u.getOperator(), operand));
+		} else if (f instanceof BoolConst) {
+			result = f;
+		} else {
+			result = unique(f);
+		}
+		done.put(f, result);
+		return result;
+	}
+
+	/**
+	 * Substitutes with for toReplace in f. The result is made by this factory.
+	 */
+	public Formula subst(Formula f, Variable toReplace, Formula with) {
+		return intern(intern(f).subst(toReplace, intern(with)));
+	}
+
+	/**
+	 * Substitutes all variables of the map in f at the same time. The result
+	 * is made by this factory.
+	 */
+	public Formula subst(Formula f, Map<Variable, Formula> substitution) {
+		return intern(intern(f).subst(substitution));
+	}
+
+	/**
+	 * Returns the number of distinct nodes made by this factory.
+	 */
+	public int size() {
+		return nodes.size();
+	}
+}
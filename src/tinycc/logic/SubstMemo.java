@@ -0,0 +1,24 @@
+package tinycc.logic;
+
+/**
+ * The last substitution applied to a formula node and its result. A node that
+ * is shared by several parents of a formula is then substituted only once per
+ * substitution. The fields are final, so a memo can be replaced without
+ * synchronization.
+ */
+final class SubstMemo {
+
+	final Variable toReplace;
+	final Formula with;
+	final Formula result;
+
+	SubstMemo(Variable toReplace, Formula with, Formula result) {
+		this.toReplace = toReplace;
+		this.with = with;
+		this.result = result;
+	}
+
+	boolean matches(Variable toReplace, Formula with) {
+		return this.with == with && this.toReplace.equals(toReplace);
+	}
+}
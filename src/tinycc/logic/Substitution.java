@@ -0,0 +1,42 @@
+package tinycc.logic;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A simultaneous substitution applied to one formula, see
+ * Formula.subst(Map).
+ */
+final class Substitution {
+
+	private final Map<Variable, Formula> substitution;
+	private final Map<Formula, Formula> done = new IdentityHashMap<>();
+
+	Substitution(Map<Variable, Formula> substitution) {
+		this.substitution = substitution;
+	}
+
+	Formula apply(Formula f) {
+		Formula result = done.get(f);
+		if (result != null) {
+			return result;
+		}
+		if (f instanceof Variable) {
+			result = substitution.getOrDefault(f, f);
+		} else if (f instanceof BinaryOpFormula) {
+			BinaryOpFormula b = (BinaryOpFormula) f;
+			Formula left = apply(b.getLeft());
+			Formula right = apply(b.getRight());
+			result = left == b.getLeft() && right == b.getRight() ? b
+					: new BinaryOpFormula(b.getOperator(), left, right);
+		} else if (f instanceof UnaryOpFormula) {
+			UnaryOpFormula u = (UnaryOpFormula) f;
+			Formula operand = apply(u.getOperand());
+			result = operand == u.getOperand() ? u : new UnaryOpFormula(u.getOperator(), operand);
+		} else {
+			result = f;
+		}
+		done.put(f, result);
+		return result;
+	}
+}
@@ -2,12 +2,19 @@
 
 public class UnaryOpFormula implements Formula {
 
-	private UnaryOperator op;
-	private Formula e;
+	private final UnaryOperator op;
+	private final Formula e;
+	private final int hash;
+	private SubstMemo memo;
 
 	public UnaryOpFormula(UnaryOperator op, Formula e) {
 		this.op = op;
 		this.e = e;
+		this.hash = op.ordinal() * 31 + e.hashCode();
+	}
+
+	public UnaryOperator getOperator() {
+		return op;
 	}
 
 	public Formula getOperand() {
@@ -26,8 +33,31 @@ public Type getType() {
 
 	@Override
 	public Formula subst(Variable toReplace, Formula with) {
+		SubstMemo m = memo;
+		if (m != null && m.matches(toReplace, with)) {
+			return m.result;
+		}
 		Formula newE = e.subst(toReplace, with);
-		return new UnaryOpFormula(this.op, newE);
+		Formula result = newE == this.e ? this : new UnaryOpFormula(this.op, newE);
+		memo = new SubstMemo(toReplace, with, result);
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj instanceof UnaryOpFormula) {
+			UnaryOpFormula u = (UnaryOpFormula) obj;
+			return this.hash == u.hash && this.op == u.op && this.e.equals(u.e);
+		}
+		return false;
 	}
 
 	@Override
@@ -0,0 +1,136 @@
+package tinycc.logic.solver.z3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+
+import tinycc.logic.Formula;
+import tinycc.logic.solver.Logic;
+import tinycc.logic.solver.SolverInterface;
+
+/**
+ * A long-lived Z3 Context with one solver per logic.
+ *
+ * Creating a Context costs more than solving a typical verification
+ * condition, so sessions are pooled: acquire() takes an idle session or
+ * creates one, release() returns it. The pool keeps at most one idle session
+ * per processor and closes the others, and the idle sessions are closed when
+ * the JVM shuts down. A Context must not be used by two
+ * threads at once, so each thread works with a session of its own. Every
+ * query runs in its own scope (push/pop) of the solver of its logic, so the
+ * solver and the translated variables are reused across queries.
+ */
+public final class Z3Session implements SolverInterface, AutoCloseable {
+
+	/** The number of idle sessions the pool keeps */
+	private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+	private static final ConcurrentLinkedQueue<Z3Session> idle = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger idleCount = new AtomicInteger();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(Z3Session::closeIdle));
+	}
+
+	private final Context ctx = new Context();
+	private final Z3Translator translator = new Z3Translator(ctx);
+	private final Map<Logic, Solver> solvers = new EnumMap<>(Logic.class);
+
+	public Z3Session() {
+	}
+
+	/**
+	 * Returns an idle session of the pool or a new one.
+	 */
+	public static Z3Session acquire() {
+		Z3Session session = idle.poll();
+		if (session == null) {
+			return new Z3Session();
+		}
+		idleCount.decrementAndGet();
+		return session;
+	}
+
+	/**
+	 * Returns this session to the pool, or closes it if the pool is full. The
+	 * caller must not use it anymore.
+	 */
+	public void release() {
+		if (idleCount.incrementAndGet() > MAX_IDLE) {
+			idleCount.decrementAndGet();
+			close();
+			return;
+		}
+		idle.offer(this);
+	}
+
+	/**
+	 * Closes the idle sessions of the pool.
+	 */
+	public static void closeIdle() {
+		Z3Session session;
+		while ((session = idle.poll()) != null) {
+			idleCount.decrementAndGet();
+			session.close();
+		}
+	}
+
+	private Solver getSolver(Logic logic) {
+		return solvers.computeIfAbsent(logic, l -> ctx.mkSolver(l.name()));
+	}
+
+	@Override
+	public Z3Result querySatisfiability(Formula f, Logic logic) {
+		return querySatisfiability(Collections.singletonList(f), logic).get(0);
+	}
+
+	/**
+	 * Checks the satisfiability of each formula on its own.
+	 */
+	public List<Z3Result> querySatisfiability(List<Formula> formulas, Logic logic) {
+		Solver solver = getSolver(logic);
+		List<Z3Result> results = new ArrayList<>(formulas.size());
+		try {
+			for (Formula f : formulas) {
+				results.add(check(solver, f));
+			}
+		} finally {
+			translator.clear();
+		}
+		return results;
+	}
+
+	private Z3Result check(Solver solver, Formula f) {
+		BoolExpr e = translator.translateFormula(f, ctx);
+		solver.push();
+		try {
+			solver.add(new BoolExpr[] { e });
+			Status result = solver.check();
+
+			// Include the model in case the formula is satisfiable
+			String modelString = null;
+			if (result.equals(Status.SATISFIABLE)) {
+				Model model = solver.getModel();
+				modelString = model.toString();
+			}
+			return new Z3Result(result, modelString);
+		} finally {
+			solver.pop();
+		}
+	}
+
+	@Override
+	public void close() {
+		ctx.close();
+	}
+}
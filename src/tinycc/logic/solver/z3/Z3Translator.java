@@ -1,14 +1,15 @@
 package tinycc.logic.solver.z3;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import com.microsoft.z3.ArithExpr;
 import com.microsoft.z3.BoolExpr;
 import com.microsoft.z3.BoolSort;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.IntExpr;
 import com.microsoft.z3.IntSort;
-import com.microsoft.z3.Model;
-import com.microsoft.z3.Solver;
-import com.microsoft.z3.Status;
 
 import tinycc.logic.BinaryOpFormula;
 import tinycc.logic.BinaryOperator;
@@ -21,8 +22,32 @@
 import tinycc.logic.solver.Logic;
 import tinycc.logic.solver.SolverInterface;
 
+/**
+ * Translates formulas to Z3 expressions. The public instances answer queries
+ * through a pooled Z3Session, the session owns an instance bound to its
+ * Context, which caches the sorts.
+ *
+ * A node shared by several parents, as made by a FormulaFactory, is translated
+ * once until clear() is called, and so is every variable.
+ */
 public class Z3Translator implements SolverInterface {
 
+	private final Context context;
+	private IntSort intSort;
+	private BoolSort boolSort;
+	private final Map<String, IntExpr> intConstants = new HashMap<>();
+	private final Map<String, BoolExpr> boolConstants = new HashMap<>();
+	private final Map<Formula, ArithExpr<IntSort>> translatedInts = new IdentityHashMap<>();
+	private final Map<Formula, BoolExpr> translatedBools = new IdentityHashMap<>();
+
+	public Z3Translator() {
+		this.context = null;
+	}
+
+	Z3Translator(Context context) {
+		this.context = context;
+	}
+
 	private BoolExpr translateConstBoolFormula(BoolConst b, Context ctx) {
 		if (b.equals(BoolConst.TRUE)) {
 			return ctx.mkTrue();
@@ -37,13 +62,17 @@ private IntExpr translateConstIntFormula(IntConst i, Context ctx) {
 	}
 
 	private IntExpr translateVariableFormula(Variable f, Context ctx) {
-		IntSort sort = ctx.mkIntSort();
-		return (IntExpr) ctx.mkConst(f.getName(), sort);
+		if (intSort == null) {
+			intSort = ctx.mkIntSort();
+		}
+		return intConstants.computeIfAbsent(f.getName(), name -> (IntExpr) ctx.mkConst(name, intSort));
 	}
 
 	private BoolExpr translateBoolVariableFormula(Variable f, Context ctx) {
-		BoolSort sort = ctx.mkBoolSort();
-		return (BoolExpr) ctx.mkConst(f.getName(), sort);
+		if (boolSort == null) {
+			boolSort = ctx.mkBoolSort();
+		}
+		return boolConstants.computeIfAbsent(f.getName(), name -> (BoolExpr) ctx.mkConst(name, boolSort));
 	}
 
 	private BoolExpr translateUnaryFormula(UnaryOpFormula unary, Context ctx) {
@@ -64,8 +93,8 @@ private BoolExpr translateBinaryFormula(BinaryOpFormula binary, Context ctx) {
 			return translateBoolBinaryFormula(binary, ctx);
 		}
 
-		ArithExpr leftPart = translateIntSubformula(left, ctx);
-		ArithExpr rightPart = translateIntSubformula(right, ctx);
+		ArithExpr<IntSort> leftPart = translateIntSubformula(left, ctx);
+		ArithExpr<IntSort> rightPart = translateIntSubformula(right, ctx);
 
 		switch (binOp) {
 		case LT:
@@ -111,14 +140,14 @@ private BoolExpr translateBoolBinaryFormula(BinaryOpFormula binary, Context ctx)
 		}
 	}
 
-	private ArithExpr translateIntBinaryFormula(BinaryOpFormula binary, Context ctx) {
+	private ArithExpr<IntSort> translateIntBinaryFormula(BinaryOpFormula binary, Context ctx) {
 
 		assert binary.getType().equals(Type.INT);
 
 		BinaryOperator binOp = binary.getOperator();
 
-		ArithExpr leftPart = translateIntSubformula(binary.getLeft(), ctx);
-		ArithExpr rightPart = translateIntSubformula(binary.getRight(), ctx);
+		ArithExpr<IntSort> leftPart = translateIntSubformula(binary.getLeft(), ctx);
+		ArithExpr<IntSort> rightPart = translateIntSubformula(binary.getRight(), ctx);
 
 		switch (binOp) {
 		case ADD:
@@ -132,7 +161,17 @@ private ArithExpr translateIntBinaryFormula(BinaryOpFormula binary, Context ctx)
 		}
 	}
 
-	private ArithExpr translateIntSubformula(Formula f, Context ctx) {
+	private ArithExpr<IntSort> translateIntSubformula(Formula f, Context ctx) {
+		ArithExpr<IntSort> known = translatedInts.get(f);
+		if (known != null) {
+			return known;
+		}
+		ArithExpr<IntSort> e = translateNewIntSubformula(f, ctx);
+		translatedInts.put(f, e);
+		return e;
+	}
+
+	private ArithExpr<IntSort> translateNewIntSubformula(Formula f, Context ctx) {
 
 		if (f instanceof Variable) {
 			Variable v = (Variable) f;
@@ -154,7 +193,29 @@ private ArithExpr translateIntSubformula(Formula f, Context ctx) {
 		throw new IllegalArgumentException("Expected the subformula " + f + " to be of integer type.");
 	}
 
-	private BoolExpr translateFormula(Formula f, Context ctx) throws IllegalArgumentException {
+	BoolExpr translateFormula(Formula f, Context ctx) throws IllegalArgumentException {
+		BoolExpr known = translatedBools.get(f);
+		if (known != null) {
+			return known;
+		}
+		BoolExpr e = translateNewFormula(f, ctx);
+		translatedBools.put(f, e);
+		return e;
+	}
+
+	/**
+	 * Forgets the translated nodes and variables, which are only kept alive for
+	 * sharing within a batch of queries. Variable names like x@3 are fresh in
+	 * every batch, so keeping them would grow the session without bound.
+	 */
+	void clear() {
+		intConstants.clear();
+		boolConstants.clear();
+		translatedInts.clear();
+		translatedBools.clear();
+	}
+
+	private BoolExpr translateNewFormula(Formula f, Context ctx) throws IllegalArgumentException {
 
 		if (f instanceof BinaryOpFormula) {
 			return translateBinaryFormula((BinaryOpFormula) f, ctx);
@@ -177,28 +238,12 @@ private BoolExpr translateFormula(Formula f, Context ctx) throws IllegalArgument
 
 	@Override
 	public Z3Result querySatisfiability(Formula f, Logic logic) {
-		Context ctx = new Context();
-
-		// Translate our own formula to a z3 formula
-		BoolExpr e = translateFormula(f, ctx);
-
-		// Compute the satisfiability of the formula
-		Solver solver = ctx.mkSolver(logic.name());
-		solver.add(e);
-		Status result = solver.check();
-
-		// Include the model in case the formula is satisfiable
-		String modelString = null;
-		if (result.equals(Status.SATISFIABLE)) {
-			Model model = solver.getModel();
-			modelString = model.toString();
+		Z3Session session = Z3Session.acquire();
+		try {
+			return session.querySatisfiability(f, logic);
+		} finally {
+			session.release();
 		}
-
-		Z3Result solverResult = new Z3Result(result, modelString);
-
-		ctx.close();
-
-		return solverResult;
 	}
 	
 	public static Z3Result query(Formula f, Logic logic) {
@@ -2,8 +2,8 @@
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
 
 import tinycc.diagnostic.Diagnostic;
 import tinycc.diagnostic.ModifiableLocation;
@@ -13,19 +13,33 @@
  * The TinyC lexer.
  */
 public class Lexer {
+	private static final int WINDOW_SIZE = 1 << 16;
+
 	private final Diagnostic diagnostic;
 	private final Reader reader;
+	private final char[] window;
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof;
 	private final ModifiableLocation currentlocation;
 	private final ModifiableLocation startLocation;
-	private final StringBuilder id = new StringBuilder();
+	private char[] id = new char[64];
+	private int idLength = 0;
+	private int idHash = 0;
 
 	private int c = '\n';
 
-	private final Map<String, TokenKind> keywords = new HashMap<String, TokenKind>();
+	/** The text of the last scanned token, null if the kind determines it */
+	private String text;
+
+	private final NameTable names = new NameTable();
 
 	/**
 	 * Initializes a new lexer.
 	 *
+	 * The input is read in large windows, so the reader does not need to be
+	 * buffered.
+	 *
 	 * @param diagnostic The diagnostic module to use.
 	 * @param reader     The reader to read the input data from.
 	 * @param inputName  The file name to use for each token location.
@@ -33,17 +47,47 @@ public class Lexer {
 	 * @see Reader
 	 */
 	public Lexer(final Diagnostic diagnostic, final Reader reader, final String inputName) {
-		if (diagnostic == null || reader == null)
+		this(diagnostic, requireReader(reader), new char[WINDOW_SIZE], 0, inputName);
+	}
+
+	private static Reader requireReader(final Reader reader) {
+		if (reader == null)
+			throw new IllegalArgumentException();
+		return reader;
+	}
+
+	/**
+	 * Initializes a new lexer which scans the given characters.
+	 *
+	 * @param diagnostic The diagnostic module to use.
+	 * @param source     The input data. It is not copied and must not be modified
+	 *                   while the lexer is in use.
+	 * @param length     The number of characters of the input data.
+	 * @param inputName  The file name to use for each token location.
+	 * @see Diagnostic
+	 */
+	public Lexer(final Diagnostic diagnostic, final char[] source, final int length, final String inputName) {
+		this(diagnostic, null, source, length, inputName);
+		if (length < 0 || length > source.length)
+			throw new IllegalArgumentException();
+	}
+
+	private Lexer(final Diagnostic diagnostic, final Reader reader, final char[] window, final int limit,
+			final String inputName) {
+		if (diagnostic == null || window == null)
 			throw new IllegalArgumentException();
 		this.diagnostic = diagnostic;
 		this.reader = reader;
+		this.window = window;
+		this.limit = limit;
+		this.eof = reader == null;
 		this.currentlocation = new ModifiableLocation(inputName);
 		this.startLocation = new ModifiableLocation(inputName);
 
 		for (final TokenKind t : TokenKind.values()) {
 			final String text = t.getText();
 			if (Character.isJavaIdentifierStart(text.charAt(0)))
-				keywords.put(text, t);
+				names.putKeyword(text, t);
 		}
 	}
 
@@ -51,12 +95,38 @@ public Lexer(final Diagnostic diagnostic, final Reader reader, final String inpu
 
 	private void nextChar() {
 		currentlocation.incColumn();
+		if (pos == limit && !fillWindow()) {
+			c = -1;
+			return;
+		}
+		c = window[pos++];
+	}
+
+	/**
+	 * Reads the next window of input.
+	 *
+	 * @return False if there is no more input.
+	 */
+	private boolean fillWindow() {
+		if (eof)
+			return false;
 		try {
-			c = reader.read();
+			int n;
+			do {
+				n = reader.read(window, 0, window.length);
+			} while (n == 0);
+			if (n > 0) {
+				pos = 0;
+				limit = n;
+				return true;
+			}
+		} catch (final CharacterCodingException e) {
+			diagnostic.printError(currentlocation, "input is not valid UTF-8");
 		} catch (final IOException e) {
 			diagnostic.printError(currentlocation, "%s", e);
-			c = -1;
 		}
+		eof = true;
+		return false;
 	}
 
 	private boolean acceptChar(final int x) {
@@ -68,7 +138,7 @@ private boolean acceptChar(final int x) {
 		}
 	}
 
-	private Token parseString(final TokenKind kind, final int delimiter) {
+	private TokenKind parseString(final TokenKind kind, final int delimiter) {
 		nextChar();
 		final StringBuilder text = new StringBuilder();
 		end: for (;;) {
@@ -134,27 +204,26 @@ private Token parseString(final TokenKind kind, final int delimiter) {
 			text.append(add);
 			nextChar();
 		}
-		return new Token(startLocation, kind, text.toString());
+		this.text = text.toString();
+		return kind;
 	}
 
-	private Token makeToken(final TokenKind kind) {
+	private TokenKind makeToken(final TokenKind kind) {
 		nextChar();
-		return new Token(startLocation, kind);
+		return kind;
 	}
 
-	private Token makeToken(final char tryChar, final TokenKind longKind, final TokenKind shortKind) {
+	private TokenKind makeToken(final char tryChar, final TokenKind longKind, final TokenKind shortKind) {
 		nextChar();
-		final TokenKind kind = acceptChar(tryChar) ? longKind : shortKind;
-		return new Token(startLocation, kind);
+		return acceptChar(tryChar) ? longKind : shortKind;
 	}
 
-	private Token makeToken(final char tryChar0, final TokenKind longKind0, final char tryChar1, final TokenKind longKind1, final TokenKind shortKind) {
+	private TokenKind makeToken(final char tryChar0, final TokenKind longKind0, final char tryChar1, final TokenKind longKind1, final TokenKind shortKind) {
 		nextChar();
-		final TokenKind kind =
+		return
 				acceptChar(tryChar0) ? longKind0 :
 					acceptChar(tryChar1) ? longKind1 :
 						shortKind;
-		return new Token(startLocation, kind);
 	}
 
 	/**
@@ -162,12 +231,27 @@ private Token makeToken(final char tryChar0, final TokenKind longKind0, final ch
 	 *
 	 * @return The next token in the input stream
 	 */
-	Token next() {
+	public Token next() {
+		final TokenKind kind = scan();
+		return text != null ? new Token(startLocation, kind, text) : new Token(startLocation, kind);
+	}
+
+	/**
+	 * Identifies the next token in the input stream without creating a token
+	 * object. The text and the location of the token can be queried afterwards.
+	 *
+	 * @return The kind of the next token in the input stream
+	 * @see #getTokenText()
+	 * @see #getTokenLine()
+	 * @see #getTokenColumn()
+	 */
+	TokenKind scan() {
+		text = null;
 		for (;;) {
 			startLocation.set(currentlocation);
 			switch (c) {
 			case -1:
-				return new Token(startLocation, TokenKind.EOF);
+				return TokenKind.EOF;
 
 			case '\r':
 			case '\n':
@@ -181,10 +265,12 @@ Token next() {
 				break;
 
 			case '\'': {
-				final Token t = parseString(TokenKind.CHARACTER, c);
-				if (t.getText().length() != 1)
+				final TokenKind kind = parseString(TokenKind.CHARACTER, c);
+				if (text.length() != 1) {
+					final Token t = new Token(startLocation, kind, text);
 					diagnostic.printError(t, "invalid character constant '%s'", t);
-				return t;
+				}
+				return kind;
 			}
 
 			case '"':
@@ -200,7 +286,7 @@ Token next() {
 					skipLineComment();
 					continue;
 				default:
-					return new Token(startLocation, TokenKind.SLASH);
+					return TokenKind.SLASH;
 				}
 
 			case '@': return makeToken(TokenKind.ANNOT);
@@ -238,14 +324,16 @@ Token next() {
 							appendId();
 						}
 					}
-					return new Token(startLocation, TokenKind.NUMBER, getId());
+					final int slot = internId(TokenKind.NUMBER);
+					text = names.getName(slot);
+					return names.getKind(slot);
 				} else if (Character.isJavaIdentifierStart(c)) {
 					do {
 						appendId();
 					} while (Character.isJavaIdentifierPart(c));
-					final String text = getId();
-					final TokenKind idKind = keywords.get(text);
-					return new Token(startLocation, idKind != null ? idKind : TokenKind.IDENTIFIER, text);
+					final int slot = internId(TokenKind.IDENTIFIER);
+					text = names.getName(slot);
+					return names.getKind(slot);
 				} else {
 					diagnostic.printError(startLocation, "invalid input character '%c'", c);
 				}
@@ -254,15 +342,62 @@ Token next() {
 		}
 	}
 
+	/**
+	 * Returns the text of the last scanned token.
+	 *
+	 * @return The text, or null if it is the text of the token kind.
+	 */
+	String getTokenText() {
+		return text;
+	}
+
+	/**
+	 * Returns the line of the last scanned token.
+	 *
+	 * @return The line of the last scanned token.
+	 */
+	int getTokenLine() {
+		return startLocation.getLine();
+	}
+
+	/**
+	 * Returns the column of the last scanned token.
+	 *
+	 * @return The column of the last scanned token.
+	 */
+	int getTokenColumn() {
+		return startLocation.getColumn();
+	}
+
+	/**
+	 * Returns the input name used for all token locations.
+	 *
+	 * @return The input name.
+	 */
+	String getInputName() {
+		return startLocation.getInputName();
+	}
+
 	private void appendId() {
-		id.append((char) c);
+		if (idLength == id.length)
+			id = Arrays.copyOf(id, idLength * 2);
+		final char ch = (char) c;
+		id[idLength++] = ch;
+		idHash = NameTable.hash(idHash, ch);
 		nextChar();
 	}
 
-	private String getId() {
-		final String text = id.toString();
-		id.setLength(0);
-		return text;
+	/**
+	 * Interns the collected word and resets the word buffer.
+	 *
+	 * @param defaultKind The kind of the word if it is not a keyword.
+	 * @return The slot of the word in the name table.
+	 */
+	private int internId(final TokenKind defaultKind) {
+		final int slot = names.lookup(id, idLength, idHash, defaultKind);
+		idLength = 0;
+		idHash = 0;
+		return slot;
 	}
 
 	private void consumeNewline() {
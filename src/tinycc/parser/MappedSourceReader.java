@@ -0,0 +1,150 @@
+package tinycc.parser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 source file through a memory mapping.
+ *
+ * The file is mapped region by region and decoded straight into the lexer
+ * window as it is scanned. There is no copy of the whole file on the heap, so
+ * the memory used while lexing does not grow with the size of the input. A
+ * character cut by the end of a region is decoded from the next region, which
+ * starts with its first byte. Malformed input is reported as a
+ * {@link java.nio.charset.CharacterCodingException} once the characters before
+ * it have been read.
+ *
+ * @see Lexer
+ */
+public final class MappedSourceReader extends Reader {
+	private static final long REGION_SIZE = 1L << 26;
+
+	/** The longest UTF-8 sequence of a character */
+	private static final int MAX_SEQUENCE = 4;
+
+	private final FileChannel channel;
+	private final long size;
+	private final long regionSize;
+	private final CharsetDecoder decoder = newDecoder();
+	/** The file position of the first byte of the region */
+	private long regionStart = 0;
+	private MappedByteBuffer region = null;
+	/** The low surrogate of a character that did not fit into the last read */
+	private int pending = -1;
+	/** Malformed input after the characters returned by the last read */
+	private CoderResult error = null;
+
+	/**
+	 * Opens the given file for reading
+	 *
+	 * @param file The file to read.
+	 * @throws FileNotFoundException If the file does not exist or may not be
+	 *                               read.
+	 * @throws IOException           If the file cannot be opened.
+	 */
+	public MappedSourceReader(final File file) throws IOException {
+		this(file, REGION_SIZE);
+	}
+
+	/**
+	 * Opens the given file for reading with regions of the given size
+	 *
+	 * @param file       The file to read.
+	 * @param regionSize The number of bytes mapped at once, at least 4.
+	 * @throws FileNotFoundException If the file does not exist or may not be
+	 *                               read.
+	 * @throws IOException           If the file cannot be opened.
+	 */
+	public MappedSourceReader(final File file, final long regionSize) throws IOException {
+		if (regionSize < MAX_SEQUENCE)
+			throw new IllegalArgumentException("A region must hold a whole character.");
+		this.regionSize = regionSize;
+		try {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} catch (final NoSuchFileException e) {
+			throw new FileNotFoundException(file.getPath());
+		} catch (final AccessDeniedException e) {
+			// The same message as a FileReader
+			throw new FileNotFoundException(file.getPath() + " (Permission denied)");
+		}
+		this.size = channel.size();
+	}
+
+	/**
+	 * Returns a decoder for the source files, which are UTF-8 and are rejected
+	 * if malformed.
+	 *
+	 * @return A new decoder.
+	 */
+	public static CharsetDecoder newDecoder() {
+		return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+	}
+
+	@Override
+	public int read(final char[] buf, final int off, final int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (error != null)
+			error.throwException();
+		int n = 0;
+		if (pending >= 0) {
+			buf[off] = (char) pending;
+			pending = -1;
+			++n;
+		}
+		final CharBuffer out = CharBuffer.wrap(buf, off + n, len - n);
+		while (out.hasRemaining()) {
+			if (region == null || region.remaining() < MAX_SEQUENCE && regionStart + region.capacity() != size) {
+				// Map the next region from the first byte that was not decoded
+				final long position = region == null ? 0 : regionStart + region.position();
+				if (position == size)
+					break;
+				region = channel.map(MapMode.READ_ONLY, position, Math.min(regionSize, size - position));
+				regionStart = position;
+			}
+			final boolean last = regionStart + region.capacity() == size;
+			final int before = out.position();
+			CoderResult result = decoder.decode(region, out, last);
+			if (result.isOverflow() && out.position() == before && out.remaining() == 1) {
+				// A surrogate pair does not fit, keep its second half for later
+				final CharBuffer pair = CharBuffer.allocate(2);
+				result = decoder.decode(region, pair, last);
+				if (pair.position() == 2) {
+					out.put(pair.get(0));
+					pending = pair.get(1);
+				}
+			}
+			if (result.isError()) {
+				// Return the characters before it first, so the lexer gets to its location
+				error = result;
+				break;
+			}
+			if (result.isOverflow() || last)
+				break;
+		}
+		n += out.position() - (off + n);
+		if (n == 0 && error != null)
+			error.throwException();
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		region = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,129 @@
+package tinycc.parser;
+
+/**
+ * Interning table for the spellings of identifiers, keywords and numbers.
+ *
+ * The lexer looks up the characters of a word directly, without creating a
+ * string first. Every spelling is stored once, so all tokens with the same
+ * text share one String instance, and keywords are resolved by the same probe.
+ * The table uses open addressing with linear probing.
+ */
+final class NameTable {
+	private static final int INITIAL_CAPACITY = 256;
+
+	private String[] names = new String[INITIAL_CAPACITY];
+	private TokenKind[] kinds = new TokenKind[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Computes the hash of a spelling incrementally, like String.hashCode().
+	 *
+	 * @param hash The hash of the characters so far (0 for none).
+	 * @param c    The next character.
+	 * @return The hash including the next character.
+	 */
+	static int hash(final int hash, final char c) {
+		return 31 * hash + c;
+	}
+
+	private static int slotOf(final int hash, final int mask) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Enters a keyword into the table.
+	 *
+	 * @param text The spelling of the keyword.
+	 * @param kind The token kind of the keyword.
+	 */
+	void putKeyword(final String text, final TokenKind kind) {
+		final char[] chars = text.toCharArray();
+		kinds[lookup(chars, chars.length, text.hashCode(), kind)] = kind;
+	}
+
+	/**
+	 * Finds the slot of the given spelling. If the spelling is new, it is entered
+	 * with the given kind.
+	 *
+	 * @param buf         The characters of the spelling.
+	 * @param len         The number of characters of the spelling.
+	 * @param hash        The hash of the spelling.
+	 * @param defaultKind The kind to use for a new spelling.
+	 * @return The slot of the spelling.
+	 * @see #getName(int)
+	 * @see #getKind(int)
+	 */
+	int lookup(final char[] buf, final int len, final int hash, final TokenKind defaultKind) {
+		int mask = names.length - 1;
+		for (int i = slotOf(hash, mask);; i = (i + 1) & mask) {
+			final String name = names[i];
+			if (name == null) {
+				if (2 * (size + 1) > names.length) {
+					grow();
+					mask = names.length - 1;
+					i = slotOf(hash, mask);
+					while (names[i] != null)
+						i = (i + 1) & mask;
+				}
+				names[i] = new String(buf, 0, len);
+				kinds[i] = defaultKind;
+				hashes[i] = hash;
+				++size;
+				return i;
+			}
+			if (hashes[i] == hash && matches(name, buf, len))
+				return i;
+		}
+	}
+
+	private static boolean matches(final String name, final char[] buf, final int len) {
+		if (name.length() != len)
+			return false;
+		for (int i = 0; i != len; ++i) {
+			if (name.charAt(i) != buf[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void grow() {
+		final String[] oldNames = names;
+		final TokenKind[] oldKinds = kinds;
+		final int[] oldHashes = hashes;
+		names = new String[oldNames.length * 2];
+		kinds = new TokenKind[oldNames.length * 2];
+		hashes = new int[oldNames.length * 2];
+		final int mask = names.length - 1;
+		for (int j = 0; j != oldNames.length; ++j) {
+			if (oldNames[j] == null)
+				continue;
+			int i = slotOf(oldHashes[j], mask);
+			while (names[i] != null)
+				i = (i + 1) & mask;
+			names[i] = oldNames[j];
+			kinds[i] = oldKinds[j];
+			hashes[i] = oldHashes[j];
+		}
+	}
+
+	/**
+	 * Returns the canonical string of a slot.
+	 *
+	 * @param slot The slot returned by lookup.
+	 * @return The canonical string of the spelling.
+	 */
+	String getName(final int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * Returns the token kind of a slot.
+	 *
+	 * @param slot The slot returned by lookup.
+	 * @return The keyword kind, or the kind the spelling was entered with.
+	 */
+	TokenKind getKind(final int slot) {
+		return kinds[slot];
+	}
+}
@@ -16,10 +16,8 @@
  */
 public class Parser {
 	private final Diagnostic diagnostic;
-	private final Lexer lexer;
 	private final ASTFactory factory;
-	private Token token;
-	private Token lookAhead;
+	private final TokenStream tokens;
 
 	public static final Location errorLocation = new Location("<error>", 0, 0);
 
@@ -39,11 +37,9 @@ public Parser(final Diagnostic diagnostic, final Lexer lexer, final ASTFactory f
 		if (diagnostic == null || lexer == null || factory == null)
 			throw new IllegalArgumentException();
 		this.diagnostic = diagnostic;
-		this.lexer = lexer;
 		this.factory = factory;
 		/* Initialize current token and look ahead. */
-		nextToken();
-		nextToken();
+		this.tokens = new TokenStream(lexer);
 	}
 
 	/**
@@ -63,12 +59,26 @@ public void parseTranslationUnit() {
 	// -------------- Internal methods of the parser --------------
 
 	private void nextToken() {
-		token = lookAhead;
-		lookAhead = lexer.next();
+		tokens.advance();
+	}
+
+	/**
+	 * Returns the kind of the current token without creating a token object.
+	 */
+	private TokenKind kind() {
+		return tokens.kind(0);
+	}
+
+	/**
+	 * Returns the current token. Only call this if the token is kept or
+	 * reported, the token object is created on demand.
+	 */
+	private Token token() {
+		return tokens.token(0);
 	}
 
 	private boolean peek(final TokenKind t) {
-		return token.getKind() == t;
+		return kind() == t;
 	}
 
 	private boolean accept(final TokenKind t) {
@@ -82,17 +92,17 @@ private boolean accept(final TokenKind t) {
 
 	private void expect(final TokenKind t) throws ParserError {
 		if (!accept(t)) {
-			diagnostic.printError(token, "expected '%s', but got '%s'", t, token);
+			diagnostic.printError(token(), "expected '%s', but got '%s'", t, token());
 			throw new ParserError();
 		}
 	}
 
 	private Statement parseBlock() throws ParserError {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		expect(TokenKind.LBRACE);
 		final List<Statement> stmts = new ArrayList<Statement>();
 		for (;;) {
-			switch (token.getKind()) {
+			switch (kind()) {
 			case AND:
 			case ASTERISK:
 			case BANG:
@@ -131,7 +141,7 @@ private Statement parseBlock() throws ParserError {
 				break;
 
 			default:
-				diagnostic.printError(token, "expected statement or '}' while parsing block, but got '%s'", token);
+				diagnostic.printError(token(), "expected statement or '}' while parsing block, but got '%s'", token());
 				break;
 			}
 			break;
@@ -140,21 +150,21 @@ private Statement parseBlock() throws ParserError {
 	}
 
 	private Statement parseBreak() throws ParserError {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		expect(TokenKind.BREAK);
 		expect(TokenKind.SEMICOLON);
 		return factory.createBreakStatement(loc);
 	}
 
 	private Statement parseContinue() throws ParserError {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		expect(TokenKind.CONTINUE);
 		expect(TokenKind.SEMICOLON);
 		return factory.createContinueStatement(loc);
 	}
 
 	private Token parseIdentifier() {
-		final Token t = token;
+		final Token t = token();
 		if (peek(TokenKind.IDENTIFIER)) {
 			nextToken();
 			return t;
@@ -185,8 +195,7 @@ private static boolean isType(final TokenKind t) {
 	}
 
 	private Expression parseOperand() throws ParserError {
-		final Token t = token;
-		switch (t.getKind()) {
+		switch (kind()) {
 		case AND:
 		case ASTERISK:
 		case BANG:
@@ -196,14 +205,16 @@ private Expression parseOperand() throws ParserError {
 		case PLUS_PLUS:
 		case SIZEOF:
 		case TILDE: {
+			final Token t = token();
 			nextToken();
 			final Expression operand = parseExpression(Precedence.UNARY);
 			return factory.createUnaryExpression(t, false, operand);
 		}
 
-		case LPAREN:
+		case LPAREN: {
+			final Token t = token();
 			expect(TokenKind.LPAREN);
-			if (isType(token.getKind())) {
+			if (isType(kind())) {
 				@SuppressWarnings("unused")
 				final Type type = parseType();
 				expect(TokenKind.RPAREN);
@@ -216,16 +227,19 @@ private Expression parseOperand() throws ParserError {
 				expect(TokenKind.RPAREN);
 				return expr;
 			}
+		}
 
 		case IDENTIFIER:
 		case NUMBER:
 		case CHARACTER:
-		case STRING:
+		case STRING: {
+			final Token t = token();
 			nextToken();
 			return factory.createPrimaryExpression(t);
+		}
 
 		default:
-			diagnostic.printError(token, "expected expression, but got '%s'", token);
+			diagnostic.printError(token(), "expected expression, but got '%s'", token());
 			throw new ParserError();
 		}
 	}
@@ -233,10 +247,10 @@ private Expression parseOperand() throws ParserError {
 	private Expression parseExpression(final Precedence precedence) throws ParserError {
 		Expression expr = parseOperand();
 		for (;;) {
-			final Token t = token;
-			final TokenKind kind = t.getKind();
+			final TokenKind kind = kind();
 			if (kind.getLPrec().less(precedence))
 				return expr;
+			final Token t = token();
 			nextToken();
 			switch (kind) {
 			case LBRACKET:
@@ -292,7 +306,7 @@ public Expression parseExpression() throws ParserError  {
 	}
 
 	private Statement parseIf() throws ParserError  {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		expect(TokenKind.IF);
 		expect(TokenKind.LPAREN);
 		final Expression cond = parseExpression();
@@ -303,7 +317,7 @@ private Statement parseIf() throws ParserError  {
 	}
 
 	private Statement parseReturn() throws ParserError  {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		expect(TokenKind.RETURN);
 		final Expression expr = peek(TokenKind.SEMICOLON) ? null : parseExpression();
 		expect(TokenKind.SEMICOLON);
@@ -323,7 +337,7 @@ private Expression acceptAnnotatedExpressionStmt(TokenKind kind) throws ParserEr
 	}
 
 	private Statement parseWhile() throws ParserError  {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		expect(TokenKind.WHILE);
 		expect(TokenKind.LPAREN);
 		final Expression cond = parseExpression();
@@ -358,7 +372,7 @@ private Statement parseWhile() throws ParserError  {
 	}
 
 	private Statement parseExpressionStatement() throws ParserError  {
-		final Locatable loc = token;
+		final Locatable loc = token();
 		final Expression expr = parseExpression();
 		expect(TokenKind.SEMICOLON);
 		return factory.createExpressionStatement(loc, expr);
@@ -369,7 +383,7 @@ private Statement parseInnerStatement() throws ParserError  {
 	}
 
 	public Statement parseStatement(final boolean inner) throws ParserError  {
-		switch (token.getKind()) {
+		switch (kind()) {
 		case BREAK:
 			return parseBreak();
 		case CONTINUE:
@@ -387,7 +401,7 @@ public Statement parseStatement(final boolean inner) throws ParserError  {
 		case INT:
 		case VOID:
 			if (inner)
-				diagnostic.printError(token, "declaration cannot be an inner statement, use {}");
+				diagnostic.printError(token(), "declaration cannot be an inner statement, use {}");
 			return parseDeclaration();
 
 		case AND:
@@ -407,28 +421,28 @@ public Statement parseStatement(final boolean inner) throws ParserError  {
 			return parseExpressionStatement();
 
 		case _ASSUME:
-			return factory.createAssumeStatement(token, acceptAnnotatedExpressionStmt(TokenKind._ASSUME));
+			return factory.createAssumeStatement(token(), acceptAnnotatedExpressionStmt(TokenKind._ASSUME));
 		case _ASSERT:
-			return factory.createAssertStatement(token, acceptAnnotatedExpressionStmt(TokenKind._ASSERT));
+			return factory.createAssertStatement(token(), acceptAnnotatedExpressionStmt(TokenKind._ASSERT));
 
 		default:
-			diagnostic.printError(token, "expected statement, but got '%s'", token);
+			diagnostic.printError(token(), "expected statement, but got '%s'", token());
 			throw new ParserError();
 		}
 	}
 
 	public Type parseType() throws ParserError {
 		final TokenKind kind;
-		switch (token.getKind()) {
+		switch (kind()) {
 		case CHAR:
 		case INT:
 		case VOID:
-			kind = token.getKind();
+			kind = kind();
 			nextToken();
 			break;
 
 		default:
-			diagnostic.printError(token, "expected type, but got '%s'", token);
+			diagnostic.printError(token(), "expected type, but got '%s'", token());
 			throw new ParserError();
 		}
 
@@ -443,12 +457,12 @@ public Type parseType() throws ParserError {
 	private void parseExternalDeclaration() throws ParserError {
 		Type type = parseType();
 		final Token name = parseIdentifier();
-		switch (token.getKind()) {
+		switch (kind()) {
 		case LPAREN:
 			expect(TokenKind.LPAREN);
 			final List<Type> parameterTypes = new ArrayList<Type>();
 			final List<Token> parameterNames = new ArrayList<Token>();
-			if (peek(TokenKind.VOID) && lookAhead.getKind() == TokenKind.RPAREN) {
+			if (peek(TokenKind.VOID) && tokens.kind(1) == TokenKind.RPAREN) {
 				/* No parameters. */
 				expect(TokenKind.VOID);
 			} else if (!peek(TokenKind.RPAREN)) {
@@ -461,7 +475,7 @@ private void parseExternalDeclaration() throws ParserError {
 			}
 			expect(TokenKind.RPAREN);
 			type = factory.createFunctionType(type, parameterTypes);
-			switch (token.getKind()) {
+			switch (kind()) {
 			case LBRACE: {
 				final Statement body = parseBlock();
 				factory.createFunctionDefinition(type, name, parameterNames, body);
@@ -473,7 +487,7 @@ private void parseExternalDeclaration() throws ParserError {
 				break;
 
 			default:
-				diagnostic.printError(token, "expected '{' or ';' while parsing function, but got '%s'", token);
+				diagnostic.printError(token(), "expected '{' or ';' while parsing function, but got '%s'", token());
 				break;
 			}
 			break;
@@ -483,7 +497,7 @@ private void parseExternalDeclaration() throws ParserError {
 			break;
 
 		default:
-			diagnostic.printError(token, "expected '(' or ';' while parsing external declaration, but got '%s'", token);
+			diagnostic.printError(token(), "expected '(' or ';' while parsing external declaration, but got '%s'", token());
 			break;
 		}
 		factory.createExternalDeclaration(type, name);
@@ -39,6 +39,23 @@ public Token(final Locatable loc, final TokenKind kind) {
 		this(loc, kind, kind.getText());
 	}
 
+	/**
+	 * Initializes a new token from an unpacked position
+	 *
+	 * @param inputName The input name of this token
+	 * @param line      The line of this token
+	 * @param column    The column of this token
+	 * @param kind      The type of the token
+	 * @param text      The text of the token
+	 */
+	Token(final String inputName, final int line, final int column, final TokenKind kind, final String text) {
+		super(inputName, line, column);
+		if (kind == null || text == null)
+			throw new IllegalArgumentException();
+		this.kind = kind;
+		this.text = text;
+	}
+
 	@Override
 	public String toString() {
 		switch (getKind()) {
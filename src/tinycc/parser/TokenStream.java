@@ -0,0 +1,94 @@
+package tinycc.parser;
+
+/**
+ * Compact window of look-ahead tokens between the lexer and the parser.
+ *
+ * Each buffered token is packed into a single long holding its kind, line and
+ * column, and its text is kept in a side table. Most tokens (punctuation,
+ * keywords) are consumed by the parser without ever becoming an object. A
+ * Token is only created when the parser asks for one, typically because an AST
+ * node keeps it as its location or name, and it is cached until the stream
+ * advances past it.
+ */
+final class TokenStream {
+	/** Number of tokens the parser can look at */
+	static final int LOOK_AHEAD = 2;
+
+	private static final int POSITION_BITS = 28;
+	private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+	private static final TokenKind[] KINDS = TokenKind.values();
+
+	private final Lexer lexer;
+	private final String inputName;
+	private final long[] packed = new long[LOOK_AHEAD];
+	private final String[] texts = new String[LOOK_AHEAD];
+	private final Token[] tokens = new Token[LOOK_AHEAD];
+	private int head = 0;
+
+	/**
+	 * Initializes the stream and fills the look-ahead window
+	 *
+	 * @param lexer The lexer to read the tokens from
+	 */
+	TokenStream(final Lexer lexer) {
+		this.lexer = lexer;
+		this.inputName = lexer.getInputName();
+		for (int i = 0; i != LOOK_AHEAD; ++i)
+			read(i);
+	}
+
+	private static long pack(final TokenKind kind, final int line, final int column) {
+		return (long) kind.ordinal() << (2 * POSITION_BITS)
+				| (line & POSITION_MASK) << POSITION_BITS
+				| (column & POSITION_MASK);
+	}
+
+	private void read(final int slot) {
+		final TokenKind kind = lexer.scan();
+		packed[slot] = pack(kind, lexer.getTokenLine(), lexer.getTokenColumn());
+		texts[slot] = lexer.getTokenText();
+		tokens[slot] = null;
+	}
+
+	private int slot(final int i) {
+		return (head + i) % LOOK_AHEAD;
+	}
+
+	/**
+	 * Drops the current token and reads a new one into the window
+	 */
+	void advance() {
+		read(head);
+		head = slot(1);
+	}
+
+	/**
+	 * Returns the kind of a buffered token
+	 *
+	 * @param i The distance from the current token (0 for the current token)
+	 * @return The kind of the token
+	 */
+	TokenKind kind(final int i) {
+		return KINDS[(int) (packed[slot(i)] >>> (2 * POSITION_BITS))];
+	}
+
+	/**
+	 * Returns a buffered token as an object, creating it if necessary
+	 *
+	 * @param i The distance from the current token (0 for the current token)
+	 * @return The token
+	 */
+	Token token(final int i) {
+		final int slot = slot(i);
+		Token t = tokens[slot];
+		if (t == null) {
+			final long p = packed[slot];
+			final TokenKind kind = KINDS[(int) (p >>> (2 * POSITION_BITS))];
+			final String text = texts[slot];
+			t = new Token(inputName, (int) (p >>> POSITION_BITS & POSITION_MASK), (int) (p & POSITION_MASK), kind,
+					text != null ? text : kind.getText());
+			tokens[slot] = t;
+		}
+		return t;
+	}
+}
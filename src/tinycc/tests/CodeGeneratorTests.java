@@ -0,0 +1,441 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import prog2.tests.CompilerTests;
+import tinycc.asmgen.AsmGen;
+import tinycc.implementation.ASTFactoryImplementation;
+import tinycc.implementation.FunctionDefinition;
+
+/**
+ * Checks the shape of the generated assembly, and runs it in RiscVSimulator to
+ * check that the optimizations keep the results.
+ */
+public class CodeGeneratorTests extends CompilerTests {
+
+	private String compile(final String code) {
+		return compile(code, false);
+	}
+
+	private String compile(final String code, final boolean optimize) {
+		checkCode(code);
+		if (optimize)
+			compiler.performOptimizations();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final PrintStream out = new PrintStream(bytes);
+		compiler.generateCode(new AsmGen(out));
+		out.flush();
+		return bytes.toString();
+	}
+
+	/**
+	 * Folds the checked program and returns the body of its last function.
+	 */
+	private String fold(final String code) {
+		checkCode(code);
+		final List<FunctionDefinition> functions = ((ASTFactoryImplementation) astFactory).getFunctionDefinitions();
+		final FunctionDefinition last = functions.get(functions.size() - 1);
+		last.fold();
+		return last.getFunctionBody().toString();
+	}
+
+	/**
+	 * Compiles the code without and then with optimizations. The compiler is the
+	 * optimizing one afterwards.
+	 */
+	private RiscVSimulator[] simulate(final String code) {
+		final RiscVSimulator plain = new RiscVSimulator(compile(code));
+		setUp();
+		final RiscVSimulator optimized = new RiscVSimulator(compile(code, true));
+		return new RiscVSimulator[] { plain, optimized };
+	}
+
+	private static int count(final String asm, final String regex) {
+		final Matcher m = Pattern.compile(regex, Pattern.MULTILINE).matcher(asm);
+		int n = 0;
+		while (m.find())
+			++n;
+		return n;
+	}
+
+	@Test
+	public void testLeafFunctionNeedsNoFrame() {
+		final String asm = compile("int add(int a, int b) { int c = a + b; return c; }");
+		assertEquals(0, count(asm, "\\bsp\\b"));
+		assertEquals(0, count(asm, "^\\s*(lw|sw)\\s"));
+	}
+
+	@Test
+	public void testValueLiveAcrossCallIsCalleeSaved() {
+		final String asm = compile(""
+				+ "int fact(int n) {\n"
+				+ "	if (n == 0) return 1;\n"
+				+ "	return n * fact(n - 1);\n"
+				+ "}\n");
+		assertEquals(1, count(asm, "^\\s*sw\\s+s0\\s"));
+		assertEquals(1, count(asm, "^\\s*sw\\s+ra\\s"));
+		assertEquals(1, count(asm, "^\\s*mul\\s+\\w+\\s+s0\\s"));
+	}
+
+	@Test
+	public void testLoopRunsOneBranchPerIteration() {
+		final String asm = compile(""
+				+ "int count(int n) {\n"
+				+ "	int x = 0;\n"
+				+ "	while (x != n) x = x + 1;\n"
+				+ "	return x;\n"
+				+ "}\n");
+		assertEquals(2, count(asm, "^\\s*b\\w+\\s"));
+		assertEquals(0, count(asm, "^\\s*j\\s"));
+	}
+
+	@Test
+	public void testLargeConstant() {
+		final String asm = compile("int big() { return 100000; }");
+		assertEquals(1, count(asm, "^\\s*lui\\s+\\w+\\s+24\\s*$"));
+		assertEquals(1, count(asm, "^\\s*addi\\s+\\w+\\s+\\w+\\s+1696\\s*$"));
+	}
+
+	@Test
+	public void testMultiplicationByPowerOfTwo() {
+		final String asm = compile("int scale(int x) { return x * 8; }");
+		assertEquals(1, count(asm, "^\\s*slli\\s+\\w+\\s+\\w+\\s+3\\s*$"));
+		assertFalse(asm.contains("mul"));
+	}
+
+	@Test
+	public void testAddressTakenLocalLivesInFrame() {
+		final String asm = compile(""
+				+ "void inc(int *p);\n"
+				+ "int f() {\n"
+				+ "	int x = 1;\n"
+				+ "	inc(&x);\n"
+				+ "	return x;\n"
+				+ "}\n");
+		// The initial value is stored to the frame and reloaded after the call
+		assertEquals(1, count(asm, "^\\s*sw\\s+t\\d\\s+\\d+\\(sp\\)"));
+		assertEquals(1, count(asm, "^\\s*lw\\s+t\\d\\s+\\d+\\(sp\\)"));
+		assertEquals(0, count(asm, "^\\s*sw\\s+s\\d+\\s"));
+	}
+
+	@Test
+	public void testStringsAreEmittedOnce() {
+		final String asm = compile(""
+				+ "char *s;\n"
+				+ "char *t;\n"
+				+ "void f() { s = \"foo\"; t = \"foo\"; }\n");
+		assertEquals(1, count(asm, "\\.asciiz"));
+	}
+
+	@Test
+	public void testPointerMinusIntKeepsPointerType() {
+		// p - 1 is a char*, so the load is a byte one element back
+		final String asm = compile(""
+				+ "char last(char *p) { return *(p - 1); }\n"
+				+ "int prev(int *q) { return *(q - 1); }\n");
+		assertEquals(1, count(asm, "^\\s*lb\\s+\\w+\\s+-1\\(\\w+\\)"));
+		assertEquals(1, count(asm, "^\\s*lw\\s+\\w+\\s+-4\\(\\w+\\)"));
+	}
+
+	@Test
+	public void testOptimizerFoldsConstantBranches() {
+		final String asm = compile(""
+				+ "int h();\n"
+				+ "int k() {\n"
+				+ "	int x = 3;\n"
+				+ "	if (x < 2) return h();\n"
+				+ "	return x * 4;\n"
+				+ "}\n", true);
+		assertEquals(0, count(asm, "^\\s*(b\\w+|j|jal)\\s"));
+		assertEquals(1, count(asm, "^\\s*addi\\s+\\w+\\s+zero\\s+12\\s*$"));
+	}
+
+	@Test
+	public void testOptimizerSharesCommonSubexpressions() {
+		final String asm = compile("int g(int a, int b) { int t = a * 7; return (a + b) * (a + b); }", true);
+		assertEquals(1, count(asm, "^\\s*mul\\s"));
+		assertEquals(1, count(asm, "^\\s*add\\s+\\w+\\s+\\w+\\s+(?!zero)\\w+\\s*$"));
+	}
+
+	@Test
+	public void testOptimizerKeepsLoopVariableInOneRegister() {
+		final String asm = compile(""
+				+ "int count(int n) {\n"
+				+ "	int x = 0;\n"
+				+ "	while (x != n) x = x + 1;\n"
+				+ "	return x;\n"
+				+ "}\n", true);
+		final Matcher loop = Pattern.compile("^(\\.L\\d+):\\n\\s*addi\\s+(\\w+)\\s+\\2\\s+1\\n\\s*bne\\s+\\2\\s+\\w+\\s+\\1$",
+				Pattern.MULTILINE).matcher(asm);
+		assertTrue(loop.find());
+	}
+
+	@Test
+	public void testOptimizerFoldsAlgebraicIdentities() {
+		final String asm = compile("int f(int x, int y) { return (x - x) + y * 1 + 0 * x + 2 * 8; }", true);
+		assertEquals(0, count(asm, "^\\s*(sub|mul)\\s"));
+		assertEquals(1, count(asm, "^\\s*addi\\s+\\w+\\s+\\w+\\s+16\\s*$"));
+	}
+
+	@Test
+	public void testFoldingWrapsAround() {
+		assertEquals("Block[Return[Const_-2147483648]]", fold("int f() { return 2147483647 + 1; }"));
+	}
+
+	@Test
+	public void testFoldingMultiplicationWrapsAround() {
+		assertEquals("Block[Return[Const_0]]", fold("int f() { return 65536 * 65536 - (0 - 2147483647 - 1) * 2; }"));
+	}
+
+	@Test
+	public void testFoldingCharConstants() {
+		assertEquals("Block[Return[Const_129]]", fold("int f() { return 'a' * 2 - 'A'; }"));
+	}
+
+	@Test
+	public void testFoldingRemovesConstantBranches() {
+		final String body = fold(""
+				+ "int f(int x) {\n"
+				+ "	if (0) x = 1;\n"
+				+ "	if (1) x = 2; else x = 3;\n"
+				+ "	if (2 < 1) x = 4; else x = x + 5;\n"
+				+ "	while (0) x = 6;\n"
+				+ "	return x;\n"
+				+ "}\n");
+		assertFalse(body, body.contains("If"));
+		assertFalse(body, body.contains("While"));
+		for (final int removed : new int[] { 1, 3, 4, 6 })
+			assertFalse(body, body.contains("Const_" + removed + "]"));
+		assertTrue(body, body.contains("Const_2]"));
+		assertTrue(body, body.contains("Const_5]"));
+	}
+
+	@Test
+	public void testFoldingKeepsLoopsThatRun() {
+		final String body = fold("int f(int x) { while (1) x = x + 1; return x; }");
+		assertTrue(body, body.contains("While"));
+	}
+
+	@Test
+	public void testFoldingKeepsCallsMultipliedByZero() {
+		final String code = "int g(); int f() { return g() * 0 + 0 * g(); }";
+		final String body = fold(code);
+		assertEquals(2, count(body, "Call"));
+		setUp();
+		assertEquals(2, count(compile(code, true), "^\\s*jal\\s+g\\s*$"));
+	}
+
+	@Test
+	public void testFoldingKeepsDivisionByZero() {
+		final String code = "int f() { return 7 / 0; }";
+		final String body = fold(code);
+		assertTrue(body, body.contains("Binary_/"));
+		setUp();
+		assertEquals(1, count(compile(code, true), "^\\s*div\\s"));
+	}
+
+	@Test
+	public void testOptimizerReducesIndexingInLoops() {
+		final String asm = compile(""
+				+ "int sum(int *a, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + *(a + i);\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n", true);
+		assertEquals(0, count(asm, "^\\s*(slli|mul)\\s"));
+		assertEquals(1, count(asm, "^\\s*addi\\s+(\\w+)\\s+\\1\\s+4\\s*$"));
+	}
+
+	@Test
+	public void testOptimizerHoistsLoopInvariants() {
+		final String asm = compile(""
+				+ "void fill(int *a, int n, int k) {\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		*(a + i) = i * 12 + k * 3;\n"
+				+ "		i++;\n"
+				+ "	}\n"
+				+ "}\n", true);
+		final Matcher label = Pattern.compile("^\\.L\\d+:", Pattern.MULTILINE).matcher(asm);
+		assertTrue(label.find());
+		assertEquals(1, count(asm, "^\\s*mul\\s"));
+		assertTrue(asm.indexOf("mul") < label.start());
+	}
+
+	@Test
+	public void testOptimizerInlinesSmallFunctions() {
+		final String asm = compile("int sq(int x) { return x * x; } int f(int y) { return sq(y + 1); }", true);
+		assertEquals(1, compiler.getInlinedCallSites());
+		assertEquals(0, count(asm, "^\\s*jal\\s"));
+		assertEquals(2, count(asm, "^\\s*mul\\s"));
+	}
+
+	@Test
+	public void testOptimizerDoesNotInlineRecursion() {
+		final String asm = compile(""
+				+ "int odd(int n);\n"
+				+ "int even(int n) { if (n == 0) return 1; return odd(n - 1); }\n"
+				+ "int odd(int n) { if (n == 0) return 0; return even(n - 1); }\n", true);
+		assertEquals(0, compiler.getInlinedCallSites());
+		assertEquals(2, count(asm, "^\\s*jal\\s"));
+	}
+
+	@Test
+	public void testOptimizerRemovesMoves() {
+		final String asm = compile("int f(int a, int b) { return a * b + 3; }", true);
+		assertEquals(0, count(asm, "^\\s*add\\s+\\w+\\s+\\w+\\s+zero\\s*$"));
+		assertEquals(3, count(asm, "^\\s+[a-z]+\\s"));
+	}
+
+	// ------------ Running the code ------------
+
+	@Test
+	public void testSimulatorChecksCallingConvention() {
+		final RiscVSimulator sim = new RiscVSimulator(""
+				+ "	.text\n"
+				+ "good:\n"
+				+ "	addi    sp sp -16\n"
+				+ "	sw      s0 0(sp)\n"
+				+ "	addi    s0 zero 7\n"
+				+ "	lw      s0 0(sp)\n"
+				+ "	addi    sp sp 16\n"
+				+ "	addi    a0 zero 7\n"
+				+ "	jr      ra\n"
+				+ "bad:\n"
+				+ "	addi    s0 zero 7\n"
+				+ "	jr      ra\n"
+				+ "caller:\n"
+				+ "	addi    t3 zero 1\n"
+				+ "	jal     print_char\n"
+				+ "	add     a0 t3 zero\n"
+				+ "	jr      ra\n");
+		assertEquals(7, sim.call("good"));
+		assertThrows(IllegalStateException.class, () -> sim.call("bad"));
+		// t3 does not survive the call, and ra was not saved either
+		assertThrows(IllegalStateException.class, () -> sim.call("caller", 'x'));
+		assertEquals("x", sim.getOutput());
+	}
+
+	@Test
+	public void testInlinedCallsComputeSameResults() {
+		final RiscVSimulator[] sims = simulate(""
+				+ "int sq(int x) { return x * x; }\n"
+				+ "int clamp(int x, int lo) { if (x < lo) x = lo; return x; }\n"
+				+ "int f(int y) { return sq(y + 1) - sq(y) + clamp(y, 3) * clamp(-y, -5); }\n");
+		assertTrue(compiler.getInlinedCallSites() >= 2);
+		for (final int y : new int[] { 0, 1, 4, -7, 46341, Integer.MIN_VALUE }) {
+			final int expected = (y + 1) * (y + 1) - y * y + Math.max(y, 3) * Math.max(-y, -5);
+			for (final RiscVSimulator sim : sims)
+				assertEquals(expected, sim.call("f", y));
+		}
+	}
+
+	@Test
+	public void testReducedIndexingComputesSameResults() {
+		final RiscVSimulator[] sims = simulate(""
+				+ "void *malloc(int n);\n"
+				+ "int sum(int *a, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		s = s + *(a + i);\n"
+				+ "		i = i + 1;\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n"
+				+ "int backwards(char *c, int n) {\n"
+				+ "	int s = 0;\n"
+				+ "	while (n > 0) {\n"
+				+ "		n = n - 1;\n"
+				+ "		s = s * 3 + *(c + n);\n"
+				+ "	}\n"
+				+ "	return s;\n"
+				+ "}\n"
+				+ "int run(int n, int k) {\n"
+				+ "	int *a = malloc(4 * n);\n"
+				+ "	char *c = malloc(n);\n"
+				+ "	int i = 0;\n"
+				+ "	while (i < n) {\n"
+				+ "		*(a + i) = i * 12 + k * 3;\n"
+				+ "		*(c + i) = i * 37;\n"
+				+ "		i++;\n"
+				+ "	}\n"
+				+ "	return sum(a, n) + backwards(c, n);\n"
+				+ "}\n");
+		for (final int n : new int[] { 0, 1, 7, 100 }) {
+			int s = 0;
+			for (int i = 0; i != n; ++i)
+				s += i * 12 + 5 * 3;
+			int t = 0;
+			for (int i = n - 1; i >= 0; --i)
+				t = t * 3 + (byte) (i * 37);
+			assertEquals(s + t, sims[0].call("run", n, 5));
+			assertEquals(s + t, sims[1].call("run", n, 5));
+		}
+		assertTrue(sims[1].getSteps() < sims[0].getSteps());
+	}
+
+	@Test
+	public void testForwardedStoresComputeSameResults() {
+		final RiscVSimulator[] sims = simulate(""
+				+ "void inc(int *p) { *p = *p + 1; }\n"
+				+ "int f(int x) {\n"
+				+ "	int y = x;\n"
+				+ "	int *p = &y;\n"
+				+ "	*p = *p * 3;\n"
+				+ "	inc(p);\n"
+				+ "	return y + *p;\n"
+				+ "}\n"
+				+ "int alias(int x) {\n"
+				+ "	int a = x;\n"
+				+ "	int *p = &a;\n"
+				+ "	int b = a;\n"
+				+ "	*p = b + 1;\n"
+				+ "	int c = a;\n"
+				+ "	a = c * 2;\n"
+				+ "	return a + b + *p;\n"
+				+ "}\n");
+		for (final int x : new int[] { 0, 5, -9, Integer.MAX_VALUE }) {
+			for (final RiscVSimulator sim : sims) {
+				assertEquals(2 * (3 * x + 1), sim.call("f", x));
+				assertEquals(4 * (x + 1) + x, sim.call("alias", x));
+			}
+		}
+	}
+
+	@Test
+	public void testSpilledValuesComputeSameResults() {
+		// More values are live across the call than there are registers
+		final int values = 40;
+		final StringBuilder code = new StringBuilder("int id(int x) { return x; }\nint f(int x) {\n");
+		for (int i = 0; i != values; ++i)
+			code.append("	int v").append(i).append(" = x * ").append(i + 2).append(" - ").append(i).append(";\n");
+		code.append("	int y = id(x);\n	return y");
+		for (int i = 0; i != values; ++i)
+			code.append(" + v").append(i).append(" * ").append(values - i);
+		code.append(";\n}\n");
+		final RiscVSimulator[] sims = simulate(code.toString());
+		for (final int x : new int[] { 0, 3, -100, 1 << 30 }) {
+			int expected = x;
+			for (int i = 0; i != values; ++i)
+				expected += (x * (i + 2) - i) * (values - i);
+			for (final RiscVSimulator sim : sims)
+				assertEquals(expected, sim.call("f", x));
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.microsoft.z3.Global;
+
+import tinycc.diagnostic.PrintDiagnostic;
+import tinycc.driver.TinyC;
+import tinycc.logic.solver.z3.Z3Session;
+
+public class CompileCacheTests {
+
+	private static final String GOOD = "int f(int x) { return x * 3 + 1; }\n";
+	private static final String BAD = "int f(int x) { return y; }\n";
+	private static final String ASSERT = "int f(int x) { _Assume(x > 0); _Assert(x * x > 0); return x; }\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final class Run {
+		int exitCode;
+		String out;
+		/** The diagnostics without the time report */
+		String messages;
+		/** True if the only file was replayed from the cache */
+		boolean hit;
+	}
+
+	private void source(final String name, final String code) throws IOException {
+		Files.write(new File(folder.getRoot(), name).toPath(), code.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Run compile(final String... args) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final PrintDiagnostic diagnostic = new PrintDiagnostic(new PrintStream(err, true));
+		final List<String> all = new ArrayList<>(Arrays.asList("-cache=cache", "-time-report"));
+		all.addAll(Arrays.asList(args));
+		TinyC.run(diagnostic, new PrintStream(out, true), folder.getRoot(), all.toArray(new String[0]));
+		final Run run = new Run();
+		run.exitCode = diagnostic.printSummary();
+		run.out = out.toString();
+		// The time report comes after the messages of the files
+		final String messages = err.toString();
+		run.messages = messages.substring(0, messages.indexOf("note: time report"));
+		run.hit = messages.contains("\n  cache ");
+		return run;
+	}
+
+	private File[] entries() {
+		final File[] entries = new File(folder.getRoot(), "cache").listFiles((dir, name) -> name.endsWith(".entry"));
+		return entries != null ? entries : new File[0];
+	}
+
+	@Test
+	public void testHitReplaysMessagesAndExitCode() throws IOException {
+		source("bad.c", BAD);
+		source("good.c", GOOD);
+		final Run miss = compile("-c", "bad.c");
+		assertFalse(miss.hit);
+		assertEquals(1, miss.exitCode);
+		assertTrue(miss.messages.contains("bad.c:1:23: error:"));
+		final Run hit = compile("-c", "bad.c");
+		assertTrue(hit.hit);
+		assertEquals(1, hit.exitCode);
+		assertEquals(miss.messages, hit.messages);
+
+		final Run good = compile("-c", "-o", "-", "good.c");
+		final Run goodHit = compile("-c", "-o", "-", "good.c");
+		assertTrue(goodHit.hit);
+		assertEquals(0, goodHit.exitCode);
+		assertEquals(good.out, goodHit.out);
+		assertTrue(goodHit.out.contains("f:"));
+		assertEquals(2, entries().length);
+	}
+
+	@Test
+	public void testKeyDependsOnFlagsAndName() throws IOException {
+		source("good.c", GOOD);
+		source("same.c", GOOD);
+		final String[][] variants = { { "-c", "good.c" }, { "-O", "-c", "good.c" },
+				{ "-O", "-inline-threshold=5", "-c", "good.c" }, { "-v", "-c", "good.c" }, { "-c", "same.c" } };
+		for (int i = 0; i != variants.length; ++i) {
+			assertFalse(Arrays.toString(variants[i]), compile(variants[i]).hit);
+			assertEquals(i + 1, entries().length);
+		}
+		for (final String[] variant : variants)
+			assertTrue(Arrays.toString(variant), compile(variant).hit);
+
+		// A changed source is a new key too
+		source("good.c", GOOD.replace('3', '4'));
+		assertFalse(compile("-c", "good.c").hit);
+	}
+
+	@Test
+	public void testUndecidedVerificationIsNotStored() throws IOException {
+		source("hard.c", "int f(int x, int y, int z) {\n"
+				+ "	_Assert(x * x * x + y * y * y + z * z * z != 42);\n"
+				+ "	return x;\n"
+				+ "}\n");
+		source("easy.c", ASSERT);
+		// Sessions made from now on give up after a few milliseconds
+		Z3Session.closeIdle();
+		Global.setParameter("timeout", "50");
+		try {
+			final Run undecided = compile("-v", "hard.c");
+			assertTrue(undecided.out.contains("could not be decided"));
+			assertEquals(0, entries().length);
+			assertFalse(compile("-v", "hard.c").hit);
+
+			final Run decided = compile("-v", "easy.c");
+			assertTrue(decided.out.contains("Verification successful"));
+			assertEquals(1, entries().length);
+		} finally {
+			Z3Session.closeIdle();
+			Global.resetParameters();
+		}
+		assertTrue(compile("-v", "easy.c").hit);
+	}
+
+	@Test
+	public void testEvictionKeepsSizeBound() throws IOException {
+		// Each file compiles to a few hundred KB of assembly
+		final StringBuilder code = new StringBuilder("int f(int x) {\n");
+		for (int i = 0; i != 4000; ++i)
+			code.append("	x = x * 3 + ").append(i).append(";\n");
+		code.append("	return x;\n}\n");
+		final int files = 6;
+		for (int i = 0; i != files; ++i)
+			source("big" + i + ".c", code.toString().replace("f(", "f" + i + "("));
+
+		long largest = 0;
+		for (int i = 0; i != files; ++i) {
+			assertEquals(0, compile("-cache-size=1", "-c", "big" + i + ".c").exitCode);
+			long total = 0;
+			for (final File entry : entries()) {
+				total += entry.length();
+				largest = Math.max(largest, entry.length());
+			}
+			assertTrue(total <= 1 << 20);
+		}
+		assertTrue(largest > 200 << 10);
+		// The least recently used ones went first
+		assertTrue(entries().length < files);
+		assertTrue(compile("-cache-size=1", "-c", "big" + (files - 1) + ".c").hit);
+		assertFalse(compile("-cache-size=1", "-c", "big0.c").hit);
+	}
+
+	@Test
+	public void testZeroSizeKeepsNothing() throws IOException {
+		source("good.c", GOOD);
+		assertEquals(0, compile("-cache-size=0", "-c", "good.c").exitCode);
+		assertEquals(0, entries().length);
+		assertFalse(compile("-cache-size=0", "-c", "good.c").hit);
+	}
+
+	@Test
+	public void testEvictedEntryIsMiss() throws IOException {
+		source("good.c", GOOD);
+		final Run first = compile("-c", "-o", "-", "good.c");
+		// Another process evicts the entry, then one leaves a truncated file
+		for (final File entry : entries())
+			assertTrue(entry.delete());
+		final Run evicted = compile("-c", "-o", "-", "good.c");
+		assertFalse(evicted.hit);
+		assertEquals(first.out, evicted.out);
+		for (final File entry : entries())
+			Files.write(entry.toPath(), new byte[] { 'T', 'C' });
+		final Run truncated = compile("-c", "-o", "-", "good.c");
+		assertFalse(truncated.hit);
+		assertEquals(first.out, truncated.out);
+		assertTrue(compile("-c", "-o", "-", "good.c").hit);
+	}
+
+	@Test
+	public void testConcurrentCompilations() throws Exception {
+		final int files = 16;
+		for (int i = 0; i != files; ++i)
+			source("f" + i + ".c", i % 4 == 3 ? BAD : GOOD.replace("3", Integer.toString(i)));
+		final List<Run> expected = new ArrayList<>();
+		for (int i = 0; i != files; ++i)
+			expected.add(compile("-cache=other", "-c", "-o", "-", "f" + i + ".c"));
+
+		final ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Run>> runs = new ArrayList<>();
+			for (int round = 0; round != 4; ++round) {
+				for (int i = 0; i != files; ++i) {
+					final String name = "f" + i + ".c";
+					runs.add(pool.submit(() -> compile("-cache-size=1", "-c", "-o", "-", name)));
+				}
+			}
+			for (int i = 0; i != runs.size(); ++i) {
+				final Run run = runs.get(i).get();
+				final Run reference = expected.get(i % files);
+				assertEquals(reference.exitCode, run.exitCode);
+				assertEquals(reference.out, run.out);
+				assertEquals(reference.messages, run.messages);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(files, entries().length);
+	}
+
+	@Test
+	public void testRejectsHugeCacheSize() {
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final PrintDiagnostic diagnostic = new PrintDiagnostic(new PrintStream(err, true));
+		// 2^44 MB is 2^64 bytes, which a long cannot count
+		TinyC.run(diagnostic, new PrintStream(new ByteArrayOutputStream()), folder.getRoot(),
+				new String[] { "-cache=cache", "-cache-size=17592186044416", "missing.c" });
+		assertEquals(1, diagnostic.getErrorCount());
+		assertEquals("error: invalid cache size '17592186044416'\n", err.toString());
+		assertArrayEquals(new File[0], entries());
+	}
+}
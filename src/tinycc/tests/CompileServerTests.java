@@ -0,0 +1,276 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import tinycc.driver.CompileClient;
+import tinycc.driver.CompileServer;
+
+public class CompileServerTests {
+
+	private static final String GOOD = "int f(int x) { return x * 3; }\n";
+	private static final String BAD = "int f(int x) { return y; }\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File home;
+	private Path tokens;
+	private CompileServer server;
+	private Thread serving;
+
+	@Before
+	public void startServer() throws IOException {
+		home = folder.newFolder("home");
+		tokens = home.toPath().resolve(".tinycc");
+		server = CompileServer.open(0, tokens);
+		serving = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (final IOException e) {
+				// Reported by the tests that use the server
+			}
+		});
+		serving.start();
+	}
+
+	@After
+	public void stopServer() throws IOException, InterruptedException {
+		server.close();
+		serving.join();
+	}
+
+	private File source(final String name, final String code) throws IOException {
+		final File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), code.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static final class Result {
+		int exitCode;
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+	}
+
+	private Result forward(final String... args) throws IOException {
+		final Result result = new Result();
+		result.exitCode = CompileClient.forward(tokens, server.getPort(), folder.getRoot(), args,
+				new PrintStream(result.out), new PrintStream(result.err));
+		return result;
+	}
+
+	private static Result run(final Path tokens, final int port, final String... args) {
+		final Result result = new Result();
+		final PrintStream out = new PrintStream(result.out);
+		final PrintStream err = new PrintStream(result.err);
+		result.exitCode = CompileClient.run(tokens, port, args, out, err);
+		err.flush();
+		return result;
+	}
+
+	@Test
+	public void testCompilesLikeInProcess() throws IOException {
+		final File good = source("good.c", GOOD);
+		final File bad = source("bad.c", BAD);
+		final Result served = forward("-c", "good.c", "bad.c");
+		final byte[] asm = Files.readAllBytes(new File(folder.getRoot(), "good.s").toPath());
+
+		// No server on that port, so the client compiles in this process
+		final File local = new File(folder.getRoot(), "local.s");
+		final Result inProcess = run(folder.newFolder().toPath(), freePort(), "-c", "-o", local.getPath(),
+				good.getPath());
+		assertEquals(0, inProcess.exitCode);
+		assertArrayEquals(Files.readAllBytes(local.toPath()), asm);
+
+		assertEquals(1, served.exitCode);
+		final Result badInProcess = run(folder.newFolder().toPath(), freePort(), "-c", bad.getPath());
+		assertEquals(1, badInProcess.exitCode);
+		assertEquals(badInProcess.err.toString().replace(bad.getPath(), "bad.c"), served.err.toString());
+	}
+
+	@Test
+	public void testRejectsWrongToken() throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			final byte[] token = new byte[64];
+			Arrays.fill(token, (byte) '0');
+			out.writeInt(token.length);
+			out.write(token);
+			out.flush();
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testRejectsStaleTokenFile() throws IOException {
+		source("good.c", GOOD);
+		Files.write(CompileServer.getTokenFile(tokens, server.getPort()), "stale".getBytes(StandardCharsets.US_ASCII));
+		assertThrows(EOFException.class, () -> forward("-c", "good.c"));
+		assertFalse(new File(folder.getRoot(), "good.s").exists());
+		final Result result = run(tokens, server.getPort(), "-c", "good.c");
+		assertEquals(1, result.exitCode);
+		assertTrue(result.err.toString().contains("rejected"));
+	}
+
+	@Test
+	public void testRejectsTooManyArguments() throws IOException {
+		final byte[] token = Files.readAllBytes(CompileServer.getTokenFile(tokens, server.getPort()));
+		final byte[] directory = folder.getRoot().getPath().getBytes(StandardCharsets.UTF_8);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(token.length);
+			out.write(token);
+			out.writeInt(directory.length);
+			out.write(directory);
+			out.writeInt(CompileServer.MAX_ARGUMENTS + 1);
+			out.flush();
+			// Dropped before any argument is read
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testRejectsTooLongArgument() throws IOException {
+		final byte[] token = Files.readAllBytes(CompileServer.getTokenFile(tokens, server.getPort()));
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(token.length);
+			out.write(token);
+			out.writeInt(CompileServer.MAX_STRING + 1);
+			out.flush();
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testRefusesStandardInput() throws IOException {
+		final Result result = forward("-c", "-");
+		assertEquals(1, result.exitCode);
+		assertTrue(result.err.toString().contains("cannot read from standard input"));
+	}
+
+	@Test
+	public void testFallsBackWithoutServer() throws IOException {
+		final File good = source("good.c", GOOD);
+		final File asm = new File(folder.getRoot(), "good.s");
+		// No token file
+		final Result noToken = run(folder.newFolder().toPath(), server.getPort(), "-c", "-o", asm.getPath(),
+				good.getPath());
+		assertEquals(0, noToken.exitCode);
+		assertTrue(asm.delete());
+
+		// A token file left behind by a server that is gone
+		final int port = freePort();
+		Files.write(CompileServer.getTokenFile(tokens, port), "gone".getBytes(StandardCharsets.US_ASCII));
+		final Result stale = run(tokens, port, "-c", "-o", asm.getPath(), good.getPath());
+		assertEquals(0, stale.exitCode);
+		assertTrue(asm.exists());
+	}
+
+	// ------------ Native client ------------
+
+	private File buildNativeClient() throws IOException, InterruptedException {
+		final File client = new File(folder.getRoot(), "tinycc-client");
+		final Process cc;
+		try {
+			cc = new ProcessBuilder("cc", "-O2", "-o", client.getPath(), "scripts/tinycc-client.c")
+					.redirectErrorStream(true).start();
+		} catch (final IOException e) {
+			assumeTrue("no C compiler", false);
+			return null;
+		}
+		final String messages = readAll(cc.getInputStream());
+		assertEquals(messages, 0, cc.waitFor());
+		return client;
+	}
+
+	private static String readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			bytes.write(buffer, 0, n);
+		return bytes.toString("UTF-8");
+	}
+
+	private Result runNative(final File client, final int port, final String... args)
+			throws IOException, InterruptedException {
+		final List<String> command = new ArrayList<>();
+		command.add(client.getPath());
+		command.addAll(Arrays.asList(args));
+		final ProcessBuilder builder = new ProcessBuilder(command).directory(folder.getRoot());
+		builder.environment().put("HOME", home.getPath());
+		builder.environment().put("TINYCC_PORT", Integer.toString(port));
+		builder.environment().put("TINYCC_FALLBACK", "/bin/echo");
+		final File err = folder.newFile();
+		builder.redirectError(err);
+		final Process process = builder.start();
+		process.getOutputStream().close();
+		final Result result = new Result();
+		result.out.write(readAll(process.getInputStream()).getBytes(StandardCharsets.UTF_8));
+		result.exitCode = process.waitFor();
+		result.err.write(Files.readAllBytes(err.toPath()));
+		return result;
+	}
+
+	@Test
+	public void testNativeClient() throws IOException, InterruptedException {
+		final File client = buildNativeClient();
+		source("good.c", GOOD);
+		source("bad.c", BAD);
+		final Result expected = forward("-c", "-o", "-", "good.c");
+		final Result actual = runNative(client, server.getPort(), "-c", "-o", "-", "good.c");
+		assertEquals(0, actual.exitCode);
+		assertEquals(expected.out.toString(), actual.out.toString());
+
+		final Result expectedBad = forward("-c", "bad.c");
+		final Result actualBad = runNative(client, server.getPort(), "-c", "bad.c");
+		assertEquals(1, actualBad.exitCode);
+		assertEquals(expectedBad.err.toString(), actualBad.err.toString());
+	}
+
+	@Test
+	public void testNativeClientFallsBack() throws IOException, InterruptedException {
+		final File client = buildNativeClient();
+		// Standard input, no server on the port, and a rejected token
+		assertEquals("-c -\n", runNative(client, server.getPort(), "-c", "-").out.toString());
+		assertEquals("-c good.c\n", runNative(client, freePort(), "-c", "good.c").out.toString());
+		Files.write(CompileServer.getTokenFile(tokens, server.getPort()), "stale".getBytes(StandardCharsets.US_ASCII));
+		final Result rejected = runNative(client, server.getPort(), "-c", "good.c");
+		assertEquals(1, rejected.exitCode);
+		assertTrue(rejected.err.toString().contains("rejected"));
+	}
+}
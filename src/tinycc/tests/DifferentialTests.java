@@ -0,0 +1,248 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import prog2.tests.CompilerTests;
+import tinycc.asmgen.AsmGen;
+
+/**
+ * Compiles random programs with and without optimizations, runs them in
+ * RiscVSimulator and compares the results with the host C compiler. The
+ * programs are generated from fixed seeds and avoid undefined behavior, the C
+ * compiler is told that int overflow wraps around and that char is signed.
+ */
+public class DifferentialTests extends CompilerTests {
+
+	private static final int PROGRAMS = 40;
+	private static final int[][] INPUTS = { { 0, 0, 0 }, { 1, 2, 3 }, { -5, 7, 100 }, { 123456, -98765, 42 },
+			{ Integer.MAX_VALUE, Integer.MIN_VALUE, -1 }, { 255, 128, -129 } };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Generates a program with a function f(a, b, c) that uses a helper, loops,
+	 * branches, char variables and address-taken locals.
+	 */
+	private static final class Generator {
+		private final Random random;
+		private final StringBuilder code = new StringBuilder();
+		private final List<String> ints = new ArrayList<>();
+		private final List<String> chars = new ArrayList<>();
+		private int names;
+		private int loops;
+
+		Generator(final long seed) {
+			random = new Random(seed);
+		}
+
+		String generate() {
+			code.append("int h(int x, int y) {\n");
+			code.append("	if (x < y) return x * 3 - y;\n");
+			code.append("	return y - x / 7;\n");
+			code.append("}\n");
+			code.append("int f(int a, int b, int c) {\n");
+			ints.add("a");
+			ints.add("b");
+			ints.add("c");
+			for (int i = 0, n = 3 + random.nextInt(6); i != n; ++i)
+				declare("	");
+			block("	", 0, 6 + random.nextInt(6));
+			code.append("	return ").append(expression(3)).append(";\n}\n");
+			return code.toString();
+		}
+
+		private void declare(final String indent) {
+			final String name = "v" + names++;
+			if (random.nextInt(4) == 0) {
+				code.append(indent).append("char ").append(name).append(" = ").append(expression(2)).append(";\n");
+				chars.add(name);
+			} else {
+				code.append(indent).append("int ").append(name).append(" = ").append(expression(2)).append(";\n");
+				ints.add(name);
+			}
+		}
+
+		private void block(final String indent, final int depth, final int statements) {
+			for (int i = 0; i != statements; ++i) {
+				final int choice = random.nextInt(depth < 2 ? 10 : 6);
+				if (choice < 5) {
+					code.append(indent).append(variable()).append(" = ").append(expression(3)).append(";\n");
+				} else if (choice == 5) {
+					// Through a pointer, so the variable lives in memory
+					final String name = ints.get(random.nextInt(ints.size()));
+					final String pointer = "p" + names++;
+					code.append(indent).append("int *").append(pointer).append(" = &").append(name).append(";\n");
+					code.append(indent).append("*").append(pointer).append(" = *").append(pointer).append(" + ")
+							.append(expression(2)).append(";\n");
+				} else if (choice < 8) {
+					code.append(indent).append("if (").append(condition()).append(") {\n");
+					block(indent + "	", depth + 1, 1 + random.nextInt(3));
+					code.append(indent).append("} else {\n");
+					block(indent + "	", depth + 1, 1 + random.nextInt(3));
+					code.append(indent).append("}\n");
+				} else {
+					final String counter = "i" + loops++;
+					code.append(indent).append("int ").append(counter).append(" = 0;\n");
+					code.append(indent).append("while (").append(counter).append(" < ").append(1 + random.nextInt(6))
+							.append(") {\n");
+					block(indent + "	", depth + 1, 1 + random.nextInt(3));
+					code.append(indent).append("	").append(counter).append(" = ").append(counter).append(" + 1;\n");
+					code.append(indent).append("}\n");
+				}
+			}
+		}
+
+		private String variable() {
+			if (!chars.isEmpty() && random.nextInt(4) == 0)
+				return chars.get(random.nextInt(chars.size()));
+			return ints.get(random.nextInt(ints.size()));
+		}
+
+		private String condition() {
+			switch (random.nextInt(3)) {
+			case 0:
+				return "!(" + expression(2) + ")";
+			case 1:
+				return expression(2);
+			default:
+				return comparison();
+			}
+		}
+
+		private String comparison() {
+			final String[] operators = { "<", "<=", ">", ">=", "==", "!=" };
+			return expression(2) + " " + operators[random.nextInt(operators.length)] + " " + expression(2);
+		}
+
+		private String expression(final int depth) {
+			if (depth == 0 || random.nextInt(4) == 0) {
+				switch (random.nextInt(5)) {
+				case 0:
+					return Integer.toString(random.nextInt(20));
+				case 1:
+					// Negative literals would be the negation of a positive one
+					return Integer.toString(random.nextInt(Integer.MAX_VALUE));
+				default:
+					return variable();
+				}
+			}
+			switch (random.nextInt(9)) {
+			case 0:
+				return (random.nextBoolean() ? "-(" : "~(") + expression(depth - 1) + ")";
+			case 1:
+				return "h(" + expression(depth - 1) + ", " + expression(depth - 1) + ")";
+			case 2:
+				// The divisor is never 0 or -1
+				final int divisor = random.nextBoolean() ? 1 + random.nextInt(9) : -2 - random.nextInt(9);
+				return "(" + expression(depth - 1) + ") / " + divisor;
+			case 3:
+				return "(" + comparison() + ")";
+			default:
+				final String[] operators = { "+", "-", "*" };
+				return "(" + expression(depth - 1) + ") " + operators[random.nextInt(operators.length)] + " ("
+						+ expression(depth - 1) + ")";
+			}
+		}
+	}
+
+	private String compile(final String code, final boolean optimize) {
+		setUp();
+		checkCode(code);
+		if (optimize)
+			compiler.performOptimizations();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final PrintStream out = new PrintStream(bytes);
+		compiler.generateCode(new AsmGen(out));
+		out.flush();
+		return bytes.toString();
+	}
+
+	private static String readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			bytes.write(buffer, 0, n);
+		return bytes.toString("UTF-8");
+	}
+
+	private static String run(final String... command) throws IOException, InterruptedException {
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		process.getOutputStream().close();
+		final String output = readAll(process.getInputStream());
+		assertEquals(output, 0, process.waitFor());
+		return output;
+	}
+
+	/**
+	 * Compiles all programs into one binary with the host C compiler, which is
+	 * much faster than one binary each, and returns what f prints for the inputs,
+	 * one output per program.
+	 */
+	private String[] runNative(final String[] programs) throws IOException, InterruptedException {
+		final StringBuilder code = new StringBuilder("#include <stdio.h>\n");
+		for (int i = 0; i != programs.length; ++i)
+			code.append(programs[i].replace("h(", "h" + i + "(").replace("int f(", "int f" + i + "("));
+		code.append("int main(void) {\n");
+		for (int i = 0; i != programs.length; ++i) {
+			for (final int[] input : INPUTS)
+				code.append(String.format("	printf(\"%%d\\n\", f%d(%d, %d, %d));\n", i, input[0], input[1], input[2])
+						.replace(Integer.toString(Integer.MIN_VALUE), "-2147483647 - 1"));
+			code.append("	printf(\"-\\n\");\n");
+		}
+		code.append("	return 0;\n}\n");
+		final File source = folder.newFile("programs.c");
+		final File binary = new File(folder.getRoot(), "programs");
+		Files.write(source.toPath(), code.toString().getBytes(StandardCharsets.UTF_8));
+		run("cc", "-O1", "-fwrapv", "-fsigned-char", "-w", "-o", binary.getPath(), source.getPath());
+		return run(binary.getPath()).split("-\n", -1);
+	}
+
+	private static String runSimulated(final String asm) {
+		final RiscVSimulator sim = new RiscVSimulator(asm);
+		final StringBuilder out = new StringBuilder();
+		for (final int[] input : INPUTS)
+			out.append(sim.call("f", input)).append('\n');
+		return out.toString();
+	}
+
+	private static boolean hasCompiler() {
+		try {
+			return new ProcessBuilder("cc", "--version").redirectErrorStream(true).start().waitFor() == 0;
+		} catch (final IOException | InterruptedException e) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testRandomProgramsMatchC() throws IOException, InterruptedException {
+		assumeTrue("no C compiler", hasCompiler());
+		final String[] programs = new String[PROGRAMS];
+		for (int seed = 0; seed != PROGRAMS; ++seed)
+			programs[seed] = new Generator(seed).generate();
+		final String[] outputs = runNative(programs);
+		for (int seed = 0; seed != PROGRAMS; ++seed) {
+			final String code = programs[seed];
+			final String expected = outputs[seed];
+			assertEquals("seed " + seed + "\n" + code, expected, runSimulated(compile(code, false)));
+			assertEquals("seed " + seed + " with -O\n" + code, expected, runSimulated(compile(code, true)));
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.fail;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import prog2.tests.CompilerTests;
+import prog2.tests.FatalCompilerError;
+import tinycc.parser.Lexer;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+public class LexerTests extends CompilerTests {
+
+	/**
+	 * A reader which hands out a single character per call.
+	 */
+	private static class TrickleReader extends Reader {
+		private final String text;
+		private int pos = 0;
+
+		TrickleReader(final String text) {
+			this.text = text;
+		}
+
+		@Override
+		public int read(final char[] buf, final int off, final int len) {
+			if (pos == text.length())
+				return -1;
+			buf[off] = text.charAt(pos++);
+			return 1;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static String manyGlobals(final int n) {
+		final StringBuilder b = new StringBuilder();
+		for (int i = 0; i != n; ++i) {
+			b.append("int v").append(i).append(";\n");
+		}
+		return b.toString();
+	}
+
+	private void checkLexer(final Lexer lexer, final int line, final int column) {
+		try {
+			compiler.parseTranslationUnit(lexer);
+			compiler.checkSemantics();
+			fail("Semantics check didn't produce any errors");
+		} catch (final FatalCompilerError e) {
+			checkLocation(e, INPUT_NAME, line, column);
+		}
+	}
+
+	@Test
+	public void testCharArrayInput() {
+		final char[] code = "int f(int x) { return x + 1; } garbage".toCharArray();
+		// Only the first 30 characters belong to the input.
+		compiler.parseTranslationUnit(new Lexer(diagnostic, code, 30, INPUT_NAME));
+		compiler.checkSemantics();
+	}
+
+	@Test
+	public void testCharArrayInputNegative() {
+		final char[] code = "int f() {\n\treturn 1 + y;\n}\n".toCharArray();
+		checkLexer(new Lexer(diagnostic, code, code.length, INPUT_NAME), 2, 13);
+	}
+
+	@Test
+	public void testInputLargerThanWindow() {
+		final String code = manyGlobals(10000) + "int f() { return y; }\n";
+		checkLexer(new Lexer(diagnostic, new StringReader(code), INPUT_NAME), 10001, 18);
+	}
+
+	@Test
+	public void testShortReads() {
+		final String code = "/* comment */ int f() {\r\n\treturn 'a' + zz;\r\n}\r\n";
+		checkLexer(new Lexer(diagnostic, new TrickleReader(code), INPUT_NAME), 2, 15);
+	}
+
+	@Test
+	public void testNullReader() {
+		assertThrows(IllegalArgumentException.class, () -> new Lexer(diagnostic, (Reader) null, INPUT_NAME));
+	}
+
+	private static List<Token> tokens(final Lexer lexer) {
+		final List<Token> tokens = new ArrayList<>();
+		for (Token t = lexer.next(); t.getKind() != TokenKind.EOF; t = lexer.next())
+			tokens.add(t);
+		return tokens;
+	}
+
+	@Test
+	public void testNameTable() {
+		// Words that are almost keywords, before and after the table grows
+		final String[] near = { "int", "in", "intx", "Int", "inline", "inlin", "_Assert", "_Asser", "_Assertx",
+				"_Static_assert", "42", "0" };
+		final TokenKind[] kinds = { TokenKind.INT, TokenKind.IDENTIFIER, TokenKind.IDENTIFIER, TokenKind.IDENTIFIER,
+				TokenKind.INLINE, TokenKind.IDENTIFIER, TokenKind._ASSERT, TokenKind.IDENTIFIER, TokenKind.IDENTIFIER,
+				TokenKind._STATIC_ASSERT, TokenKind.NUMBER, TokenKind.NUMBER };
+		final List<String> words = new ArrayList<>();
+		final List<TokenKind> expected = new ArrayList<>();
+		for (int round = 0; round != 2; ++round) {
+			for (int i = 0; i != near.length; ++i) {
+				words.add(near[i]);
+				expected.add(kinds[i]);
+			}
+			// Far more spellings than the initial capacity of the table
+			for (int i = 0; i != 2000; ++i) {
+				words.add("v" + i);
+				expected.add(TokenKind.IDENTIFIER);
+			}
+		}
+		final String code = String.join(" ", words);
+		final char[] chars = code.toCharArray();
+		for (final Lexer lexer : new Lexer[] { new Lexer(diagnostic, new StringReader(code), INPUT_NAME),
+				new Lexer(diagnostic, chars, chars.length, INPUT_NAME) }) {
+			final List<Token> tokens = tokens(lexer);
+			assertEquals(words.size(), tokens.size());
+			for (int i = 0; i != words.size(); ++i) {
+				assertEquals(words.get(i), expected.get(i), tokens.get(i).getKind());
+				assertEquals(words.get(i), tokens.get(i).getText());
+			}
+			// Every repeated spelling is the same String instance
+			final int half = words.size() / 2;
+			for (int i = 0; i != half; ++i)
+				assertSame(tokens.get(i).getText(), tokens.get(half + i).getText());
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import tinycc.logic.BinaryOpFormula;
+import tinycc.logic.BinaryOperator;
+import tinycc.logic.Formula;
+import tinycc.logic.FormulaFactory;
+import tinycc.logic.IntConst;
+import tinycc.logic.Type;
+import tinycc.logic.Variable;
+import tinycc.logic.solver.Logic;
+import tinycc.logic.solver.z3.Z3Result;
+import tinycc.logic.solver.z3.Z3Session;
+
+public class LogicTests {
+
+	private static final Variable X = new Variable("x", Type.INT);
+
+	private static Formula binary(final BinaryOperator op, final Formula left, final Formula right) {
+		return new BinaryOpFormula(op, left, right);
+	}
+
+	@Test
+	public void testSessionScopesQueries() {
+		final Formula small = binary(BinaryOperator.LT, X, new IntConst(3));
+		final Formula contradiction = binary(BinaryOperator.AND, small, binary(BinaryOperator.GT, X, new IntConst(5)));
+		final Formula large = binary(BinaryOperator.GT, X, new IntConst(5));
+		final Z3Session session = Z3Session.acquire();
+		try {
+			final List<Z3Result> results = session.querySatisfiability(Arrays.asList(small, contradiction, large),
+					Logic.QF_NIA);
+			assertEquals(3, results.size());
+			assertTrue(results.get(0).isSatifiable());
+			assertTrue(results.get(1).isUnSatifiable());
+			// The earlier queries leave no assertions behind
+			assertTrue(results.get(2).isSatifiable());
+			assertTrue(session.querySatisfiability(small, Logic.QF_NIA).isSatifiable());
+		} finally {
+			session.release();
+		}
+	}
+
+	@Test
+	public void testFactorySharesEqualFormulas() {
+		final FormulaFactory factory = new FormulaFactory();
+		final Formula sum = factory.binary(BinaryOperator.ADD, X, new IntConst(1));
+		assertSame(sum, factory.binary(BinaryOperator.ADD, factory.variable("x", Type.INT), factory.intConst(1)));
+		assertSame(sum, factory.intern(binary(BinaryOperator.ADD, X, new IntConst(1))));
+		assertSame(sum, sum.subst(new Variable("y", Type.INT), new IntConst(2)));
+		assertEquals(3, factory.size());
+	}
+
+	@Test
+	public void testSubstitutionKeepsSharing() {
+		// x := x + x, sixty times, is a tree of 2^60 nodes but a DAG of 60
+		final FormulaFactory factory = new FormulaFactory();
+		final Variable x = factory.variable("x", Type.INT);
+		Formula value = x;
+		for (int i = 0; i != 60; ++i)
+			value = factory.subst(value, x, factory.binary(BinaryOperator.ADD, x, x));
+		assertTrue(factory.size() < 70);
+		final Formula positive = factory.binary(BinaryOperator.AND, factory.binary(BinaryOperator.GT, x, new IntConst(0)),
+				factory.binary(BinaryOperator.LT, value, new IntConst(0)));
+		final Z3Session session = Z3Session.acquire();
+		try {
+			assertTrue(session.querySatisfiability(positive, Logic.QF_NIA).isUnSatifiable());
+		} finally {
+			session.release();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testInternSharedForeignFormula() {
+		// The same DAG of 2^60 paths twice, made by the factory and without it
+		final FormulaFactory factory = new FormulaFactory();
+		Formula made = factory.variable("x", Type.INT);
+		Formula foreign = X;
+		for (int i = 0; i != 60; ++i) {
+			made = factory.binary(BinaryOperator.ADD, made, made);
+			foreign = binary(BinaryOperator.ADD, foreign, foreign);
+		}
+		assertSame(made, factory.intern(foreign));
+		assertSame(factory.binary(BinaryOperator.ADD, made, made),
+				factory.binary(BinaryOperator.ADD, foreign, foreign));
+		assertTrue(factory.size() < 70);
+	}
+
+	@Test
+	public void testSimultaneousSubstitution() {
+		final Variable y = new Variable("y", Type.INT);
+		final Formula difference = binary(BinaryOperator.SUB, X, y);
+		final Formula kept = binary(BinaryOperator.MUL, new Variable("z", Type.INT), new IntConst(2));
+		final Formula f = binary(BinaryOperator.LT, difference, kept);
+		final Map<Variable, Formula> swap = new HashMap<>();
+		swap.put(X, y);
+		swap.put(y, X);
+		final Formula swapped = f.subst(swap);
+		assertEquals(binary(BinaryOperator.LT, binary(BinaryOperator.SUB, y, X), kept), swapped);
+		assertSame(kept, ((BinaryOpFormula) swapped).getRight());
+		assertSame(f, f.subst(new HashMap<>()));
+	}
+}
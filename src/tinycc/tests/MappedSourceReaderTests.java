@@ -0,0 +1,81 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import tinycc.parser.MappedSourceReader;
+
+public class MappedSourceReaderTests {
+
+	// One, two, three and four byte characters
+	private static final String TEXT = "int a; // été € 😀 end\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(final byte[] bytes) throws IOException {
+		final File file = folder.newFile();
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+
+	private static String readAll(final Reader r, final int chunk) throws IOException {
+		final StringBuilder b = new StringBuilder();
+		final char[] buf = new char[chunk];
+		int n;
+		while ((n = r.read(buf, 0, chunk)) != -1)
+			b.append(buf, 0, n);
+		return b.toString();
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		try (Reader r = new MappedSourceReader(write(new byte[0]))) {
+			assertEquals(-1, r.read(new char[16], 0, 16));
+			assertEquals(-1, r.read());
+		}
+	}
+
+	@Test
+	public void testRegionBoundaries() throws IOException {
+		final File file = write(TEXT.getBytes(StandardCharsets.UTF_8));
+		// Every character is cut by a region end for one of the sizes
+		for (int regionSize = 4; regionSize != 12; ++regionSize) {
+			for (final int chunk : new int[] { 1, 3, 1024 }) {
+				try (Reader r = new MappedSourceReader(file, regionSize)) {
+					assertEquals("region " + regionSize + ", chunk " + chunk, TEXT, readAll(r, chunk));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMalformedInput() throws IOException {
+		final File file = write(new byte[] { 'i', 'n', 't', (byte) 0xe9, ' ' });
+		try (Reader r = new MappedSourceReader(file)) {
+			final char[] buf = new char[16];
+			// The characters before the bad byte come first
+			assertEquals(3, r.read(buf, 0, 16));
+			assertEquals("int", new String(buf, 0, 3));
+			assertThrows(CharacterCodingException.class, () -> r.read(buf, 0, 16));
+		}
+	}
+
+	@Test
+	public void testMissingFile() {
+		assertThrows(FileNotFoundException.class,
+				() -> new MappedSourceReader(new File(folder.getRoot(), "missing.c")));
+	}
+}
@@ -89,4 +89,27 @@ public void testPlusPositive(){
 		checkCode(code); // Adjust column as needed
 	}
 
+	@Test
+	public void testVoidPointerFromMalloc() {
+		String code = "void *malloc(int n); void f() { int *p = malloc(4); }";
+		checkCode(code);
+	}
+
+	@Test
+	public void testVoidPointerFromPointer() {
+		String code = "void f(int *p) { void *v = p; }";
+		checkCode(code);
+	}
+
+	@Test
+	public void testVoidPointerArgumentAndReturn() {
+		String code = "void g(void *v); char *h(int *p) { g(p); void *v = p; return v; }";
+		checkCode(code);
+	}
+
+	@Test
+	public void testIncompatiblePointers() {
+		String code = "void f(int *p) { char *c = p; }";
+		checkCodeNegative(code, 1, 24);
+	}
 }
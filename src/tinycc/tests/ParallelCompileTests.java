@@ -0,0 +1,135 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import tinycc.diagnostic.PrintDiagnostic;
+import tinycc.driver.TinyC;
+
+public class ParallelCompileTests {
+
+	private static final String[] NAMES = { "good.c", "bad.c", "proved.c", "refuted.c", "worse.c", "missing.c",
+			"other.c", "syntax.c" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final class Run {
+		int exitCode;
+		int errors;
+		String out;
+		String err;
+		final List<byte[]> assembly = new ArrayList<>();
+	}
+
+	private void source(final String name, final String code) throws IOException {
+		Files.write(new File(folder.getRoot(), name).toPath(), code.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void sources() throws IOException {
+		source("good.c", "int f(int x) { return x * 3 + 1; }\n");
+		source("bad.c", "int f(int x) { return y; }\n");
+		source("proved.c", "int f(int x) { _Assume(x > 0); _Assert(x * x > 0); return x; }\n");
+		source("refuted.c", "int f(int x) { _Assert(x != 7); return x; }\n");
+		source("worse.c", "int f(int x) { int *p = x; return z + p; }\nint f(int y) { return y; }\n");
+		source("other.c", "int g(int a, int b) { while (a < b) a = a + 2; return a; }\n");
+		source("syntax.c", "int f(int x) { return x +; }\n");
+	}
+
+	private Run compile(final String... args) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final PrintDiagnostic diagnostic = new PrintDiagnostic(new PrintStream(err, true));
+		final List<String> all = new ArrayList<>(Arrays.asList(args));
+		all.addAll(Arrays.asList(NAMES));
+		TinyC.run(diagnostic, new PrintStream(out, true), folder.getRoot(), all.toArray(new String[0]));
+		final Run run = new Run();
+		run.errors = diagnostic.getErrorCount();
+		run.exitCode = diagnostic.printSummary();
+		run.out = out.toString();
+		run.err = err.toString();
+		for (final String name : NAMES) {
+			final File asm = new File(folder.getRoot(), name.replace(".c", ".s"));
+			run.assembly.add(asm.exists() ? Files.readAllBytes(asm.toPath()) : null);
+			asm.delete();
+		}
+		return run;
+	}
+
+	private static void assertSameRun(final Run expected, final Run actual) {
+		assertEquals(expected.out, actual.out);
+		assertEquals(expected.err, actual.err);
+		assertEquals(expected.errors, actual.errors);
+		assertEquals(expected.exitCode, actual.exitCode);
+		for (int i = 0; i != NAMES.length; ++i)
+			assertArrayEquals(NAMES[i], expected.assembly.get(i), actual.assembly.get(i));
+	}
+
+	@Test
+	public void testParallelCompileMatchesSequential() throws IOException {
+		sources();
+		final Run sequential = compile("-c");
+		assertEquals(1, sequential.exitCode);
+		assertTrue(sequential.errors >= 5);
+		assertTrue(sequential.err.endsWith(sequential.errors + " error(s)\n"));
+		// The messages are in the order of the input files
+		final int bad = sequential.err.indexOf("bad.c:");
+		final int worse = sequential.err.indexOf("worse.c:");
+		final int missing = sequential.err.indexOf("missing.c");
+		final int syntax = sequential.err.indexOf("syntax.c:");
+		assertTrue(0 <= bad && bad < worse && worse < missing && missing < syntax);
+		assertTrue(sequential.assembly.get(0) != null && sequential.assembly.get(6) != null);
+
+		for (final String jobs : new String[] { "2", "3", "8" }) {
+			for (int round = 0; round != 3; ++round)
+				assertSameRun(sequential, compile("-j", jobs, "-c"));
+		}
+	}
+
+	@Test
+	public void testParallelVerificationMatchesSequential() throws IOException {
+		sources();
+		final Run sequential = compile("-v");
+		assertTrue(sequential.out.contains("Verification successful"));
+		assertTrue(sequential.out.indexOf("Verification successful") < sequential.out.indexOf("could not be verified"));
+		for (int round = 0; round != 3; ++round)
+			assertSameRun(sequential, compile("-j", "4", "-v"));
+	}
+
+	@Test
+	public void testParallelCompileWithoutErrors() throws IOException {
+		sources();
+		final Run sequential = compile("-c", "-O");
+		final Run parallel = compile("-j", "8", "-c", "-O");
+		assertSameRun(sequential, parallel);
+
+		// Only the files without errors
+		final String[] good = { "good.c", "proved.c", "other.c" };
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+		final PrintDiagnostic diagnostic = new PrintDiagnostic(new PrintStream(err, true));
+		final List<String> args = new ArrayList<>(Arrays.asList("-j", "3", "-c"));
+		args.addAll(Arrays.asList(good));
+		TinyC.run(diagnostic, new PrintStream(new ByteArrayOutputStream()), folder.getRoot(),
+				args.toArray(new String[0]));
+		assertEquals(0, diagnostic.getErrorCount());
+		assertEquals(0, diagnostic.printSummary());
+		assertEquals("", err.toString());
+		for (final String name : good)
+			assertTrue(new File(folder.getRoot(), name.replace(".c", ".s")).exists());
+	}
+}
@@ -0,0 +1,568 @@
+package tinycc.tests;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small RV32IM simulator for the assembly the compiler generates, so tests
+ * can check what the code computes and not only what it looks like.
+ *
+ * It knows the instructions of tinycc.asmgen, the directives AsmGen emits and
+ * li / ecall, which the runtime library uses. The runtime functions
+ * print_integer, print_string, print_char, malloc and get_scratch are built in
+ * unless the program defines them, and take their argument in a0 like the
+ * generated code passes it.
+ *
+ * To catch code that only works by accident, every register holds garbage when
+ * a function is called, a built-in function clobbers all caller-saved
+ * registers, and call() fails if the function does not restore sp and the
+ * callee-saved registers. Loads and stores must be aligned and stay out of the
+ * first page.
+ */
+public final class RiscVSimulator {
+
+	private static final int TEXT_BASE = 0x00400000;
+	private static final int DATA_BASE = 0x10000000;
+	private static final int STACK_TOP = 0x7ffffff0;
+	/** The return address of call(), outside of the text segment */
+	private static final int EXIT = 0xfffffff0;
+	private static final int GARBAGE = 0x5ca1ab1e;
+	private static final int PAGE_BITS = 12;
+
+	private static final String[] REGISTERS = { "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "s0", "s1", "a0",
+			"a1", "a2", "a3", "a4", "a5", "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11",
+			"t3", "t4", "t5", "t6" };
+	private static final int RA = 1, SP = 2, A0 = 10, A1 = 11;
+	private static final int[] CALLEE_SAVED = { 8, 9, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27 };
+	private static final int[] CALLER_SAVED = { 1, 5, 6, 7, 10, 11, 12, 13, 14, 15, 16, 17, 28, 29, 30, 31 };
+	private static final String[] BUILTINS = { "print_integer", "print_string", "print_char", "malloc", "get_scratch" };
+
+	/**
+	 * One instruction with its operands. Labels are resolved once the whole
+	 * program is read.
+	 */
+	private static final class Insn {
+		final String op;
+		final int line;
+		int rd, rs1, rs2, imm;
+		String label;
+
+		Insn(final String op, final int line) {
+			this.op = op;
+			this.line = line;
+		}
+	}
+
+	private final List<Insn> text = new ArrayList<>();
+	private final Map<String, Integer> labels = new HashMap<>();
+	private final Map<Integer, byte[]> pages = new HashMap<>();
+	private final int[] regs = new int[32];
+	private final StringBuilder output = new StringBuilder();
+	private final int scratch;
+	private int heap;
+	private long steps;
+	private long stepLimit = 50_000_000;
+
+	/**
+	 * Loads a program
+	 *
+	 * @param asm The assembly, as generated by AsmGen
+	 * @throws IllegalArgumentException If the program contains something the
+	 *                                  simulator does not know
+	 */
+	public RiscVSimulator(final String asm) {
+		int data = DATA_BASE;
+		boolean inText = true;
+		final String[] lines = asm.split("\n");
+		for (int n = 0; n != lines.length; ++n) {
+			String line = lines[n].trim();
+			if (line.startsWith(".asciiz")) {
+				if (inText)
+					throw error(n, "data in the text segment");
+				for (final byte b : unescape(line.substring(".asciiz".length()).trim(), n))
+					storeByte(data++, b);
+				storeByte(data++, (byte) 0);
+				continue;
+			}
+			final int comment = line.indexOf('#');
+			if (comment >= 0)
+				line = line.substring(0, comment);
+			final String[] words = line.replace(',', ' ').trim().split("\\s+");
+			if (words[0].isEmpty())
+				continue;
+			if (words[0].endsWith(":")) {
+				final String label = words[0].substring(0, words[0].length() - 1);
+				if (labels.put(label, inText ? TEXT_BASE + 4 * text.size() : data) != null)
+					throw error(n, "label '" + label + "' defined twice");
+				continue;
+			}
+			switch (words[0]) {
+			case ".text":
+				inText = true;
+				break;
+			case ".data":
+				inText = false;
+				break;
+			case ".globl":
+				break;
+			case ".align":
+				data = align(data, 1 << parseInt(words[1], n));
+				break;
+			case ".space":
+				data += parseInt(words[1], n);
+				break;
+			case ".byte":
+			case ".half":
+			case ".word":
+				if (inText)
+					throw error(n, "data in the text segment");
+				final int size = words[0].equals(".byte") ? 1 : words[0].equals(".half") ? 2 : 4;
+				for (int i = 1; i != words.length; ++i) {
+					store(data, size, parseInt(words[i], n));
+					data += size;
+				}
+				break;
+			default:
+				if (!inText)
+					throw error(n, "instruction in the data segment");
+				text.add(parse(words, n));
+			}
+		}
+		scratch = align(data, 16);
+		heap = scratch + 64;
+		for (final Insn insn : text) {
+			if (insn.label != null && !labels.containsKey(insn.label) && !isBuiltin(insn.label))
+				throw error(insn.line, "undefined label '" + insn.label + "'");
+		}
+	}
+
+	/**
+	 * Sets how many instructions a call may execute before it is considered to
+	 * run forever.
+	 */
+	public void setStepLimit(final long stepLimit) {
+		this.stepLimit = stepLimit;
+	}
+
+	/**
+	 * Calls a function with the RISC-V calling convention
+	 *
+	 * @param function The label of the function
+	 * @param args     The arguments, the ninth and later ones are passed on the
+	 *                 stack
+	 * @return The value of a0 when the function returns
+	 * @throws IllegalStateException If the program faults, runs too long or
+	 *                               breaks the calling convention
+	 */
+	public int call(final String function, final int... args) {
+		final Integer entry = labels.get(function);
+		if (entry == null)
+			throw new IllegalArgumentException("no function '" + function + "'");
+		for (int r = 1; r != regs.length; ++r)
+			regs[r] = GARBAGE + r;
+		final int stackArgs = Math.max(0, args.length - 8);
+		regs[SP] = STACK_TOP - align(4 * stackArgs, 16);
+		for (int i = 0; i != args.length; ++i) {
+			if (i < 8)
+				regs[A0 + i] = args[i];
+			else
+				store(regs[SP] + 4 * (i - 8), 4, args[i]);
+		}
+		regs[RA] = EXIT;
+		final int sp = regs[SP];
+		final int[] saved = new int[CALLEE_SAVED.length];
+		for (int i = 0; i != saved.length; ++i)
+			saved[i] = regs[CALLEE_SAVED[i]];
+
+		run(entry);
+
+		if (regs[SP] != sp)
+			throw new IllegalStateException(function + " did not restore sp");
+		for (int i = 0; i != saved.length; ++i) {
+			if (regs[CALLEE_SAVED[i]] != saved[i])
+				throw new IllegalStateException(function + " did not restore " + REGISTERS[CALLEE_SAVED[i]]);
+		}
+		return regs[A0];
+	}
+
+	/**
+	 * Returns what the program printed so far.
+	 */
+	public String getOutput() {
+		return output.toString();
+	}
+
+	/**
+	 * Returns the number of instructions executed so far, built-in functions
+	 * count as one.
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the address of a label.
+	 */
+	public int getAddress(final String label) {
+		final Integer address = labels.get(label);
+		if (address == null)
+			throw new IllegalArgumentException("no label '" + label + "'");
+		return address;
+	}
+
+	/**
+	 * Reads a word of memory.
+	 */
+	public int loadWord(final int address) {
+		return load(address, 4, true);
+	}
+
+	private void run(final int entry) {
+		final long limit = steps + stepLimit;
+		int pc = entry;
+		while (pc != EXIT) {
+			if (steps++ == limit)
+				throw new IllegalStateException("more than " + stepLimit + " steps");
+			final int index = (pc - TEXT_BASE) >> 2;
+			if ((pc & 3) != 0 || index < 0 || index >= text.size())
+				throw new IllegalStateException(String.format("jump to 0x%08x", pc));
+			final Insn insn = text.get(index);
+			final int a = regs[insn.rs1], b = regs[insn.rs2];
+			int next = pc + 4;
+			switch (insn.op) {
+			case "add":   set(insn.rd, a + b); break;
+			case "sub":   set(insn.rd, a - b); break;
+			case "and":   set(insn.rd, a & b); break;
+			case "or":    set(insn.rd, a | b); break;
+			case "xor":   set(insn.rd, a ^ b); break;
+			case "not":   set(insn.rd, ~a); break;
+			case "sll":   set(insn.rd, a << b); break;
+			case "srl":   set(insn.rd, a >>> b); break;
+			case "sra":   set(insn.rd, a >> b); break;
+			case "slt":   set(insn.rd, a < b ? 1 : 0); break;
+			case "sltu":  set(insn.rd, Integer.compareUnsigned(a, b) < 0 ? 1 : 0); break;
+			case "mul":   set(insn.rd, a * b); break;
+			// Division by zero and overflow do not trap on RISC-V
+			case "div":   set(insn.rd, b == 0 ? -1 : b == -1 ? -a : a / b); break;
+			case "rem":   set(insn.rd, b == 0 ? a : b == -1 ? 0 : a % b); break;
+			case "addi":  set(insn.rd, a + insn.imm); break;
+			case "andi":  set(insn.rd, a & insn.imm); break;
+			case "ori":   set(insn.rd, a | insn.imm); break;
+			case "xori":  set(insn.rd, a ^ insn.imm); break;
+			case "slti":  set(insn.rd, a < insn.imm ? 1 : 0); break;
+			case "sltiu": set(insn.rd, Integer.compareUnsigned(a, insn.imm) < 0 ? 1 : 0); break;
+			case "slli":  set(insn.rd, a << insn.imm); break;
+			case "srli":  set(insn.rd, a >>> insn.imm); break;
+			case "srai":  set(insn.rd, a >> insn.imm); break;
+			case "lui":   set(insn.rd, insn.imm << 12); break;
+			case "li":    set(insn.rd, insn.imm); break;
+			case "la":    set(insn.rd, address(insn)); break;
+			case "lb":    set(insn.rd, load(address(insn), 1, true)); break;
+			case "lbu":   set(insn.rd, load(address(insn), 1, false)); break;
+			case "lh":    set(insn.rd, load(address(insn), 2, true)); break;
+			case "lhu":   set(insn.rd, load(address(insn), 2, false)); break;
+			case "lw":    set(insn.rd, load(address(insn), 4, true)); break;
+			case "sb":    store(address(insn), 1, regs[insn.rd]); break;
+			case "sh":    store(address(insn), 2, regs[insn.rd]); break;
+			case "sw":    store(address(insn), 4, regs[insn.rd]); break;
+			case "beq":   if (a == b) next = target(insn); break;
+			case "bne":   if (a != b) next = target(insn); break;
+			case "blt":   if (a < b) next = target(insn); break;
+			case "bge":   if (a >= b) next = target(insn); break;
+			case "blez":  if (a <= 0) next = target(insn); break;
+			case "bgtz":  if (a > 0) next = target(insn); break;
+			case "bltz":  if (a < 0) next = target(insn); break;
+			case "bgez":  if (a >= 0) next = target(insn); break;
+			case "j":     next = target(insn); break;
+			case "jr":    next = a; break;
+			case "jalr":
+				set(RA, pc + 4);
+				next = a;
+				break;
+			case "jal":
+				if (!labels.containsKey(insn.label)) {
+					builtin(insn.label);
+					break;
+				}
+				set(RA, pc + 4);
+				next = target(insn);
+				break;
+			case "ecall":
+				if (ecall())
+					return;
+				break;
+			default:
+				throw new AssertionError(insn.op);
+			}
+			pc = next;
+		}
+	}
+
+	private void set(final int rd, final int value) {
+		if (rd != 0)
+			regs[rd] = value;
+	}
+
+	private int target(final Insn insn) {
+		return labels.get(insn.label);
+	}
+
+	private int address(final Insn insn) {
+		return (insn.label != null ? labels.get(insn.label) : 0) + insn.imm + regs[insn.rs1];
+	}
+
+	private void builtin(final String name) {
+		final int arg = regs[A0];
+		for (final int r : CALLER_SAVED)
+			regs[r] = GARBAGE ^ r;
+		switch (name) {
+		case "print_integer":
+			output.append(arg);
+			break;
+		case "print_char":
+			output.append((char) (arg & 0xFF));
+			break;
+		case "print_string":
+			output.append(loadString(arg));
+			break;
+		case "malloc":
+			regs[A0] = sbrk(arg);
+			break;
+		case "get_scratch":
+			regs[A0] = scratch;
+			break;
+		default:
+			throw new AssertionError(name);
+		}
+	}
+
+	/**
+	 * Runs a system call with the Venus conventions
+	 *
+	 * @return True if the program exits
+	 */
+	private boolean ecall() {
+		final int arg = regs[A1];
+		switch (regs[A0]) {
+		case 1:
+			output.append(arg);
+			return false;
+		case 4:
+			output.append(loadString(arg));
+			return false;
+		case 9:
+			regs[A0] = sbrk(arg);
+			return false;
+		case 10:
+			return true;
+		case 11:
+			output.append((char) (arg & 0xFF));
+			return false;
+		default:
+			throw new IllegalStateException("unknown system call " + regs[A0]);
+		}
+	}
+
+	private int sbrk(final int bytes) {
+		if (bytes < 0 || heap + bytes > STACK_TOP - (64 << 20))
+			throw new IllegalStateException("out of memory");
+		final int block = heap;
+		heap = align(heap + bytes, 8);
+		return block;
+	}
+
+	private String loadString(int address) {
+		final StringBuilder s = new StringBuilder();
+		for (int c; (c = load(address++, 1, false)) != 0;)
+			s.append((char) c);
+		return s.toString();
+	}
+
+	// ------------ Memory ------------
+
+	private byte[] page(final int address, final int size) {
+		if (Integer.compareUnsigned(address, 1 << PAGE_BITS) < 0)
+			throw new IllegalStateException(String.format("access to 0x%08x", address));
+		if ((address & (size - 1)) != 0)
+			throw new IllegalStateException(String.format("misaligned access to 0x%08x", address));
+		return pages.computeIfAbsent(address >>> PAGE_BITS, p -> new byte[1 << PAGE_BITS]);
+	}
+
+	private int load(final int address, final int size, final boolean signed) {
+		final byte[] page = page(address, size);
+		final int offset = address & ((1 << PAGE_BITS) - 1);
+		int value = 0;
+		for (int i = size - 1; i >= 0; --i)
+			value = value << 8 | page[offset + i] & 0xFF;
+		final int unused = 32 - 8 * size;
+		return signed ? value << unused >> unused : value;
+	}
+
+	private void store(final int address, final int size, final int value) {
+		final byte[] page = page(address, size);
+		final int offset = address & ((1 << PAGE_BITS) - 1);
+		for (int i = 0; i != size; ++i)
+			page[offset + i] = (byte) (value >> 8 * i);
+	}
+
+	private void storeByte(final int address, final byte value) {
+		store(address, 1, value);
+	}
+
+	private static int align(final int value, final int alignment) {
+		return (value + alignment - 1) & -alignment;
+	}
+
+	// ------------ Parsing ------------
+
+	private static boolean isBuiltin(final String name) {
+		for (final String builtin : BUILTINS) {
+			if (builtin.equals(name))
+				return true;
+		}
+		return false;
+	}
+
+	private static IllegalArgumentException error(final int line, final String message) {
+		return new IllegalArgumentException("line " + (line + 1) + ": " + message);
+	}
+
+	private static int parseInt(final String s, final int line) {
+		try {
+			return Integer.decode(s);
+		} catch (final NumberFormatException e) {
+			throw error(line, "invalid number '" + s + "'");
+		}
+	}
+
+	private static int register(final String name, final int line) {
+		for (int r = 0; r != REGISTERS.length; ++r) {
+			if (REGISTERS[r].equals(name))
+				return r;
+		}
+		if (name.equals("fp"))
+			return 8;
+		throw error(line, "unknown register '" + name + "'");
+	}
+
+	private static Insn parse(final String[] words, final int line) {
+		final Insn insn = new Insn(words[0], line);
+		final int operands;
+		switch (insn.op) {
+		case "add": case "sub": case "and": case "or": case "xor": case "sll": case "srl": case "sra":
+		case "slt": case "sltu": case "mul": case "div": case "rem":
+			operands = 3;
+			insn.rd = register(words[1], line);
+			insn.rs1 = register(words[2], line);
+			insn.rs2 = register(words[3], line);
+			break;
+		case "not":
+			operands = 2;
+			insn.rd = register(words[1], line);
+			insn.rs1 = register(words[2], line);
+			break;
+		case "addi": case "andi": case "ori": case "xori": case "slti": case "sltiu":
+		case "slli": case "srli": case "srai":
+			operands = 3;
+			insn.rd = register(words[1], line);
+			insn.rs1 = register(words[2], line);
+			insn.imm = parseInt(words[3], line);
+			break;
+		case "lui": case "li":
+			operands = 2;
+			insn.rd = register(words[1], line);
+			insn.imm = parseInt(words[2], line);
+			break;
+		case "la": case "lb": case "lbu": case "lh": case "lhu": case "lw": case "sb": case "sh": case "sw":
+			operands = 2;
+			insn.rd = register(words[1], line);
+			parseAddress(insn, words[2]);
+			break;
+		case "beq": case "bne": case "blt": case "bge":
+			operands = 3;
+			insn.rs1 = register(words[1], line);
+			insn.rs2 = register(words[2], line);
+			insn.label = words[3];
+			break;
+		case "blez": case "bgtz": case "bltz": case "bgez":
+			operands = 2;
+			insn.rs1 = register(words[1], line);
+			insn.label = words[2];
+			break;
+		case "j": case "jal":
+			operands = 1;
+			insn.label = words[1];
+			break;
+		case "jr": case "jalr":
+			operands = 1;
+			insn.rs1 = register(words[1], line);
+			break;
+		case "ecall":
+			operands = 0;
+			break;
+		default:
+			throw error(line, "unknown instruction '" + insn.op + "'");
+		}
+		if (words.length != operands + 1)
+			throw error(line, insn.op + " takes " + operands + " operands");
+		return insn;
+	}
+
+	/**
+	 * Parses the address forms of AsmLine: label, label+imm, imm(reg) and
+	 * label+imm(reg).
+	 */
+	private static void parseAddress(final Insn insn, String address) {
+		final int paren = address.indexOf('(');
+		if (paren >= 0) {
+			if (!address.endsWith(")"))
+				throw error(insn.line, "invalid address '" + address + "'");
+			insn.rs1 = register(address.substring(paren + 1, address.length() - 1), insn.line);
+			address = address.substring(0, paren);
+		}
+		final int plus = address.lastIndexOf('+');
+		final String offset = plus >= 0 ? address.substring(plus + 1) : address;
+		if (!offset.isEmpty() && (Character.isDigit(offset.charAt(0)) || offset.charAt(0) == '-')) {
+			insn.imm = parseInt(offset, insn.line);
+			address = plus >= 0 ? address.substring(0, plus) : "";
+		}
+		if (!address.isEmpty())
+			insn.label = address;
+	}
+
+	/**
+	 * Undoes Util.escapeString for a quoted string.
+	 */
+	private static byte[] unescape(final String quoted, final int line) {
+		if (quoted.length() < 2 || quoted.charAt(0) != '"' || quoted.charAt(quoted.length() - 1) != '"')
+			throw error(line, "invalid string " + quoted);
+		final StringBuilder s = new StringBuilder();
+		for (int i = 1, n = quoted.length() - 1; i < n; ++i) {
+			char c = quoted.charAt(i);
+			if (c == '\\') {
+				c = quoted.charAt(++i);
+				switch (c) {
+				case 'b': c = '\b'; break;
+				case 'f': c = '\f'; break;
+				case 'n': c = '\n'; break;
+				case 'r': c = '\r'; break;
+				case 't': c = '\t'; break;
+				default:
+					if ('0' <= c && c <= '7') {
+						int value = 0;
+						for (int digits = 0; digits != 3 && i < n && '0' <= quoted.charAt(i)
+								&& quoted.charAt(i) <= '7'; ++digits)
+							value = 8 * value + quoted.charAt(i++) - '0';
+						--i;
+						c = (char) value;
+					}
+				}
+			}
+			s.append(c);
+		}
+		return s.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,103 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import prog2.tests.CompilerTests;
+import tinycc.diagnostic.Location;
+import tinycc.implementation.semantic.Scope;
+import tinycc.implementation.statement.Declaration;
+import tinycc.implementation.type.Type;
+import tinycc.parser.Token;
+import tinycc.parser.TokenKind;
+
+public class ScopeTests extends CompilerTests {
+
+	private Declaration declare(final Type type, final String name) {
+		return new Declaration(type, new Token(new Location(INPUT_NAME, 1, 1), TokenKind.IDENTIFIER, name), null);
+	}
+
+	@Test
+	public void testShadowingIsUndone() {
+		final ASTMaker m = new ASTMaker("scope");
+		final Scope scope = new Scope();
+		final Declaration outer = declare(m.createInt(), "x");
+		final Declaration inner = declare(m.createChar(), "x");
+		assertTrue(scope.add("x", outer));
+		scope.enterScope();
+		assertTrue(scope.add("x", inner));
+		assertFalse(scope.add("x", inner));
+		assertTrue(scope.add("y", inner));
+		assertSame(inner, scope.lookup("x"));
+		scope.leaveScope();
+		assertSame(outer, scope.lookup("x"));
+		assertNull(scope.lookup("y"));
+	}
+
+	@Test
+	public void testManyNestedScopes() {
+		final ASTMaker m = new ASTMaker("scope");
+		final Scope scope = new Scope();
+		final int depth = 1000;
+		for (int i = 0; i != depth; ++i) {
+			scope.enterScope();
+			scope.add("v" + i, declare(m.createInt(), "v" + i));
+			scope.add("x", declare(m.createInt(), "x" + i));
+		}
+		for (int i = depth; i != 0; --i) {
+			assertEquals("x" + (i - 1), scope.lookup("x").getName().getText());
+			scope.leaveScope();
+			assertNull(scope.lookup("v" + (i - 1)));
+		}
+		assertNull(scope.lookup("x"));
+	}
+
+	@Test
+	public void testLocalSlots() {
+		final ASTMaker m = new ASTMaker("scope");
+		final Scope scope = new Scope();
+		final Declaration global = declare(m.createInt(), "g");
+		scope.add("g", global);
+		scope.beginFunction();
+		scope.enterScope();
+		final Declaration a = declare(m.createInt(), "a");
+		final Declaration c = declare(m.createChar(), "c");
+		final Declaration p = declare(m.createPointer(m.createChar()), "p");
+		scope.add("a", a);
+		scope.enterScope();
+		scope.add("c", c);
+		scope.leaveScope();
+		scope.add("p", p);
+		scope.leaveScope();
+
+		assertTrue(global.isGlobal());
+		assertEquals(0, a.getSlot());
+		assertEquals(1, c.getSlot());
+		assertEquals(2, p.getSlot());
+		assertEquals(0, a.getFrameOffset());
+		assertEquals(4, c.getFrameOffset());
+		assertEquals(8, p.getFrameOffset());
+		assertEquals(12, scope.getFrameSize());
+		assertEquals(3, scope.getLocals().size());
+	}
+
+	@Test
+	public void testShadowInBlock() {
+		checkCode("int f(int x) { int y = x; { char x; x = 'a'; y = y + x; } return x + y; }");
+	}
+
+	@Test
+	public void testOutOfScope() {
+		checkCodeNegative("int f() { { int y; } return y; }", 1, 29);
+	}
+
+	@Test
+	public void testRedeclarationInBlock() {
+		checkCodeNegative("int f() { int y; { int y; int y; } return 0; }", 1, 31);
+	}
+}
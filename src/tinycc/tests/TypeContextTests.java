@@ -0,0 +1,148 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import tinycc.implementation.type.FunctionType;
+import tinycc.implementation.type.PointerType;
+import tinycc.implementation.type.Type;
+import tinycc.implementation.type.TypeContext;
+
+public class TypeContextTests {
+
+	private static final Type INT = TypeContext.INT;
+	private static final Type CHAR = TypeContext.CHAR;
+	private static final Type VOID = TypeContext.VOID;
+
+	private static PointerType pointer(final Type pointsTo) {
+		return TypeContext.getPointerType(pointsTo);
+	}
+
+	/**
+	 * Builds the same types as every other call, from fresh parameter lists.
+	 */
+	private static List<Type> build() {
+		final PointerType intPointer = pointer(INT);
+		final PointerType charPointerPointer = pointer(pointer(CHAR));
+		final FunctionType function = TypeContext.getFunctionType(intPointer,
+				new ArrayList<>(Arrays.asList(CHAR, charPointerPointer, INT)));
+		final FunctionType noParameters = TypeContext.getFunctionType(VOID, new ArrayList<>());
+		return Arrays.asList(intPointer, charPointerPointer, function, pointer(function), noParameters);
+	}
+
+	@Test
+	public void testEqualTypesAreSameInstanceAcrossThreads() throws Exception {
+		final int threads = 8;
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<List<List<Type>>>> results = new ArrayList<>();
+			for (int t = 0; t != threads; ++t) {
+				results.add(pool.submit(() -> {
+					start.await();
+					final List<List<Type>> built = new ArrayList<>();
+					for (int i = 0; i != 1000; ++i)
+						built.add(build());
+					return built;
+				}));
+			}
+			start.countDown();
+			final List<Type> expected = build();
+			for (final Future<List<List<Type>>> result : results) {
+				for (final List<Type> types : result.get()) {
+					for (int i = 0; i != expected.size(); ++i)
+						assertSame(expected.get(i), types.get(i));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFunctionTypesDependOnEveryPart() {
+		final FunctionType f = TypeContext.getFunctionType(INT, Arrays.asList(INT, CHAR));
+		assertSame(f, TypeContext.getFunctionType(INT, Collections.unmodifiableList(Arrays.asList(INT, CHAR))));
+		assertEquals(Arrays.asList(INT, CHAR), f.getFunctionArguments());
+		assertFalse(f == TypeContext.getFunctionType(CHAR, Arrays.asList(INT, CHAR)));
+		assertFalse(f == TypeContext.getFunctionType(INT, Arrays.asList(CHAR, INT)));
+		assertFalse(f == TypeContext.getFunctionType(INT, Arrays.asList(INT)));
+		assertFalse(f == TypeContext.getFunctionType(INT, Arrays.asList(INT, CHAR, INT)));
+		// A changed argument list does not change the interned type
+		final List<Type> parameters = new ArrayList<>(Arrays.asList(INT, CHAR));
+		final FunctionType g = TypeContext.getFunctionType(INT, parameters);
+		parameters.add(INT);
+		assertSame(f, g);
+		assertEquals(2, g.getFunctionArguments().size());
+	}
+
+	@Test
+	public void testPointerConversion() {
+		final Type voidPointer = pointer(VOID);
+		final Type intPointer = pointer(INT);
+		final Type charPointer = pointer(CHAR);
+		assertTrue(TypeContext.isPointerConversion(voidPointer, intPointer));
+		assertTrue(TypeContext.isPointerConversion(intPointer, voidPointer));
+		assertTrue(TypeContext.isPointerConversion(voidPointer, charPointer));
+		assertTrue(TypeContext.isPointerConversion(charPointer, voidPointer));
+		assertTrue(TypeContext.isPointerConversion(voidPointer, pointer(intPointer)));
+		assertTrue(TypeContext.isPointerConversion(intPointer, intPointer));
+
+		assertFalse(TypeContext.isPointerConversion(intPointer, charPointer));
+		assertFalse(TypeContext.isPointerConversion(charPointer, intPointer));
+		assertFalse(TypeContext.isPointerConversion(pointer(intPointer), intPointer));
+		// void** is not void*, so it only converts to itself
+		assertFalse(TypeContext.isPointerConversion(pointer(voidPointer), pointer(charPointer)));
+		assertFalse(TypeContext.isPointerConversion(INT, intPointer));
+		assertFalse(TypeContext.isPointerConversion(intPointer, INT));
+	}
+
+	/**
+	 * Interns types no other test uses and only keeps weak references to them.
+	 */
+	private static List<WeakReference<Type>> unreferenced() {
+		final FunctionType function = TypeContext.getFunctionType(CHAR,
+				Arrays.asList(CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR));
+		final PointerType pointer = pointer(pointer(pointer(pointer(pointer(pointer(function))))));
+		return Arrays.asList(new WeakReference<>(function), new WeakReference<>(pointer));
+	}
+
+	@Test
+	public void testUnreferencedTypeIsCollected() {
+		final PointerType kept = pointer(pointer(pointer(pointer(pointer(pointer(CHAR))))));
+		final List<WeakReference<Type>> references = unreferenced();
+		for (int i = 0; i != 100 && !(references.get(0).get() == null && references.get(1).get() == null); ++i) {
+			System.gc();
+			// Give the collector something to do if a call to gc() is not enough
+			final byte[][] garbage = new byte[64][];
+			for (int j = 0; j != garbage.length; ++j)
+				garbage[j] = new byte[1 << 16];
+		}
+		assertNull(references.get(0).get());
+		assertNull(references.get(1).get());
+
+		// A type that is still used stays canonical
+		assertSame(kept, pointer(pointer(pointer(pointer(pointer(pointer(CHAR)))))));
+		// A collected type is interned anew
+		final FunctionType function = TypeContext.getFunctionType(CHAR,
+				Arrays.asList(CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR));
+		assertSame(function, TypeContext.getFunctionType(CHAR,
+				Arrays.asList(CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR, INT, CHAR)));
+		assertSame(function, pointer(function).getPointsTo());
+	}
+}
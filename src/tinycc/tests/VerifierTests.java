@@ -0,0 +1,181 @@
+package tinycc.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import prog2.tests.CompilerTests;
+import prog2.tests.FatalCompilerError;
+import tinycc.implementation.verification.Obligation;
+import tinycc.implementation.verification.Verifier;
+import tinycc.logic.Formula;
+import tinycc.logic.UnaryOpFormula;
+import tinycc.logic.UnaryOperator;
+import tinycc.logic.solver.Logic;
+import tinycc.logic.solver.SolverResult;
+import tinycc.logic.solver.z3.Z3Translator;
+
+public class VerifierTests extends CompilerTests {
+
+	private static final String SUM = "\n" +
+			"int sum(int n) {\n" +
+			"	_Assume(n >= 0);\n" +
+			"	int i = 0;\n" +
+			"	int s = 0;\n" +
+			"	while (i < n) _Invariant(%s) _Term(n - i; k) {\n" +
+			"		i = i + 1;\n" +
+			"		s = s + i;\n" +
+			"	}\n" +
+			"	_Assert(2 * s == n * (n + 1));\n" +
+			"	return s;\n" +
+			"}\n";
+
+	@Test
+	public void testBranchesJoin() {
+		final String code = "\n" +
+				"int abs(int x) {\n" +
+				"	int y = x;\n" +
+				"	if (x < 0) y = -x; else if (x == 0) return 0;\n" +
+				"	_Assert(y > 0);\n" +
+				"	return y;\n" +
+				"}\n";
+		assertTrue(computeVerificationResult(code).isUnSatifiable());
+	}
+
+	@Test
+	public void testBranchesJoinWrong() {
+		final String code = "\n" +
+				"int abs(int x) {\n" +
+				"	int y = x;\n" +
+				"	if (x < 0) y = -x; else if (x == 0) y = 0;\n" +
+				"	_Assert(y > 0);\n" +
+				"	return y;\n" +
+				"}\n";
+		assertTrue(computeVerificationResult(code).isSatifiable());
+	}
+
+	// Both conditions hold
+	private static final String INVARIANT = "(i <= n) + (2 * s == i * (i + 1)) == 2";
+
+	@Test
+	public void testLoopInvariant() {
+		assertTrue(computeVerificationResult(String.format(SUM, INVARIANT)).isUnSatifiable());
+	}
+
+	@Test
+	public void testLoopInvariantTooWeak() {
+		assertTrue(computeVerificationResult(String.format(SUM, "i <= n")).isSatifiable());
+	}
+
+	@Test
+	public void testLoopInvariantNotEstablished() {
+		assertTrue(computeVerificationResult(String.format(SUM, INVARIANT.replace("<=", "<"))).isSatifiable());
+	}
+
+	@Test
+	public void testTermFunctionMustDecrease() {
+		assertTrue(computeVerificationResult(String.format(SUM, INVARIANT).replace("n - i; k", "i; k")).isSatifiable());
+	}
+
+	@Test
+	public void testObligationsAreCheckedApart() throws InterruptedException {
+		checkCode(String.format(SUM, INVARIANT).replace("return s;", "_Assert(s > 0);\n	return s;"));
+		final List<Obligation> obligations = compiler.genVerificationObligations();
+		final List<Obligation.Kind> kinds = new ArrayList<>();
+		for (final Obligation obligation : obligations)
+			kinds.add(obligation.getKind());
+		assertEquals(Arrays.asList(Obligation.Kind.INVARIANT_ENTRY, Obligation.Kind.TERM_BOUNDED,
+				Obligation.Kind.INVARIANT_PRESERVATION, Obligation.Kind.TERM_DECREASES, Obligation.Kind.ASSERTION,
+				Obligation.Kind.ASSERTION), kinds);
+
+		final List<SolverResult> results = Verifier.check(obligations, 4);
+		for (int i = 0; i != 5; ++i)
+			assertTrue(results.get(i).isUnSatifiable());
+		// Fails for n = 0
+		assertTrue(results.get(5).isSatifiable());
+		assertTrue(results.get(5).getModel().contains("n () Int"));
+		assertEquals(11, obligations.get(5).getLocation().getLine());
+	}
+
+	@Test
+	public void testConditionStaysLinear() {
+		final StringBuilder code = new StringBuilder("int f(int x) {\n	int y = 0;\n");
+		for (int i = 0; i != 40; ++i)
+			code.append("	if (x > ").append(i).append(") y = y + 1; else y = y - 1;\n");
+		code.append("	_Assert(y >= -40);\n	_Assert(y <= 40);\n	return y;\n}\n");
+		checkCode(code.toString());
+		final Formula f = compiler.genVerificationConditions();
+		// A tree per path would have 2^40 leaves
+		assertTrue(f.toString().length() < 40 * 400);
+		final Formula negated = new UnaryOpFormula(UnaryOperator.NOT, f);
+		assertTrue(new Z3Translator().querySatisfiability(negated, Logic.QF_NIA).isUnSatifiable());
+	}
+
+	private static final String CHAR_WRAPS = "\n" +
+			"int g(int a) {\n" +
+			"	char c = 300;\n" +
+			"	_Assert(c == %d);\n" +
+			"	return a;\n" +
+			"}\n";
+
+	@Test
+	public void testCharAssignmentWraps() {
+		assertTrue(computeVerificationResult(String.format(CHAR_WRAPS, 44)).isUnSatifiable());
+	}
+
+	@Test
+	public void testCharAssignmentWrapsWrong() {
+		assertTrue(computeVerificationResult(String.format(CHAR_WRAPS, 300)).isSatifiable());
+	}
+
+	private static final String CHAR_INCREMENT = "\n" +
+			"int g(char c, int a) {\n" +
+			"	_Assert(c <= 127);\n" +
+			"	char d = a;\n" +
+			"	_Assert(d >= -128);\n" +
+			"	_Assume(c == 127);\n" +
+			"	c = c + 1;\n" +
+			"	_Assert(c == %d);\n" +
+			"	return c;\n" +
+			"}\n";
+
+	@Test
+	public void testCharIncrementWraps() {
+		assertTrue(computeVerificationResult(String.format(CHAR_INCREMENT, -128)).isUnSatifiable());
+	}
+
+	@Test
+	public void testCharIncrementWrapsWrong() {
+		assertTrue(computeVerificationResult(String.format(CHAR_INCREMENT, 128)).isSatifiable());
+	}
+
+	@Test
+	public void testRejectsCalls() {
+		final String code = "\n" +
+				"int g(int x);\n" +
+				"int f(int x) {\n" +
+				"	x = g(x);\n" +
+				"	return x;\n" +
+				"}\n";
+		final FatalCompilerError e = assertThrows(FatalCompilerError.class, () -> computeVerificationResult(code));
+		checkLocation(e, INPUT_NAME, 4, 7);
+	}
+
+	@Test
+	public void testRejectsPointersAtStatement() {
+		final String code = "\n" +
+				"int f(int *p) {\n" +
+				"	int x = 1;\n" +
+				"	_Assert(p);\n" +
+				"	return x;\n" +
+				"}\n";
+		final FatalCompilerError e = assertThrows(FatalCompilerError.class, () -> computeVerificationResult(code));
+		checkLocation(e, INPUT_NAME, 4, 2);
+	}
+}
@@ -0,0 +1,139 @@
+package tinycc.util;
+
+import java.util.EnumSet;
+
+import tinycc.diagnostic.Locatable;
+import tinycc.diagnostic.PrintDiagnostic;
+
+/**
+ * Switchable trace output of the compiler subsystems.
+ *
+ * Every subsystem is off by default. Call sites test the flag before building
+ * the message, so a disabled trace costs a thread local read:
+ *
+ *     if (Trace.SEMA.isEnabled())
+ *         Trace.SEMA.print(loc, "checking %s", name);
+ *
+ * The enabled subsystems belong to one compilation: {@link #begin} binds them
+ * and the diagnostic module of the compilation to the current thread, and
+ * {@link #end} unbinds them again. Compilations on other threads or later
+ * compilations of a server are not traced.
+ */
+public enum Trace {
+	/** Type checking of expressions, statements and functions */
+	SEMA("sema"),
+	/** Creation of types */
+	TYPES("types"),
+	/** Declarations and lookups of names */
+	SCOPE("scope"),
+	/** Intermediate code and register allocation of the back end */
+	CODEGEN("codegen");
+
+	/** The enabled subsystems of a compilation and where their messages go */
+	private static final class Session {
+		final EnumSet<Trace> enabled;
+		final PrintDiagnostic out;
+
+		Session(final EnumSet<Trace> enabled, final PrintDiagnostic out) {
+			this.enabled = enabled;
+			this.out = out;
+		}
+	}
+
+	private static final ThreadLocal<Session> current = new ThreadLocal<Session>();
+
+	private final String name;
+
+	private Trace(final String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * @return True if the messages of this subsystem are printed on the current
+	 *         thread.
+	 */
+	public boolean isEnabled() {
+		final Session session = current.get();
+		return session != null && session.enabled.contains(this);
+	}
+
+	/**
+	 * Prints a trace message of this subsystem, if it is enabled.
+	 *
+	 * @param fmt  The format string of the message.
+	 * @param args The arguments of the format string.
+	 */
+	public void print(final String fmt, final Object... args) {
+		final Session session = current.get();
+		if (session != null && session.enabled.contains(this))
+			session.out.printTrace(name, String.format(fmt, args));
+	}
+
+	/**
+	 * Prints a trace message of this subsystem about a source location.
+	 *
+	 * @param location The location the message refers to.
+	 * @param fmt      The format string of the message.
+	 * @param args     The arguments of the format string.
+	 */
+	public void print(final Locatable location, final String fmt, final Object... args) {
+		print("%s:%d:%d: %s", location.getInputName(), location.getLine(), location.getColumn(),
+				String.format(fmt, args));
+	}
+
+	/**
+	 * Adds the subsystems given by a comma separated list of names, or all
+	 * subsystems for "all", to a set.
+	 *
+	 * @param spec    The list of subsystem names.
+	 * @param enabled The set of enabled subsystems.
+	 * @return The first unknown name, or null if all names are valid.
+	 */
+	public static String parse(final String spec, final EnumSet<Trace> enabled) {
+		for (final String part : spec.split(",")) {
+			final String name = part.trim();
+			if (name.equals("all")) {
+				enabled.addAll(EnumSet.allOf(Trace.class));
+				continue;
+			}
+			final Trace t = find(name);
+			if (t == null)
+				return name;
+			enabled.add(t);
+		}
+		return null;
+	}
+
+	/**
+	 * Enables subsystems for the compilation on the current thread.
+	 *
+	 * @param enabled The enabled subsystems.
+	 * @param out     The diagnostic module that receives the messages.
+	 */
+	public static void begin(final EnumSet<Trace> enabled, final PrintDiagnostic out) {
+		if (enabled.isEmpty())
+			current.remove();
+		else
+			current.set(new Session(EnumSet.copyOf(enabled), out));
+	}
+
+	/**
+	 * Disables all subsystems on the current thread.
+	 */
+	public static void end() {
+		current.remove();
+	}
+
+	private static Trace find(final String name) {
+		for (final Trace t : values()) {
+			if (t.name.equals(name))
+				return t;
+		}
+		return null;
+	}
+}